@@ -0,0 +1,11 @@
+package ch.epfl.tkvs.exceptions;
+
+public class CommitNotPersistedException extends AbortException {
+
+    private static final long serialVersionUID = 6042383911270368417L;
+
+    public CommitNotPersistedException() {
+        super("Commit refused since the write-ahead log failed, the transaction is aborted");
+    }
+
+}
@@ -0,0 +1,11 @@
+package ch.epfl.tkvs.exceptions;
+
+public class LockTimeoutException extends AbortException {
+
+    private static final long serialVersionUID = -2719350486321458207L;
+
+    public LockTimeoutException() {
+        super("Lock wait timeout. Aborting..");
+    }
+
+}
@@ -0,0 +1,11 @@
+package ch.epfl.tkvs.exceptions;
+
+public class WorkersBusyException extends AbortException {
+
+    private static final long serialVersionUID = -5125487330916526733L;
+
+    public WorkersBusyException() {
+        super("Too many requests waiting. Aborting..");
+    }
+
+}
@@ -0,0 +1,140 @@
+package ch.epfl.tkvs.keyvaluestore;
+
+/**
+ * Hash index of the records of a storage engine which keeps its keys outside of the heap. It only holds the hash of
+ * every key with the address of its record, in primitive arrays, and compares the keys through their records.
+ * 
+ * It is an open-addressing table with linear probing, kept at most 3/4 full. A removal shifts back the following
+ * entries instead of leaving a tombstone. It is not thread-safe.
+ */
+abstract class AddressIndex {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    // The hash of each key with the address of its record, 0 for an empty slot
+    private int[] hashes;
+    private long[] addresses;
+    private volatile int size;
+
+    AddressIndex() {
+        clear();
+    }
+
+    /**
+     * @param address the address of a record
+     * @param key the encoding of a key
+     * @return whether the record is the one of the key
+     */
+    protected abstract boolean matches(long address, byte[] key);
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        hashes = new int[INITIAL_CAPACITY];
+        addresses = new long[INITIAL_CAPACITY];
+        size = 0;
+    }
+
+    // Returns the slot of the key, or -(slot + 1) for the empty slot where it would be inserted
+    private int find(int hash, byte[] key) {
+        int mask = addresses.length - 1;
+        int i = hash & mask;
+        while (addresses[i] != 0) {
+            if (hashes[i] == hash && matches(addresses[i], key)) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -(i + 1);
+    }
+
+    /**
+     * @return the address of the record of the key, 0 if the key is not in the index
+     */
+    long get(int hash, byte[] key) {
+        int slot = find(hash, key);
+        return slot < 0 ? 0 : addresses[slot];
+    }
+
+    /**
+     * @return the previous address of the record of the key, 0 if the key was not in the index
+     */
+    long put(int hash, byte[] key, long address) {
+        int slot = find(hash, key);
+        if (slot >= 0) {
+            long previous = addresses[slot];
+            addresses[slot] = address;
+            return previous;
+        }
+        if (4 * (size + 1) > 3 * addresses.length) {
+            grow();
+            slot = find(hash, key);
+        }
+        slot = -slot - 1;
+        hashes[slot] = hash;
+        addresses[slot] = address;
+        size++;
+        return 0;
+    }
+
+    /**
+     * @return the address of the record of the removed key, 0 if the key was not in the index
+     */
+    long remove(int hash, byte[] key) {
+        int slot = find(hash, key);
+        if (slot < 0) {
+            return 0;
+        }
+        long removed = addresses[slot];
+        size--;
+
+        // Shift back the following keys which would not be found anymore past the empty slot
+        int mask = addresses.length - 1;
+        int empty = slot;
+        int i = slot;
+        while (true) {
+            i = (i + 1) & mask;
+            if (addresses[i] == 0) {
+                break;
+            }
+            int home = hashes[i] & mask;
+            boolean movable = empty <= i ? (home <= empty || home > i) : (home <= empty && home > i);
+            if (movable) {
+                hashes[empty] = hashes[i];
+                addresses[empty] = addresses[i];
+                empty = i;
+            }
+        }
+        addresses[empty] = 0;
+        return removed;
+    }
+
+    private void grow() {
+        int[] oldHashes = hashes;
+        long[] oldAddresses = addresses;
+        hashes = new int[2 * oldHashes.length];
+        addresses = new long[2 * oldAddresses.length];
+        int mask = addresses.length - 1;
+        for (int j = 0; j < oldAddresses.length; j++) {
+            if (oldAddresses[j] != 0) {
+                int i = oldHashes[j] & mask;
+                while (addresses[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                hashes[i] = oldHashes[j];
+                addresses[i] = oldAddresses[j];
+            }
+        }
+    }
+
+    // The slots of the table, 0 being an empty slot
+    int capacity() {
+        return addresses.length;
+    }
+
+    long addressAt(int slot) {
+        return addresses[slot];
+    }
+}
@@ -0,0 +1,92 @@
+package ch.epfl.tkvs.keyvaluestore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+
+/**
+ * Turns the keys and the values into bytes for the storage engines which do not keep them as objects, and for the
+ * messages which carry them. The strings, the integers and the longs, which are most of the keys and values, get a
+ * compact encoding. The other objects are serialized.
+ * 
+ * Two keys are equal if and only if their encodings are equal, as long as they are strings, integers, longs, or objects
+ * which always serialize the same way when they are equal.
+ */
+public final class Codec {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final byte STRING = 1;
+    private static final byte INTEGER = 2;
+    private static final byte LONG = 3;
+    private static final byte OBJECT = 4;
+    private static final byte NULL = 5;
+
+    private Codec() {
+    }
+
+    public static byte[] encode(Serializable object) {
+        if (object instanceof String) {
+            byte[] chars = ((String) object).getBytes(UTF8);
+            byte[] bytes = new byte[1 + chars.length];
+            bytes[0] = STRING;
+            System.arraycopy(chars, 0, bytes, 1, chars.length);
+            return bytes;
+        } else if (object instanceof Integer) {
+            return ByteBuffer.allocate(5).put(INTEGER).putInt((Integer) object).array();
+        } else if (object instanceof Long) {
+            return ByteBuffer.allocate(9).put(LONG).putLong((Long) object).array();
+        } else if (object == null) {
+            return new byte[] { NULL };
+        }
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            bytes.write(OBJECT);
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(object);
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot serialize " + object, e);
+        }
+    }
+
+    public static Serializable decode(byte[] bytes) {
+        switch (bytes[0]) {
+        case STRING:
+            return new String(bytes, 1, bytes.length - 1, UTF8);
+        case INTEGER:
+            return ByteBuffer.wrap(bytes, 1, 4).getInt();
+        case LONG:
+            return ByteBuffer.wrap(bytes, 1, 8).getLong();
+        case NULL:
+            return null;
+        default:
+            try {
+                ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes, 1, bytes.length - 1));
+                return (Serializable) in.readObject();
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot deserialize a stored object", e);
+            } catch (ClassNotFoundException e) {
+                throw new IllegalStateException("Cannot deserialize a stored object", e);
+            }
+        }
+    }
+
+    // Spreads the bits of the hash of an encoding
+    static int hash(byte[] bytes) {
+        int h = 1;
+        for (byte b : bytes) {
+            h = 31 * h + b;
+        }
+        h *= 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,95 @@
+package ch.epfl.tkvs.keyvaluestore;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Keeps the keys and the values as objects in a map on the heap
+ */
+public class HeapStorageEngine implements StorageEngine {
+
+    private final ConcurrentHashMap<Serializable, Serializable> store = new ConcurrentHashMap<Serializable, Serializable>();
+
+    @Override
+    public Serializable get(Serializable key) {
+        return store.get(key);
+    }
+
+    @Override
+    public void put(Serializable key, Serializable value) {
+        store.put(key, value);
+    }
+
+    @Override
+    public void remove(Serializable key) {
+        store.remove(key);
+    }
+
+    @Override
+    public void apply(Map<Serializable, Serializable> writes) {
+        for (Map.Entry<Serializable, Serializable> write : writes.entrySet()) {
+            if (write.getValue() == null) {
+                store.remove(write.getKey());
+            } else {
+                store.put(write.getKey(), write.getValue());
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return store.size();
+    }
+
+    @Override
+    public Iterator<Serializable> keys() {
+        return store.keySet().iterator();
+    }
+
+    @Override
+    public Iterator<Map.Entry<Serializable, Serializable>> scan() {
+        final Iterator<Map.Entry<Serializable, Serializable>> entries = store.entrySet().iterator();
+        // The entries of the map would write through to it
+        return new Iterator<Map.Entry<Serializable, Serializable>>() {
+
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public Map.Entry<Serializable, Serializable> next() {
+                return new AbstractMap.SimpleImmutableEntry<Serializable, Serializable>(entries.next());
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public void clear() {
+        store.clear();
+    }
+
+    @Override
+    public boolean isPersistent() {
+        return false;
+    }
+
+    @Override
+    public void force() {
+        // Nothing to write
+    }
+
+    @Override
+    public void close() {
+        store.clear();
+    }
+}
@@ -1,31 +1,114 @@
 package ch.epfl.tkvs.keyvaluestore;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Iterator;
+import java.util.Map;
 
 
 /**
- * A simple in memory <Key,Value> Store.
+ * A simple in memory <Key,Value> Store. Where the keys and the values are kept depends on its {@link StorageEngine}, on
+ * the heap by default.
  */
 // TODO: Extend this in a future version to support data storage, resilience and replication.
 public enum KeyValueStore {
     instance;
 
-    public ConcurrentHashMap<Serializable, Serializable> store = new ConcurrentHashMap<Serializable, Serializable>();
+    private volatile StorageEngine engine = new HeapStorageEngine();
+
+    /**
+     * Creates the storage engine described by a configuration: heap, offheap[:<capacity in MB>], or log[:<segment size
+     * in MB>[:<merge threshold>]].
+     * 
+     * @param config the configuration of the engine
+     * @param directory where the engines on disk keep their files
+     * @return the new engine
+     * @throws IllegalArgumentException if there is no such engine
+     * @throws IOException if the files of the engine cannot be opened
+     */
+    public static StorageEngine createEngine(String config, File directory) throws IOException {
+        String[] parts = config.trim().split(":");
+        if (parts[0].equals("heap")) {
+            return new HeapStorageEngine();
+        } else if (parts[0].equals("offheap")) {
+            long capacityMB = parts.length > 1 ? Long.parseLong(parts[1]) : OffHeapStorageEngine.DEFAULT_CAPACITY_MB;
+            return new OffHeapStorageEngine(capacityMB * 1024 * 1024);
+        } else if (parts[0].equals("log")) {
+            int segmentSizeMB = parts.length > 1 ? Integer.parseInt(parts[1]) : MappedLogStorageEngine.DEFAULT_SEGMENT_SIZE_MB;
+            double mergeThreshold = parts.length > 2 ? Double.parseDouble(parts[2]) : MappedLogStorageEngine.DEFAULT_MERGE_THRESHOLD;
+            return new MappedLogStorageEngine(directory, segmentSizeMB * 1024 * 1024, mergeThreshold);
+        }
+        throw new IllegalArgumentException("Unknown storage engine: " + config);
+    }
+
+    /**
+     * Replaces the storage engine, MUST be called before the store is used. The previous engine is closed.
+     * 
+     * @param engine the new engine
+     */
+    public void setEngine(StorageEngine engine) {
+        StorageEngine previous = this.engine;
+        this.engine = engine;
+        previous.close();
+    }
+
+    public StorageEngine getEngine() {
+        return engine;
+    }
 
     public void clear() {
-        store.clear();
+        engine.clear();
+    }
+
+    /**
+     * @return true if the store is kept by its engine across restarts, see {@link StorageEngine#isPersistent()}
+     */
+    public boolean isPersistent() {
+        return engine.isPersistent();
+    }
+
+    /**
+     * Writes the store to the files of its engine, see {@link StorageEngine#force()}
+     */
+    public void force() {
+        engine.force();
     }
 
     public void put(Serializable key, Serializable value) {
-        store.put(key, value);
+        engine.put(key, value);
     }
 
     public Serializable get(Serializable key) {
-        return store.get(key);
+        return engine.get(key);
     }
 
     public void remove(Serializable key) {
-        store.remove(key);
+        engine.remove(key);
+    }
+
+    /**
+     * @param writes the new value of each key, null to remove the key, see {@link StorageEngine#apply(Map)}
+     */
+    public void apply(Map<Serializable, Serializable> writes) {
+        engine.apply(writes);
+    }
+
+    public int size() {
+        return engine.size();
+    }
+
+    /**
+     * @return the keys of the store, see {@link StorageEngine#keys()}
+     */
+    public Iterator<Serializable> keys() {
+        return engine.keys();
+    }
+
+    /**
+     * @return the keys of the store with their values, see {@link StorageEngine#scan()}
+     */
+    public Iterator<Map.Entry<Serializable, Serializable>> scan() {
+        return engine.scan();
     }
 }
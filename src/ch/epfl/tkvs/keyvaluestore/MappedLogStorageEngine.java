@@ -0,0 +1,734 @@
+package ch.epfl.tkvs.keyvaluestore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+
+/**
+ * Keeps the keys and the values on disk, in a log of segment files which are read and written through memory
+ * mappings, so that the store can be larger than the memory: the operating system keeps the pages in use in memory and
+ * writes the others back to the files. Only an index of the records, made of primitive arrays, stays on the heap, which
+ * takes between 16 and 32 bytes per key.
+ * 
+ * A write appends a record at the end of the active segment, and a removal appends a tombstone, so the older records of
+ * a key become garbage. A full segment is sealed and a new one is started. A background thread merges the sealed
+ * segments with too much garbage: it copies their live records to the end of the log and deletes them. When the engine
+ * is opened again, the index is rebuilt by reading the segments in order, the records being checked against their
+ * CRC32 so that the end of a segment torn by a crash is dropped.
+ * 
+ * The keys are spread over stripes, each one with its own lock and index. The writes of a stripe are appended under its
+ * write lock, and the merge moves a record under the write lock of its stripe as well, so that the records of a key are
+ * always in the log in the order of the writes.
+ */
+public class MappedLogStorageEngine implements StorageEngine {
+
+    /** Size of the segment files by default, in MB */
+    public static final int DEFAULT_SEGMENT_SIZE_MB = 64;
+    /** Share of garbage from which a sealed segment is merged by default */
+    public static final double DEFAULT_MERGE_THRESHOLD = 0.5;
+
+    private static final String SEGMENT_SUFFIX = ".segment";
+    private static final int STRIPE_BITS = 5;
+    // CRC32 of the rest of the record, length of the key, length of the value or TOMBSTONE
+    private static final int RECORD_HEADER_SIZE = 12;
+    private static final int TOMBSTONE = -1;
+    private static final long MERGE_INTERVAL_MS = 200;
+
+    private final File directory;
+    private final int segmentSize;
+    private final double mergeThreshold;
+
+    private final Stripe[] stripes = new Stripe[1 << STRIPE_BITS];
+    private final ConcurrentHashMap<Integer, LogSegment> segments = new ConcurrentHashMap<Integer, LogSegment>();
+
+    // Appends are serialized by this lock, which is taken after the one of a stripe
+    private final Object appendLock = new Object();
+    private LogSegment active;
+    // The identifiers of the segments keep growing, even after a clear, so that an address is never reused
+    private int nextSegmentId = 1;
+
+    // Merges, clears and the closing are serialized by this lock, which is taken before the ones of the stripes
+    private final Object mergeLock = new Object();
+    private final Thread merger;
+    private volatile boolean closed = false;
+
+    // Bytes of the keys and values given to put, and bytes of the records appended, merges included
+    private final AtomicLong userBytesWritten = new AtomicLong(0);
+    private final AtomicLong bytesWritten = new AtomicLong(0);
+    // Bytes of the values returned by get, and bytes of the records read to find them
+    private final AtomicLong userBytesRead = new AtomicLong(0);
+    private final AtomicLong bytesRead = new AtomicLong(0);
+    // Bytes of the segments read by the merges, bytes of disk they freed, and the time they took
+    private final AtomicLong mergedBytes = new AtomicLong(0);
+    private final AtomicLong reclaimedBytes = new AtomicLong(0);
+    private final AtomicLong mergeNanos = new AtomicLong(0);
+
+    public MappedLogStorageEngine(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE_MB * 1024 * 1024, DEFAULT_MERGE_THRESHOLD);
+    }
+
+    /**
+     * Opens the engine on the segments already in the directory, if any.
+     * 
+     * @param directory where the segment files are
+     * @param segmentSize size of a segment file, in bytes
+     * @param mergeThreshold share of garbage from which a sealed segment is merged, between 0 and 1
+     * @throws IOException if the segments cannot be opened
+     */
+    public MappedLogStorageEngine(File directory, int segmentSize, double mergeThreshold) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.mergeThreshold = mergeThreshold;
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        recover();
+
+        merger = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                while (!closed) {
+                    try {
+                        Thread.sleep(MERGE_INTERVAL_MS);
+                        merge();
+                    } catch (InterruptedException e) {
+                        // Closed
+                    } catch (IOException e) {
+                        // The segments stay as they are until the next try
+                    }
+                }
+            }
+        }, "MappedLogStorageEngineMerge");
+        merger.setDaemon(true);
+        merger.start();
+    }
+
+    // Reads the segments in order to rebuild the index, the last one becoming the active segment
+    private void recover() throws IOException {
+        List<Integer> ids = new ArrayList<Integer>();
+        File[] files = directory.listFiles();
+        for (File file : files == null ? new File[0] : files) {
+            String name = file.getName();
+            if (name.endsWith(SEGMENT_SUFFIX)) {
+                ids.add(Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        Collections.sort(ids);
+
+        for (int id : ids) {
+            LogSegment segment = new LogSegment(id, segmentFile(id), 0);
+            segments.put(id, segment);
+            int offset = 0;
+            byte[] record;
+            while ((record = readRecord(segment.buffer, offset)) != null) {
+                long address = address(id, offset);
+                byte[] key = keyOf(record);
+                int hash = Codec.hash(key);
+                AddressIndex index = stripeFor(hash).index;
+                long previous = valueLengthOf(record) == TOMBSTONE ? index.remove(hash, key) : index.put(hash, key, address);
+                if (previous != 0) {
+                    discard(previous);
+                }
+                if (valueLengthOf(record) == TOMBSTONE) {
+                    segment.garbage.addAndGet(record.length);
+                }
+                offset += record.length;
+            }
+            segment.end = offset;
+            segment.sealed = true;
+            nextSegmentId = id + 1;
+        }
+
+        if (ids.isEmpty()) {
+            active = newSegment(segmentSize);
+        } else {
+            active = segments.get(ids.get(ids.size() - 1));
+            active.sealed = false;
+        }
+    }
+
+    private File segmentFile(int id) {
+        return new File(directory, String.format("%08d", id) + SEGMENT_SUFFIX);
+    }
+
+    private LogSegment newSegment(int size) throws IOException {
+        int id = nextSegmentId++;
+        LogSegment segment = new LogSegment(id, segmentFile(id), size);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private Stripe stripeFor(int hash) {
+        return stripes[hash >>> (32 - STRIPE_BITS)];
+    }
+
+    // An address holds the identifier of the segment, which is never 0, and the offset of the record in it
+    private static long address(int segment, int offset) {
+        return ((long) segment << 32) | offset;
+    }
+
+    private static int segmentOf(long address) {
+        return (int) (address >>> 32);
+    }
+
+    private static int offsetOf(long address) {
+        return (int) address;
+    }
+
+    private static int recordSize(int keyLength, int valueLength) {
+        return RECORD_HEADER_SIZE + keyLength + Math.max(valueLength, 0);
+    }
+
+    private static byte[] record(byte[] key, byte[] value) {
+        int valueLength = value == null ? TOMBSTONE : value.length;
+        ByteBuffer record = ByteBuffer.allocate(recordSize(key.length, valueLength));
+        record.position(4);
+        record.putInt(key.length).putInt(valueLength).put(key);
+        if (value != null) {
+            record.put(value);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, record.capacity() - 4);
+        record.putInt(0, (int) crc.getValue());
+        return record.array();
+    }
+
+    private static int valueLengthOf(byte[] record) {
+        return ByteBuffer.wrap(record).getInt(8);
+    }
+
+    private static byte[] keyOf(byte[] record) {
+        return Arrays.copyOfRange(record, RECORD_HEADER_SIZE, RECORD_HEADER_SIZE + ByteBuffer.wrap(record).getInt(4));
+    }
+
+    // Returns the record at the offset, or null if there is none or if it is torn
+    private static byte[] readRecord(ByteBuffer buffer, int offset) {
+        if (offset + RECORD_HEADER_SIZE > buffer.capacity()) {
+            return null;
+        }
+        int keyLength = buffer.getInt(offset + 4);
+        int valueLength = buffer.getInt(offset + 8);
+        if (keyLength <= 0 || valueLength < TOMBSTONE || (long) offset + recordSize(keyLength, valueLength) > buffer.capacity()) {
+            return null;
+        }
+        byte[] record = new byte[recordSize(keyLength, valueLength)];
+        ByteBuffer source = buffer.duplicate();
+        source.position(offset);
+        source.get(record);
+        CRC32 crc = new CRC32();
+        crc.update(record, 4, record.length - 4);
+        return buffer.getInt(offset) == (int) crc.getValue() ? record : null;
+    }
+
+    // Appends a record at the end of the log and returns its address
+    private long append(byte[] record) {
+        synchronized (appendLock) {
+            return appendLocked(record);
+        }
+    }
+
+    // Appends records one after the other at the end of the log and returns their addresses
+    private long[] append(byte[][] records) {
+        long[] addresses = new long[records.length];
+        synchronized (appendLock) {
+            for (int i = 0; i < records.length; i++) {
+                addresses[i] = appendLocked(records[i]);
+            }
+        }
+        return addresses;
+    }
+
+    private long appendLocked(byte[] record) {
+        if (active.end + record.length > active.buffer.capacity()) {
+            try {
+                active.buffer.force();
+                active.sealed = true;
+                active = newSegment(Math.max(segmentSize, record.length));
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot create a segment in " + directory, e);
+            }
+        }
+        ByteBuffer buffer = active.buffer.duplicate();
+        buffer.position(active.end);
+        buffer.put(record);
+        long address = address(active.id, active.end);
+        active.end += record.length;
+        bytesWritten.addAndGet(record.length);
+        return address;
+    }
+
+    // Counts the record at the address as garbage of its segment
+    private void discard(long address) {
+        LogSegment segment = segments.get(segmentOf(address));
+        ByteBuffer buffer = segment.buffer;
+        int offset = offsetOf(address);
+        segment.garbage.addAndGet(recordSize(buffer.getInt(offset + 4), buffer.getInt(offset + 8)));
+    }
+
+    @Override
+    public Serializable get(Serializable key) {
+        byte[] keyBytes = Codec.encode(key);
+        int hash = Codec.hash(keyBytes);
+        Stripe stripe = stripeFor(hash);
+        byte[] value;
+        stripe.lock.readLock().lock();
+        try {
+            long address = stripe.index.get(hash, keyBytes);
+            if (address == 0) {
+                return null;
+            }
+            ByteBuffer buffer = segments.get(segmentOf(address)).buffer.duplicate();
+            int offset = offsetOf(address);
+            value = new byte[buffer.getInt(offset + 8)];
+            buffer.position(offset + RECORD_HEADER_SIZE + keyBytes.length);
+            buffer.get(value);
+        } finally {
+            stripe.lock.readLock().unlock();
+        }
+        userBytesRead.addAndGet(value.length);
+        bytesRead.addAndGet(recordSize(keyBytes.length, value.length));
+        return Codec.decode(value);
+    }
+
+    /**
+     * @throws IllegalStateException if a new segment cannot be created
+     */
+    @Override
+    public void put(Serializable key, Serializable value) {
+        byte[] keyBytes = Codec.encode(key);
+        byte[] valueBytes = Codec.encode(value);
+        int hash = Codec.hash(keyBytes);
+        byte[] record = record(keyBytes, valueBytes);
+        Stripe stripe = stripeFor(hash);
+        stripe.lock.writeLock().lock();
+        try {
+            long previous = stripe.index.put(hash, keyBytes, append(record));
+            if (previous != 0) {
+                discard(previous);
+            }
+        } finally {
+            stripe.lock.writeLock().unlock();
+        }
+        userBytesWritten.addAndGet(keyBytes.length + valueBytes.length);
+    }
+
+    /**
+     * @throws IllegalStateException if a new segment cannot be created
+     */
+    @Override
+    public void remove(Serializable key) {
+        byte[] keyBytes = Codec.encode(key);
+        int hash = Codec.hash(keyBytes);
+        Stripe stripe = stripeFor(hash);
+        stripe.lock.writeLock().lock();
+        try {
+            long previous = stripe.index.remove(hash, keyBytes);
+            if (previous != 0) {
+                // The tombstone hides the older records of the key when the segments are read again, it is garbage
+                // as soon as they are merged away
+                discard(append(record(keyBytes, null)));
+                discard(previous);
+            }
+        } finally {
+            stripe.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Takes the locks of the stripes of all the keys of the batch, in the order of the stripes, and appends all the
+     * records at once.
+     * 
+     * @throws IllegalStateException if a new segment cannot be created
+     */
+    @Override
+    public void apply(Map<Serializable, Serializable> writes) {
+        int n = writes.size();
+        byte[][] keys = new byte[n][];
+        int[] hashes = new int[n];
+        byte[][] records = new byte[n][];
+        boolean[] locked = new boolean[stripes.length];
+        long userBytes = 0;
+        int i = 0;
+        for (Map.Entry<Serializable, Serializable> write : writes.entrySet()) {
+            keys[i] = Codec.encode(write.getKey());
+            hashes[i] = Codec.hash(keys[i]);
+            byte[] value = write.getValue() == null ? null : Codec.encode(write.getValue());
+            records[i] = record(keys[i], value);
+            locked[hashes[i] >>> (32 - STRIPE_BITS)] = true;
+            userBytes += keys[i].length + (value == null ? 0 : value.length);
+            i++;
+        }
+
+        for (int stripe = 0; stripe < stripes.length; stripe++) {
+            if (locked[stripe]) {
+                stripes[stripe].lock.writeLock().lock();
+            }
+        }
+        try {
+            long[] addresses = append(records);
+            for (i = 0; i < n; i++) {
+                AddressIndex index = stripeFor(hashes[i]).index;
+                if (valueLengthOf(records[i]) == TOMBSTONE) {
+                    long previous = index.remove(hashes[i], keys[i]);
+                    if (previous != 0) {
+                        discard(previous);
+                    }
+                    discard(addresses[i]);
+                } else {
+                    long previous = index.put(hashes[i], keys[i], addresses[i]);
+                    if (previous != 0) {
+                        discard(previous);
+                    }
+                }
+            }
+        } finally {
+            for (int stripe = 0; stripe < stripes.length; stripe++) {
+                if (locked[stripe]) {
+                    stripes[stripe].lock.writeLock().unlock();
+                }
+            }
+        }
+        userBytesWritten.addAndGet(userBytes);
+    }
+
+    /**
+     * Merges the sealed segments which have at least the share of garbage given to the constructor. This is done in
+     * the background as well.
+     * 
+     * @return the number of bytes of disk freed
+     * @throws IOException if a merged segment cannot be deleted
+     */
+    public long merge() throws IOException {
+        synchronized (mergeLock) {
+            List<Integer> ids = new ArrayList<Integer>(segments.keySet());
+            Collections.sort(ids);
+            long reclaimed = 0;
+            for (int id : ids) {
+                LogSegment segment = segments.get(id);
+                if (!closed && segment.sealed && segment.garbage.get() >= mergeThreshold * segment.end) {
+                    reclaimed += merge(segment, id == ids.get(0));
+                }
+            }
+            return reclaimed;
+        }
+    }
+
+    // Copies the live records of a sealed segment to the end of the log, then deletes it
+    private long merge(LogSegment segment, boolean oldest) throws IOException {
+        long start = System.nanoTime();
+        long copied = 0;
+        int offset = 0;
+        while (offset < segment.end) {
+            byte[] record = readRecord(segment.buffer, offset);
+            long address = address(segment.id, offset);
+            byte[] key = keyOf(record);
+            int hash = Codec.hash(key);
+            Stripe stripe = stripeFor(hash);
+            stripe.lock.writeLock().lock();
+            try {
+                long current = stripe.index.get(hash, key);
+                if (current == address) {
+                    stripe.index.put(hash, key, append(record));
+                    copied += record.length;
+                } else if (valueLengthOf(record) == TOMBSTONE && current == 0 && !oldest) {
+                    // An older segment may still hold a record of the key which the tombstone must hide
+                    discard(append(record));
+                    copied += record.length;
+                }
+            } finally {
+                stripe.lock.writeLock().unlock();
+            }
+            offset += record.length;
+        }
+
+        // The copies must be on the disk before the segment is deleted, or a crash would lose them. The segments sealed
+        // while copying were forced then.
+        synchronized (appendLock) {
+            active.buffer.force();
+        }
+
+        // No address of the segment is left in the index, so no reader can still be using it
+        segments.remove(segment.id);
+        if (!segment.file.delete()) {
+            throw new IOException("Cannot delete " + segment.file);
+        }
+        mergedBytes.addAndGet(segment.end);
+        reclaimedBytes.addAndGet(segment.end - copied);
+        mergeNanos.addAndGet(System.nanoTime() - start);
+        return segment.end - copied;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.index.size();
+        }
+        return size;
+    }
+
+    @Override
+    public Iterator<Serializable> keys() {
+        return new StripedIterator<Serializable>(stripes.length) {
+
+            @Override
+            protected List<Serializable> read(int stripe) {
+                return stripes[stripe].keys();
+            }
+        };
+    }
+
+    @Override
+    public Iterator<Map.Entry<Serializable, Serializable>> scan() {
+        return new StripedIterator<Map.Entry<Serializable, Serializable>>(stripes.length) {
+
+            @Override
+            protected List<Map.Entry<Serializable, Serializable>> read(int stripe) {
+                return stripes[stripe].entries();
+            }
+        };
+    }
+
+    /**
+     * @throws IllegalStateException if the segments cannot be deleted
+     */
+    @Override
+    public void clear() {
+        synchronized (mergeLock) {
+            for (Stripe stripe : stripes) {
+                stripe.lock.writeLock().lock();
+            }
+            try {
+                synchronized (appendLock) {
+                    // The mappings are released once the segments are garbage collected
+                    for (LogSegment segment : segments.values()) {
+                        if (!segment.file.delete()) {
+                            throw new IllegalStateException("Cannot delete " + segment.file);
+                        }
+                    }
+                    segments.clear();
+                    for (Stripe stripe : stripes) {
+                        stripe.index.clear();
+                    }
+                    if (!closed) {
+                        active = newSegment(segmentSize);
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot create a segment in " + directory, e);
+            } finally {
+                for (Stripe stripe : stripes) {
+                    stripe.lock.writeLock().unlock();
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean isPersistent() {
+        return true;
+    }
+
+    /**
+     * Writes the active segment back to its file, the sealed ones were forced when they were sealed.
+     */
+    @Override
+    public void force() {
+        synchronized (appendLock) {
+            active.buffer.force();
+        }
+    }
+
+    /**
+     * Writes the segments back to the files and stops the merges. The segments stay on disk for the engine to be opened
+     * again.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        merger.interrupt();
+        synchronized (mergeLock) {
+            synchronized (appendLock) {
+                active.buffer.force();
+            }
+        }
+    }
+
+    /**
+     * @return the bytes of the segments on disk, garbage included
+     */
+    public long getDiskSize() {
+        long size = 0;
+        for (LogSegment segment : segments.values()) {
+            size += segment.end;
+        }
+        return size;
+    }
+
+    /**
+     * @return the bytes of the keys and values given to put
+     */
+    public long getUserBytesWritten() {
+        return userBytesWritten.get();
+    }
+
+    /**
+     * @return the bytes of the records appended to the log, by the writes, the removals and the merges
+     */
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /**
+     * @return the bytes of the values returned by get
+     */
+    public long getUserBytesRead() {
+        return userBytesRead.get();
+    }
+
+    /**
+     * @return the bytes of the records read by get
+     */
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    /**
+     * @return the bytes of the segments read by the merges
+     */
+    public long getMergedBytes() {
+        return mergedBytes.get();
+    }
+
+    /**
+     * @return the bytes of disk freed by the merges
+     */
+    public long getReclaimedBytes() {
+        return reclaimedBytes.get();
+    }
+
+    /**
+     * @return the time spent merging, in nanoseconds
+     */
+    public long getMergeNanos() {
+        return mergeNanos.get();
+    }
+
+    private static final class LogSegment {
+
+        final int id;
+        final File file;
+        final MappedByteBuffer buffer;
+        // Where the next record is appended, only changed under the append lock
+        volatile int end = 0;
+        // Bytes of the records which are not live anymore
+        final AtomicLong garbage = new AtomicLong(0);
+        // Whether records are not appended to the segment anymore
+        volatile boolean sealed = false;
+
+        /**
+         * @param size the size of a new segment file, 0 to map an existing file as it is
+         */
+        LogSegment(int id, File file, int size) throws IOException {
+            this.id = id;
+            this.file = file;
+            // The mapping stays valid once the file is closed
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                if (size > 0) {
+                    raf.setLength(size);
+                }
+                buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+            } finally {
+                raf.close();
+            }
+        }
+    }
+
+    private final class Stripe {
+
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        private final AddressIndex index = new AddressIndex() {
+
+            @Override
+            protected boolean matches(long address, byte[] key) {
+                ByteBuffer buffer = segments.get(segmentOf(address)).buffer;
+                int offset = offsetOf(address);
+                if (buffer.getInt(offset + 4) != key.length) {
+                    return false;
+                }
+                offset += RECORD_HEADER_SIZE;
+                for (int i = 0; i < key.length; i++) {
+                    if (buffer.get(offset + i) != key[i]) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        };
+
+        List<Serializable> keys() {
+            lock.readLock().lock();
+            try {
+                List<Serializable> keys = new ArrayList<Serializable>(index.size());
+                for (int slot = 0; slot < index.capacity(); slot++) {
+                    long address = index.addressAt(slot);
+                    if (address != 0) {
+                        ByteBuffer buffer = segments.get(segmentOf(address)).buffer.duplicate();
+                        int offset = offsetOf(address);
+                        byte[] key = new byte[buffer.getInt(offset + 4)];
+                        buffer.position(offset + RECORD_HEADER_SIZE);
+                        buffer.get(key);
+                        keys.add(Codec.decode(key));
+                    }
+                }
+                return keys;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        List<Map.Entry<Serializable, Serializable>> entries() {
+            lock.readLock().lock();
+            try {
+                List<Map.Entry<Serializable, Serializable>> entries = new ArrayList<Map.Entry<Serializable, Serializable>>(index.size());
+                for (int slot = 0; slot < index.capacity(); slot++) {
+                    long address = index.addressAt(slot);
+                    if (address != 0) {
+                        ByteBuffer buffer = segments.get(segmentOf(address)).buffer.duplicate();
+                        int offset = offsetOf(address);
+                        byte[] key = new byte[buffer.getInt(offset + 4)];
+                        byte[] value = new byte[buffer.getInt(offset + 8)];
+                        buffer.position(offset + RECORD_HEADER_SIZE);
+                        buffer.get(key).get(value);
+                        entries.add(new AbstractMap.SimpleImmutableEntry<Serializable, Serializable>(Codec.decode(key), Codec.decode(value)));
+                    }
+                }
+                return entries;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,403 @@
+package ch.epfl.tkvs.keyvaluestore;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+
+/**
+ * Keeps the keys and the values outside of the heap, in direct buffers, so that a large store neither fills the heap
+ * nor lengthens the garbage collections. Only an index made of primitive arrays stays on the heap, which takes between
+ * 16 and 32 bytes per key.
+ * 
+ * The keys are spread over segments, each one with its own lock. A segment carves its records out of slabs of direct
+ * memory: a record takes a chunk of the smallest size class which fits it, and the chunks freed by the overwrites and
+ * the removals are chained in a free list per size class, inside the chunks themselves, for the next records of that
+ * class. A record larger than a slab gets a buffer of its own.
+ */
+public class OffHeapStorageEngine implements StorageEngine {
+
+    /** Maximum off-heap memory used by default, in MB */
+    public static final int DEFAULT_CAPACITY_MB = 1024;
+
+    private static final int SLAB_SIZE = 1 << 20;
+    private static final int SEGMENT_BITS = 5;
+    // Lengths of the key and of the value
+    private static final int RECORD_HEADER_SIZE = 8;
+    // Chunk sizes, each one about 25% larger than the previous one so that little memory is lost in a chunk
+    private static final int[] SIZE_CLASSES;
+
+    static {
+        List<Integer> sizes = new ArrayList<Integer>();
+        int size = 16;
+        while (size < SLAB_SIZE) {
+            sizes.add(size);
+            size = Math.max(size + 8, (size * 5 / 4 + 7) & ~7);
+        }
+        sizes.add(SLAB_SIZE);
+        SIZE_CLASSES = new int[sizes.size()];
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            SIZE_CLASSES[i] = sizes.get(i);
+        }
+    }
+
+    private final long capacity;
+    // Off-heap memory held by the slabs of all the segments
+    private final AtomicLong allocated = new AtomicLong(0);
+    private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+
+    public OffHeapStorageEngine() {
+        this(DEFAULT_CAPACITY_MB * 1024L * 1024L);
+    }
+
+    /**
+     * @param capacity maximum off-heap memory used, in bytes
+     */
+    public OffHeapStorageEngine(long capacity) {
+        this.capacity = capacity;
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * @return the off-heap memory used, in bytes
+     */
+    public long getAllocatedBytes() {
+        return allocated.get();
+    }
+
+    private Segment segmentFor(int hash) {
+        return segments[hash >>> (32 - SEGMENT_BITS)];
+    }
+
+    @Override
+    public Serializable get(Serializable key) {
+        byte[] keyBytes = Codec.encode(key);
+        int hash = Codec.hash(keyBytes);
+        byte[] value = segmentFor(hash).get(hash, keyBytes);
+        return value == null ? null : Codec.decode(value);
+    }
+
+    /**
+     * @throws IllegalStateException if the engine is full
+     */
+    @Override
+    public void put(Serializable key, Serializable value) {
+        byte[] keyBytes = Codec.encode(key);
+        int hash = Codec.hash(keyBytes);
+        segmentFor(hash).put(hash, keyBytes, Codec.encode(value));
+    }
+
+    @Override
+    public void remove(Serializable key) {
+        byte[] keyBytes = Codec.encode(key);
+        int hash = Codec.hash(keyBytes);
+        segmentFor(hash).remove(hash, keyBytes);
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.index.size();
+        }
+        return size;
+    }
+
+    @Override
+    public void apply(Map<Serializable, Serializable> writes) {
+        for (Map.Entry<Serializable, Serializable> write : writes.entrySet()) {
+            if (write.getValue() == null) {
+                remove(write.getKey());
+            } else {
+                put(write.getKey(), write.getValue());
+            }
+        }
+    }
+
+    @Override
+    public Iterator<Serializable> keys() {
+        return new StripedIterator<Serializable>(segments.length) {
+
+            @Override
+            protected List<Serializable> read(int segment) {
+                return segments[segment].keys();
+            }
+        };
+    }
+
+    @Override
+    public Iterator<Map.Entry<Serializable, Serializable>> scan() {
+        return new StripedIterator<Map.Entry<Serializable, Serializable>>(segments.length) {
+
+            @Override
+            protected List<Map.Entry<Serializable, Serializable>> read(int segment) {
+                return segments[segment].entries();
+            }
+        };
+    }
+
+    @Override
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    @Override
+    public boolean isPersistent() {
+        return false;
+    }
+
+    @Override
+    public void force() {
+        // Nothing to write
+    }
+
+    @Override
+    public void close() {
+        clear();
+    }
+
+    private static int sizeClassOf(int recordSize) {
+        int i = Arrays.binarySearch(SIZE_CLASSES, recordSize);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    // An address holds the index of the slab plus one, so that 0 is no address, and the offset in the slab
+    private static long address(int slab, int offset) {
+        return ((long) (slab + 1) << 32) | offset;
+    }
+
+    private static int slabOf(long address) {
+        return (int) (address >>> 32) - 1;
+    }
+
+    private static int offsetOf(long address) {
+        return (int) address;
+    }
+
+    private final class Segment {
+
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        private final AddressIndex index = new AddressIndex() {
+
+            @Override
+            protected boolean matches(long address, byte[] key) {
+                ByteBuffer slab = slabs[slabOf(address)];
+                int offset = offsetOf(address);
+                if (slab.getInt(offset) != key.length) {
+                    return false;
+                }
+                offset += RECORD_HEADER_SIZE;
+                for (int i = 0; i < key.length; i++) {
+                    if (slab.get(offset + i) != key[i]) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        };
+
+        private ByteBuffer[] slabs;
+        // The slab the new chunks are carved from, and where the free part of it starts
+        private int currentSlab;
+        private int top;
+        // For each size class, the address of the first free chunk, each free chunk holding the address of the next
+        private long[] freeChunks;
+
+        Segment() {
+            reset();
+        }
+
+        private void reset() {
+            index.clear();
+            slabs = new ByteBuffer[4];
+            currentSlab = -1;
+            top = 0;
+            freeChunks = new long[SIZE_CLASSES.length];
+        }
+
+        byte[] get(int hash, byte[] key) {
+            lock.readLock().lock();
+            try {
+                long address = index.get(hash, key);
+                if (address == 0) {
+                    return null;
+                }
+                ByteBuffer slab = slabs[slabOf(address)].duplicate();
+                int offset = offsetOf(address);
+                byte[] value = new byte[slab.getInt(offset + 4)];
+                slab.position(offset + RECORD_HEADER_SIZE + key.length);
+                slab.get(value);
+                return value;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        void put(int hash, byte[] key, byte[] value) {
+            lock.writeLock().lock();
+            try {
+                int recordSize = RECORD_HEADER_SIZE + key.length + value.length;
+                long previous = index.get(hash, key);
+                if (previous != 0 && recordSize <= SLAB_SIZE && sizeClassOf(recordSize) == sizeClassOf(recordSize(previous))) {
+                    // The new value fits in the chunk of the old one
+                    write(previous, key, value);
+                    return;
+                }
+
+                // Allocated first, so that nothing changes if the engine is full
+                long address = allocate(recordSize);
+                write(address, key, value);
+                index.put(hash, key, address);
+                if (previous != 0) {
+                    free(previous);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void remove(int hash, byte[] key) {
+            lock.writeLock().lock();
+            try {
+                long address = index.remove(hash, key);
+                if (address != 0) {
+                    free(address);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private void write(long address, byte[] key, byte[] value) {
+            ByteBuffer slab = slabs[slabOf(address)].duplicate();
+            slab.position(offsetOf(address));
+            slab.putInt(key.length).putInt(value.length).put(key).put(value);
+        }
+
+        private int recordSize(long address) {
+            ByteBuffer slab = slabs[slabOf(address)];
+            int offset = offsetOf(address);
+            return RECORD_HEADER_SIZE + slab.getInt(offset) + slab.getInt(offset + 4);
+        }
+
+        private long allocate(int recordSize) {
+            if (recordSize > SLAB_SIZE) {
+                return address(addSlab(recordSize), 0);
+            }
+            int sizeClass = sizeClassOf(recordSize);
+            long chunk = freeChunks[sizeClass];
+            if (chunk != 0) {
+                freeChunks[sizeClass] = slabs[slabOf(chunk)].getLong(offsetOf(chunk));
+                return chunk;
+            }
+            int chunkSize = SIZE_CLASSES[sizeClass];
+            if (currentSlab < 0 || top + chunkSize > SLAB_SIZE) {
+                currentSlab = addSlab(SLAB_SIZE);
+                top = 0;
+            }
+            chunk = address(currentSlab, top);
+            top += chunkSize;
+            return chunk;
+        }
+
+        private void free(long address) {
+            ByteBuffer slab = slabs[slabOf(address)];
+            int offset = offsetOf(address);
+            int recordSize = recordSize(address);
+            if (recordSize > SLAB_SIZE) {
+                slabs[slabOf(address)] = null;
+                allocated.addAndGet(-slab.capacity());
+                return;
+            }
+            int sizeClass = sizeClassOf(recordSize);
+            slab.putLong(offset, freeChunks[sizeClass]);
+            freeChunks[sizeClass] = address;
+        }
+
+        private int addSlab(int slabSize) {
+            if (allocated.addAndGet(slabSize) > capacity) {
+                allocated.addAndGet(-slabSize);
+                throw new IllegalStateException("The off-heap store is full (" + capacity + " bytes)");
+            }
+            int index = 0;
+            while (index < slabs.length && slabs[index] != null) {
+                index++;
+            }
+            if (index == slabs.length) {
+                slabs = Arrays.copyOf(slabs, 2 * slabs.length);
+            }
+            slabs[index] = ByteBuffer.allocateDirect(slabSize);
+            return index;
+        }
+
+        List<Serializable> keys() {
+            lock.readLock().lock();
+            try {
+                List<Serializable> keys = new ArrayList<Serializable>(index.size());
+                for (int slot = 0; slot < index.capacity(); slot++) {
+                    long address = index.addressAt(slot);
+                    if (address != 0) {
+                        ByteBuffer slab = slabs[slabOf(address)].duplicate();
+                        int offset = offsetOf(address);
+                        byte[] key = new byte[slab.getInt(offset)];
+                        slab.position(offset + RECORD_HEADER_SIZE);
+                        slab.get(key);
+                        keys.add(Codec.decode(key));
+                    }
+                }
+                return keys;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        List<Map.Entry<Serializable, Serializable>> entries() {
+            lock.readLock().lock();
+            try {
+                List<Map.Entry<Serializable, Serializable>> entries = new ArrayList<Map.Entry<Serializable, Serializable>>(index.size());
+                for (int slot = 0; slot < index.capacity(); slot++) {
+                    long address = index.addressAt(slot);
+                    if (address != 0) {
+                        ByteBuffer slab = slabs[slabOf(address)].duplicate();
+                        int offset = offsetOf(address);
+                        byte[] key = new byte[slab.getInt(offset)];
+                        byte[] value = new byte[slab.getInt(offset + 4)];
+                        slab.position(offset + RECORD_HEADER_SIZE);
+                        slab.get(key).get(value);
+                        entries.add(new AbstractMap.SimpleImmutableEntry<Serializable, Serializable>(Codec.decode(key), Codec.decode(value)));
+                    }
+                }
+                return entries;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        void clear() {
+            lock.writeLock().lock();
+            try {
+                // The direct memory is given back once the slabs are garbage collected
+                for (ByteBuffer slab : slabs) {
+                    if (slab != null) {
+                        allocated.addAndGet(-slab.capacity());
+                    }
+                }
+                reset();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package ch.epfl.tkvs.keyvaluestore;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+
+/**
+ * Index of the keys in ascending order, so that a range of keys can be scanned. The keys sent by the clients are
+ * strings which start with the sort key of the client's key, so they are ordered like the client's keys. Only the
+ * string keys are indexed.
+ * 
+ * It is a concurrent skip list: the keys can be added and scanned by several threads at once, and a scan sees the keys
+ * added before it starts.
+ */
+public class OrderedKeyIndex {
+
+    private final ConcurrentSkipListSet<String> keys = new ConcurrentSkipListSet<String>();
+
+    /**
+     * @param key a key
+     * @return the smallest key greater than the given one, from which the scan of the keys after it starts
+     */
+    public static String successor(String key) {
+        return key + '\u0000';
+    }
+
+    public void add(Serializable key) {
+        if (key instanceof String) {
+            keys.add((String) key);
+        }
+    }
+
+    public void remove(Serializable key) {
+        keys.remove(key);
+    }
+
+    public boolean contains(Serializable key) {
+        return key instanceof String && keys.contains(key);
+    }
+
+    public void clear() {
+        keys.clear();
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    /**
+     * @param key a key, which may not be in the index
+     * @return the first key of the index which is not smaller than the given key, null if there is none
+     */
+    public String ceiling(String key) {
+        return keys.ceiling(key);
+    }
+
+    /**
+     * Returns the first keys of a range in ascending order.
+     * 
+     * @param from the first key of the range
+     * @param to the end of the range, which is not part of it, null for a range up to the last key
+     * @param limit the maximum number of keys returned
+     * @return at most limit keys, fewer only if the range has no other key
+     */
+    public List<String> range(String from, String to, int limit) {
+        if (to != null && from.compareTo(to) >= 0) {
+            return new ArrayList<String>(0);
+        }
+        NavigableSet<String> range = to == null ? keys.tailSet(from, true) : keys.subSet(from, true, to, false);
+        List<String> result = new ArrayList<String>(Math.min(limit, 64));
+        for (String key : range) {
+            if (result.size() == limit) {
+                break;
+            }
+            result.add(key);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,220 @@
+package ch.epfl.tkvs.keyvaluestore;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+
+/**
+ * Image of the committed values, written to the local disk so that a restart does not need to replay the
+ * {@link WriteAheadLog} from its beginning. It is written while the transactions go on, so it is fuzzy: it holds at
+ * least the values written by the records of the log before its position, and maybe some written after. Replaying the
+ * log from this position over the snapshot gives back the committed values.
+ * 
+ * The file holds the position in the log, then the keys with their values and the transaction which wrote them, and
+ * ends with the CRC32 checksum of what precedes. A new snapshot is written next to the previous one, which it only
+ * replaces once it is complete and on the disk.
+ */
+public class Snapshot {
+
+    /**
+     * Receives the values of the snapshot when it is loaded
+     */
+    public static interface Loader {
+
+        /**
+         * @param key a key of the snapshot
+         * @param value the committed value of the key
+         * @param xid the transaction which wrote the value
+         */
+        void load(Serializable key, Serializable value, int xid);
+    }
+
+    private static final int MAGIC = 0x544b534e;
+    // The object streams forget the objects they wrote every so often, so that they do not keep the whole snapshot
+    private static final int RESET_INTERVAL = 1024;
+    private static final int CHECKSUM_SIZE = 8;
+
+    private final File file;
+
+    /**
+     * @param file the file holding the snapshot, it may not exist yet
+     */
+    public Snapshot(File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Reads the snapshot, if there is one.
+     * 
+     * @param loader receives the values, or null to only read the position
+     * @return the position in the log from which the log must be replayed, 0 if there is no snapshot
+     * @throws IOException if the snapshot cannot be read or is damaged
+     */
+    public long load(Loader loader) throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        // The log was truncated after the snapshot was written, a damaged snapshot cannot be replaced by the log
+        if (file.length() < CHECKSUM_SIZE || checksum(file.length() - CHECKSUM_SIZE) != readChecksum()) {
+            throw new IOException("The snapshot " + file + " is damaged");
+        }
+
+        ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a snapshot");
+            }
+            long position = in.readLong();
+            while (loader != null && in.readBoolean()) {
+                int xid = in.readInt();
+                loader.load((Serializable) in.readObject(), (Serializable) in.readObject(), xid);
+            }
+            return position;
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Cannot read the snapshot " + file, e);
+        } finally {
+            in.close();
+        }
+    }
+
+    // Checksum of the first bytes of the file
+    private long checksum(long length) throws IOException {
+        CRC32 crc = new CRC32();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            while (length > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, length));
+                if (read < 0) {
+                    throw new EOFException();
+                }
+                crc.update(buffer, 0, read);
+                length -= read;
+            }
+        } finally {
+            in.close();
+        }
+        return crc.getValue();
+    }
+
+    private long readChecksum() throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            in.seek(in.length() - CHECKSUM_SIZE);
+            return in.readLong();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Starts a new snapshot, which replaces this one once it is committed
+     * 
+     * @param position the position in the log before the first value is read, from which the log will be replayed
+     * @return the writer of the new snapshot
+     * @throws IOException if the snapshot cannot be created
+     */
+    public Writer write(long position) throws IOException {
+        return new Writer(position);
+    }
+
+    /**
+     * Writes a new snapshot. It MUST be closed, whether it was committed or not.
+     */
+    public class Writer implements Closeable {
+
+        private final File tmp = new File(file.getPath() + ".tmp");
+        private final FileOutputStream stream;
+        private final CRC32 crc = new CRC32();
+        private final ObjectOutputStream out;
+        private int size = 0;
+        private boolean committed = false;
+
+        private Writer(long position) throws IOException {
+            stream = new FileOutputStream(tmp);
+            out = new ObjectOutputStream(new CheckedOutputStream(new BufferedOutputStream(stream), crc));
+            out.writeInt(MAGIC);
+            out.writeLong(position);
+        }
+
+        /**
+         * @param key a key of the snapshot
+         * @param value the committed value of the key
+         * @param xid the transaction which wrote the value
+         */
+        public void add(Serializable key, Serializable value, int xid) throws IOException {
+            out.writeBoolean(true);
+            out.writeInt(xid);
+            out.writeObject(key);
+            out.writeObject(value);
+            if (++size % RESET_INTERVAL == 0) {
+                out.reset();
+            }
+        }
+
+        /**
+         * @return the number of keys added so far
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Puts the snapshot on the disk in place of the previous one
+         */
+        public void commit() throws IOException {
+            out.writeBoolean(false);
+            out.flush();
+            // The checksum does not cover itself
+            DataOutputStream trailer = new DataOutputStream(stream);
+            trailer.writeLong(crc.getValue());
+            trailer.flush();
+            stream.getFD().sync();
+            out.close();
+
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            // The rename must be on the disk before the log is truncated
+            File directory = file.getAbsoluteFile().getParentFile();
+            FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+            committed = true;
+        }
+
+        /**
+         * Discards the snapshot if it was not committed
+         */
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                out.close();
+                tmp.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package ch.epfl.tkvs.keyvaluestore;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.Map;
+
+
+/**
+ * Where the {@link KeyValueStore} keeps its keys and values. An engine can be used by several threads at once.
+ */
+public interface StorageEngine {
+
+    /**
+     * @param key the key to look up
+     * @return the value of the key, or null if it is not in the engine
+     */
+    Serializable get(Serializable key);
+
+    /**
+     * @param key the key to write
+     * @param value the new value of the key, not null
+     */
+    void put(Serializable key, Serializable value);
+
+    /**
+     * @param key the key to remove, if it is in the engine
+     */
+    void remove(Serializable key);
+
+    /**
+     * Applies a batch of writes, which an engine may do faster than one write after the other. The readers may see a
+     * part of the batch before the rest.
+     * 
+     * @param writes the new value of each key, null to remove the key
+     */
+    void apply(Map<Serializable, Serializable> writes);
+
+    /**
+     * @return the number of keys in the engine
+     */
+    int size();
+
+    /**
+     * Iterates over the keys without blocking the writers. A key which is in the engine during the whole iteration is
+     * returned once, the keys written or removed meanwhile may or may not be.
+     * 
+     * @return the keys of the engine
+     */
+    Iterator<Serializable> keys();
+
+    /**
+     * Iterates over the keys with their values, with the same guarantees as {@link #keys()}. The entries cannot be
+     * changed.
+     * 
+     * @return the keys and the values of the engine
+     */
+    Iterator<Map.Entry<Serializable, Serializable>> scan();
+
+    /**
+     * Removes all the keys
+     */
+    void clear();
+
+    /**
+     * @return true if the keys and values are kept in files from which the engine can be opened again after a restart
+     */
+    boolean isPersistent();
+
+    /**
+     * Writes the keys and values to their files, if any, so that they survive a crash of the machine
+     */
+    void force();
+
+    /**
+     * Releases the memory and the files held by the engine, it cannot be used anymore
+     */
+    void close();
+}
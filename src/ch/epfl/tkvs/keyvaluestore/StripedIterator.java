@@ -0,0 +1,53 @@
+package ch.epfl.tkvs.keyvaluestore;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+
+/**
+ * Iterates over the elements of an engine whose keys are spread over stripes. The elements of a stripe are read
+ * together, under its lock, and the next stripes are read when they are reached, so the writers of the other stripes
+ * are not blocked.
+ */
+abstract class StripedIterator<T> implements Iterator<T> {
+
+    private final int stripes;
+    private int nextStripe = 0;
+    private Iterator<T> current = Collections.<T> emptyList().iterator();
+
+    /**
+     * @param stripes the number of stripes of the engine
+     */
+    StripedIterator(int stripes) {
+        this.stripes = stripes;
+    }
+
+    /**
+     * @param stripe the index of a stripe
+     * @return the elements of the stripe
+     */
+    protected abstract List<T> read(int stripe);
+
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext() && nextStripe < stripes) {
+            current = read(nextStripe++).iterator();
+        }
+        return current.hasNext();
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
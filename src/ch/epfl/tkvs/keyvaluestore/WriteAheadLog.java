@@ -0,0 +1,397 @@
+package ch.epfl.tkvs.keyvaluestore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+
+/**
+ * Append-only log of the write sets of the committed transactions, kept on the local disk so that the committed values
+ * survive a restart of the transaction manager. Every record holds the id of a transaction and the keys it wrote with
+ * their values, preceded by its length and its CRC32 checksum. A record cut by a crash, or damaged, ends the log when
+ * it is replayed.
+ * 
+ * When the records reach the disk depends on the {@link SyncPolicy}.
+ * 
+ * The records are located by their position in the log, counted from its creation. Once a {@link Snapshot} holds the
+ * values written by the records before some position, the log can be truncated there: the file then only keeps the
+ * records which follow, and its header tells at which position they begin.
+ */
+public class WriteAheadLog implements Flushable, Closeable {
+
+    /**
+     * When the records are forced to the disk
+     */
+    public static enum SyncPolicy {
+        /** Every record is forced before its commit is acknowledged */
+        COMMIT,
+        /** The records are forced once per group of commits, when the log is flushed */
+        GROUP,
+        /** The records are forced periodically, the last ones may be lost */
+        INTERVAL;
+
+        /**
+         * @param config the name of the policy, as written in the configuration
+         * @return the policy with this name
+         * @throws IllegalArgumentException if there is no such policy
+         */
+        public static SyncPolicy fromConfig(String config) {
+            return valueOf(config.trim().toUpperCase());
+        }
+    }
+
+    /**
+     * Receives the records of the log when it is replayed, in the order in which they were appended
+     */
+    public static interface Replayer {
+
+        /**
+         * @param xid the transaction which committed the writes
+         * @param writes the keys written by the transaction with their values
+         */
+        void replay(int xid, Map<Serializable, Serializable> writes);
+    }
+
+    /** Time between two syncs of the INTERVAL policy by default */
+    public static final long DEFAULT_SYNC_INTERVAL_MS = 100;
+    private static final int MAGIC = 0x544b574c;
+    // Magic number and position of the first record in the file
+    private static final int FILE_HEADER_SIZE = 12;
+    // Length and checksum of a record
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private final File file;
+    // Replaced when the log is truncated
+    private volatile FileChannel channel;
+    // Position in the log of the first record of the file
+    private long base;
+    private final SyncPolicy policy;
+    private volatile boolean closed = false;
+    // Whether some records were written since the last sync
+    private volatile boolean unsynced = false;
+    // The first error met while writing or syncing, the log cannot be trusted anymore after it
+    private volatile IOException failure = null;
+    private Thread syncThread = null;
+    // Makes a sync wait for the one in progress, which may not cover its records
+    private final Object syncLock = new Object();
+
+    /**
+     * Opens the log, creating it if needed. It MUST be replayed before new records are appended.
+     * 
+     * @param file the file holding the log
+     * @param policy when the records are forced to the disk
+     * @param syncIntervalMs time between two syncs of the INTERVAL policy
+     * @throws IOException if the file cannot be opened or is not a log
+     */
+    public WriteAheadLog(File file, SyncPolicy policy, final long syncIntervalMs) throws IOException {
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        this.file = file;
+        this.channel = new RandomAccessFile(file, "rw").getChannel();
+        this.policy = policy;
+
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        if (channel.size() < FILE_HEADER_SIZE) {
+            // New log, or created by a crash before its header was written
+            base = 0;
+            channel.truncate(0);
+            writeHeader(channel, base);
+            channel.force(true);
+        } else {
+            readFully(header, 0);
+            if (header.getInt(0) != MAGIC) {
+                channel.close();
+                throw new IOException(file + " is not a write-ahead log");
+            }
+            base = header.getLong(4);
+        }
+
+        if (policy == SyncPolicy.INTERVAL) {
+            syncThread = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    while (!closed) {
+                        try {
+                            Thread.sleep(syncIntervalMs);
+                            sync();
+                        } catch (InterruptedException e) {
+                            return;
+                        } catch (IOException e) {
+                            // Remembered by sync
+                        }
+                    }
+                }
+            }, "WriteAheadLogSync");
+            syncThread.setDaemon(true);
+            syncThread.start();
+        }
+    }
+
+    public SyncPolicy getSyncPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return the position in the log at which the next record will be appended
+     */
+    public synchronized long getPosition() throws IOException {
+        return base + channel.position() - FILE_HEADER_SIZE;
+    }
+
+    /**
+     * @return the size in bytes of the records kept in the file, i.e. appended since the last truncation
+     */
+    public synchronized long getSize() throws IOException {
+        return channel.position() - FILE_HEADER_SIZE;
+    }
+
+    /**
+     * Reads the log from the given position. The log is cut after the last valid record, so that the records appended
+     * later follow it.
+     * 
+     * @param from the position of the first record to replay, as returned by {@link #getPosition()} when it was
+     *            appended
+     * @param replayer receives the records
+     * @return the number of records replayed
+     * @throws IOException if the log cannot be read, or was truncated after the given position
+     */
+    public synchronized int replay(long from, Replayer replayer) throws IOException {
+        if (from < base) {
+            throw new IOException("The records of " + file + " before " + base + " were dropped, cannot replay from " + from);
+        }
+        long position = FILE_HEADER_SIZE;
+        int records = 0;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        while (true) {
+            header.clear();
+            if (!readFully(header, position)) {
+                break;
+            }
+            int length = header.getInt(0);
+            int checksum = header.getInt(4);
+            if (length < 0 || position + RECORD_HEADER_SIZE + length > channel.size()) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            if (!readFully(payload, position + RECORD_HEADER_SIZE) || checksum(payload.array()) != checksum) {
+                break;
+            }
+
+            if (base + position - FILE_HEADER_SIZE >= from) {
+                decode(payload.array(), replayer);
+                records++;
+            }
+            position += RECORD_HEADER_SIZE + length;
+        }
+
+        // Drop what follows the last valid record
+        channel.truncate(position);
+        channel.position(position);
+        return records;
+    }
+
+    private boolean readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Appends the write set of a committed transaction. Depending on the policy, it is on the disk when this method
+     * returns (COMMIT), once the log is flushed (GROUP) or at the next periodic sync (INTERVAL).
+     * 
+     * @param xid the transaction which committed the writes
+     * @param writes the keys written by the transaction with their values
+     * @throws IOException if the record cannot be written, the log then refuses to be flushed
+     */
+    public void append(int xid, Map<Serializable, Serializable> writes) throws IOException {
+        // Encoded outside of the lock, only the write itself is serialized
+        byte[] payload = encode(xid, writes);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+        record.putInt(payload.length).putInt(checksum(payload)).put(payload);
+        record.flip();
+
+        synchronized (this) {
+            checkFailure();
+            try {
+                while (record.hasRemaining()) {
+                    channel.write(record);
+                }
+            } catch (IOException e) {
+                failure = e;
+                throw e;
+            }
+            unsynced = true;
+        }
+        if (policy == SyncPolicy.COMMIT) {
+            sync();
+        }
+    }
+
+    /**
+     * Forces the records appended so far to the disk under the GROUP policy. Under the other policies, it only checks
+     * that nothing went wrong.
+     * 
+     * @throws IOException if a record could not be written or synced
+     */
+    @Override
+    public void flush() throws IOException {
+        if (policy == SyncPolicy.GROUP) {
+            sync();
+        }
+        checkFailure();
+    }
+
+    // Forces the written records to the disk
+    private void sync() throws IOException {
+        synchronized (syncLock) {
+            if (!unsynced) {
+                return;
+            }
+            // Cleared first, a record written during the sync is synced the next time
+            unsynced = false;
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                failure = e;
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Drops the records before the given position, once a snapshot holds the values they wrote. The records which follow
+     * are copied to a new file which then replaces the log, so a crash leaves either the old or the new log.
+     * 
+     * @param position the position of the first record to keep, as returned by {@link #getPosition()}
+     * @throws IOException if the log could not be rewritten, it is then left unchanged
+     */
+    public void truncate(long position) throws IOException {
+        synchronized (syncLock) {
+            synchronized (this) {
+                checkFailure();
+                if (position <= base) {
+                    return;
+                }
+                long from = FILE_HEADER_SIZE + position - base;
+                long end = channel.position();
+                if (from > end) {
+                    throw new IllegalArgumentException("Cannot truncate " + file + " after its end");
+                }
+
+                File tmp = new File(file.getPath() + ".tmp");
+                FileChannel copy = new RandomAccessFile(tmp, "rw").getChannel();
+                try {
+                    copy.truncate(0);
+                    writeHeader(copy, position);
+                    while (from < end) {
+                        from += channel.transferTo(from, end - from, copy);
+                    }
+                    copy.force(true);
+                    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    copy.close();
+                    tmp.delete();
+                    throw e;
+                }
+
+                FileChannel old = channel;
+                channel = copy;
+                base = position;
+                // Everything was forced with the copy
+                unsynced = false;
+                old.close();
+            }
+        }
+    }
+
+    private static void writeHeader(FileChannel channel, long base) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        header.putInt(MAGIC).putLong(base);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("The write-ahead log failed", failure);
+        }
+    }
+
+    /**
+     * Syncs the records appended so far and closes the log
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (syncThread != null) {
+            syncThread.interrupt();
+        }
+        synchronized (this) {
+            if (channel.isOpen()) {
+                channel.force(false);
+                channel.close();
+            }
+        }
+    }
+
+    private static int checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+
+    private static byte[] encode(int xid, Map<Serializable, Serializable> writes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(xid);
+        data.writeInt(writes.size());
+        ObjectOutputStream objects = new ObjectOutputStream(data);
+        for (Map.Entry<Serializable, Serializable> write : writes.entrySet()) {
+            objects.writeObject(write.getKey());
+            objects.writeObject(write.getValue());
+        }
+        objects.close();
+        return bytes.toByteArray();
+    }
+
+    private static void decode(byte[] payload, Replayer replayer) throws IOException {
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(payload));
+        int xid = data.readInt();
+        int size = data.readInt();
+        ObjectInputStream objects = new ObjectInputStream(data);
+        Map<Serializable, Serializable> writes = new LinkedHashMap<Serializable, Serializable>();
+        try {
+            for (int i = 0; i < size; i++) {
+                writes.put((Serializable) objects.readObject(), (Serializable) objects.readObject());
+            }
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Cannot read the record of transaction " + xid, e);
+        }
+        replayer.replay(xid, writes);
+    }
+}
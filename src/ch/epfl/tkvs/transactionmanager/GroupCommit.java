@@ -0,0 +1,257 @@
+package ch.epfl.tkvs.transactionmanager;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * Gathers the commits of concurrent transactions in batches, so that a log only needs to be flushed once per batch.
+ * The first commit of a batch leads it: it waits for more commits during a short window or until the batch is full,
+ * applies all the commits of the batch, flushes the log once, then wakes up the other committers of the batch
+ * together.
+ * 
+ * The window is only used when there is a log to flush. It adapts to the load: it grows while batches gather several
+ * commits, and shrinks down to nothing when commits arrive alone, so an idle system does not pay for it.
+ * 
+ * The committers wait on locks rather than monitors, so that a committer running on a virtual thread does not hold its
+ * carrier thread while the log is flushed.
+ * 
+ * Once the log could not be flushed, the group commit stops: the later commits are refused before they are applied, so
+ * that no write becomes visible unless it is persisted, and the {@link FailureHandler} stops serving the writes of the
+ * failed batch, which are visible but may be lost.
+ */
+public class GroupCommit {
+
+    /** Maximum number of commits in a batch by default */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+    /** Maximum time the leader of a batch waits for other commits by default */
+    public static final long DEFAULT_MAX_WINDOW_NS = 2000000;
+    // Smallest non empty window
+    private static final long MIN_WINDOW_NS = 50000;
+
+    private final int maxBatchSize;
+    private final long maxWindowNs;
+    // The log flushed after each batch, null if the commits do not need to be persisted
+    private volatile Flushable log;
+    // Told when the log fails, null if nobody needs to be
+    private volatile FailureHandler failureHandler = null;
+    // The first failure of the log, after which no commit is applied
+    private volatile IOException failure = null;
+
+    // Guards open, and wakes up the leader of a batch once it is full
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition batchFull = lock.newCondition();
+    // The batch accepting new commits, if any
+    private Batch open = null;
+    // Current time waited by the leader of a batch
+    private volatile long windowNs = 0;
+    // Ensures the batches are applied and flushed one after the other
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    private static class Batch {
+
+        final List<Runnable> commits = new ArrayList<Runnable>();
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile IOException failure = null;
+    }
+
+    /**
+     * Stops serving the writes which may be lost once the log could not be flushed.
+     */
+    public interface FailureHandler {
+
+        /**
+         * Called once, by the leader of the failed batch before its committers return
+         * 
+         * @param failure why the log could not be flushed
+         */
+        void logFailed(IOException failure);
+    }
+
+    public GroupCommit() {
+        this(DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_WINDOW_NS);
+    }
+
+    /**
+     * @param maxBatchSize maximum number of commits in a batch
+     * @param maxWindowNs maximum time in nanoseconds the leader of a batch waits for other commits
+     */
+    public GroupCommit(int maxBatchSize, long maxWindowNs) {
+        this.maxBatchSize = maxBatchSize;
+        this.maxWindowNs = maxWindowNs;
+    }
+
+    /**
+     * Sets the log flushed after each batch
+     * 
+     * @param log the log, or null if the commits do not need to be persisted
+     */
+    public void setLog(Flushable log) {
+        this.log = log;
+    }
+
+    /**
+     * @param failureHandler told when the log fails, or null
+     */
+    public void setFailureHandler(FailureHandler failureHandler) {
+        this.failureHandler = failureHandler;
+    }
+
+    /**
+     * @return true if the log could not be flushed, after which the commits are refused
+     */
+    public boolean hasFailed() {
+        return failure != null;
+    }
+
+    /**
+     * @return the time the leader of the next batch will wait for other commits, in nanoseconds
+     */
+    public long getWindowNs() {
+        return windowNs;
+    }
+
+    /**
+     * Applies a commit as part of a batch. Returns once the commit is applied and the log is flushed.
+     * 
+     * A commit cannot be taken back from its batch, so an interrupted committer still waits for the end of the batch,
+     * and returns with its interrupt status set. The log is not flushed by an interrupted thread, since that would close
+     * its channel.
+     * 
+     * @param commit applies the commit, run by the leader of the batch unless the log has failed
+     * @throws IOException if the log could not be flushed: the commit was applied but may not be persisted if it was
+     *             run, and was refused otherwise
+     */
+    public void commit(Runnable commit) throws IOException {
+        if (failure != null) {
+            throw new IOException("The log failed earlier, the commit is refused", failure);
+        }
+        Batch batch;
+        boolean leader = false;
+        lock.lock();
+        try {
+            if (open == null || open.commits.size() >= maxBatchSize) {
+                open = new Batch();
+                leader = true;
+            }
+            batch = open;
+            batch.commits.add(commit);
+            if (batch.commits.size() >= maxBatchSize) {
+                // Wake up the leader waiting for more commits
+                batchFull.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        boolean interrupted = Thread.interrupted();
+        try {
+            if (leader) {
+                interrupted |= lead(batch);
+            } else {
+                while (batch.done.getCount() > 0) {
+                    try {
+                        batch.done.await();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (batch.failure != null) {
+            throw batch.failure;
+        }
+    }
+
+    // Returns true if the leader was interrupted before the flush
+    private boolean lead(Batch batch) {
+        boolean interrupted = false;
+        // Without a log, there is nothing to save by waiting
+        long window = windowNs;
+        if (window > 0 && log != null) {
+            long deadline = System.nanoTime() + window;
+            lock.lock();
+            try {
+                long remaining;
+                while (batch.commits.size() < maxBatchSize && (remaining = deadline - System.nanoTime()) > 0) {
+                    try {
+                        batchFull.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        // The batch is flushed at once
+                        interrupted = true;
+                        break;
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        try {
+            flushLock.lock();
+            try {
+                // The batch keeps gathering commits while the previous one is flushed
+                lock.lock();
+                try {
+                    if (open == batch) {
+                        open = null;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+
+                if (failure != null) {
+                    // The previous batch failed while this one was gathered
+                    batch.failure = new IOException("The log failed earlier, the commit is refused", failure);
+                    return interrupted;
+                }
+                for (Runnable commit : batch.commits) {
+                    commit.run();
+                }
+                Flushable log = this.log;
+                if (log != null) {
+                    // Interrupted while waiting for the previous batch
+                    interrupted |= Thread.interrupted();
+                    try {
+                        log.flush();
+                    } catch (IOException e) {
+                        batch.failure = e;
+                        failure = e;
+                        FailureHandler failureHandler = this.failureHandler;
+                        if (failureHandler != null) {
+                            failureHandler.logFailed(e);
+                        }
+                    }
+                }
+            } finally {
+                flushLock.unlock();
+            }
+            adaptWindow(batch.commits.size());
+        } finally {
+            // The other committers must not wait forever, whatever happens
+            batch.done.countDown();
+        }
+        return interrupted;
+    }
+
+    // Waits longer while the batches gather several commits, and less when commits come alone
+    private void adaptWindow(int batchSize) {
+        long window = windowNs;
+        if (batchSize > 1 && batchSize < maxBatchSize) {
+            window = Math.min(maxWindowNs, Math.max(MIN_WINDOW_NS, 2 * window));
+        } else if (batchSize == 1) {
+            window = window / 2 < MIN_WINDOW_NS ? 0 : window / 2;
+        }
+        windowNs = window;
+    }
+}
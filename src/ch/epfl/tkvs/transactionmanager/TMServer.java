@@ -0,0 +1,368 @@
+package ch.epfl.tkvs.transactionmanager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import ch.epfl.tkvs.transactionmanager.algorithms.CCAlgorithm;
+import ch.epfl.tkvs.transactionmanager.communication.ExitMessage;
+import ch.epfl.tkvs.transactionmanager.communication.Message;
+import ch.epfl.tkvs.transactionmanager.communication.MessageFrame;
+import ch.epfl.tkvs.transactionmanager.communication.WireProtocol;
+import ch.epfl.tkvs.transactionmanager.communication.utils.BinaryMessageConverter;
+import ch.epfl.tkvs.transactionmanager.communication.utils.JSON2MessageConverter.InvalidMessageException;
+import ch.epfl.tkvs.yarn.HDFSLogger;
+
+
+/**
+ * The server of a {@link TransactionManager}. The connections of the clients stay open, and are read and written
+ * without blocking by a few I/O threads, each one with its own selector. The requests are handed to workers, and their
+ * responses are sent back by the I/O thread of their connection. So the number of threads does not grow with the number
+ * of clients.
+ * 
+ * The workers are a bounded pool, and a request waiting for a lock holds its worker while the request which would
+ * release the lock may be queued. If a bound is set, only that many workers may wait at the same time, the others are
+ * kept for the requests which do not wait, and a request which would wait beyond the bound aborts its transaction
+ * instead, see {@link WaitAdmission}. Without a bound, the default, every worker may wait, and once they all do the
+ * queued requests wait until a wait times out, if the deadlock policy has a timeout. So the pool must be larger than the
+ * number of requests expected to wait. With virtual threads, the waiting requests do not hold an OS thread and are not
+ * bounded, see {@link WorkerThreads}.
+ * 
+ * The number of I/O threads, of workers and of workers which may wait are given by the system properties
+ * {@value #IO_THREADS_PROPERTY}, {@value #WORKER_THREADS_PROPERTY} and {@value #MAX_WAITING_WORKERS_PROPERTY}.
+ */
+public class TMServer {
+
+    public static final String IO_THREADS_PROPERTY = "tkvs.io.threads";
+    public static final String WORKER_THREADS_PROPERTY = "tkvs.worker.threads";
+    public static final String MAX_WAITING_WORKERS_PROPERTY = "tkvs.worker.max.waiting";
+
+    public static final int DEFAULT_WORKER_THREADS = 256;
+
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+
+    private final ServerSocketChannel serverChannel;
+    private final IOLoop[] ioLoops;
+    private final ExecutorService workers;
+    // Bounds the waits of the workers, null if they are not bounded
+    private final WaitAdmission waits;
+    private final CCAlgorithm concurrencyController;
+    private final HDFSLogger log;
+
+    /**
+     * @param serverChannel the channel on which the clients connect, in blocking mode
+     * @param concurrencyController the algorithm which handles the requests
+     * @param log the log of the transaction manager
+     */
+    public TMServer(ServerSocketChannel serverChannel, CCAlgorithm concurrencyController, HDFSLogger log) throws IOException {
+        this(serverChannel, Integer.getInteger(IO_THREADS_PROPERTY, Math.min(4, Runtime.getRuntime().availableProcessors())), Integer.getInteger(WORKER_THREADS_PROPERTY, DEFAULT_WORKER_THREADS), Integer.getInteger(MAX_WAITING_WORKERS_PROPERTY, 0), WorkerThreads.useVirtualThreads(), concurrencyController, log);
+    }
+
+    /**
+     * @param serverChannel the channel on which the clients connect, in blocking mode
+     * @param ioThreads the number of I/O threads
+     * @param workerThreads the number of workers, unless they run on virtual threads
+     * @param virtualThreads whether each request runs on its own virtual thread, which needs Java 21
+     * @param concurrencyController the algorithm which handles the requests
+     * @param log the log of the transaction manager
+     */
+    public TMServer(ServerSocketChannel serverChannel, int ioThreads, int workerThreads, boolean virtualThreads, CCAlgorithm concurrencyController, HDFSLogger log) throws IOException {
+        this(serverChannel, ioThreads, workerThreads, 0, virtualThreads, concurrencyController, log);
+    }
+
+    /**
+     * @param serverChannel the channel on which the clients connect, in blocking mode
+     * @param ioThreads the number of I/O threads
+     * @param workerThreads the number of workers, unless they run on virtual threads
+     * @param maxWaitingWorkers the number of workers which may wait at the same time, 0 for no bound. At least one may,
+     *            and at least one does not.
+     * @param virtualThreads whether each request runs on its own virtual thread, which needs Java 21
+     * @param concurrencyController the algorithm which handles the requests
+     * @param log the log of the transaction manager
+     */
+    public TMServer(ServerSocketChannel serverChannel, int ioThreads, int workerThreads, int maxWaitingWorkers, boolean virtualThreads, CCAlgorithm concurrencyController, HDFSLogger log) throws IOException {
+        this.serverChannel = serverChannel;
+        if (virtualThreads) {
+            workers = WorkerThreads.newVirtualThreadExecutor();
+            waits = null;
+        } else {
+            workers = WorkerThreads.newThreadPool("TM worker", workerThreads);
+            waits = maxWaitingWorkers > 0 ? new WaitAdmission(waitPermits(maxWaitingWorkers, workerThreads)) : null;
+        }
+        this.concurrencyController = concurrencyController;
+        this.log = log;
+
+        ioLoops = new IOLoop[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            ioLoops[i] = new IOLoop();
+        }
+    }
+
+    // The number of workers which may wait: one worker is kept for the requests which do not wait, unless there is only
+    // one, which may still wait rather than abort every wait
+    static int waitPermits(int maxWaitingWorkers, int workerThreads) {
+        return Math.max(1, Math.min(maxWaitingWorkers, workerThreads - 1));
+    }
+
+    /**
+     * Accepts the connections of the clients until the server is stopped, by an {@link ExitMessage} or by
+     * {@link #stop()}.
+     */
+    public void run() {
+        for (int i = 0; i < ioLoops.length; i++) {
+            Thread thread = new Thread(ioLoops[i], "TM I/O " + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int next = 0;
+        while (serverChannel.isOpen()) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                ioLoops[next++ % ioLoops.length].register(channel);
+            } catch (ClosedChannelException e) {
+                // Stopped
+            } catch (IOException e) {
+                log.error("sock.accept ", e, TMServer.class);
+            }
+        }
+    }
+
+    /**
+     * Stops accepting connections, and closes the open ones.
+     */
+    public void stop() {
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            log.error("server.close ", e, TMServer.class);
+        }
+        for (IOLoop ioLoop : ioLoops) {
+            ioLoop.stop();
+        }
+        workers.shutdown();
+    }
+
+    /**
+     * @return the number of requests waiting for a worker
+     */
+    public int getQueuedRequests() {
+        return workers instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) workers).getQueue().size() : 0;
+    }
+
+    // Dispatches a request read by an I/O thread
+    private void handle(MessageFrame request, Connection connection) {
+        if (request.getMessage() instanceof ExitMessage) {
+            log.info("Stopping Server", TMServer.class);
+            stop();
+        } else {
+            try {
+                TMWorker worker = new TMWorker(request, connection, concurrencyController, log);
+                workers.execute(waits == null ? worker : waits.bound(worker));
+            } catch (RejectedExecutionException e) {
+                log.warn("Server stopped, dropping " + request.getMessage(), TMServer.class);
+            }
+        }
+    }
+
+    // A thread which reads and writes its connections when they are ready
+    private class IOLoop implements Runnable {
+
+        private final Selector selector;
+        // The connections to register, and those which have responses to send, as the selector belongs to the thread
+        private final ConcurrentLinkedQueue<SocketChannel> newChannels = new ConcurrentLinkedQueue<SocketChannel>();
+        private final ConcurrentLinkedQueue<Connection> toFlush = new ConcurrentLinkedQueue<Connection>();
+        private volatile boolean running = true;
+
+        IOLoop() throws IOException {
+            selector = Selector.open();
+        }
+
+        void register(SocketChannel channel) {
+            newChannels.add(channel);
+            selector.wakeup();
+        }
+
+        void flushLater(Connection connection) {
+            toFlush.add(connection);
+            selector.wakeup();
+        }
+
+        void stop() {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select();
+
+                    SocketChannel channel;
+                    while ((channel = newChannels.poll()) != null) {
+                        Connection connection = new Connection(channel, this);
+                        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                    }
+                    Connection connection;
+                    while ((connection = toFlush.poll()) != null) {
+                        connection.flush();
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        connection = (Connection) key.attachment();
+                        if (key.isValid() && key.isReadable()) {
+                            connection.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.flush();
+                        }
+                    }
+                } catch (IOException e) {
+                    log.error("Selector", e, TMServer.class);
+                }
+            }
+
+            for (SelectionKey key : selector.keys()) {
+                ((Connection) key.attachment()).close();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                log.error("selector.close ", e, TMServer.class);
+            }
+        }
+    }
+
+    /**
+     * A connection of a client. It is read and written by its I/O thread only, the workers queue their responses.
+     */
+    class Connection {
+
+        private final SocketChannel channel;
+        private final IOLoop ioLoop;
+        private SelectionKey key;
+        // Chosen by the client with the first byte of the connection
+        private WireProtocol protocol = null;
+        private ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private final ConcurrentLinkedQueue<ByteBuffer> out = new ConcurrentLinkedQueue<ByteBuffer>();
+        private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+        private volatile boolean closed = false;
+
+        Connection(SocketChannel channel, IOLoop ioLoop) {
+            this.channel = channel;
+            this.ioLoop = ioLoop;
+        }
+
+        /**
+         * Sends a response on the connection, from any thread.
+         * 
+         * @param requestId the id of the request
+         * @param response the response to the request
+         * @throws IOException if the connection is closed or the response is not valid
+         */
+        void send(int requestId, Message response) throws IOException {
+            if (closed) {
+                throw new IOException("Connection closed by the client");
+            }
+            if (!ioLoop.running) {
+                throw new IOException("Server stopped");
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            protocol.write(requestId, response, bytes);
+            out.add(ByteBuffer.wrap(bytes.toByteArray()));
+            if (flushScheduled.compareAndSet(false, true)) {
+                ioLoop.flushLater(this);
+            }
+        }
+
+        private void read() {
+            try {
+                if (channel.read(in) == -1) {
+                    close();
+                    return;
+                }
+                in.flip();
+                if (protocol == null && in.hasRemaining()) {
+                    if ((in.get(in.position()) & 0xFF) == WireProtocol.BINARY_MAGIC) {
+                        in.get();
+                        protocol = WireProtocol.BINARY;
+                    } else {
+                        protocol = WireProtocol.JSON;
+                    }
+                }
+
+                int length;
+                while (protocol != null && !closed && (length = protocol.frameLength(in)) != -1) {
+                    MessageFrame request = protocol.readFrame(in.array(), in.arrayOffset() + in.position(), length);
+                    in.position(in.position() + length);
+                    handle(request, this);
+                }
+
+                if (in.position() == 0 && in.limit() == in.capacity()) {
+                    // A frame larger than the buffer
+                    ByteBuffer larger = ByteBuffer.allocate(Math.min(2 * in.capacity(), BinaryMessageConverter.MAX_FRAME_LENGTH + 4));
+                    larger.put(in);
+                    in = larger;
+                } else {
+                    in.compact();
+                }
+            } catch (IOException e) {
+                close();
+            } catch (InvalidMessageException e) {
+                log.error("Invalid message", e, TMServer.class);
+                close();
+            }
+        }
+
+        private void flush() {
+            flushScheduled.set(false);
+            if (closed) {
+                return;
+            }
+            try {
+                ByteBuffer buffer;
+                while ((buffer = out.peek()) != null) {
+                    channel.write(buffer);
+                    if (buffer.hasRemaining()) {
+                        // The client does not read fast enough, the rest is written when it can be
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    out.poll();
+                }
+                key.interestOps(SelectionKey.OP_READ);
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        private void close() {
+            closed = true;
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.error("sock.close ", e, TMServer.class);
+            }
+        }
+    }
+}
@@ -14,6 +14,7 @@ public class Transaction {
     public int transactionId; // id of transaction
     public boolean isPrepared; // is set when a prepare() completes successfully
     public boolean areAllRemoteAborted; // is set when abort messages are sent to all secondary transaction managers
+    public long beginTime; // time in milliseconds at which the transaction began on this transaction manager
 
     // maps locality hash of a remote transaction manager to whether the (secondary) version of this transaction running
     // in that transaction manager has successfully been prepared
@@ -23,6 +24,7 @@ public class Transaction {
         this.transactionId = transactionId;
         isPrepared = false;
         areAllRemoteAborted = false;
+        beginTime = System.currentTimeMillis();
         remoteIsPrepared = new HashMap<>();
     }
 }
@@ -1,32 +1,40 @@
 package ch.epfl.tkvs.transactionmanager;
 
-import static ch.epfl.tkvs.transactionmanager.communication.utils.JSON2MessageConverter.parseJSON;
-
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import org.apache.hadoop.net.NetUtils;
 import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
 
+import ch.epfl.tkvs.keyvaluestore.KeyValueStore;
+import ch.epfl.tkvs.keyvaluestore.Snapshot;
+import ch.epfl.tkvs.keyvaluestore.WriteAheadLog;
+import ch.epfl.tkvs.keyvaluestore.WriteAheadLog.SyncPolicy;
+import ch.epfl.tkvs.transactionmanager.algorithms.Algo2PL;
 import ch.epfl.tkvs.transactionmanager.algorithms.CCAlgorithm;
 import ch.epfl.tkvs.transactionmanager.algorithms.MVCC2PL;
 import ch.epfl.tkvs.transactionmanager.algorithms.MVTO;
 import ch.epfl.tkvs.transactionmanager.algorithms.RemoteHandler;
 import ch.epfl.tkvs.transactionmanager.algorithms.Simple2PL;
-import ch.epfl.tkvs.transactionmanager.communication.ExitMessage;
-import ch.epfl.tkvs.transactionmanager.communication.JSONCommunication;
+import ch.epfl.tkvs.transactionmanager.communication.ConnectionPool;
 import ch.epfl.tkvs.transactionmanager.communication.Message;
 import ch.epfl.tkvs.transactionmanager.communication.TMInitMessage;
+import ch.epfl.tkvs.transactionmanager.communication.WireProtocol;
 import ch.epfl.tkvs.transactionmanager.communication.utils.Message2JSONConverter;
+import ch.epfl.tkvs.transactionmanager.lockingunit.DeadlockPolicy;
+import ch.epfl.tkvs.transactionmanager.lockingunit.LockingUnit;
+import ch.epfl.tkvs.transactionmanager.versioningunit.VersioningUnitMVCC2PL;
 import ch.epfl.tkvs.yarn.HDFSLogger;
 import ch.epfl.tkvs.yarn.RemoteTransactionManager;
 import ch.epfl.tkvs.yarn.RoutingTable;
@@ -54,12 +62,16 @@ import ch.epfl.tkvs.yarn.appmaster.AppMaster;
 public class TransactionManager {
 
     private static final int CHECKPOINT_PERIOD_MS = 15000;
+    // Size the log must reach before a checkpoint writes a snapshot and truncates it
+    private static final long SNAPSHOT_LOG_SIZE = 16 * 1024 * 1024;
     private static String tmIp;
     private static int tmPort;
     private static RoutingTable routing;
     private static boolean isAMReady = false;
 
     private final static HDFSLogger log = new HDFSLogger(TransactionManager.class);
+    // The log of the committed writes, null if they are not persisted
+    private WriteAheadLog writeAheadLog = null;
 
     public static void main(String[] args) throws Exception {
         Utils.initLogLevel();
@@ -89,64 +101,133 @@ public class TransactionManager {
 
     public void run() throws Exception {
         log.info("Starting server at " + tmIp + ":" + tmPort, TransactionManager.class);
-        ServerSocket server = new ServerSocket(tmPort);
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().bind(new InetSocketAddress(tmPort));
+        ServerSocket server = serverChannel.socket();
 
         // Wait for the TM initialization message
         Socket sock = server.accept();
-        BufferedReader in = new BufferedReader(new InputStreamReader(sock.getInputStream()));
-        String input = in.readLine();
-        TMInitMessage initMessage = (TMInitMessage) parseJSON(new JSONObject(input), TMInitMessage.class);
+        BufferedInputStream in = new BufferedInputStream(sock.getInputStream());
+        TMInitMessage initMessage = (TMInitMessage) WireProtocol.accept(in).read(in);
+        sock.close();
         routing = initMessage.getRoutingTable();
 
         RemoteHandler remoteHandler = new RemoteHandler();
 
-        // Select which concurrency algorithm to use
-        String ccConfig = initMessage.getConcurrencyControlConfig();
+        File dataDirectory = dataDirectory(initMessage);
+
+        // The storage engine must be in place before the concurrency algorithm starts using the store
+        File storeDirectory = new File(dataDirectory, "tm" + getLocalityHash() + ".store");
+        KeyValueStore.instance.setEngine(KeyValueStore.createEngine(initMessage.getStorageConfig(), storeDirectory));
+        log.info("Storage engine selected: " + KeyValueStore.instance.getEngine().getClass(), TransactionManager.class);
+
+        // Select which concurrency algorithm to use. The configuration is
+        // <algorithm>[:<deadlock policy>[:<lock wait timeout in ms>[:<commit threads>]]], the last three being used by
+        // the 2PL ones.
+        String[] ccConfig = initMessage.getConcurrencyControlConfig().split(":");
         CCAlgorithm concurrencyController = null;
-        if (ccConfig.equals("simple_2pl")) {
+        if (ccConfig[0].equals("simple_2pl")) {
             concurrencyController = new Simple2PL(remoteHandler, log);
-        } else if (ccConfig.equals("mvcc2pl")) {
+        } else if (ccConfig[0].equals("mvcc2pl")) {
             concurrencyController = new MVCC2PL(remoteHandler, log);
         } else {
             concurrencyController = new MVTO(remoteHandler, log);
         }
 
+        if (concurrencyController instanceof Algo2PL) {
+            DeadlockPolicy policy = ccConfig.length > 1 ? DeadlockPolicy.fromConfig(ccConfig[1]) : DeadlockPolicy.DETECTION;
+            if (ccConfig.length > 1 && !policy.toString().equals(ccConfig[1])) {
+                log.error("Unknown deadlock policy " + ccConfig[1] + " in " + initMessage.getConcurrencyControlConfig() + ", using " + policy, TransactionManager.class);
+            }
+            long lockWaitTimeout = positiveConfigValue(initMessage.getConcurrencyControlConfig(), ccConfig, 2, "lock wait timeout", LockingUnit.DEFAULT_LOCK_WAIT_TIMEOUT_MS);
+            ((Algo2PL) concurrencyController).setDeadlockPolicy(policy, lockWaitTimeout);
+            if (ccConfig.length > 3) {
+                int commitThreads = (int) positiveConfigValue(initMessage.getConcurrencyControlConfig(), ccConfig, 3, "number of commit threads", VersioningUnitMVCC2PL.DEFAULT_COMMIT_THREADS);
+                ((Algo2PL) concurrencyController).setCommitThreads(commitThreads);
+            }
+            ((Algo2PL) concurrencyController).startDeadlockDeltaStream();
+            log.info("Deadlock policy selected: " + policy, TransactionManager.class);
+        }
+
         log.info("Algorithm selected: " + concurrencyController.getClass(), TransactionManager.class);
 
+        // The write-ahead log configuration is none or <fsync policy>[:<sync interval in ms>]
+        String[] walConfig = initMessage.getWriteAheadLogConfig().split(":");
+        if (!walConfig[0].equals("none")) {
+            SyncPolicy policy = SyncPolicy.fromConfig(walConfig[0]);
+            long syncInterval = positiveConfigValue(initMessage.getWriteAheadLogConfig(), walConfig, 1, "sync interval", WriteAheadLog.DEFAULT_SYNC_INTERVAL_MS);
+            File walFile = new File(dataDirectory, "tm" + getLocalityHash() + ".wal");
+            Snapshot snapshot = new Snapshot(new File(dataDirectory, "tm" + getLocalityHash() + ".snapshot"));
+            writeAheadLog = new WriteAheadLog(walFile, policy, syncInterval);
+            long start = System.currentTimeMillis();
+            int replayed = concurrencyController.recover(snapshot, writeAheadLog);
+            log.info("Write-ahead log " + walFile + " with policy " + policy + ", replayed " + replayed + " transactions after the snapshot in " + (System.currentTimeMillis() - start) + " ms", TransactionManager.class);
+        }
+
         remoteHandler.setAlgo(concurrencyController, log);
 
         // Start the thread that will call checkpoint on the concurrency controller
         startCheckpointThread(server, concurrencyController);
 
-        ExecutorService threadPool = Executors.newCachedThreadPool();
+        // Serve the clients until the AppMaster sends the exit message
+        final TMServer tmServer = new TMServer(serverChannel, concurrencyController, log);
+        concurrencyController.getGroupCommit().setFailureHandler(new GroupCommit.FailureHandler() {
 
-        while (!server.isClosed()) {
-            try {
-                // log.info("Waiting for message...", TransactionManager.class);
-                sock = server.accept();
-                // log.info("Processing message...", TransactionManager.class);
-
-                in = new BufferedReader(new InputStreamReader(sock.getInputStream()));
-                input = in.readLine();
-
-                JSONObject json = new JSONObject(input);
-                String messageType = json.getString(JSONCommunication.KEY_FOR_MESSAGE_TYPE);
+            @Override
+            public void logFailed(IOException failure) {
+                // The last commits are visible but may be lost, nothing is served until a restart replays the log
+                log.fatal("The write-ahead log failed, stopping the server", failure, TransactionManager.class);
+                tmServer.stop();
+            }
+        });
+        tmServer.run();
+        log.info("Finalizing", TransactionManager.class);
+        RemoteTransactionManager.closeConnections();
+        server.close();
+    }
 
-                if (messageType.equals(ExitMessage.MESSAGE_TYPE)) {
-                    log.info("Stopping Server", TransactionManager.class);
-                    sock.close();
-                    server.close();
-                    threadPool.shutdown();
-                } else {
-                    threadPool.execute(new TMWorker(new JSONObject(input), sock, concurrencyController, log));
-                }
+    /**
+     * Returns the directory on the local disk which keeps the write-ahead log, the snapshots and the segments of the log
+     * storage engine. It must survive a restart of the container for them to be of any use, which the temporary
+     * directory used by default does not guarantee.
+     * @param initMessage the init message holding the data directory configuration
+     * @return the directory
+     */
+    private static File dataDirectory(TMInitMessage initMessage) {
+        String dataConfig = initMessage.getDataConfig();
+        if (dataConfig != null && !dataConfig.equals("tmp")) {
+            return new File(dataConfig);
+        }
+        File directory = new File(System.getProperty("java.io.tmpdir"), "tkvs");
+        if (!initMessage.getWriteAheadLogConfig().startsWith("none") || initMessage.getStorageConfig().startsWith("log")) {
+            log.warn("No data directory in ./config/data, using " + directory + " which may not survive a restart", TransactionManager.class);
+        }
+        return directory;
+    }
 
-            } catch (IOException e) {
-                log.error("sock.accept ", e, TransactionManager.class);
+    /**
+     * Reads a positive number of a configuration made of fields separated by colons.
+     * @param config the whole configuration, logged if the number is rejected
+     * @param fields the fields of the configuration
+     * @param index the index of the field holding the number
+     * @param name what the number is, logged if it is rejected
+     * @param defaultValue the number used if the field is missing, not a number or not positive
+     * @return the number
+     */
+    private static long positiveConfigValue(String config, String[] fields, int index, String name, long defaultValue) {
+        if (fields.length <= index) {
+            return defaultValue;
+        }
+        try {
+            long value = Long.parseLong(fields[index]);
+            if (value > 0 && value <= Integer.MAX_VALUE) {
+                return value;
             }
+        } catch (NumberFormatException e) {
+            // Rejected below
         }
-        log.info("Finalizing", TransactionManager.class);
-        server.close();
+        log.error("Invalid " + name + " " + fields[index] + " in " + config + ", using " + defaultValue, TransactionManager.class);
+        return defaultValue;
     }
 
     /**
@@ -209,6 +290,17 @@ public class TransactionManager {
         return res;
     }
 
+    /**
+     * Sends a message to the app master on the connection of the given pool, which stays open for the next messages.
+     * Unlike {@link #sendToAppMaster(Message, boolean)}, the message is not answered.
+     * @param connection the pool holding the connection to the app master
+     * @param message the message to send
+     * @throws IOException in case of network error or invalid message format
+     */
+    public static void streamToAppMaster(ConnectionPool connection, Message message) throws IOException {
+        connection.send(routing.getAMIp(), routing.getAMPort(), message, false);
+    }
+
     /**
      * Send a message to a transaction manager identified by its locality hash.
      * @param localityHash the locality hash of the TM that will receive the message
@@ -217,7 +309,7 @@ public class TransactionManager {
      * @return the response or null if !shouldWait
      * @throws IOException in case of network failure or invalid message
      */
-    public static JSONObject sendToTransactionManager(int localityHash, Message message, boolean shouldWait) throws IOException {
+    public static Message sendToTransactionManager(int localityHash, Message message, boolean shouldWait) throws IOException {
         log.info("Sending " + message + "to " + routing.findTM(localityHash), RemoteHandler.class);
         return routing.findTM(localityHash).sendMessage(message, shouldWait);
     }
@@ -289,6 +381,23 @@ public class TransactionManager {
         return (localityHash % routing.getTMs().size()) == getLocalityHash();
     }
 
+    // Writes a snapshot once the log has grown enough, so that a restart does not replay the whole history
+    private void snapshotIfNeeded(CCAlgorithm ccAlg) {
+        if (writeAheadLog == null) {
+            return;
+        }
+        try {
+            long size = writeAheadLog.getSize();
+            if (size >= SNAPSHOT_LOG_SIZE) {
+                long start = System.currentTimeMillis();
+                int keys = ccAlg.snapshot();
+                log.info("Snapshot of " + keys + " keys in " + (System.currentTimeMillis() - start) + " ms, log of " + size + " bytes truncated", TransactionManager.class);
+            }
+        } catch (IOException e) {
+            log.error("Snapshot failed", e, TransactionManager.class);
+        }
+    }
+
     // Start the thread responsible for calling the checkpoint methods of the concurrency control algorithms
     private void startCheckpointThread(final ServerSocket mainServer, final CCAlgorithm ccAlg) {
         new Thread(new Runnable() {
@@ -305,6 +414,7 @@ public class TransactionManager {
                     }
 
                     ccAlg.checkpoint();
+                    snapshotIfNeeded(ccAlg);
                 }
             }
         }).start();
@@ -18,11 +18,36 @@ import ch.epfl.tkvs.transactionmanager.lockingunit.LockType;
 public class Transaction_2PL extends Transaction {
 
     private HashMap<Serializable, List<LockType>> currentLocks;
+    private boolean primary;
+    private int primaryHash;
 
     public Transaction_2PL(int transactionId) {
+        this(transactionId, true, -1);
+    }
+
+    public Transaction_2PL(int transactionId, boolean primary, int primaryHash) {
         super(transactionId);
 
         currentLocks = new HashMap<>();
+        this.primary = primary;
+        this.primaryHash = primaryHash;
+    }
+
+    /**
+     * 
+     * @return false if this is a secondary transaction, started on behalf of another transaction manager
+     */
+    public boolean isPrimary() {
+        return primary;
+    }
+
+    /**
+     * 
+     * @return the locality hash of the transaction manager running the primary transaction, -1 if this is the primary
+     * transaction
+     */
+    public int getPrimaryHash() {
+        return primaryHash;
     }
 
     /**
@@ -76,6 +101,15 @@ public class Transaction_2PL extends Transaction {
         return currentLocks.get(key);
     }
 
+    /**
+     * Can be called from another thread, as it does not iterate over the locks
+     * 
+     * @return The number of keys locked by this transaction
+     */
+    public int getNumberOfLockedKeys() {
+        return currentLocks.size();
+    }
+
     public HashMap<Serializable, List<LockType>> getCurrentLocks() {
         return currentLocks;
     }
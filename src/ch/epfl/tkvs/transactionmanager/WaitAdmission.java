@@ -0,0 +1,71 @@
+package ch.epfl.tkvs.transactionmanager;
+
+import java.util.concurrent.Semaphore;
+
+import ch.epfl.tkvs.exceptions.WorkersBusyException;
+
+
+/**
+ * Bounds the number of workers of a {@link TMServer} which wait at the same time: for a lock, for the transactions a
+ * transaction read from, or for another transaction manager. The pool of workers is bounded, and the request which
+ * ends a wait may be queued behind the requests which wait, so the workers left over are kept for the requests which
+ * do not wait. A request which would wait beyond the bound aborts its transaction instead.
+ * 
+ * A wait only counts against the bound of the worker running it. The waits of the other threads, like the workers on
+ * virtual threads, are not bounded.
+ */
+public class WaitAdmission {
+
+    // The bound of the worker running on the current thread, if any
+    private static final ThreadLocal<WaitAdmission> current = new ThreadLocal<WaitAdmission>();
+
+    private final Semaphore permits;
+
+    /**
+     * @param maxWaiting the number of workers which may wait at the same time
+     */
+    public WaitAdmission(int maxWaiting) {
+        permits = new Semaphore(maxWaiting);
+    }
+
+    /**
+     * @param task the task of a worker
+     * @return a task running the given one, whose waits count against this bound
+     */
+    public Runnable bound(final Runnable task) {
+        return new Runnable() {
+
+            @Override
+            public void run() {
+                current.set(WaitAdmission.this);
+                try {
+                    task.run();
+                } finally {
+                    current.remove();
+                }
+            }
+        };
+    }
+
+    /**
+     * Counts the current thread as waiting. It MUST call {@link #endWait()} once it stops waiting.
+     * 
+     * @throws WorkersBusyException if the worker running on the current thread may not wait
+     */
+    public static void beginWait() throws WorkersBusyException {
+        WaitAdmission admission = current.get();
+        if (admission != null && !admission.permits.tryAcquire()) {
+            throw new WorkersBusyException();
+        }
+    }
+
+    /**
+     * Stops counting the current thread as waiting.
+     */
+    public static void endWait() {
+        WaitAdmission admission = current.get();
+        if (admission != null) {
+            admission.permits.release();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package ch.epfl.tkvs.transactionmanager;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * The threads on which the {@link TMWorker}s and the AppMaster's workers run. By default they are platform threads from
+ * a bounded pool, see {@link TMServer} for how its requests avoid starving it. With the system property
+ * {@value #VIRTUAL_THREADS_PROPERTY} set to true, each request runs on its own virtual thread instead, so the requests
+ * waiting for a lock or for a remote transaction manager do not hold an OS thread. This needs Java 21, the pool is
+ * used on an older JVM.
+ * 
+ * A virtual thread which blocks inside a synchronized block keeps its carrier thread, so the waits of the requests use
+ * {@link java.util.concurrent.locks.Lock}s and {@link java.util.concurrent.locks.Condition}s.
+ */
+public class WorkerThreads {
+
+    public static final String VIRTUAL_THREADS_PROPERTY = "tkvs.virtual.threads";
+
+    // Looked up by reflection, the code is built for older JVMs
+    private static final ThreadFactory virtualThreadFactory = lookUpVirtualThreadFactory();
+
+    private static ThreadFactory lookUpVirtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            // The class of the builder is not public, its method is called through the public interface
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return whether the JVM has virtual threads
+     */
+    public static boolean isVirtualThreadsSupported() {
+        return virtualThreadFactory != null;
+    }
+
+    /**
+     * @return whether the workers run on virtual threads, as asked with {@value #VIRTUAL_THREADS_PROPERTY} and if
+     * supported
+     */
+    public static boolean useVirtualThreads() {
+        return Boolean.getBoolean(VIRTUAL_THREADS_PROPERTY) && isVirtualThreadsSupported();
+    }
+
+    /**
+     * @return an executor which starts a virtual thread for each task
+     * @throws UnsupportedOperationException if the JVM does not have virtual threads
+     */
+    public static ExecutorService newVirtualThreadExecutor() {
+        if (virtualThreadFactory == null) {
+            throw new UnsupportedOperationException("Virtual threads need Java 21");
+        }
+        try {
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, virtualThreadFactory);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException(e);
+        }
+    }
+
+    /**
+     * @param name the prefix of the names of the threads
+     * @param threads the number of threads, which stop after a minute without a task
+     * @return a pool of platform threads, whose tasks wait in an unbounded queue when all the threads are busy
+     */
+    static ExecutorService newThreadPool(String name, int threads) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), namedThreads(name));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private static ThreadFactory namedThreads(final String name) {
+        return new ThreadFactory() {
+
+            private final AtomicInteger count = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable worker) {
+                return new Thread(worker, name + " " + count.getAndIncrement());
+            }
+        };
+    }
+
+    /**
+     * @return the executor of the workers of the AppMaster, which answer quickly and are not bounded in platform mode
+     */
+    public static ExecutorService newCachedWorkerExecutor() {
+        return useVirtualThreads() ? newVirtualThreadExecutor() : Executors.newCachedThreadPool();
+    }
+}
@@ -1,27 +1,48 @@
 package ch.epfl.tkvs.transactionmanager.algorithms;
 
 import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import ch.epfl.tkvs.exceptions.AbortException;
+import ch.epfl.tkvs.exceptions.CommitNotPersistedException;
 import ch.epfl.tkvs.exceptions.CommitWithoutPrepareException;
 import ch.epfl.tkvs.exceptions.TransactionAlreadyExistsException;
 import ch.epfl.tkvs.exceptions.TransactionNotLiveException;
+import ch.epfl.tkvs.keyvaluestore.Snapshot;
+import ch.epfl.tkvs.keyvaluestore.WriteAheadLog;
 import ch.epfl.tkvs.transactionmanager.Transaction;
 import ch.epfl.tkvs.transactionmanager.TransactionManager;
 import ch.epfl.tkvs.transactionmanager.Transaction_2PL;
-import ch.epfl.tkvs.transactionmanager.communication.DeadlockInfoMessage;
 import ch.epfl.tkvs.transactionmanager.communication.requests.AbortRequest;
 import ch.epfl.tkvs.transactionmanager.communication.requests.BeginRequest;
 import ch.epfl.tkvs.transactionmanager.communication.requests.CommitRequest;
+import ch.epfl.tkvs.transactionmanager.communication.requests.ScanRequest;
 import ch.epfl.tkvs.transactionmanager.communication.responses.GenericSuccessResponse;
-import ch.epfl.tkvs.transactionmanager.lockingunit.DeadlockGraph;
-import ch.epfl.tkvs.transactionmanager.lockingunit.DeadlockInfo;
+import ch.epfl.tkvs.transactionmanager.communication.responses.ScanResponse;
+import ch.epfl.tkvs.transactionmanager.lockingunit.DeadlockPolicy;
+import ch.epfl.tkvs.transactionmanager.lockingunit.KeyGap;
+import ch.epfl.tkvs.transactionmanager.lockingunit.LockType;
 import ch.epfl.tkvs.transactionmanager.lockingunit.LockingUnit;
+import ch.epfl.tkvs.transactionmanager.lockingunit.LockingUnit.WoundHandler;
+import ch.epfl.tkvs.transactionmanager.lockingunit.TransactionCost;
 import ch.epfl.tkvs.transactionmanager.versioningunit.VersioningUnitMVCC2PL;
 import ch.epfl.tkvs.yarn.HDFSLogger;
 
 
+/**
+ * The algorithms based on two-phase locking. The scans are phantom-safe thanks to next-key locking: a scan locks every
+ * key it returns along with the gap before it, then the gap after the range once it reaches its end. A transaction
+ * which inserts a key locks the gap in which the key lands, so it waits for the scans of the gap and they wait for it.
+ */
 public abstract class Algo2PL extends CCAlgorithm {
 
     protected LockingUnit lockingUnit;
@@ -41,10 +62,168 @@ public abstract class Algo2PL extends CCAlgorithm {
         transactions = new ConcurrentHashMap<>();
     }
 
-    // Does cleaning up after end of transaction
-    protected void terminate(Transaction_2PL transaction, boolean success) {
+    /**
+     * Sets how the LockingUnit handles deadlocks. Under the WOUND_WAIT policy, a wounded transaction aborts unless it is
+     * already prepared. It aborts in its own thread, when it waits for a lock or at its next lock request, so its locks
+     * are not released while it still reads or writes. A distributed transaction which does not wait here may wait on
+     * another {@link TransactionManager}, where it is not wounded, so it is also aborted there: a secondary transaction by
+     * its primary TransactionManager, a primary one by its secondary TransactionManagers.
+     * 
+     * @param policy the deadlock policy
+     * @param lockWaitTimeout maximum time in milliseconds a transaction waits for a lock under the TIMEOUT policy
+     */
+    public void setDeadlockPolicy(DeadlockPolicy policy, long lockWaitTimeout) {
+        lockingUnit.setDeadlockPolicy(policy, lockWaitTimeout, new WoundHandler() {
+
+            @Override
+            public void wound(int transactionID) {
+                Transaction_2PL transaction = transactions.get(transactionID);
+                if (transaction == null || transaction.isPrepared) {
+                    return;
+                }
+                // A transaction waiting here aborts at once
+                if (lockingUnit.wound(transactionID) || remote == null) {
+                    return;
+                }
+                if (!transaction.isPrimary()) {
+                    remote.abortPrimary(transaction, transaction.getPrimaryHash());
+                } else if (!isLocalTransaction(transaction)) {
+                    remote.woundOthers(transaction);
+                }
+            }
+        });
+    }
+
+    /**
+     * Locks a key for a read, unless the transaction already holds a lock which allows it.
+     * 
+     * @param transaction the transaction reading the key
+     * @param key the key to read
+     * @throws AbortException if the transaction is chosen to break a deadlock
+     */
+    protected abstract void lockForRead(Transaction_2PL transaction, Serializable key) throws AbortException;
+
+    // Locks a gap for a scan or an insert, a transaction which does both holds the lock of both
+    private void lockGap(Transaction_2PL transaction, KeyGap gap, LockType.Gap lock) throws AbortException {
+        List<LockType> held = transaction.getLocksForKey(gap);
+        if (held != null && (held.contains(lock) || held.contains(LockType.Gap.SCAN_INSERT))) {
+            return;
+        }
+        LockType.Gap granted = held == null ? lock : LockType.Gap.SCAN_INSERT;
+        lockingUnit.promote(transaction.transactionId, gap, held, granted);
+        transaction.setLock(gap, Arrays.asList((LockType) granted));
+    }
+
+    /**
+     * Locks the gap in which a key which is not committed yet is inserted. It is locked again if another key is
+     * committed in the gap while the transaction waits for it.
+     * 
+     * @param transaction the transaction inserting the key
+     * @param key the key inserted
+     * @throws AbortException if the transaction is chosen to break a deadlock
+     */
+    protected void lockGapForInsert(Transaction_2PL transaction, String key) throws AbortException {
+        KeyGap gap = new KeyGap(versioningUnit.getNextCommittedKey(key));
+        while (true) {
+            lockGap(transaction, gap, LockType.Gap.INSERT);
+            KeyGap current = new KeyGap(versioningUnit.getNextCommittedKey(key));
+            if (current.equals(gap)) {
+                return;
+            }
+            gap = current;
+        }
+    }
+
+    // The gaps in which the keys of a chunk are, with the gap after the range if the chunk is the last one
+    private List<KeyGap> getGaps(List<String> keys, String to, int limit) {
+        List<KeyGap> gaps = new ArrayList<>(keys.size() + 1);
+        for (String key : keys) {
+            gaps.add(new KeyGap(versioningUnit.getNextCommittedKey(key)));
+        }
+        if (keys.size() < limit) {
+            gaps.add(new KeyGap(to == null ? null : versioningUnit.getNextCommittedKey(to)));
+        }
+        return gaps;
+    }
+
+    @Override
+    public ScanResponse scan(ScanRequest request) {
+        int xid = request.getTransactionId();
+        String from = request.getFrom();
+        String to = request.getTo();
+        int limit = request.getLimit();
+
+        Transaction_2PL transaction = transactions.get(xid);
+
+        // Transaction not begun or already terminated
+        if (transaction == null) {
+            return new ScanResponse(new TransactionNotLiveException());
+        }
+        // if the keys are stored locally, process them locally or use remote handler to forward the request to the
+        // correct Tranasction manager.
+        if (isLocalKey(request.getLocalityHash())) {
+            try {
+                List<String> keys = versioningUnit.getKeys(xid, from, to, limit);
+                List<KeyGap> gaps = getGaps(keys, to, limit);
+                while (true) {
+                    for (String key : keys) {
+                        lockForRead(transaction, key);
+                    }
+                    for (KeyGap gap : gaps) {
+                        lockGap(transaction, gap, LockType.Gap.SCAN);
+                    }
+                    // Keys may have been committed in the range or in its gaps while waiting for the locks
+                    List<String> lockedKeys = keys;
+                    List<KeyGap> lockedGaps = gaps;
+                    keys = versioningUnit.getKeys(xid, from, to, limit);
+                    gaps = getGaps(keys, to, limit);
+                    if (keys.equals(lockedKeys) && gaps.equals(lockedGaps)) {
+                        break;
+                    }
+                }
+
+                LinkedHashMap<String, String> entries = new LinkedHashMap<>();
+                for (String key : keys) {
+                    Serializable value = versioningUnit.get(xid, key);
+                    if (value != null) {
+                        entries.put(key, (String) value);
+                    }
+                }
+                return new ScanResponse(entries);
+            } catch (AbortException e) {
+                terminate(transaction, false);
+                return new ScanResponse(e);
+            }
+        } else {
+            return remote.scan(transaction, request);
+        }
+    }
+
+    // Does cleaning up after end of transaction, returns the response to the commit
+    protected GenericSuccessResponse terminate(final Transaction_2PL transaction, boolean success) {
+        GenericSuccessResponse response = new GenericSuccessResponse();
         if (success) {
-            versioningUnit.commit(transaction.transactionId);
+            final AtomicBoolean applied = new AtomicBoolean(false);
+            try {
+                groupCommit.commit(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        versioningUnit.commit(transaction.transactionId);
+                        applied.set(true);
+                    }
+                });
+            } catch (IOException e) {
+                log.error("Cannot persist the commit of " + transaction.transactionId, e, Algo2PL.class);
+                if (applied.get()) {
+                    response = new GenericSuccessResponse(false, COMMIT_IN_DOUBT);
+                } else {
+                    // Refused before any of its writes became visible
+                    versioningUnit.abort(transaction.transactionId);
+                    success = false;
+                    response = new GenericSuccessResponse(new CommitNotPersistedException());
+                }
+            }
         } else {
             versioningUnit.abort(transaction.transactionId);
 
@@ -53,6 +232,7 @@ public abstract class Algo2PL extends CCAlgorithm {
         if (!success && !isLocalTransaction(transaction))
             remote.abortOthers(transaction);
         transactions.remove(transaction.transactionId);
+        return response;
     }
 
     @Override
@@ -85,7 +265,7 @@ public abstract class Algo2PL extends CCAlgorithm {
         if (transactions.containsKey(xid)) {
             return new GenericSuccessResponse(new TransactionAlreadyExistsException());
         }
-        transactions.put(xid, new Transaction_2PL(xid));
+        transactions.put(xid, new Transaction_2PL(xid, request.isPrimary(), request.getPrimaryHash()));
 
         return new GenericSuccessResponse();
     }
@@ -104,25 +284,77 @@ public abstract class Algo2PL extends CCAlgorithm {
         if (!transaction.isPrepared) {
             return new GenericSuccessResponse(new CommitWithoutPrepareException());
         }
-        terminate(transaction, true);
-        return new GenericSuccessResponse();
+        return terminate(transaction, true);
+
+    }
+
+    /**
+     * Sets the number of threads writing the committed values to the key-value store. MUST be called before the first
+     * transaction begins, since it resets the versioning unit.
+     * 
+     * @param commitThreads number of background commit threads, each one in charge of a partition of the keys
+     */
+    public void setCommitThreads(int commitThreads) {
+        versioningUnit.init(commitThreads);
+    }
 
+    /**
+     * Starts streaming the changes of the dependencies between the distributed transactions to the AppMaster, so that
+     * deadlocks spanning several {@link TransactionManager}s are detected. Does nothing unless the deadlock policy is
+     * DETECTION, since the other policies prevent such deadlocks.
+     */
+    public void startDeadlockDeltaStream() {
+        if (lockingUnit.getDeadlockPolicy() == DeadlockPolicy.DETECTION) {
+            new DeadlockDeltaStreamer(this, lockingUnit, log).start();
+        }
+    }
+
+    /**
+     * @return the IDs of the transactions which also run on other {@link TransactionManager}s, either secondary ones or
+     * primary ones which started a secondary transaction
+     */
+    HashSet<Integer> getDistributedTransactions() {
+        HashSet<Integer> distributed = new HashSet<>();
+        for (Transaction_2PL transaction : transactions.values()) {
+            if (!transaction.isPrimary() || !isLocalTransaction(transaction)) {
+                distributed.add(transaction.transactionId);
+            }
+        }
+        return distributed;
+    }
+
+    /**
+     * @param xids the IDs of the transactions
+     * @return the cost hints of the given transactions which are still alive, used by the centralized decider to
+     * choose the victims
+     */
+    HashMap<Integer, TransactionCost> getCosts(Set<Integer> xids) {
+        HashMap<Integer, TransactionCost> costs = new HashMap<>();
+        long now = System.currentTimeMillis();
+        for (int xid : xids) {
+            Transaction_2PL transaction = transactions.get(xid);
+            if (transaction != null) {
+                costs.put(xid, new TransactionCost(transaction.getNumberOfLockedKeys(), versioningUnit.getNumberOfWrites(xid), now - transaction.beginTime, transaction.remoteIsPrepared.size()));
+            }
+        }
+        return costs;
+    }
+
+    @Override
+    public int recover(Snapshot snapshot, WriteAheadLog log) throws IOException {
+        int replayed = versioningUnit.recover(snapshot, log);
+        groupCommit.setLog(log);
+        return replayed;
+    }
+
+    @Override
+    public int snapshot() throws IOException {
+        return versioningUnit.snapshot();
     }
 
     @Override
     public void checkpoint() {
-        // Get the dead lock graph
-        DeadlockGraph graph = lockingUnit.getDeadlockGraph();
-
-        try {
-            // Create the message
-            DeadlockInfo di = new DeadlockInfo(TransactionManager.getLocalityHash(), graph, new HashSet<>(transactions.keySet()));
-            DeadlockInfoMessage deadlockMessage = new DeadlockInfoMessage(di);
-            log.info("About to send deadlock info to app master: " + deadlockMessage, Algo2PL.class);
-            TransactionManager.sendToAppMaster(deadlockMessage, false);
-
-        } catch (IOException e) {
-            log.error("Error", e, Algo2PL.class);
-        }
+        // The deadlock graph is streamed to the AppMaster by the DeadlockDeltaStreamer
+        log.info("Commit backlog: " + versioningUnit.getCommitBacklog() + " transactions", Algo2PL.class);
     }
 }
@@ -5,7 +5,12 @@
  */
 package ch.epfl.tkvs.transactionmanager.algorithms;
 
+import java.io.IOException;
+
 import ch.epfl.tkvs.exceptions.TransactionNotLiveException;
+import ch.epfl.tkvs.keyvaluestore.Snapshot;
+import ch.epfl.tkvs.keyvaluestore.WriteAheadLog;
+import ch.epfl.tkvs.transactionmanager.GroupCommit;
 import ch.epfl.tkvs.transactionmanager.Transaction;
 import ch.epfl.tkvs.transactionmanager.TransactionManager;
 import ch.epfl.tkvs.transactionmanager.communication.requests.AbortRequest;
@@ -13,10 +18,12 @@ import ch.epfl.tkvs.transactionmanager.communication.requests.BeginRequest;
 import ch.epfl.tkvs.transactionmanager.communication.requests.CommitRequest;
 import ch.epfl.tkvs.transactionmanager.communication.requests.PrepareRequest;
 import ch.epfl.tkvs.transactionmanager.communication.requests.ReadRequest;
+import ch.epfl.tkvs.transactionmanager.communication.requests.ScanRequest;
 import ch.epfl.tkvs.transactionmanager.communication.requests.TryCommitRequest;
 import ch.epfl.tkvs.transactionmanager.communication.requests.WriteRequest;
 import ch.epfl.tkvs.transactionmanager.communication.responses.GenericSuccessResponse;
 import ch.epfl.tkvs.transactionmanager.communication.responses.ReadResponse;
+import ch.epfl.tkvs.transactionmanager.communication.responses.ScanResponse;
 import ch.epfl.tkvs.yarn.HDFSLogger;
 
 
@@ -28,6 +35,10 @@ public abstract class CCAlgorithm {
 
     protected RemoteHandler remote;
     public static HDFSLogger log;
+    // Applies the commits of concurrent transactions in batches
+    protected GroupCommit groupCommit = new GroupCommit();
+    // Answers a commit which was applied but whose log could not be flushed, so it is neither an abort nor persisted
+    protected static final String COMMIT_IN_DOUBT = "Commit applied but not persisted, the write-ahead log failed";
 
     /**
      * Called whenever the {@link TransactionManager} receives a read request
@@ -43,6 +54,15 @@ public abstract class CCAlgorithm {
      */
     public abstract GenericSuccessResponse write(WriteRequest request);
 
+    /**
+     * Called whenever the {@link TransactionManager} receives a scan request. The scan MUST be serializable with the
+     * other operations of the transactions: a key inserted in the range by a concurrent transaction is either seen by
+     * every chunk of the scan, or by none of them.
+     * @param request the incoming scan request, for one chunk of the range
+     * @return the response to be sent to the sender
+     */
+    public abstract ScanResponse scan(ScanRequest request);
+
     /**
      * Called whenever the {@link TransactionManager} receives a request to begin a transaction
      * @param request the incoming begin request
@@ -109,11 +129,37 @@ public abstract class CCAlgorithm {
      */
     abstract public void checkpoint();
 
+    /**
+     * Called once by the {@link TransactionManager} before any request, when the committed writes must survive a
+     * restart. The values committed before the restart are read back from the snapshot and the log, and the next
+     * commits are logged before they are acknowledged.
+     * @param snapshot the last snapshot of the committed values
+     * @param log the log of the committed writes
+     * @return the number of committed transactions read back from the log
+     * @throws IOException if the snapshot or the log cannot be read
+     */
+    public abstract int recover(Snapshot snapshot, WriteAheadLog log) throws IOException;
+
+    /**
+     * Called periodically by the {@link TransactionManager} once the log has grown, so that a restart only replays the
+     * commits since the last snapshot. The snapshot is written while the transactions go on.
+     * @return the number of keys in the snapshot, -1 if the commits are not logged
+     * @throws IOException if the snapshot could not be written, the previous one is then still used
+     */
+    public abstract int snapshot() throws IOException;
+
     public CCAlgorithm(RemoteHandler remote, HDFSLogger log) {
         this.remote = remote;
         CCAlgorithm.log = log;
     }
 
+    /**
+     * @return the stage through which the commits of this algorithm are applied and persisted
+     */
+    public GroupCommit getGroupCommit() {
+        return groupCommit;
+    }
+
     /**
      * Checks if the key is managed locally or by another {@link TransactionManager}
      * @param localityHash hash of the key
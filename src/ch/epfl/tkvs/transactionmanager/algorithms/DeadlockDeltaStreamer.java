@@ -0,0 +1,113 @@
+package ch.epfl.tkvs.transactionmanager.algorithms;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import ch.epfl.tkvs.transactionmanager.TransactionManager;
+import ch.epfl.tkvs.transactionmanager.communication.ConnectionPool;
+import ch.epfl.tkvs.transactionmanager.communication.DeadlockDeltaMessage;
+import ch.epfl.tkvs.transactionmanager.communication.WireProtocol;
+import ch.epfl.tkvs.transactionmanager.lockingunit.DeadlockGraph;
+import ch.epfl.tkvs.transactionmanager.lockingunit.DeadlockGraphDelta;
+import ch.epfl.tkvs.transactionmanager.lockingunit.LockingUnit;
+import ch.epfl.tkvs.yarn.HDFSLogger;
+import ch.epfl.tkvs.yarn.appmaster.AppMaster;
+
+
+/**
+ * Sends to the {@link AppMaster} the changes of the dependencies between the distributed transactions of an
+ * {@link Algo2PL}, as soon as they happen. Only the dependencies which may be part of a deadlock spanning several
+ * {@link TransactionManager}s are sent, see {@link DeadlockGraph#getDependenciesBetween(java.util.Set)}, and nothing is
+ * sent as long as they do not change.
+ * 
+ * The thread is woken up by the changes of the deadlock graph, and the deltas are streamed on a single connection to
+ * the AppMaster, which stays open.
+ */
+class DeadlockDeltaStreamer extends Thread {
+
+    // Maximum time between two checks of the distributed transactions, since a transaction becomes distributed without
+    // changing the deadlock graph. A delta which could not be sent is sent again after it too.
+    private static final long DISTRIBUTED_CHECK_PERIOD_MS = 100;
+
+    private final Algo2PL algorithm;
+    private final LockingUnit lockingUnit;
+    private final HDFSLogger log;
+    private final ConnectionPool appMaster = new ConnectionPool(WireProtocol.JSON, 1);
+
+    // The dependencies known by the AppMaster
+    private HashSet<Long> sentDependencies = new HashSet<>();
+    private long sequenceNumber = 0;
+    private long lastGraphVersion = -1;
+    private HashSet<Integer> lastDistributed = new HashSet<>();
+
+    DeadlockDeltaStreamer(Algo2PL algorithm, LockingUnit lockingUnit, HDFSLogger log) {
+        super("DeadlockDeltaStreamer");
+        this.algorithm = algorithm;
+        this.lockingUnit = lockingUnit;
+        this.log = log;
+        setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+        long seenGraphVersion = -1;
+        while (!isInterrupted()) {
+            // The version is read first, a change during the computation is seen at the next check
+            long graphVersion;
+            try {
+                graphVersion = lockingUnit.awaitDeadlockGraphChange(seenGraphVersion, DISTRIBUTED_CHECK_PERIOD_MS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            seenGraphVersion = graphVersion;
+            HashSet<Integer> distributed = algorithm.getDistributedTransactions();
+            if (graphVersion == lastGraphVersion && distributed.equals(lastDistributed)) {
+                continue;
+            }
+
+            HashSet<Long> dependencies = distributed.isEmpty() ? new HashSet<Long>() : lockingUnit.getDependenciesBetween(distributed);
+            if (send(dependencies)) {
+                lastGraphVersion = graphVersion;
+                lastDistributed = distributed;
+            }
+        }
+        appMaster.close();
+    }
+
+    // Sends the difference with the dependencies known by the AppMaster, returns false if it must be sent again
+    private boolean send(HashSet<Long> dependencies) {
+        long[] added = difference(dependencies, sentDependencies);
+        long[] removed = difference(sentDependencies, dependencies);
+        if (added.length == 0 && removed.length == 0) {
+            return true;
+        }
+
+        HashSet<Integer> involved = new HashSet<>();
+        for (long dependency : dependencies) {
+            involved.add(DeadlockGraph.waitingTransaction(dependency));
+            involved.add(DeadlockGraph.waitedForTransaction(dependency));
+        }
+        try {
+            DeadlockGraphDelta delta = new DeadlockGraphDelta(TransactionManager.getLocalityHash(), sequenceNumber, added, removed, algorithm.getCosts(involved));
+            TransactionManager.streamToAppMaster(appMaster, new DeadlockDeltaMessage(delta));
+        } catch (IOException e) {
+            log.error("Cannot send the deadlock graph delta", e, DeadlockDeltaStreamer.class);
+            return false;
+        }
+        sequenceNumber++;
+        sentDependencies = dependencies;
+        return true;
+    }
+
+    private static long[] difference(HashSet<Long> dependencies, HashSet<Long> toExclude) {
+        long[] result = new long[dependencies.size()];
+        int count = 0;
+        for (long dependency : dependencies) {
+            if (!toExclude.contains(dependency)) {
+                result[count++] = dependency;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+}
@@ -3,6 +3,7 @@ package ch.epfl.tkvs.transactionmanager.algorithms;
 import static ch.epfl.tkvs.transactionmanager.lockingunit.LockCompatibilityTable.newCompatibilityList;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -17,6 +18,7 @@ import ch.epfl.tkvs.transactionmanager.communication.requests.ReadRequest;
 import ch.epfl.tkvs.transactionmanager.communication.requests.WriteRequest;
 import ch.epfl.tkvs.transactionmanager.communication.responses.GenericSuccessResponse;
 import ch.epfl.tkvs.transactionmanager.communication.responses.ReadResponse;
+import ch.epfl.tkvs.transactionmanager.lockingunit.LockCompatibilityTable;
 import ch.epfl.tkvs.transactionmanager.lockingunit.LockType;
 import ch.epfl.tkvs.yarn.HDFSLogger;
 
@@ -30,6 +32,7 @@ public class MVCC2PL extends Algo2PL {
         lockCompatibility.put(Lock.READ_LOCK, newCompatibilityList(Lock.READ_LOCK, Lock.WRITE_LOCK));
         lockCompatibility.put(Lock.WRITE_LOCK, newCompatibilityList(Lock.READ_LOCK));
         lockCompatibility.put(Lock.COMMIT_LOCK, newCompatibilityList());
+        LockCompatibilityTable.addGapLocks(lockCompatibility);
         lockingUnit.initWithLockCompatibilityTable(lockCompatibility);
 
     }
@@ -49,13 +52,8 @@ public class MVCC2PL extends Algo2PL {
         // if the key is stored locally, process it locally or use remote handler to forward the request to the correct
         // Tranasction manager.
         if (isLocalKey(request.getLocalityHash())) {
-            Lock lock = MVCC2PL.Lock.READ_LOCK;
             try {
-                // if lock is already held, do not request again
-                if (!transaction.checkLock(key, lock)) {
-                    lockingUnit.lock(xid, key, lock);
-                    transaction.addLock(key, lock);
-                }
+                lockForRead(transaction, key);
 
                 Serializable value = versioningUnit.get(xid, key);
                 if (value == null)
@@ -70,6 +68,16 @@ public class MVCC2PL extends Algo2PL {
         }
     }
 
+    @Override
+    protected void lockForRead(Transaction_2PL transaction, Serializable key) throws AbortException {
+        Lock lock = MVCC2PL.Lock.READ_LOCK;
+        // if lock is already held, do not request again
+        if (!transaction.checkLock(key, lock)) {
+            lockingUnit.lock(transaction.transactionId, key, lock);
+            transaction.addLock(key, lock);
+        }
+    }
+
     @Override
     public GenericSuccessResponse write(WriteRequest request) {
         int xid = request.getTransactionId();
@@ -113,6 +121,7 @@ public class MVCC2PL extends Algo2PL {
             return new GenericSuccessResponse(new TransactionNotLiveException());
         }
         try {
+            List<String> insertedKeys = new ArrayList<>();
             for (Serializable key : transaction.getLockedKeys()) {
 
                 // promote each write lock to commit lock
@@ -120,8 +129,15 @@ public class MVCC2PL extends Algo2PL {
                     lockingUnit.promote(xid, key, transaction.getLocksForKey(key), Lock.COMMIT_LOCK);
                     // remove old locks
                     transaction.setLock(key, Arrays.asList((LockType) Lock.COMMIT_LOCK));
+                    if (key instanceof String && !versioningUnit.isCommitted(key)) {
+                        insertedKeys.add((String) key);
+                    }
                 }
             }
+            // Like the writes, the inserts only wait for the scans once they commit
+            for (String key : insertedKeys) {
+                lockGapForInsert(transaction, key);
+            }
             transaction.isPrepared = true;
             return new GenericSuccessResponse();
 
@@ -1,20 +1,27 @@
 package ch.epfl.tkvs.transactionmanager.algorithms;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.codehaus.jettison.json.JSONObject;
 
 import ch.epfl.tkvs.exceptions.AbortException;
+import ch.epfl.tkvs.exceptions.CommitNotPersistedException;
 import ch.epfl.tkvs.exceptions.CommitWithoutPrepareException;
 import ch.epfl.tkvs.exceptions.TransactionAlreadyExistsException;
 import ch.epfl.tkvs.exceptions.TransactionNotLiveException;
 import ch.epfl.tkvs.exceptions.ValueDoesNotExistException;
+import ch.epfl.tkvs.keyvaluestore.Snapshot;
+import ch.epfl.tkvs.keyvaluestore.WriteAheadLog;
 import ch.epfl.tkvs.transactionmanager.Transaction;
 import ch.epfl.tkvs.transactionmanager.TransactionManager;
 import ch.epfl.tkvs.transactionmanager.communication.TransactionTerminateMessage;
@@ -23,11 +30,14 @@ import ch.epfl.tkvs.transactionmanager.communication.requests.BeginRequest;
 import ch.epfl.tkvs.transactionmanager.communication.requests.CommitRequest;
 import ch.epfl.tkvs.transactionmanager.communication.requests.PrepareRequest;
 import ch.epfl.tkvs.transactionmanager.communication.requests.ReadRequest;
+import ch.epfl.tkvs.transactionmanager.communication.requests.ScanRequest;
 import ch.epfl.tkvs.transactionmanager.communication.requests.WriteRequest;
 import ch.epfl.tkvs.transactionmanager.communication.responses.GenericSuccessResponse;
 import ch.epfl.tkvs.transactionmanager.communication.responses.MinAliveTransactionResponse;
 import ch.epfl.tkvs.transactionmanager.communication.responses.ReadResponse;
+import ch.epfl.tkvs.transactionmanager.communication.responses.ScanResponse;
 import ch.epfl.tkvs.transactionmanager.communication.utils.JSON2MessageConverter;
+import ch.epfl.tkvs.transactionmanager.versioningunit.GarbageCollectionReport;
 import ch.epfl.tkvs.transactionmanager.versioningunit.VersioningUnitMVTO;
 import ch.epfl.tkvs.yarn.HDFSLogger;
 
@@ -96,6 +106,29 @@ public class MVTO extends CCAlgorithm {
         }
     }
 
+    @Override
+    public ScanResponse scan(ScanRequest request) {
+        int xid = request.getTransactionId();
+
+        Transaction transaction = transactions.get(xid);
+
+        // Transaction not begun or already terminated
+        if (transaction == null) {
+            return new ScanResponse(new TransactionNotLiveException());
+        }
+        if (isLocalKey(request.getLocalityHash())) {
+            // A snapshot of the range at the timestamp of the transaction
+            Map<Serializable, Serializable> versions = versioningUnit.scan(xid, request.getFrom(), request.getTo(), request.getLimit());
+            LinkedHashMap<String, String> entries = new LinkedHashMap<>();
+            for (Map.Entry<Serializable, Serializable> version : versions.entrySet()) {
+                entries.put((String) version.getKey(), (String) version.getValue());
+            }
+            return new ScanResponse(entries);
+        } else {
+            return remote.scan(transaction, request);
+        }
+    }
+
     @Override
     public GenericSuccessResponse begin(BeginRequest request) {
         int xid = request.getTransactionId();
@@ -129,22 +162,42 @@ public class MVTO extends CCAlgorithm {
         if (!transaction.isPrepared) {
             return new GenericSuccessResponse(new CommitWithoutPrepareException());
         }
-        terminate(transaction, true);
-        return new GenericSuccessResponse();
+        return terminate(transaction, true);
 
     }
 
     private ConcurrentHashMap<Integer, Transaction> transactions;
 
-    // Does cleaning up after end of transaction
-    private void terminate(Transaction transaction, boolean success) {
+    // Does cleaning up after end of transaction, returns the response to the commit
+    private GenericSuccessResponse terminate(final Transaction transaction, boolean success) {
+        GenericSuccessResponse response = new GenericSuccessResponse();
         if (primaryTransactions.contains(transaction.transactionId)) {
             primaryTerminated.add(transaction.transactionId);
         }
 
         log.info("Terminating transaction with status " + success, MVTO.class);
         if (success) {
-            versioningUnit.commit(transaction.transactionId);
+            final AtomicBoolean applied = new AtomicBoolean(false);
+            try {
+                groupCommit.commit(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        versioningUnit.commit(transaction.transactionId);
+                        applied.set(true);
+                    }
+                });
+            } catch (IOException e) {
+                log.error("Cannot persist the commit of " + transaction.transactionId, e, MVTO.class);
+                if (applied.get()) {
+                    response = new GenericSuccessResponse(false, COMMIT_IN_DOUBT);
+                } else {
+                    // Refused before any of its writes became visible
+                    versioningUnit.abort(transaction.transactionId);
+                    success = false;
+                    response = new GenericSuccessResponse(new CommitNotPersistedException());
+                }
+            }
         } else {
             versioningUnit.abort(transaction.transactionId);
         }
@@ -153,6 +206,7 @@ public class MVTO extends CCAlgorithm {
 
         transactions.remove(transaction.transactionId);
         primaryTransactions.remove(new Integer(transaction.transactionId));
+        return response;
     }
 
     @Override
@@ -195,6 +249,18 @@ public class MVTO extends CCAlgorithm {
         return transactions.get(xid);
     }
 
+    @Override
+    public int recover(Snapshot snapshot, WriteAheadLog log) throws IOException {
+        int replayed = versioningUnit.recover(snapshot, log);
+        groupCommit.setLog(log);
+        return replayed;
+    }
+
+    @Override
+    public int snapshot() throws IOException {
+        return versioningUnit.snapshot();
+    }
+
     @Override
     public void checkpoint() {
 
@@ -217,7 +283,8 @@ public class MVTO extends CCAlgorithm {
         }
 
         if (response != null) {
-            versioningUnit.garbageCollector(response.getTransactionId());
+            GarbageCollectionReport report = versioningUnit.garbageCollector(response.getTransactionId());
+            log.info("Garbage collection: " + report, getClass());
         }
 
     }
@@ -1,25 +1,24 @@
 package ch.epfl.tkvs.transactionmanager.algorithms;
 
-import static ch.epfl.tkvs.transactionmanager.communication.utils.JSON2MessageConverter.parseJSON;
-
 import java.io.IOException;
 
-import org.codehaus.jettison.json.JSONObject;
-
 import ch.epfl.tkvs.exceptions.AbortException;
 import ch.epfl.tkvs.exceptions.PrepareException;
 import ch.epfl.tkvs.exceptions.RemoteTMException;
 import ch.epfl.tkvs.transactionmanager.Transaction;
 import ch.epfl.tkvs.transactionmanager.TransactionManager;
+import ch.epfl.tkvs.transactionmanager.WaitAdmission;
 import ch.epfl.tkvs.transactionmanager.communication.Message;
 import ch.epfl.tkvs.transactionmanager.communication.requests.AbortRequest;
 import ch.epfl.tkvs.transactionmanager.communication.requests.BeginRequest;
 import ch.epfl.tkvs.transactionmanager.communication.requests.CommitRequest;
 import ch.epfl.tkvs.transactionmanager.communication.requests.PrepareRequest;
 import ch.epfl.tkvs.transactionmanager.communication.requests.ReadRequest;
+import ch.epfl.tkvs.transactionmanager.communication.requests.ScanRequest;
 import ch.epfl.tkvs.transactionmanager.communication.requests.WriteRequest;
 import ch.epfl.tkvs.transactionmanager.communication.responses.GenericSuccessResponse;
 import ch.epfl.tkvs.transactionmanager.communication.responses.ReadResponse;
+import ch.epfl.tkvs.transactionmanager.communication.responses.ScanResponse;
 import ch.epfl.tkvs.transactionmanager.communication.utils.JSON2MessageConverter.InvalidMessageException;
 import ch.epfl.tkvs.yarn.HDFSLogger;
 
@@ -39,17 +38,27 @@ public class RemoteHandler {
         this.log = log;
     }
 
-    private Message sendToRemoteTM(Message request, int localityHash, Class<? extends Message> messageClass) throws IOException, InvalidMessageException {
+    private Message sendToRemoteTM(Message request, int localityHash, Class<? extends Message> messageClass) throws IOException, InvalidMessageException, AbortException {
 
         log.info(request, RemoteHandler.class);
-        JSONObject response = TransactionManager.sendToTransactionManager(localityHash, request, true);
-        Message responseMessage = parseJSON(response, messageClass);
+        Message responseMessage;
+        // The remote request may wait for a transaction whose next request is queued here
+        WaitAdmission.beginWait();
+        try {
+            responseMessage = TransactionManager.sendToTransactionManager(localityHash, request, true);
+        } finally {
+            WaitAdmission.endWait();
+        }
+        if (!messageClass.isInstance(responseMessage)) {
+            throw new InvalidMessageException("Expected a " + messageClass.getSimpleName() + " but got " + responseMessage);
+        }
         log.info(responseMessage + "<--" + request, RemoteHandler.class);
         return responseMessage;
 
     }
 
-    private void sendToRemoteTM(Message request, int localityHash) throws IOException {
+    // Sends a message without waiting for its response
+    protected void sendToRemoteTM(Message request, int localityHash) throws IOException {
 
         TransactionManager.sendToTransactionManager(localityHash, request, false);
     }
@@ -66,7 +75,7 @@ public class RemoteHandler {
         hash = hash % TransactionManager.getNumberOfTMs();
         if (!t.remoteIsPrepared.containsKey(hash)) {
             try {
-                GenericSuccessResponse response = (GenericSuccessResponse) sendToRemoteTM(new BeginRequest(t.transactionId, false), hash, GenericSuccessResponse.class);
+                GenericSuccessResponse response = (GenericSuccessResponse) sendToRemoteTM(new BeginRequest(t.transactionId, false, TransactionManager.getLocalityHash()), hash, GenericSuccessResponse.class);
                 if (!response.getSuccess()) {
 
                     throw new RemoteTMException(response.getExceptionMessage());
@@ -108,6 +117,34 @@ public class RemoteHandler {
 
     }
 
+    /**
+     * Performs a remote scan on secondary {@link TransactionManager} for distributed transaction Invokes distributed
+     * abort in case of error
+     *
+     * @param t The transaction running on primary {@link TransactionManager}
+     * @param request the original request received by primary {@link TransactionManager}
+     * @return the response from the secondary {@link TransactionManager}
+     */
+    public ScanResponse scan(Transaction t, ScanRequest request) {
+        int tmHash = request.getLocalityHash();
+        try {
+            begin(t, tmHash);
+            ScanResponse sr = (ScanResponse) sendToRemoteTM(request, tmHash, ScanResponse.class);
+            if (!sr.getSuccess()) {
+                throw new RemoteTMException(sr.getExceptionMessage());
+            }
+            return sr;
+        } catch (IOException | InvalidMessageException ex) {
+            log.fatal("Remote error", ex, RemoteHandler.class);
+            abortAll(t);
+            return new ScanResponse(new RemoteTMException(ex));
+        } catch (AbortException e) {
+            abortAll(t);
+            return new ScanResponse(e);
+        }
+
+    }
+
     /**
      * Performs a remote write on secondary {@link TransactionManager} for distributed transaction Invokes distributed
      * abort in case of error
@@ -159,10 +196,11 @@ public class RemoteHandler {
             }
 
             CommitRequest cr = new CommitRequest(t.transactionId);
-            localAlgo.commit(cr);
+            // The others are prepared, they commit unless the local commit was refused, which aborted them
+            response = localAlgo.commit(cr);
             commitOthers(t);
 
-            return new GenericSuccessResponse();
+            return response;
 
         } catch (IOException | InvalidMessageException ex) {
             abortAll(t);
@@ -180,6 +218,9 @@ public class RemoteHandler {
      * @param t Transaction to be committed
      */
     private void commitOthers(Transaction t) throws IOException {
+        if (t.areAllRemoteAborted) {
+            return;
+        }
         CommitRequest cr = new CommitRequest(t.transactionId);
         for (Integer remoteHash : t.remoteIsPrepared.keySet()) {
             sendToRemoteTM(cr, remoteHash);
@@ -204,6 +245,39 @@ public class RemoteHandler {
         if (t.areAllRemoteAborted) {
             return;
         }
+        sendAbortToOthers(t);
+        t.areAllRemoteAborted = true;
+
+    }
+
+    /**
+     * Sends abort message to secondary {@link TransactionManager}s of a primary transaction wounded under the WOUND_WAIT
+     * policy, since its thread may be waiting on one of them. It is aborted locally by its own thread, which may still
+     * begin it on other TransactionManagers, so they are not all marked aborted.
+     *
+     * @param t The wounded transaction
+     */
+    public void woundOthers(Transaction t) {
+        sendAbortToOthers(t);
+    }
+
+    /**
+     * Sends abort message to the primary {@link TransactionManager} of a secondary transaction wounded under the
+     * WOUND_WAIT policy, since its thread may be waiting there or on another secondary TransactionManager. The primary
+     * TransactionManager aborts it on all of them.
+     *
+     * @param t The wounded secondary transaction
+     * @param primaryHash The locality hash of the primary TransactionManager
+     */
+    public void abortPrimary(Transaction t, int primaryHash) {
+        try {
+            sendToRemoteTM(new AbortRequest(t.transactionId), primaryHash);
+        } catch (IOException ex) {
+            log.error(ex, RemoteHandler.class);
+        }
+    }
+
+    private void sendAbortToOthers(Transaction t) {
         AbortRequest ar = new AbortRequest(t.transactionId);
 
         for (Integer remoteHash : t.remoteIsPrepared.keySet()) {
@@ -214,7 +288,5 @@ public class RemoteHandler {
                 log.error(ex, RemoteHandler.class);
             }
         }
-        t.areAllRemoteAborted = true;
-
     }
 }
@@ -2,6 +2,9 @@ package ch.epfl.tkvs.transactionmanager.algorithms;
 
 import java.io.Serializable;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import ch.epfl.tkvs.exceptions.AbortException;
 import ch.epfl.tkvs.exceptions.TransactionNotLiveException;
@@ -12,6 +15,7 @@ import ch.epfl.tkvs.transactionmanager.communication.requests.ReadRequest;
 import ch.epfl.tkvs.transactionmanager.communication.requests.WriteRequest;
 import ch.epfl.tkvs.transactionmanager.communication.responses.GenericSuccessResponse;
 import ch.epfl.tkvs.transactionmanager.communication.responses.ReadResponse;
+import ch.epfl.tkvs.transactionmanager.lockingunit.LockCompatibilityTable;
 import ch.epfl.tkvs.transactionmanager.lockingunit.LockType;
 import ch.epfl.tkvs.transactionmanager.lockingunit.LockType.Default;
 import ch.epfl.tkvs.yarn.HDFSLogger;
@@ -21,7 +25,12 @@ public class Simple2PL extends Algo2PL {
 
     public Simple2PL(RemoteHandler rh, HDFSLogger log) {
         super(rh, log);
-        lockingUnit.init();
+
+        Map<LockType, List<LockType>> lockCompatibility = new HashMap<>();
+        lockCompatibility.put(Default.READ_LOCK, LockCompatibilityTable.newCompatibilityList(Default.READ_LOCK));
+        lockCompatibility.put(Default.WRITE_LOCK, LockCompatibilityTable.newCompatibilityList());
+        LockCompatibilityTable.addGapLocks(lockCompatibility);
+        lockingUnit.initWithLockCompatibilityTable(lockCompatibility);
     }
 
     @Override
@@ -39,13 +48,8 @@ public class Simple2PL extends Algo2PL {
         // Tranasction manager.
 
         if (isLocalKey(request.getLocalityHash())) {
-            LockType lock = Default.READ_LOCK;
             try {
-                // if read or write lock is already held , do not request again
-                if (!transaction.checkLock(key, lock) && !transaction.checkLock(key, Default.WRITE_LOCK)) {
-                    lockingUnit.lock(xid, key, lock);
-                    transaction.addLock(key, lock);
-                }
+                lockForRead(transaction, key);
                 Serializable value = versioningUnit.get(xid, key);
                 if (value == null)
                     throw new ValueDoesNotExistException();
@@ -60,6 +64,16 @@ public class Simple2PL extends Algo2PL {
 
     }
 
+    @Override
+    protected void lockForRead(Transaction_2PL transaction, Serializable key) throws AbortException {
+        LockType lock = Default.READ_LOCK;
+        // if read or write lock is already held , do not request again
+        if (!transaction.checkLock(key, lock) && !transaction.checkLock(key, Default.WRITE_LOCK)) {
+            lockingUnit.lock(transaction.transactionId, key, lock);
+            transaction.addLock(key, lock);
+        }
+    }
+
     @Override
     public GenericSuccessResponse write(WriteRequest request) {
         int xid = request.getTransactionId();
@@ -79,6 +93,9 @@ public class Simple2PL extends Algo2PL {
                 if (!transaction.checkLock(key, lock)) {
                     lockingUnit.promote(xid, key, transaction.getLocksForKey(key), lock);
                     transaction.setLock(key, Arrays.asList(lock));
+                    if (key instanceof String && !versioningUnit.isCommitted(key)) {
+                        lockGapForInsert(transaction, (String) key);
+                    }
                 }
                 versioningUnit.put(xid, key, value);
                 return new GenericSuccessResponse();
@@ -0,0 +1,194 @@
+package ch.epfl.tkvs.transactionmanager.communication;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import ch.epfl.tkvs.transactionmanager.communication.utils.JSON2MessageConverter.InvalidMessageException;
+
+
+/**
+ * A connection to a server which stays open between the requests and is shared by the threads which send them. Each
+ * request gets an id, and a thread reads the responses and hands each one to the thread waiting for it, so the requests
+ * of different threads are in flight at the same time and the server can answer them in any order.
+ * 
+ * Once the connection fails, the requests waiting for a response fail too, and it cannot be used anymore.
+ * 
+ * @see ConnectionPool
+ */
+public class ClientConnection {
+
+    private final String address;
+    private final WireProtocol protocol;
+    private final Socket sock;
+    private final OutputStream out;
+    // Held while a request is written, a lock rather than a monitor as the write can block
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final InputStream in;
+
+    private final AtomicInteger nextRequestId = new AtomicInteger(1);
+    private final ConcurrentHashMap<Integer, PendingRequest> pendingRequests = new ConcurrentHashMap<Integer, PendingRequest>();
+    private volatile boolean closed = false;
+
+    // A request waiting for its response
+    private static class PendingRequest {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Message response;
+        private volatile IOException failure;
+
+        void complete(Message response, IOException failure) {
+            this.response = response;
+            this.failure = failure;
+            done.countDown();
+        }
+    }
+
+    /**
+     * Opens a connection.
+     * 
+     * @param ip the ip of the server
+     * @param port the port of the server
+     * @param protocol the protocol of the connection
+     * @throws IOException if the server cannot be reached
+     */
+    public ClientConnection(String ip, int port, WireProtocol protocol) throws IOException {
+        this.address = ip + ":" + port;
+        this.protocol = protocol;
+        sock = new Socket(ip, port);
+        // The requests are small and each one is flushed on its own
+        sock.setTcpNoDelay(true);
+        out = new BufferedOutputStream(sock.getOutputStream());
+        in = new BufferedInputStream(sock.getInputStream());
+        protocol.start(out);
+
+        Thread reader = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                readResponses();
+            }
+        }, "Connection to " + address);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Sends a request.
+     * 
+     * @param request the request to send
+     * @param shouldWait whether one should wait for the response
+     * @return the response or null if !shouldWait
+     * @throws IOException in case of network failure, or if the connection is closed
+     */
+    public Message send(Message request, boolean shouldWait) throws IOException {
+        int requestId = nextRequestId.getAndIncrement();
+        PendingRequest pending = null;
+        if (shouldWait) {
+            // Registered before it is sent, as the response may come back before the write returns
+            pending = new PendingRequest();
+            pendingRequests.put(requestId, pending);
+        }
+
+        try {
+            writeLock.lock();
+            try {
+                if (closed) {
+                    throw new IOException("Connection to " + address + " is closed");
+                }
+                protocol.write(requestId, request, out);
+                out.flush();
+            } finally {
+                writeLock.unlock();
+            }
+        } catch (IOException e) {
+            pendingRequests.remove(requestId);
+            close(e);
+            throw e;
+        }
+
+        if (pending == null) {
+            return null;
+        }
+        try {
+            pending.done.await();
+        } catch (InterruptedException e) {
+            pendingRequests.remove(requestId);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the response to " + request);
+        }
+        if (pending.failure != null) {
+            throw new IOException("No response to " + request, pending.failure);
+        }
+        return pending.response;
+    }
+
+    private void readResponses() {
+        try {
+            MessageFrame frame;
+            while ((frame = protocol.readFrame(in)) != null) {
+                PendingRequest pending = pendingRequests.remove(frame.getRequestId());
+                // The responses to the requests which were not waited for are dropped
+                if (pending != null) {
+                    pending.complete(frame.getMessage(), null);
+                }
+            }
+            close(new EOFException("Connection closed by " + address));
+        } catch (IOException e) {
+            close(e);
+        } catch (InvalidMessageException e) {
+            close(new IOException(e));
+        }
+    }
+
+    /**
+     * @return whether the connection was closed, either by {@link #close()} or because it failed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return the number of requests waiting for their response
+     */
+    public int getPendingRequests() {
+        return pendingRequests.size();
+    }
+
+    /**
+     * Closes the connection, the requests waiting for their response fail.
+     */
+    public void close() {
+        close(new IOException("Connection to " + address + " closed"));
+    }
+
+    private void close(IOException cause) {
+        closed = true;
+        try {
+            sock.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+        Iterator<PendingRequest> it = pendingRequests.values().iterator();
+        while (it.hasNext()) {
+            PendingRequest pending = it.next();
+            it.remove();
+            pending.complete(null, cause);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "connection to " + address;
+    }
+}
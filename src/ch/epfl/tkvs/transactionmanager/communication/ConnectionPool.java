@@ -0,0 +1,122 @@
+package ch.epfl.tkvs.transactionmanager.communication;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * The connections of a client to the servers it sends requests to. A few {@link ClientConnection}s are opened to each
+ * server the first time they are needed, and kept open for the next requests: a request does not pay for a TCP
+ * handshake, and the client does not leave a socket in TIME_WAIT behind each request. The requests to a server are
+ * spread over its connections, each one carrying several requests at once.
+ * 
+ * A connection which fails is replaced by a new one at the next request.
+ */
+public class ConnectionPool {
+
+    public static final int DEFAULT_CONNECTIONS_PER_SERVER = 2;
+
+    private final WireProtocol protocol;
+    private final int connectionsPerServer;
+    // The connections to each server, by ip:port
+    private final ConcurrentHashMap<String, Slots> connections = new ConcurrentHashMap<String, Slots>();
+    private final AtomicInteger nextSlot = new AtomicInteger(0);
+
+    // The connections to a server, a slot being null until it is first used. A lock rather than a monitor guards them,
+    // as a connection is opened while holding it.
+    private static class Slots {
+
+        final ReentrantLock lock = new ReentrantLock();
+        final ClientConnection[] connections;
+
+        Slots(int size) {
+            connections = new ClientConnection[size];
+        }
+    }
+
+    public ConnectionPool(WireProtocol protocol, int connectionsPerServer) {
+        this.protocol = protocol;
+        this.connectionsPerServer = connectionsPerServer;
+    }
+
+    public ConnectionPool(WireProtocol protocol) {
+        this(protocol, DEFAULT_CONNECTIONS_PER_SERVER);
+    }
+
+    /**
+     * Sends a request to a server on one of the connections to it.
+     * 
+     * @param ip the ip of the server
+     * @param port the port of the server
+     * @param request the request to send
+     * @param shouldWait whether one should wait for the response
+     * @return the response or null if !shouldWait
+     * @throws IOException in case of network failure
+     */
+    public Message send(String ip, int port, Message request, boolean shouldWait) throws IOException {
+        return getConnection(ip, port).send(request, shouldWait);
+    }
+
+    private ClientConnection getConnection(String ip, int port) throws IOException {
+        String address = ip + ":" + port;
+        Slots slots = connections.get(address);
+        if (slots == null) {
+            connections.putIfAbsent(address, new Slots(connectionsPerServer));
+            slots = connections.get(address);
+        }
+
+        int slot = (nextSlot.getAndIncrement() & Integer.MAX_VALUE) % connectionsPerServer;
+        slots.lock.lock();
+        try {
+            ClientConnection connection = slots.connections[slot];
+            if (connection == null || connection.isClosed()) {
+                connection = new ClientConnection(ip, port, protocol);
+                slots.connections[slot] = connection;
+            }
+            return connection;
+        } finally {
+            slots.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of open connections
+     */
+    public int getOpenConnections() {
+        int open = 0;
+        for (Slots slots : connections.values()) {
+            slots.lock.lock();
+            try {
+                for (ClientConnection connection : slots.connections) {
+                    if (connection != null && !connection.isClosed()) {
+                        open++;
+                    }
+                }
+            } finally {
+                slots.lock.unlock();
+            }
+        }
+        return open;
+    }
+
+    /**
+     * Closes all the connections.
+     */
+    public void close() {
+        for (Slots slots : connections.values()) {
+            slots.lock.lock();
+            try {
+                for (int i = 0; i < slots.connections.length; i++) {
+                    if (slots.connections[i] != null) {
+                        slots.connections[i].close();
+                        slots.connections[i] = null;
+                    }
+                }
+            } finally {
+                slots.lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package ch.epfl.tkvs.transactionmanager.communication;
+
+import java.io.IOException;
+
+import ch.epfl.tkvs.transactionmanager.communication.utils.Base64Utils;
+import ch.epfl.tkvs.transactionmanager.lockingunit.DeadlockGraphDelta;
+
+
+public class DeadlockDeltaMessage extends Message {
+
+    @JSONAnnotation(key = JSONCommunication.KEY_FOR_MESSAGE_TYPE)
+    public static final String MESSAGE_TYPE = "deadlock_delta_message";
+
+    @JSONAnnotation(key = JSONCommunication.KEY_FOR_DEAD_LOCK_GRAPH)
+    private String encodedDelta;
+
+    public DeadlockDeltaMessage(DeadlockGraphDelta delta) throws IOException {
+        encodedDelta = Base64Utils.convertToBase64(delta);
+    }
+
+    @JSONConstructor
+    public DeadlockDeltaMessage(String encodedDelta) {
+        this.encodedDelta = encodedDelta;
+    }
+
+    /**
+     * Returns the delta of the dead lock graph contained in the message.
+     * 
+     * @return the delta if available or null (be careful)
+     * @throws ClassNotFoundException in case the DeadlockGraphDelta class is not in your classpath
+     * @throws IOException in case of decoding problem
+     */
+    public DeadlockGraphDelta getDelta() throws ClassNotFoundException, IOException {
+        if (encodedDelta == null) {
+            return null;
+        }
+
+        return (DeadlockGraphDelta) Base64Utils.convertFromBase64(encodedDelta);
+    }
+
+}
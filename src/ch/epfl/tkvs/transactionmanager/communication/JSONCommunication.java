@@ -5,14 +5,24 @@ public class JSONCommunication {
     public static final String KEY_FOR_KEY = "key";
     public static final String KEY_FOR_HASH = "hash";
     public static final String KEY_FOR_VALUE = "value";
+    public static final String KEY_FOR_FROM = "from";
+    public static final String KEY_FOR_TO = "to";
+    public static final String KEY_FOR_LIMIT = "limit";
+    public static final String KEY_FOR_ENTRIES = "entries";
     public static final String KEY_FOR_TRANSACTION_ID = "transaction_id";
     public static final String KEY_FOR_PORT = "port";
     public static final String KEY_FOR_IP = "ip";
     public static final String KEY_FOR_SUCCESS = "success";
     public static final String KEY_FOR_MESSAGE_TYPE = "type";
+    public static final String KEY_FOR_REQUEST_ID = "request_id";
     public static final String KEY_FOR_DEAD_LOCK_GRAPH = "deadlock_graph";
     public static final String KEY_FOR_ROUTING_TABLE = "routing_table";
     public static final String KEY_FOR_EXCEPTION = "exception";
     public static final String KEY_FOR_ALGO_CONFIG = "algorithm";
+    public static final String KEY_FOR_WAL_CONFIG = "wal";
+    public static final String KEY_FOR_STORAGE_CONFIG = "storage";
+    public static final String KEY_FOR_DATA_CONFIG = "data";
     public static final String KEY_FOR_PRIMARY_MSG = "primary";
+    // Sorted after the other keys of the begin request, so that the binary field numbers of these do not change
+    public static final String KEY_FOR_TRANSACTION_PRIMARY = "transaction_primary";
 }
@@ -0,0 +1,27 @@
+package ch.epfl.tkvs.transactionmanager.communication;
+
+/**
+ * A message with the id of the request to which it belongs. A client numbers the requests it sends on a connection, and
+ * each response carries the id of its request, so several requests can be in flight on the same connection and their
+ * responses can come back in any order.
+ * 
+ * @see WireProtocol
+ */
+public class MessageFrame {
+
+    private final int requestId;
+    private final Message message;
+
+    public MessageFrame(int requestId, Message message) {
+        this.requestId = requestId;
+        this.message = message;
+    }
+
+    public int getRequestId() {
+        return requestId;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+}
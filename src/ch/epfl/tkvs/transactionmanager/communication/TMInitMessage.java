@@ -8,8 +8,9 @@ import ch.epfl.tkvs.yarn.RoutingTable;
 
 
 /**
- * Sent to each {@link TransactionManager} before it starts. Contains the routing table of the distributed system and
- * the concurrency control algorithm that the {@link TransactionManager} must select.
+ * Sent to each {@link TransactionManager} before it starts. Contains the routing table of the distributed system, the
+ * concurrency control algorithm that the {@link TransactionManager} must select, how it logs the committed writes,
+ * how it stores them and in which directory.
  */
 public class TMInitMessage extends Message {
 
@@ -19,13 +20,25 @@ public class TMInitMessage extends Message {
     @JSONAnnotation(key = JSONCommunication.KEY_FOR_ALGO_CONFIG)
     private String algoConfig;
 
+    @JSONAnnotation(key = JSONCommunication.KEY_FOR_WAL_CONFIG)
+    private String walConfig;
+
+    @JSONAnnotation(key = JSONCommunication.KEY_FOR_STORAGE_CONFIG)
+    private String storageConfig;
+
+    @JSONAnnotation(key = JSONCommunication.KEY_FOR_DATA_CONFIG)
+    private String dataConfig;
+
     @JSONAnnotation(key = JSONCommunication.KEY_FOR_ROUTING_TABLE)
     private String encodedRoutingTable;
 
     @JSONConstructor
-    public TMInitMessage(RoutingTable rt, String algoConfig) throws IOException {
+    public TMInitMessage(RoutingTable rt, String algoConfig, String walConfig, String storageConfig, String dataConfig) throws IOException {
         encodedRoutingTable = Base64Utils.convertToBase64(rt);
         this.algoConfig = algoConfig;
+        this.walConfig = walConfig;
+        this.storageConfig = storageConfig;
+        this.dataConfig = dataConfig;
     }
 
     /**
@@ -49,4 +62,29 @@ public class TMInitMessage extends Message {
     public String getConcurrencyControlConfig() {
         return algoConfig;
     }
+
+    /**
+     * Can return "none", or the fsync policy of the write-ahead log followed by the sync interval, e.g. "interval:100".
+     * @return The write-ahead log configuration selected by the user.
+     */
+    public String getWriteAheadLogConfig() {
+        return walConfig;
+    }
+
+    /**
+     * Can return "heap", or "offheap" followed by the capacity in MB, e.g. "offheap:2048".
+     * @return The storage engine selected by the user.
+     */
+    public String getStorageConfig() {
+        return storageConfig;
+    }
+
+    /**
+     * Can return "tmp", or the directory on the local disk of the write-ahead log, the snapshots and the log storage
+     * engine.
+     * @return The data directory selected by the user.
+     */
+    public String getDataConfig() {
+        return dataConfig;
+    }
 }
@@ -0,0 +1,235 @@
+package ch.epfl.tkvs.transactionmanager.communication;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+import ch.epfl.tkvs.transactionmanager.communication.utils.BinaryMessageConverter;
+import ch.epfl.tkvs.transactionmanager.communication.utils.JSON2MessageConverter;
+import ch.epfl.tkvs.transactionmanager.communication.utils.JSON2MessageConverter.InvalidMessageException;
+import ch.epfl.tkvs.transactionmanager.communication.utils.Message2JSONConverter;
+
+
+/**
+ * The ways the messages can be written on a connection. The client of a connection chooses the protocol: a binary
+ * connection starts with {@link #BINARY_MAGIC}, and any other connection is read as JSON, one message per line. So the
+ * nodes which only send JSON, like the AppMaster's handlers, keep working with the servers which accept both.
+ * 
+ * The clients use the protocol given by the system property {@value #PROTOCOL_PROPERTY}, "binary" by default or
+ * "json".
+ */
+public enum WireProtocol {
+
+    /**
+     * One JSON object per line, written by {@link Message2JSONConverter}.
+     */
+    JSON {
+
+        @Override
+        public void start(OutputStream out) {
+        }
+
+        @Override
+        public void write(int requestId, Message message, OutputStream out) throws IOException {
+            try {
+                JSONObject json = Message2JSONConverter.toJSON(message);
+                json.put(JSONCommunication.KEY_FOR_REQUEST_ID, requestId);
+                out.write(json.toString().getBytes(UTF8));
+                out.write('\n');
+            } catch (JSONException e) {
+                throw new IOException("Error while converting the message: " + e);
+            }
+        }
+
+        @Override
+        public MessageFrame readFrame(InputStream in) throws IOException, InvalidMessageException {
+            String line = readLine(in);
+            return line == null ? null : parseLine(line);
+        }
+
+        @Override
+        public int frameLength(ByteBuffer buffer) throws InvalidMessageException {
+            for (int i = buffer.position(); i < buffer.limit(); i++) {
+                if (buffer.get(i) == '\n') {
+                    return i - buffer.position() + 1;
+                }
+            }
+            if (buffer.remaining() > BinaryMessageConverter.MAX_FRAME_LENGTH) {
+                throw new InvalidMessageException("Line too long");
+            }
+            return -1;
+        }
+
+        @Override
+        public MessageFrame readFrame(byte[] bytes, int offset, int length) throws InvalidMessageException {
+            return parseLine(new String(bytes, offset, length - 1, UTF8));
+        }
+
+        private MessageFrame parseLine(String line) throws InvalidMessageException {
+            try {
+                JSONObject json = new JSONObject(line);
+                return new MessageFrame(json.optInt(JSONCommunication.KEY_FOR_REQUEST_ID, 0), JSON2MessageConverter.parseJSON(json));
+            } catch (JSONException e) {
+                throw new InvalidMessageException(e);
+            }
+        }
+    },
+
+    /**
+     * Length-prefixed frames written by {@link BinaryMessageConverter}.
+     */
+    BINARY {
+
+        @Override
+        public void start(OutputStream out) throws IOException {
+            out.write(BINARY_MAGIC);
+        }
+
+        @Override
+        public void write(int requestId, Message message, OutputStream out) throws IOException {
+            BinaryMessageConverter.writeFrame(requestId, message, out);
+        }
+
+        @Override
+        public MessageFrame readFrame(InputStream in) throws IOException, InvalidMessageException {
+            return BinaryMessageConverter.readFrame(in instanceof DataInputStream ? (DataInputStream) in : new DataInputStream(in));
+        }
+
+        @Override
+        public int frameLength(ByteBuffer buffer) throws InvalidMessageException {
+            if (buffer.remaining() < 4) {
+                return -1;
+            }
+            int length = buffer.getInt(buffer.position());
+            if (length <= 0 || length > BinaryMessageConverter.MAX_FRAME_LENGTH) {
+                throw new InvalidMessageException("Invalid frame length " + length);
+            }
+            return buffer.remaining() < 4 + length ? -1 : 4 + length;
+        }
+
+        @Override
+        public MessageFrame readFrame(byte[] bytes, int offset, int length) throws InvalidMessageException {
+            return BinaryMessageConverter.readFrame(bytes, offset + 4, length - 4);
+        }
+    };
+
+    /**
+     * The first byte of the binary connections, which cannot start a JSON message.
+     */
+    public static final int BINARY_MAGIC = 0xB1;
+
+    public static final String PROTOCOL_PROPERTY = "tkvs.protocol";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final WireProtocol clientProtocol = fromConfig(System.getProperty(PROTOCOL_PROPERTY, "binary"));
+
+    public static WireProtocol fromConfig(String config) {
+        return config.equalsIgnoreCase("json") ? JSON : BINARY;
+    }
+
+    /**
+     * @return the protocol with which the clients open their connections
+     */
+    public static WireProtocol getClientProtocol() {
+        return clientProtocol;
+    }
+
+    /**
+     * Finds out the protocol chosen by the client of a connection, on the server side.
+     * 
+     * @param in the stream of the connection, before anything is read from it
+     * @return the protocol of the connection
+     * @throws IOException in case of network failure
+     */
+    public static WireProtocol accept(BufferedInputStream in) throws IOException {
+        in.mark(1);
+        if (in.read() == BINARY_MAGIC) {
+            return BINARY;
+        }
+        in.reset();
+        return JSON;
+    }
+
+    // Reads a line without reading ahead, so that what follows it stays in the stream
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) {
+                return line.size() == 0 ? null : line.toString("UTF-8");
+            }
+            line.write(b);
+        }
+        return line.toString("UTF-8");
+    }
+
+    /**
+     * Starts a connection, on the client side.
+     * 
+     * @param out the stream of the connection, before anything is written to it
+     * @throws IOException in case of network failure
+     */
+    public abstract void start(OutputStream out) throws IOException;
+
+    /**
+     * @param requestId the id of the request to which the message belongs
+     * @param message the message to write
+     * @param out where to write it, which is not flushed
+     * @throws IOException in case of network failure or invalid message
+     */
+    public abstract void write(int requestId, Message message, OutputStream out) throws IOException;
+
+    /**
+     * Writes a message on a connection which carries a single request.
+     * 
+     * @see #write(int, Message, OutputStream)
+     */
+    public void write(Message message, OutputStream out) throws IOException {
+        write(0, message, out);
+    }
+
+    /**
+     * @param in the stream of the connection, which should be buffered
+     * @return the next message of the stream with its request id, null if the stream ends before it
+     * @throws IOException in case of network failure
+     * @throws InvalidMessageException if the message is not valid
+     */
+    public abstract MessageFrame readFrame(InputStream in) throws IOException, InvalidMessageException;
+
+    /**
+     * Finds the first frame of the bytes received on a connection which is read without blocking.
+     * 
+     * @param buffer the bytes received and not read yet, between its position and its limit, which are not changed
+     * @return the length of the first frame, -1 if it was not received whole yet
+     * @throws InvalidMessageException if the frame is not valid
+     */
+    public abstract int frameLength(ByteBuffer buffer) throws InvalidMessageException;
+
+    /**
+     * @param bytes where the frame was received
+     * @param offset where the frame starts
+     * @param length its length, as given by {@link #frameLength(ByteBuffer)}
+     * @return the message of the frame with its request id
+     * @throws InvalidMessageException if the message is not valid
+     */
+    public abstract MessageFrame readFrame(byte[] bytes, int offset, int length) throws InvalidMessageException;
+
+    /**
+     * Reads a message on a connection which carries a single request.
+     * 
+     * @see #readFrame(InputStream)
+     */
+    public Message read(InputStream in) throws IOException, InvalidMessageException {
+        MessageFrame frame = readFrame(in);
+        return frame == null ? null : frame.getMessage();
+    }
+}
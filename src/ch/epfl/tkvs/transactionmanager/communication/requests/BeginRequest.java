@@ -9,7 +9,8 @@ import ch.epfl.tkvs.transactionmanager.communication.Message;
 
 /**
  * This message is sent to {@link TransactionManager} to begin a transaction. The {@link #primary} is true if the
- * request is to create a primary {@link Transaction}, otherwise it is false
+ * request is to create a primary {@link Transaction}, otherwise it is false, and {@link #primaryHash} is the locality
+ * hash of the primary {@link TransactionManager}
  * 
  */
 
@@ -24,9 +25,12 @@ public class BeginRequest extends Message {
     @JSONAnnotation(key = JSONCommunication.KEY_FOR_PRIMARY_MSG)
     private boolean primary;
 
+    @JSONAnnotation(key = JSONCommunication.KEY_FOR_TRANSACTION_PRIMARY)
+    private int primaryHash;
+
     @Override
     public String toString() {
-        return MESSAGE_TYPE + " : t" + transactionId + "  primary?" + primary;
+        return MESSAGE_TYPE + " : t" + transactionId + "  primary?" + primary + (primary ? "" : " of " + primaryHash);
     }
 
     public int getTransactionId() {
@@ -37,15 +41,28 @@ public class BeginRequest extends Message {
         return primary;
     }
 
+    /**
+     * @return the locality hash of the primary {@link TransactionManager}, -1 for a primary transaction
+     */
+    public int getPrimaryHash() {
+        return primaryHash;
+    }
+
     @JSONConstructor
     public BeginRequest(int transactionId, boolean primary) {
         this.transactionId = transactionId;
         this.primary = primary;
+        this.primaryHash = -1;
     }
 
-    public BeginRequest(int transactionId) {
+    public BeginRequest(int transactionId, boolean primary, int primaryHash) {
         this.transactionId = transactionId;
-        this.primary = true;
+        this.primary = primary;
+        this.primaryHash = primaryHash;
+    }
+
+    public BeginRequest(int transactionId) {
+        this(transactionId, true);
     }
 
 }
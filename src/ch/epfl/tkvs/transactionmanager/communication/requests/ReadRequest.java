@@ -8,7 +8,7 @@ import ch.epfl.tkvs.transactionmanager.communication.JSONAnnotation;
 import ch.epfl.tkvs.transactionmanager.communication.JSONCommunication;
 import ch.epfl.tkvs.transactionmanager.communication.JSONConstructor;
 import ch.epfl.tkvs.transactionmanager.communication.Message;
-import ch.epfl.tkvs.transactionmanager.communication.utils.Base64Utils;
+import ch.epfl.tkvs.transactionmanager.communication.utils.SortKeyUtils;
 
 
 /**
@@ -29,11 +29,15 @@ public class ReadRequest extends Message {
     @JSONAnnotation(key = JSONCommunication.KEY_FOR_HASH)
     private int localityHash;
 
+    // Used by the binary decoding, which sets the fields
+    private ReadRequest() {
+    }
+
     @JSONConstructor
     public ReadRequest(int transactionId, Serializable key, int hash) {
         this.transactionId = transactionId;
         try {
-            this.encodedKey = Base64Utils.convertToBase64(key);
+            this.encodedKey = SortKeyUtils.encodeKey(key);
         } catch (IOException ex) {
             ex.printStackTrace();
         }
@@ -44,7 +48,7 @@ public class ReadRequest extends Message {
     public String toString() {
         String key;
         try {
-            key = Base64Utils.convertFromBase64(encodedKey).toString();
+            key = SortKeyUtils.decodeKey(encodedKey).toString();
         } catch (Exception ex) {
             key = encodedKey;
         }
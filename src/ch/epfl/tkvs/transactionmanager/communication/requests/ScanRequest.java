@@ -0,0 +1,81 @@
+package ch.epfl.tkvs.transactionmanager.communication.requests;
+
+import ch.epfl.tkvs.transactionmanager.TransactionManager;
+import ch.epfl.tkvs.transactionmanager.communication.JSONAnnotation;
+import ch.epfl.tkvs.transactionmanager.communication.JSONCommunication;
+import ch.epfl.tkvs.transactionmanager.communication.JSONConstructor;
+import ch.epfl.tkvs.transactionmanager.communication.Message;
+import ch.epfl.tkvs.transactionmanager.communication.utils.SortKeyUtils;
+
+
+/**
+ * This message is sent to a {@link TransactionManager} to get the keys of a range with their values, in ascending
+ * order. The bounds of the range are compared with the encoded keys, see {@link SortKeyUtils}. Only the keys of the
+ * {@link TransactionManager} in charge of the locality hash are scanned. A range is read in chunks of at most
+ * {@link #getLimit()} keys, the next chunk starting after the last key of the previous one.
+ */
+public class ScanRequest extends Message {
+
+    @JSONAnnotation(key = JSONCommunication.KEY_FOR_MESSAGE_TYPE)
+    public static final String MESSAGE_TYPE = "scan_request";
+
+    @JSONAnnotation(key = JSONCommunication.KEY_FOR_TRANSACTION_ID)
+    private int transactionId;
+
+    @JSONAnnotation(key = JSONCommunication.KEY_FOR_FROM)
+    private String from;
+
+    // Empty for a range up to the last key
+    @JSONAnnotation(key = JSONCommunication.KEY_FOR_TO)
+    private String to;
+
+    @JSONAnnotation(key = JSONCommunication.KEY_FOR_HASH)
+    private int localityHash;
+
+    @JSONAnnotation(key = JSONCommunication.KEY_FOR_LIMIT)
+    private int limit;
+
+    /**
+     * @param transactionId the transaction scanning the range
+     * @param from the first key of the range
+     * @param to the end of the range, which is not part of it, null for a range up to the last key
+     * @param hash the locality hash of the keys to scan
+     * @param limit the maximum number of keys of the chunk
+     */
+    @JSONConstructor
+    public ScanRequest(int transactionId, String from, String to, int hash, int limit) {
+        this.transactionId = transactionId;
+        this.from = from;
+        this.to = to == null ? "" : to;
+        this.localityHash = hash;
+        this.limit = limit;
+    }
+
+    @Override
+    public String toString() {
+        return MESSAGE_TYPE + " : t" + transactionId + " [" + from + ", " + to + ") limit=" + limit;
+    }
+
+    public int getTransactionId() {
+        return transactionId;
+    }
+
+    public String getFrom() {
+        return from;
+    }
+
+    /**
+     * @return the end of the range, null for a range up to the last key
+     */
+    public String getTo() {
+        return to.isEmpty() ? null : to;
+    }
+
+    public int getLocalityHash() {
+        return localityHash;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+}
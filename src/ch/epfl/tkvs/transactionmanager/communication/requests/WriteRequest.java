@@ -9,6 +9,7 @@ import ch.epfl.tkvs.transactionmanager.communication.JSONCommunication;
 import ch.epfl.tkvs.transactionmanager.communication.JSONConstructor;
 import ch.epfl.tkvs.transactionmanager.communication.Message;
 import ch.epfl.tkvs.transactionmanager.communication.utils.Base64Utils;
+import ch.epfl.tkvs.transactionmanager.communication.utils.SortKeyUtils;
 
 
 /**
@@ -32,13 +33,17 @@ public class WriteRequest extends Message {
     @JSONAnnotation(key = JSONCommunication.KEY_FOR_HASH)
     private int localityHash;
 
+    // Used by the binary decoding, which sets the fields
+    private WriteRequest() {
+    }
+
     @JSONConstructor
     public WriteRequest(int transactionId, Serializable key, Serializable value, int hash) {
 
         this.transactionId = transactionId;
         this.localityHash = hash;
         try {
-            this.encodedKey = Base64Utils.convertToBase64(key);
+            this.encodedKey = SortKeyUtils.encodeKey(key);
             this.encodedValue = Base64Utils.convertToBase64(value);
 
         } catch (IOException ex) {
@@ -54,7 +59,7 @@ public class WriteRequest extends Message {
         String value;
 
         try {
-            key = Base64Utils.convertFromBase64(encodedKey).toString();
+            key = SortKeyUtils.decodeKey(encodedKey).toString();
         } catch (Exception ex) {
             key = encodedKey;
         }
@@ -0,0 +1,81 @@
+package ch.epfl.tkvs.transactionmanager.communication.responses;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+
+import ch.epfl.tkvs.exceptions.AbortException;
+import ch.epfl.tkvs.transactionmanager.communication.JSONAnnotation;
+import ch.epfl.tkvs.transactionmanager.communication.JSONCommunication;
+import ch.epfl.tkvs.transactionmanager.communication.JSONConstructor;
+import ch.epfl.tkvs.transactionmanager.communication.Message;
+import ch.epfl.tkvs.transactionmanager.communication.requests.ScanRequest;
+import ch.epfl.tkvs.transactionmanager.communication.utils.Base64Utils;
+
+
+/**
+ * Response for a {@link ScanRequest}. If the scan was successful, {@link #success} stores true and
+ * {@link #encodedEntries} stores the chunk: the encoded keys with their encoded values, in ascending order. A chunk
+ * with fewer keys than the limit of the request is the last one of the range. If the scan was unsuccessful,
+ * {@link #success} stores false, and {@link #exceptionMessage} stores the reason.
+ */
+public class ScanResponse extends Message {
+
+    @JSONAnnotation(key = JSONCommunication.KEY_FOR_MESSAGE_TYPE)
+    public static final String MESSAGE_TYPE = "scan_response";
+
+    @JSONAnnotation(key = JSONCommunication.KEY_FOR_SUCCESS)
+    private boolean success;
+
+    @JSONAnnotation(key = JSONCommunication.KEY_FOR_ENTRIES)
+    private String encodedEntries;
+
+    @JSONAnnotation(key = JSONCommunication.KEY_FOR_EXCEPTION)
+    private String exceptionMessage;
+
+    public ScanResponse(LinkedHashMap<String, String> entries) {
+        this.success = true;
+        try {
+            this.encodedEntries = Base64Utils.convertToBase64(entries);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+        this.exceptionMessage = " ";
+    }
+
+    public ScanResponse(AbortException exception) {
+        this.success = false;
+        this.encodedEntries = "  ";
+        this.exceptionMessage = exception.getMessage();
+    }
+
+    @JSONConstructor
+    public ScanResponse(boolean success, String encodedEntries, String exceptionMessage) {
+        this.success = success;
+        this.encodedEntries = encodedEntries;
+        this.exceptionMessage = exceptionMessage;
+    }
+
+    public boolean getSuccess() {
+        return success;
+    }
+
+    public String getExceptionMessage() {
+        return exceptionMessage;
+    }
+
+    /**
+     * @return the encoded keys of the chunk with their encoded values, in ascending order
+     */
+    @SuppressWarnings("unchecked")
+    public LinkedHashMap<String, String> getEntries() throws IOException, ClassNotFoundException {
+        return (LinkedHashMap<String, String>) Base64Utils.convertFromBase64(encodedEntries);
+    }
+
+    @Override
+    public String toString() {
+        if (success)
+            return MESSAGE_TYPE + " : " + encodedEntries.length() + " bytes";
+        else
+            return MESSAGE_TYPE + " : " + exceptionMessage;
+    }
+}
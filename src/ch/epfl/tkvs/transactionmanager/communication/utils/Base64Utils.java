@@ -1,34 +1,47 @@
 package ch.epfl.tkvs.transactionmanager.communication.utils;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.regex.Pattern;
 
 import org.apache.commons.codec.binary.Base64;
 
+import ch.epfl.tkvs.keyvaluestore.Codec;
 
+
+/**
+ * Encodes the objects carried by the messages as strings. The objects are turned into bytes by the {@link Codec}, so
+ * that the strings, the integers and the longs do not pay for the Java serialization.
+ */
 public class Base64Utils {
 
+    // The first byte of a Java serialization stream, which the encodings of the Codec never start with
+    private static final byte STREAM_MAGIC = (byte) 0xAC;
+
+    private static final Pattern NEWLINES = Pattern.compile("[\r\n]+");
+
     public static Serializable convertFromBase64(String base64) throws IOException, ClassNotFoundException {
         byte[] buf = Base64.decodeBase64(base64);
-        ByteArrayInputStream bis = new ByteArrayInputStream(buf);
-        ObjectInputStream ois = new ObjectInputStream(bis);
-        return (Serializable) ois.readObject();
+        if (buf.length > 0 && buf[0] == STREAM_MAGIC) {
+            // Written before the objects were encoded by the Codec
+            ByteArrayInputStream bis = new ByteArrayInputStream(buf);
+            ObjectInputStream ois = new ObjectInputStream(bis);
+            return (Serializable) ois.readObject();
+        }
+        try {
+            return Codec.decode(buf);
+        } catch (RuntimeException e) {
+            throw new IOException("Cannot decode " + base64, e);
+        }
     }
 
     public static String convertToBase64(Serializable data) throws IOException {
-
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        ObjectOutputStream oos = new ObjectOutputStream(bos);
-
-        oos.writeObject(data);
-
-        byte[] bytes = bos.toByteArray();
-        bos.close();
-
-        return Base64.encodeBase64String(bytes).replaceAll("[\r\n]+", "");
+        try {
+            return NEWLINES.matcher(Base64.encodeBase64String(Codec.encode(data))).replaceAll("");
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e);
+        }
     }
 }
@@ -0,0 +1,353 @@
+package ch.epfl.tkvs.transactionmanager.communication.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ch.epfl.tkvs.transactionmanager.communication.JSONAnnotation;
+import ch.epfl.tkvs.transactionmanager.communication.Message;
+import ch.epfl.tkvs.transactionmanager.communication.MessageFrame;
+import ch.epfl.tkvs.transactionmanager.communication.utils.JSON2MessageConverter.InvalidMessageException;
+
+
+/**
+ * A converter between {@link Message} and the frames of the binary protocol. It writes the same fields as the JSON
+ * converters, those annotated with {@link JSONAnnotation}, without their names.
+ * 
+ * A frame is the length of the rest of the frame on 4 bytes, then the id of the request as a variable length integer,
+ * then the tag of the message in {@link MessageTypes}, then its fields. Each field which is not null is written as a
+ * header, the number of the field shifted by 3 bits with the wire type in the low bits, then its value:
+ * <ul>
+ * <li>{@link #VARINT}, for the booleans and the integers, a zig-zag variable length integer</li>
+ * <li>{@link #BYTES}, for the strings, their length as a variable length integer and their UTF-8 bytes</li>
+ * </ul>
+ * The fields are numbered from 1 in the order of their JSON keys. A decoder skips the fields it does not know, so a
+ * field can be added to a message without breaking the nodes which do not have it yet.
+ */
+public class BinaryMessageConverter {
+
+    static final int VARINT = 0;
+    static final int BYTES = 1;
+
+    // Guards against reading garbage as the length of a frame
+    public static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final ConcurrentHashMap<Class<? extends Message>, MessageLayout> layouts = new ConcurrentHashMap<Class<? extends Message>, MessageLayout>();
+
+    // What the conversion needs to know about a class of message, looked up once
+    private static class MessageLayout {
+
+        private final int tag;
+        private final Constructor<? extends Message> constructor;
+        private final Object[] dummyParameters;
+        // The annotated fields, field i being number i + 1
+        private final Field[] fields;
+
+        MessageLayout(Class<? extends Message> messageClass) throws InvalidMessageException {
+            tag = MessageTypes.getTag(messageClass);
+            if (tag == 0) {
+                throw new InvalidMessageException(messageClass + " is not in the message types.");
+            }
+            // A constructor without parameter, even private, does not waste time encoding the dummy parameters
+            Constructor<? extends Message> noParameters;
+            try {
+                noParameters = messageClass.getDeclaredConstructor();
+                noParameters.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                noParameters = null;
+            }
+            constructor = noParameters != null ? noParameters : JSON2MessageConverter.findConstructor(messageClass);
+            dummyParameters = JSON2MessageConverter.dummyParameters(constructor);
+
+            List<Field> annotated = new ArrayList<Field>();
+            for (Field field : messageClass.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (field.isAnnotationPresent(JSONAnnotation.class) && !Modifier.isStatic(modifiers) && !Modifier.isFinal(modifiers)) {
+                    if (wireType(field.getType()) < 0) {
+                        throw new InvalidMessageException(field + " cannot be sent in binary.");
+                    }
+                    field.setAccessible(true);
+                    annotated.add(field);
+                }
+            }
+            Collections.sort(annotated, new Comparator<Field>() {
+
+                @Override
+                public int compare(Field f1, Field f2) {
+                    return f1.getAnnotation(JSONAnnotation.class).key().compareTo(f2.getAnnotation(JSONAnnotation.class).key());
+                }
+            });
+            fields = annotated.toArray(new Field[annotated.size()]);
+        }
+    }
+
+    // The frame being written, whose length is filled in once it is complete
+    private static class FrameBuffer extends ByteArrayOutputStream {
+
+        FrameBuffer() {
+            super(64);
+            count = 4;
+        }
+
+        void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeFieldHeader(int number, int wireType) {
+            writeVarint(number << 3 | wireType);
+        }
+
+        void writeFrameTo(OutputStream out) throws IOException {
+            int length = count - 4;
+            buf[0] = (byte) (length >>> 24);
+            buf[1] = (byte) (length >>> 16);
+            buf[2] = (byte) (length >>> 8);
+            buf[3] = (byte) length;
+            out.write(buf, 0, count);
+        }
+    }
+
+    // The frame being read
+    private static class FrameReader {
+
+        private final byte[] bytes;
+        private int position;
+        private final int limit;
+
+        FrameReader(byte[] bytes, int position, int limit) {
+            this.bytes = bytes;
+            this.position = position;
+            this.limit = limit;
+        }
+
+        boolean hasRemaining() {
+            return position < limit;
+        }
+
+        long readVarint() throws InvalidMessageException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (!hasRemaining()) {
+                    throw new InvalidMessageException("Truncated frame");
+                }
+                byte b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new InvalidMessageException("Malformed variable length integer");
+        }
+
+        String readString() throws InvalidMessageException {
+            int length = readLength();
+            String string = new String(bytes, position, length, UTF8);
+            position += length;
+            return string;
+        }
+
+        void skip(int wireType) throws InvalidMessageException {
+            if (wireType == VARINT) {
+                readVarint();
+            } else if (wireType == BYTES) {
+                int length = readLength();
+                position += length;
+            } else {
+                throw new InvalidMessageException("Unknown wire type " + wireType);
+            }
+        }
+
+        private int readLength() throws InvalidMessageException {
+            long length = readVarint();
+            if (length < 0 || length > limit - position) {
+                throw new InvalidMessageException("Truncated frame");
+            }
+            return (int) length;
+        }
+    }
+
+    private static MessageLayout getLayout(Class<? extends Message> messageClass) throws InvalidMessageException {
+        MessageLayout layout = layouts.get(messageClass);
+        if (layout == null) {
+            layout = new MessageLayout(messageClass);
+            layouts.putIfAbsent(messageClass, layout);
+        }
+        return layout;
+    }
+
+    // Returns the wire type of the fields of the given type, -1 if they cannot be sent
+    private static int wireType(Class<?> type) {
+        if (type == int.class || type == Integer.class || type == long.class || type == Long.class || type == boolean.class || type == Boolean.class) {
+            return VARINT;
+        } else if (type == String.class) {
+            return BYTES;
+        }
+        return -1;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Writes a message as a frame.
+     * 
+     * @param requestId the id of the request to which the message belongs
+     * @param message the message to write
+     * @param out where to write it, which is not flushed
+     * @throws IOException in case of network failure, or if the message is not one of the {@link MessageTypes}
+     */
+    public static void writeFrame(int requestId, Message message, OutputStream out) throws IOException {
+        MessageLayout layout;
+        try {
+            layout = getLayout(message.getClass());
+        } catch (InvalidMessageException e) {
+            throw new IOException(e);
+        }
+
+        FrameBuffer frame = new FrameBuffer();
+        frame.writeVarint(requestId & 0xFFFFFFFFL);
+        frame.writeVarint(layout.tag);
+        try {
+            for (int i = 0; i < layout.fields.length; i++) {
+                Object value = layout.fields[i].get(message);
+                if (value instanceof String) {
+                    byte[] bytes = ((String) value).getBytes(UTF8);
+                    frame.writeFieldHeader(i + 1, BYTES);
+                    frame.writeVarint(bytes.length);
+                    frame.write(bytes, 0, bytes.length);
+                } else if (value instanceof Boolean) {
+                    frame.writeFieldHeader(i + 1, VARINT);
+                    frame.writeVarint((Boolean) value ? 1 : 0);
+                } else if (value != null) {
+                    frame.writeFieldHeader(i + 1, VARINT);
+                    frame.writeVarint(zigZag(((Number) value).longValue()));
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new IOException(e);
+        }
+        frame.writeFrameTo(out);
+    }
+
+    /**
+     * @param message a message
+     * @return the frame of the message, with its length
+     * @throws IOException if the message is not one of the {@link MessageTypes}
+     */
+    public static byte[] toBytes(Message message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writeFrame(0, message, bytes);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads the next frame of a stream.
+     * 
+     * @param in the stream
+     * @return the message of the frame with its request id, null if the stream ends before it
+     * @throws IOException in case of network failure, or if the stream ends in the middle of the frame
+     * @throws InvalidMessageException if the frame does not hold a valid message
+     */
+    public static MessageFrame readFrame(DataInputStream in) throws IOException, InvalidMessageException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length <= 0 || length > MAX_FRAME_LENGTH) {
+            throw new InvalidMessageException("Invalid frame length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return readFrame(bytes, 0, length);
+    }
+
+    /**
+     * Reads a frame which was received whole.
+     * 
+     * @param bytes where the frame was received
+     * @param offset where the frame starts, after its length
+     * @param length the length of the frame, without the 4 bytes of its length
+     * @return the message of the frame with its request id
+     * @throws InvalidMessageException if the frame does not hold a valid message
+     */
+    public static MessageFrame readFrame(byte[] bytes, int offset, int length) throws InvalidMessageException {
+        FrameReader reader = new FrameReader(bytes, offset, offset + length);
+        int requestId = (int) reader.readVarint();
+        return new MessageFrame(requestId, decode(reader));
+    }
+
+    /**
+     * @param frame a whole frame, as returned by {@link #toBytes(Message)}
+     * @return the message of the frame
+     * @throws InvalidMessageException if the frame does not hold a valid message
+     */
+    public static Message fromBytes(byte[] frame) throws InvalidMessageException {
+        if (frame.length < 4 || ((frame[0] & 0xFF) << 24 | (frame[1] & 0xFF) << 16 | (frame[2] & 0xFF) << 8 | (frame[3] & 0xFF)) != frame.length - 4) {
+            throw new InvalidMessageException("Invalid frame length");
+        }
+        FrameReader reader = new FrameReader(frame, 4, frame.length);
+        reader.readVarint();
+        return decode(reader);
+    }
+
+    private static Message decode(FrameReader reader) throws InvalidMessageException {
+        Class<? extends Message> messageClass = MessageTypes.getMessageClass((int) reader.readVarint());
+        if (messageClass == null) {
+            throw new InvalidMessageException("Unknown message tag");
+        }
+        MessageLayout layout = getLayout(messageClass);
+
+        try {
+            Message message = layout.constructor.newInstance(layout.dummyParameters);
+            while (reader.hasRemaining()) {
+                long header = reader.readVarint();
+                int number = (int) (header >>> 3);
+                int wireType = (int) (header & 7);
+                if (number < 1 || number > layout.fields.length || wireType != wireType(layout.fields[number - 1].getType())) {
+                    reader.skip(wireType);
+                    continue;
+                }
+
+                Field field = layout.fields[number - 1];
+                Class<?> type = field.getType();
+                if (wireType == BYTES) {
+                    field.set(message, reader.readString());
+                } else if (type == boolean.class || type == Boolean.class) {
+                    field.set(message, reader.readVarint() != 0);
+                } else if (type == long.class || type == Long.class) {
+                    field.set(message, unZigZag(reader.readVarint()));
+                } else {
+                    field.set(message, (int) unZigZag(reader.readVarint()));
+                }
+            }
+            return message;
+        } catch (InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
+            throw new InvalidMessageException(e);
+        }
+    }
+}
@@ -12,6 +12,7 @@ import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
 
 import ch.epfl.tkvs.transactionmanager.communication.JSONAnnotation;
+import ch.epfl.tkvs.transactionmanager.communication.JSONCommunication;
 import ch.epfl.tkvs.transactionmanager.communication.JSONConstructor;
 import ch.epfl.tkvs.transactionmanager.communication.Message;
 
@@ -34,54 +35,66 @@ public class JSON2MessageConverter {
         }
     }
 
-    @SuppressWarnings("unchecked")
-    public static Message parseJSON(JSONObject json, Class<? extends Message> messageClass) throws InvalidMessageException {
+    /**
+     * Converts a JSON object to the message of the type it holds.
+     * 
+     * @see MessageTypes
+     */
+    public static Message parseJSON(JSONObject json) throws InvalidMessageException {
         if (json == null) {
             throw new InvalidMessageException("json is null.");
         }
-
+        String type = json.optString(JSONCommunication.KEY_FOR_MESSAGE_TYPE, null);
+        Class<? extends Message> messageClass = MessageTypes.getMessageClass(type);
         if (messageClass == null) {
-            throw new InvalidMessageException("messageClass is null.");
+            throw new InvalidMessageException("Unknown message type " + type);
         }
+        return parseJSON(json, messageClass);
+    }
 
-        try {
-            Constructor<?>[] constructors = messageClass.getConstructors();
-
-            if (constructors.length == 0) {
-                throw new InvalidMessageException(messageClass + " has no public constructor.");
-            }
-            Constructor<? extends Message> constructor = null;
+    // Returns the constructor with which the decoding creates the messages of a class
+    @SuppressWarnings("unchecked")
+    static Constructor<? extends Message> findConstructor(Class<? extends Message> messageClass) throws InvalidMessageException {
+        Constructor<?>[] constructors = messageClass.getConstructors();
 
-            for (Constructor<?> candidateConstructor : constructors) {
-                if (candidateConstructor.isAnnotationPresent(JSONConstructor.class)) {
-                    constructor = (Constructor<? extends Message>) candidateConstructor;
-                    break;
-                }
-            }
+        if (constructors.length == 0) {
+            throw new InvalidMessageException(messageClass + " has no public constructor.");
+        }
 
-            if (constructor == null) {
-                constructor = (Constructor<? extends Message>) constructors[0];
+        for (Constructor<?> candidateConstructor : constructors) {
+            if (candidateConstructor.isAnnotationPresent(JSONConstructor.class)) {
+                return (Constructor<? extends Message>) candidateConstructor;
             }
+        }
+        return (Constructor<? extends Message>) constructors[0];
+    }
 
-            //
-            // System.err.println("Constructor for " + messageClass);
-            // for (Class c : constructor.getParameterTypes())
-            // System.err.println("*" + c);
-
-            List<Object> dummyParams = new LinkedList<Object>();
+    // Returns parameters for the constructor of a message, whose fields are set afterwards
+    static Object[] dummyParameters(Constructor<? extends Message> constructor) {
+        List<Object> dummyParams = new LinkedList<Object>();
 
-            for (Class<?> parameterType : constructor.getParameterTypes()) {
-                if (parameterType.isPrimitive()) {
-                    dummyParams.add(parameterType == boolean.class ? false : 0);
-                } else {
-                    dummyParams.add(null);
-                }
+        for (Class<?> parameterType : constructor.getParameterTypes()) {
+            if (parameterType.isPrimitive()) {
+                dummyParams.add(parameterType == boolean.class ? false : 0);
+            } else {
+                dummyParams.add(null);
             }
+        }
+        return dummyParams.toArray();
+    }
 
-            // System.err.println("Dummy object" + dummyParams);
-            // System.err.println("json object" + json);
+    public static Message parseJSON(JSONObject json, Class<? extends Message> messageClass) throws InvalidMessageException {
+        if (json == null) {
+            throw new InvalidMessageException("json is null.");
+        }
+
+        if (messageClass == null) {
+            throw new InvalidMessageException("messageClass is null.");
+        }
 
-            Message message = constructor.newInstance(dummyParams.toArray());
+        try {
+            Constructor<? extends Message> constructor = findConstructor(messageClass);
+            Message message = constructor.newInstance(dummyParameters(constructor));
 
             Field[] fields = messageClass.getDeclaredFields();
             for (Field field : fields) {
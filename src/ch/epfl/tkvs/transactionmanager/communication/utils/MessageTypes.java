@@ -0,0 +1,89 @@
+package ch.epfl.tkvs.transactionmanager.communication.utils;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ch.epfl.tkvs.transactionmanager.communication.DeadlockDeltaMessage;
+import ch.epfl.tkvs.transactionmanager.communication.ExitMessage;
+import ch.epfl.tkvs.transactionmanager.communication.Message;
+import ch.epfl.tkvs.transactionmanager.communication.TMInitMessage;
+import ch.epfl.tkvs.transactionmanager.communication.TransactionTerminateMessage;
+import ch.epfl.tkvs.transactionmanager.communication.requests.AbortRequest;
+import ch.epfl.tkvs.transactionmanager.communication.requests.BeginRequest;
+import ch.epfl.tkvs.transactionmanager.communication.requests.CommitRequest;
+import ch.epfl.tkvs.transactionmanager.communication.requests.PrepareRequest;
+import ch.epfl.tkvs.transactionmanager.communication.requests.ReadRequest;
+import ch.epfl.tkvs.transactionmanager.communication.requests.ScanRequest;
+import ch.epfl.tkvs.transactionmanager.communication.requests.TransactionManagerRequest;
+import ch.epfl.tkvs.transactionmanager.communication.requests.TryCommitRequest;
+import ch.epfl.tkvs.transactionmanager.communication.requests.WriteRequest;
+import ch.epfl.tkvs.transactionmanager.communication.responses.GenericSuccessResponse;
+import ch.epfl.tkvs.transactionmanager.communication.responses.MinAliveTransactionResponse;
+import ch.epfl.tkvs.transactionmanager.communication.responses.ReadResponse;
+import ch.epfl.tkvs.transactionmanager.communication.responses.ScanResponse;
+import ch.epfl.tkvs.transactionmanager.communication.responses.TransactionManagerResponse;
+
+
+/**
+ * All the kinds of {@link Message} exchanged on the cluster, so that a message can be decoded without knowing its class
+ * in advance. The position of a class in the list is the tag which identifies it in the binary protocol: the new
+ * messages must be added at the end.
+ * 
+ * @see BinaryMessageConverter
+ */
+public class MessageTypes {
+
+    @SuppressWarnings("unchecked")
+    private static final List<Class<? extends Message>> CLASSES = Arrays.<Class<? extends Message>> asList(ExitMessage.class, TMInitMessage.class, DeadlockDeltaMessage.class, TransactionTerminateMessage.class, TransactionManagerRequest.class, TransactionManagerResponse.class, BeginRequest.class, ReadRequest.class, WriteRequest.class, PrepareRequest.class, CommitRequest.class, AbortRequest.class, TryCommitRequest.class, GenericSuccessResponse.class, ReadResponse.class, MinAliveTransactionResponse.class, ScanRequest.class, ScanResponse.class);
+
+    private static final Map<String, Class<? extends Message>> classes = new HashMap<String, Class<? extends Message>>();
+    private static final Map<Class<? extends Message>, String> types = new HashMap<Class<? extends Message>, String>();
+
+    static {
+        for (Class<? extends Message> messageClass : CLASSES) {
+            try {
+                Field field = messageClass.getField("MESSAGE_TYPE");
+                String type = (String) field.get(null);
+                classes.put(type, messageClass);
+                types.put(messageClass, type);
+            } catch (NoSuchFieldException | IllegalAccessException e) {
+                throw new IllegalStateException(messageClass + " has no message type", e);
+            }
+        }
+    }
+
+    /**
+     * @param type the type of a message, as sent in JSON
+     * @return the class of the messages of this type, null if there is none
+     */
+    public static Class<? extends Message> getMessageClass(String type) {
+        return classes.get(type);
+    }
+
+    /**
+     * @param tag the tag of a message in the binary protocol
+     * @return the class of the messages with this tag, null if there is none
+     */
+    public static Class<? extends Message> getMessageClass(int tag) {
+        return tag >= 1 && tag <= CLASSES.size() ? CLASSES.get(tag - 1) : null;
+    }
+
+    /**
+     * @param message a message
+     * @return the {@code MESSAGE_TYPE} of the message
+     */
+    public static String getMessageType(Message message) {
+        return types.get(message.getClass());
+    }
+
+    /**
+     * @param messageClass the class of a message
+     * @return the tag of the message in the binary protocol, 0 if the class is not in the list
+     */
+    public static int getTag(Class<? extends Message> messageClass) {
+        return CLASSES.indexOf(messageClass) + 1;
+    }
+}
@@ -0,0 +1,33 @@
+package ch.epfl.tkvs.transactionmanager.communication.utils;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+import ch.epfl.tkvs.user.Key;
+
+
+/**
+ * Encodes the keys sent to the {@link ch.epfl.tkvs.transactionmanager.TransactionManager}s so that they are ordered
+ * like the keys of the user. An encoded key is the sort key of the key, then a separator, then the key in Base64. The
+ * separator is the smallest character, so the keys with the same sort key come before all the greater sort keys.
+ */
+public class SortKeyUtils {
+
+    public static final char SEPARATOR = '\u0000';
+
+    /**
+     * @param key a {@link Key} or any other key
+     * @return the string by which the key is ordered: the sort key of a {@link Key}, the string form of another key
+     */
+    public static String getSortKey(Serializable key) {
+        return key instanceof Key ? ((Key) key).getSortKey() : String.valueOf(key);
+    }
+
+    public static String encodeKey(Serializable key) throws IOException {
+        return getSortKey(key) + SEPARATOR + Base64Utils.convertToBase64(key);
+    }
+
+    public static Serializable decodeKey(String encodedKey) throws IOException, ClassNotFoundException {
+        return Base64Utils.convertFromBase64(encodedKey.substring(encodedKey.lastIndexOf(SEPARATOR) + 1));
+    }
+}
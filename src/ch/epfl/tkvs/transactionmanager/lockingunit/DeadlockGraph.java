@@ -1,21 +1,62 @@
 package ch.epfl.tkvs.transactionmanager.lockingunit;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
 import java.util.Set;
 
 
+/**
+ * Wait-for graph of the transactions. An edge from A to B means that A waits for B.
+ * 
+ * Every transaction is stored in a slot, and the edges are kept in int arrays indexed by slot in both directions. As
+ * long as the graph is acyclic, a topological order of the nodes is maintained incrementally (Pearce-Kelly): adding an
+ * edge that respects the order costs nothing, otherwise only the nodes between both ends in the order are visited.
+ * The state used by the traversals is allocated once and reused.
+ */
 public class DeadlockGraph implements Serializable {
 
-    private static final long serialVersionUID = 1L;
-    HashMap<Integer, HashSet<Integer>> outgoingEdges;
-    HashMap<Integer, HashSet<Integer>> incomingEdges;
+    private static final long serialVersionUID = 2L;
+    private static final int INITIAL_CAPACITY = 16;
+    // Strongly connected components up to this size are broken with the cheapest set of victims
+    private static final int EXACT_COMPONENT_SIZE = 12;
+    // Strongly connected components up to this size are broken one victim at a time
+    private static final int SMALL_COMPONENT_SIZE = 32;
+
+    // Maps transaction IDs to slots
+    private IntIntMap slots = new IntIntMap();
+    // Per slot: transaction ID, adjacency lists and position in the topological order
+    private int[] ids = new int[INITIAL_CAPACITY];
+    private boolean[] live = new boolean[INITIAL_CAPACITY];
+    private int[][] outgoing = new int[INITIAL_CAPACITY][];
+    private int[] outDegree = new int[INITIAL_CAPACITY];
+    private int[][] incoming = new int[INITIAL_CAPACITY][];
+    private int[] inDegree = new int[INITIAL_CAPACITY];
+    private int[] order = new int[INITIAL_CAPACITY];
+    private int slotCount = 0;
+    private int[] freeSlots = new int[INITIAL_CAPACITY];
+    private int freeCount = 0;
+    private int minOrder = 0;
+    private int maxOrder = 0;
+    // True as long as the graph is acyclic, i.e. "order" is a topological order
+    private boolean ordered = true;
+
+    // Traversal state, reused between calls
+    private transient int[] marks;
+    private transient int epoch;
+    private transient int[] stack;
+    private transient int[] edgePositions;
+    private transient boolean[] onStack;
+    private transient int[] forward;
+    private transient int[] backward;
+    private transient long[] sortBuffer;
+    private transient int[] orderPool;
 
     public DeadlockGraph() {
-        outgoingEdges = new HashMap<Integer, HashSet<Integer>>();
-        incomingEdges = new HashMap<Integer, HashSet<Integer>>();
     }
 
     /**
@@ -23,20 +64,17 @@ public class DeadlockGraph implements Serializable {
      * @param graphs a collection of DeadlockGraph s to be merged to form this DeadlockGraph
      */
     public DeadlockGraph(Collection<DeadlockGraph> graphs) {
-        outgoingEdges = new HashMap<Integer, HashSet<Integer>>();
-        incomingEdges = new HashMap<Integer, HashSet<Integer>>();
+        HashSet<Integer> dependencies = new HashSet<Integer>();
         for (DeadlockGraph graph : graphs) {
-            for (Integer key : graph.outgoingEdges.keySet()) {
-                if (!outgoingEdges.containsKey(key)) {
-                    outgoingEdges.put(key, new HashSet<Integer>());
+            for (int slot = 0; slot < graph.slotCount; slot++) {
+                if (!graph.live[slot] || graph.outDegree[slot] == 0) {
+                    continue;
                 }
-                outgoingEdges.get(key).addAll(graph.outgoingEdges.get(key));
-            }
-            for (Integer key : graph.incomingEdges.keySet()) {
-                if (!incomingEdges.containsKey(key)) {
-                    incomingEdges.put(key, new HashSet<Integer>());
+                dependencies.clear();
+                for (int i = 0; i < graph.outDegree[slot]; i++) {
+                    dependencies.add(graph.ids[graph.outgoing[slot][i]]);
                 }
-                incomingEdges.get(key).addAll(graph.incomingEdges.get(key));
+                addDependencies(graph.ids[slot], dependencies);
             }
         }
     }
@@ -49,90 +87,54 @@ public class DeadlockGraph implements Serializable {
      * @return true if the given dependencies cause a deadlock (i.e. causes a cycle in the graph), false otherwise.
      */
     public boolean isCyclicAfter(int transactionID, HashSet<Integer> incompatibleTransactions) {
-        boolean cyclic;
-        if (!outgoingEdges.containsKey(transactionID)) {
-            outgoingEdges.put(transactionID, new HashSet<Integer>());
-        }
-        HashSet<Integer> newDependencies = new HashSet<Integer>();
+        int from = addNode(transactionID, true);
+        int[] added = new int[incompatibleTransactions.size()];
+        int addedCount = 0;
+        boolean cyclic = false;
+
         for (Integer incompatible : incompatibleTransactions) {
-            if (!outgoingEdges.get(transactionID).contains(incompatible)) {
-                outgoingEdges.get(transactionID).add(incompatible);
-                newDependencies.add(incompatible);
+            int to = addNode(incompatible, false);
+            if (hasEdge(from, to)) {
+                continue;
             }
-        }
-
-        if (newDependencies.isEmpty())
-            cyclic = false;
-        else {
-            HashSet<Integer> visited = new HashSet<Integer>();
-            HashSet<Integer> onStack = new HashSet<Integer>();
-            cyclic = checkForCycle(transactionID, visited, onStack) == null ? false : true;
-        }
-
-        if (cyclic) {
-            outgoingEdges.get(transactionID).removeAll(newDependencies);
-            return true;
-        } else {
-            for (Integer incompatible : incompatibleTransactions) {
-                if (!incomingEdges.containsKey(incompatible)) {
-                    incomingEdges.put(incompatible, new HashSet<Integer>());
-                }
-                if (!incomingEdges.get(incompatible).contains(transactionID)) {
-                    incomingEdges.get(incompatible).add(transactionID);
+            if (ordered) {
+                if (!insertOrdered(from, to)) {
+                    cyclic = true;
+                    break;
                 }
+            } else {
+                link(from, to);
             }
-            return false;
+            added[addedCount++] = to;
+        }
+        // The graph already contains cycles, look for one reachable from the transaction
+        if (!ordered && !cyclic && addedCount > 0) {
+            cyclic = reachesCycle(from);
         }
-    }
 
-    /**
-     * 
-     * @param node start node of the DFS
-     * @param visited set of nodes which are already visited
-     * @param onStack set of nodes leading from the root to the current node. this parameter expected to be non-empty
-     * only when the method is called by itself.
-     * @return ID of a transaction which is a part of the deadlock.
-     */
-    private Integer checkForCycle(Integer node, HashSet<Integer> visited, HashSet<Integer> onStack) {
-        Integer branchResult;
-        visited.add(node);
-        if (outgoingEdges.get(node) != null) {
-            onStack.add(node);
-            for (Integer neighbor : outgoingEdges.get(node)) {
-                if (!visited.contains(neighbor)) {
-                    branchResult = checkForCycle(neighbor, visited, onStack);
-                    if (branchResult != null)
-                        return branchResult;
-                } else if (onStack.contains(neighbor)) {
-                    return neighbor;
-                }
+        if (cyclic) {
+            for (int i = 0; i < addedCount; i++) {
+                unlink(from, added[i]);
             }
-            onStack.remove(node);
         }
-        return null;
+        return cyclic;
     }
 
     /**
+     * Adds the given edges even if they cause a cycle.
      * 
      * @param transactionID ID of the transaction which is waiting for other transactions.
      * @param incompatibleTransactions IDs of the transactions that the given transaction started to wait for.
      */
     public void addDependencies(int transactionID, HashSet<Integer> incompatibleTransactions) {
-        if (!outgoingEdges.containsKey(transactionID)) {
-            outgoingEdges.put(transactionID, new HashSet<Integer>());
-        }
+        int from = addNode(transactionID, true);
         for (Integer incompatible : incompatibleTransactions) {
-            if (!outgoingEdges.get(transactionID).contains(incompatible)) {
-                outgoingEdges.get(transactionID).add(incompatible);
-            }
-        }
-        for (Integer incompatible : incompatibleTransactions) {
-            if (!incomingEdges.containsKey(incompatible)) {
-                incomingEdges.put(incompatible, new HashSet<Integer>());
-            }
-            if (!incomingEdges.get(incompatible).contains(transactionID)) {
-                incomingEdges.get(incompatible).add(transactionID);
+            int to = addNode(incompatible, false);
+            if (hasEdge(from, to) || (ordered && insertOrdered(from, to))) {
+                continue;
             }
+            link(from, to);
+            ordered = false;
         }
     }
 
@@ -143,20 +145,110 @@ public class DeadlockGraph implements Serializable {
      * @param transactionID ID of the transaction whose node is to be removed
      */
     public void removeTransaction(int transactionID) {
-        if (outgoingEdges.get(transactionID) != null) {
-            for (Integer next : outgoingEdges.get(transactionID)) {
-                if (incomingEdges.containsKey(next))
-                    incomingEdges.get(next).remove(transactionID);
-            }
-            outgoingEdges.remove(transactionID);
+        int slot = slots.get(transactionID);
+        if (slot < 0) {
+            return;
+        }
+        for (int i = 0; i < outDegree[slot]; i++) {
+            removeFrom(incoming, inDegree, outgoing[slot][i], slot);
         }
-        if (incomingEdges.get(transactionID) != null) {
-            for (Integer previous : incomingEdges.get(transactionID)) {
-                if (outgoingEdges.containsKey(previous))
-                    outgoingEdges.get(previous).remove(transactionID);
+        for (int i = 0; i < inDegree[slot]; i++) {
+            removeFrom(outgoing, outDegree, incoming[slot][i], slot);
+        }
+        outDegree[slot] = 0;
+        inDegree[slot] = 0;
+        live[slot] = false;
+        slots.remove(transactionID);
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, 2 * freeCount);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    /**
+     * Removes an edge, along with the nodes left without any edge.
+     * 
+     * @param transactionID ID of the transaction which was waiting
+     * @param waitedFor ID of the transaction it was waiting for
+     */
+    public void removeDependency(int transactionID, int waitedFor) {
+        int from = slots.get(transactionID);
+        int to = slots.get(waitedFor);
+        if (from < 0 || to < 0 || !hasEdge(from, to)) {
+            return;
+        }
+        // Removing an edge keeps the topological order valid
+        unlink(from, to);
+        if (outDegree[from] == 0 && inDegree[from] == 0) {
+            removeTransaction(transactionID);
+        }
+        if (to != from && outDegree[to] == 0 && inDegree[to] == 0) {
+            removeTransaction(waitedFor);
+        }
+    }
+
+    /**
+     * Summarizes the graph for the given transactions: the result contains a dependency from A to B if A reaches B
+     * through transactions that are not given. A TM only sends the dependencies between its distributed transactions to
+     * the centralized decider, since a cycle spanning several TMs goes from one TM to another through distributed
+     * transactions. Cycles through local transactions only are detected by the TM itself.
+     * 
+     * @param transactionIDs IDs of the transactions to keep
+     * @return the dependencies between the given transactions, encoded with {@link #dependency(int, int)}
+     */
+    public HashSet<Long> getDependenciesBetween(Set<Integer> transactionIDs) {
+        HashSet<Long> dependencies = new HashSet<Long>();
+        for (int transactionID : transactionIDs) {
+            int start = slots.get(transactionID);
+            if (start < 0 || outDegree[start] == 0) {
+                continue;
+            }
+            prepareTraversal();
+            int top = 0;
+            stack[top++] = start;
+            marks[start] = epoch;
+            while (top > 0) {
+                int node = stack[--top];
+                for (int i = 0; i < outDegree[node]; i++) {
+                    int next = outgoing[node][i];
+                    if (marks[next] == epoch) {
+                        continue;
+                    }
+                    marks[next] = epoch;
+                    if (transactionIDs.contains(ids[next])) {
+                        dependencies.add(dependency(transactionID, ids[next]));
+                    } else {
+                        stack[top++] = next;
+                    }
+                }
             }
-            incomingEdges.remove(transactionID);
         }
+        return dependencies;
+    }
+
+    /**
+     * Encodes an edge of the graph in a long.
+     * 
+     * @param transactionID ID of the waiting transaction
+     * @param waitedFor ID of the transaction it waits for
+     * @return the encoded edge
+     */
+    public static long dependency(int transactionID, int waitedFor) {
+        return ((long) transactionID << 32) | (waitedFor & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @return the ID of the waiting transaction of an edge encoded with {@link #dependency(int, int)}
+     */
+    public static int waitingTransaction(long dependency) {
+        return (int) (dependency >>> 32);
+    }
+
+    /**
+     * @return the ID of the transaction waited for in an edge encoded with {@link #dependency(int, int)}
+     */
+    public static int waitedForTransaction(long dependency) {
+        return (int) dependency;
     }
 
     /**
@@ -167,58 +259,190 @@ public class DeadlockGraph implements Serializable {
      */
     public DeadlockGraph copyOutgoingEdges() {
         DeadlockGraph copy = new DeadlockGraph();
-        for (Integer key : outgoingEdges.keySet()) {
-            if (outgoingEdges.get(key) == null || outgoingEdges.get(key).isEmpty()) {
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (!live[slot] || outDegree[slot] == 0) {
                 continue;
             }
-            copy.outgoingEdges.put(key, new HashSet<Integer>());
-            copy.outgoingEdges.get(key).addAll(outgoingEdges.get(key));
+            int from = copy.addNode(ids[slot], true);
+            copy.order[from] = order[slot];
+            for (int i = 0; i < outDegree[slot]; i++) {
+                int next = outgoing[slot][i];
+                int to = copy.addNode(ids[next], false);
+                copy.order[to] = order[next];
+                copy.link(from, to);
+            }
         }
+        copy.minOrder = minOrder;
+        copy.maxOrder = maxOrder;
+        copy.ordered = ordered;
         return copy;
     }
 
     /**
-     * Detects and removes some nodes to make the graph acyclic
+     * Detects and removes some nodes to make the graph acyclic. The youngest transactions are chosen as victims.
      * 
      * @return set of IDs of one possible set of transactions to be removed to make this graph acyclic.
      */
     public Set<Integer> checkForCycles() {
+        return checkForCycles(Collections.<Integer, TransactionCost> emptyMap());
+    }
+
+    /**
+     * Detects and removes some nodes to make the graph acyclic, choosing the victims with the lowest cost. The strongly
+     * connected components are computed with Tarjan's algorithm. In every component containing a cycle:
+     * <ul>
+     * <li>if it is tiny, every set of victims is tried and the cheapest one that breaks all its cycles is removed,</li>
+     * <li>if it is small, the cheapest transaction is removed and the rest of the component is examined again,</li>
+     * <li>otherwise, the cheapest transaction of every cycle found by a single DFS pass is removed.</li>
+     * </ul>
+     * Among victims of equal cost, the youngest transactions are chosen.
+     * 
+     * @param costs the cost hints of the transactions, a transaction without hint costs TransactionCost.BASE_COST
+     * @return set of IDs of one possible set of transactions to be removed to make this graph acyclic.
+     */
+    public Set<Integer> checkForCycles(Map<Integer, TransactionCost> costs) {
         HashSet<Integer> transactionsToBeKilled = new HashSet<Integer>();
-        HashSet<Integer> visited = new HashSet<Integer>();
-        HashSet<Integer> previouslyVisited = new HashSet<Integer>();
-        HashSet<Integer> onStack;
-
-        Integer transactionInCycle;
-        HashSet<Integer> originalKeySet = new HashSet<Integer>(outgoingEdges.keySet());
-        for (Integer node : originalKeySet) {
-            if (visited.contains(node))
+        Tarjan tarjan = new Tarjan();
+
+        long[] cost = new long[slotCount];
+        int[] allNodes = new int[slotCount];
+        int nodeCount = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (live[slot]) {
+                TransactionCost hint = costs.get(ids[slot]);
+                cost[slot] = hint == null ? TransactionCost.BASE_COST : hint.getCost();
+                allNodes[nodeCount++] = slot;
+            }
+        }
+        LinkedList<int[]> components = tarjan.run(allNodes, nodeCount);
+        while (!components.isEmpty()) {
+            int[] component = components.poll();
+            if (component.length == 1 && !hasEdge(component[0], component[0])) {
                 continue;
-            while (true) {
-                onStack = new HashSet<Integer>();
-                transactionInCycle = checkForCycle(node, visited, onStack);
-                if (transactionInCycle == null) { // if not cyclic
-                    previouslyVisited = new HashSet<Integer>(visited);
-                    break;
-                } else { // if cyclic
-                    transactionsToBeKilled.add(transactionInCycle);
-                    previouslyVisited.add(transactionInCycle);
-                    visited = new HashSet<Integer>(previouslyVisited);
-                    removeTransaction(transactionInCycle);
+            }
+            if (component.length <= EXACT_COMPONENT_SIZE || component.length > SMALL_COMPONENT_SIZE) {
+                LinkedList<Integer> victims = component.length <= EXACT_COMPONENT_SIZE ? cheapestVictims(component, cost) : tarjan.breakCycles(component, cost);
+                for (int victim : victims) {
+                    transactionsToBeKilled.add(ids[victim]);
+                    removeTransaction(ids[victim]);
+                }
+                continue;
+            }
+            int victim = component[0];
+            for (int slot : component) {
+                if (isCheaper(slot, victim, cost)) {
+                    victim = slot;
                 }
             }
+            transactionsToBeKilled.add(ids[victim]);
+            removeTransaction(ids[victim]);
+
+            int remaining = 0;
+            for (int slot : component) {
+                if (slot != victim) {
+                    component[remaining++] = slot;
+                }
+            }
+            components.addAll(tarjan.run(component, remaining));
         }
+        rebuildOrder();
         return transactionsToBeKilled;
     }
 
+    // Lower cost first, then younger transaction first
+    private boolean isCheaper(int slot, int other, long[] cost) {
+        return cost[slot] < cost[other] || (cost[slot] == cost[other] && ids[slot] > ids[other]);
+    }
+
+    /**
+     * Tries every set of victims of a tiny strongly connected component. Sets are compared by total cost, then by
+     * number of victims, then by the youngest victim.
+     * 
+     * @return the slots of the cheapest set of victims leaving the component acyclic
+     */
+    private LinkedList<Integer> cheapestVictims(int[] component, long[] cost) {
+        int size = component.length;
+        // Outgoing edges inside the component, as bit masks of positions in the component
+        int[] successors = new int[size];
+        for (int i = 0; i < size; i++) {
+            int slot = component[i];
+            for (int e = 0; e < outDegree[slot]; e++) {
+                int next = outgoing[slot][e];
+                for (int j = 0; j < size; j++) {
+                    if (component[j] == next) {
+                        successors[i] |= 1 << j;
+                        break;
+                    }
+                }
+            }
+        }
+
+        int all = (1 << size) - 1;
+        int best = all;
+        long bestCost = Long.MAX_VALUE;
+        int bestYoungest = Integer.MIN_VALUE;
+        for (int victims = 1; victims <= all; victims++) {
+            long total = 0;
+            int youngest = Integer.MIN_VALUE;
+            for (int i = 0; i < size; i++) {
+                if ((victims & (1 << i)) != 0) {
+                    total += cost[component[i]];
+                    youngest = Math.max(youngest, ids[component[i]]);
+                }
+            }
+            if (total > bestCost) {
+                continue;
+            }
+            if (total == bestCost) {
+                int count = Integer.bitCount(victims);
+                int bestCount = Integer.bitCount(best);
+                if (count > bestCount || (count == bestCount && youngest <= bestYoungest)) {
+                    continue;
+                }
+            }
+            if (isAcyclic(successors, all & ~victims)) {
+                best = victims;
+                bestCost = total;
+                bestYoungest = youngest;
+            }
+        }
+
+        LinkedList<Integer> result = new LinkedList<Integer>();
+        for (int i = 0; i < size; i++) {
+            if ((best & (1 << i)) != 0) {
+                result.add(component[i]);
+            }
+        }
+        return result;
+    }
+
+    // Removes the nodes without successor until none is left, which fails if and only if there is a cycle
+    private static boolean isAcyclic(int[] successors, int nodes) {
+        boolean removed = true;
+        while (nodes != 0 && removed) {
+            removed = false;
+            for (int i = 0; i < successors.length; i++) {
+                if ((nodes & (1 << i)) != 0 && (successors[i] & nodes) == 0) {
+                    nodes &= ~(1 << i);
+                    removed = true;
+                }
+            }
+        }
+        return nodes == 0;
+    }
+
     @Override
     public String toString() {
         StringBuilder result = new StringBuilder();
-        for (Integer key : outgoingEdges.keySet()) {
-            result.append(key);
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (!live[slot]) {
+                continue;
+            }
+            result.append(ids[slot]);
             result.append("\n");
-            for (Integer neighbor : outgoingEdges.get(key)) {
+            for (int i = 0; i < outDegree[slot]; i++) {
                 result.append("\t");
-                result.append(neighbor);
+                result.append(ids[outgoing[slot][i]]);
                 result.append("\n");
             }
         }
@@ -234,6 +458,527 @@ public class DeadlockGraph implements Serializable {
         if (!(other instanceof DeadlockGraph))
             return false;
         DeadlockGraph otherGraph = (DeadlockGraph) other;
-        return outgoingEdges.equals(otherGraph.outgoingEdges) && incomingEdges.equals(otherGraph.incomingEdges);
+        return edgeCount() == otherGraph.edgeCount() && otherGraph.containsEdgesOf(this);
+    }
+
+    private int edgeCount() {
+        int count = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (live[slot]) {
+                count += outDegree[slot];
+            }
+        }
+        return count;
+    }
+
+    private boolean containsEdgesOf(DeadlockGraph graph) {
+        for (int slot = 0; slot < graph.slotCount; slot++) {
+            if (!graph.live[slot] || graph.outDegree[slot] == 0) {
+                continue;
+            }
+            int from = slots.get(graph.ids[slot]);
+            if (from < 0) {
+                return false;
+            }
+            for (int i = 0; i < graph.outDegree[slot]; i++) {
+                int to = slots.get(graph.ids[graph.outgoing[slot][i]]);
+                if (to < 0 || !hasEdge(from, to)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the slot of the given transaction, creating its node if needed. A new node is placed at the beginning of
+     * the topological order if it is waiting, at the end otherwise, so that its first edges respect the order.
+     */
+    private int addNode(int transactionID, boolean waiting) {
+        int slot = slots.get(transactionID);
+        if (slot >= 0) {
+            return slot;
+        }
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            if (slotCount == ids.length) {
+                grow();
+            }
+            slot = slotCount++;
+            outgoing[slot] = new int[2];
+            incoming[slot] = new int[2];
+        }
+        ids[slot] = transactionID;
+        live[slot] = true;
+        if (minOrder == Integer.MIN_VALUE || maxOrder == Integer.MAX_VALUE) {
+            renumberOrder();
+        }
+        order[slot] = waiting ? --minOrder : ++maxOrder;
+        slots.put(transactionID, slot);
+        return slot;
+    }
+
+    private void grow() {
+        int capacity = 2 * ids.length;
+        ids = Arrays.copyOf(ids, capacity);
+        live = Arrays.copyOf(live, capacity);
+        outgoing = Arrays.copyOf(outgoing, capacity);
+        outDegree = Arrays.copyOf(outDegree, capacity);
+        incoming = Arrays.copyOf(incoming, capacity);
+        inDegree = Arrays.copyOf(inDegree, capacity);
+        order = Arrays.copyOf(order, capacity);
+    }
+
+    private boolean hasEdge(int from, int to) {
+        int[] next = outgoing[from];
+        for (int i = 0; i < outDegree[from]; i++) {
+            if (next[i] == to) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void link(int from, int to) {
+        appendTo(outgoing, outDegree, from, to);
+        appendTo(incoming, inDegree, to, from);
+    }
+
+    private void unlink(int from, int to) {
+        removeFrom(outgoing, outDegree, from, to);
+        removeFrom(incoming, inDegree, to, from);
+    }
+
+    private static void appendTo(int[][] lists, int[] sizes, int slot, int value) {
+        if (sizes[slot] == lists[slot].length) {
+            lists[slot] = Arrays.copyOf(lists[slot], 2 * sizes[slot]);
+        }
+        lists[slot][sizes[slot]++] = value;
+    }
+
+    private static void removeFrom(int[][] lists, int[] sizes, int slot, int value) {
+        int[] list = lists[slot];
+        for (int i = 0; i < sizes[slot]; i++) {
+            if (list[i] == value) {
+                list[i] = list[--sizes[slot]];
+                return;
+            }
+        }
+    }
+
+    /**
+     * Adds the edge from -> to while keeping the topological order (Pearce-Kelly). If the edge goes backward in the
+     * order, the nodes reachable from "to" and the nodes reaching "from" within the affected region are searched, then
+     * reordered so that the first ones come after the second ones.
+     * 
+     * @return false if the edge would close a cycle, in which case it is not added
+     */
+    private boolean insertOrdered(int from, int to) {
+        if (from == to) {
+            return false;
+        }
+        int lowerBound = order[to];
+        int upperBound = order[from];
+        if (upperBound < lowerBound) {
+            link(from, to);
+            return true;
+        }
+        prepareTraversal();
+
+        // Nodes reachable from "to" whose order is lower than the one of "from"
+        int forwardCount = 0;
+        int top = 0;
+        stack[top++] = to;
+        marks[to] = epoch;
+        while (top > 0) {
+            int node = stack[--top];
+            forward[forwardCount++] = node;
+            for (int i = 0; i < outDegree[node]; i++) {
+                int next = outgoing[node][i];
+                if (next == from) {
+                    return false;
+                }
+                if (marks[next] != epoch && order[next] < upperBound) {
+                    marks[next] = epoch;
+                    stack[top++] = next;
+                }
+            }
+        }
+
+        // Nodes reaching "from" whose order is greater than the one of "to"
+        int backwardCount = 0;
+        stack[top++] = from;
+        marks[from] = epoch;
+        while (top > 0) {
+            int node = stack[--top];
+            backward[backwardCount++] = node;
+            for (int i = 0; i < inDegree[node]; i++) {
+                int previous = incoming[node][i];
+                if (marks[previous] != epoch && order[previous] > lowerBound) {
+                    marks[previous] = epoch;
+                    stack[top++] = previous;
+                }
+            }
+        }
+
+        // Reuse the positions of both sets, the backward one first
+        int total = 0;
+        for (int i = 0; i < backwardCount; i++) {
+            orderPool[total++] = order[backward[i]];
+        }
+        for (int i = 0; i < forwardCount; i++) {
+            orderPool[total++] = order[forward[i]];
+        }
+        Arrays.sort(orderPool, 0, total);
+        sortByOrder(backward, backwardCount);
+        sortByOrder(forward, forwardCount);
+        for (int i = 0; i < backwardCount; i++) {
+            order[backward[i]] = orderPool[i];
+        }
+        for (int i = 0; i < forwardCount; i++) {
+            order[forward[i]] = orderPool[backwardCount + i];
+        }
+
+        link(from, to);
+        return true;
+    }
+
+    private void sortByOrder(int[] nodes, int count) {
+        for (int i = 0; i < count; i++) {
+            sortBuffer[i] = ((long) order[nodes[i]] << 32) | nodes[i];
+        }
+        Arrays.sort(sortBuffer, 0, count);
+        for (int i = 0; i < count; i++) {
+            nodes[i] = (int) sortBuffer[i];
+        }
+    }
+
+    // Iterative DFS looking for a cycle reachable from the given node. Used when the graph is not known to be acyclic.
+    private boolean reachesCycle(int start) {
+        prepareTraversal();
+        int top = 0;
+        stack[top++] = start;
+        edgePositions[start] = 0;
+        marks[start] = epoch;
+        onStack[start] = true;
+        boolean cyclic = false;
+        while (top > 0 && !cyclic) {
+            int node = stack[top - 1];
+            if (edgePositions[node] < outDegree[node]) {
+                int next = outgoing[node][edgePositions[node]++];
+                if (marks[next] != epoch) {
+                    marks[next] = epoch;
+                    onStack[next] = true;
+                    edgePositions[next] = 0;
+                    stack[top++] = next;
+                } else if (onStack[next]) {
+                    cyclic = true;
+                }
+            } else {
+                onStack[node] = false;
+                top--;
+            }
+        }
+        while (top > 0) {
+            onStack[stack[--top]] = false;
+        }
+        return cyclic;
+    }
+
+    private void prepareTraversal() {
+        int capacity = ids.length;
+        if (marks == null || marks.length < capacity) {
+            marks = new int[capacity];
+            stack = new int[capacity];
+            edgePositions = new int[capacity];
+            onStack = new boolean[capacity];
+            forward = new int[capacity];
+            backward = new int[capacity];
+            sortBuffer = new long[capacity];
+            orderPool = new int[capacity];
+            epoch = 0;
+        }
+        epoch++;
+        if (epoch == 0) {
+            Arrays.fill(marks, 0);
+            epoch = 1;
+        }
+    }
+
+    // Assigns a topological order computed from scratch, once the graph is acyclic
+    private void rebuildOrder() {
+        prepareTraversal();
+        int[] remainingIn = new int[slotCount];
+        int top = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (live[slot]) {
+                remainingIn[slot] = inDegree[slot];
+                if (inDegree[slot] == 0) {
+                    stack[top++] = slot;
+                }
+            }
+        }
+        int position = 0;
+        while (top > 0) {
+            int node = stack[--top];
+            order[node] = position++;
+            for (int i = 0; i < outDegree[node]; i++) {
+                int next = outgoing[node][i];
+                if (--remainingIn[next] == 0) {
+                    stack[top++] = next;
+                }
+            }
+        }
+        minOrder = 0;
+        maxOrder = position;
+        ordered = position == slots.size();
+    }
+
+    // Compacts the positions of the topological order when they reach the bounds of int
+    private void renumberOrder() {
+        prepareTraversal();
+        int count = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (live[slot]) {
+                forward[count++] = slot;
+            }
+        }
+        sortByOrder(forward, count);
+        for (int i = 0; i < count; i++) {
+            order[forward[i]] = i - count / 2;
+        }
+        minOrder = -count / 2;
+        maxOrder = count - count / 2;
+    }
+
+    /**
+     * Iterative version of Tarjan's strongly connected components algorithm, restricted to a subset of the nodes. The
+     * arrays are allocated once for all the runs of a call to checkForCycles.
+     */
+    private class Tarjan {
+
+        private final int[] index = new int[slotCount];
+        private final int[] lowLink = new int[slotCount];
+        private final int[] member = new int[slotCount];
+        private final int[] position = new int[slotCount];
+        private final boolean[] inComponentStack = new boolean[slotCount];
+        private final int[] callStack = new int[slotCount];
+        private final int[] componentStack = new int[slotCount];
+        private int run = 0;
+
+        private LinkedList<int[]> run(int[] nodes, int count) {
+            LinkedList<int[]> components = new LinkedList<int[]>();
+            run++;
+            for (int i = 0; i < count; i++) {
+                member[nodes[i]] = run;
+                index[nodes[i]] = -1;
+            }
+            int counter = 0;
+            for (int i = 0; i < count; i++) {
+                int root = nodes[i];
+                if (index[root] != -1) {
+                    continue;
+                }
+                int callTop = 0;
+                int componentTop = 0;
+                callStack[callTop++] = root;
+                index[root] = lowLink[root] = counter++;
+                position[root] = 0;
+                componentStack[componentTop++] = root;
+                inComponentStack[root] = true;
+
+                while (callTop > 0) {
+                    int node = callStack[callTop - 1];
+                    if (position[node] < outDegree[node]) {
+                        int next = outgoing[node][position[node]++];
+                        if (member[next] != run) {
+                            continue;
+                        }
+                        if (index[next] == -1) {
+                            index[next] = lowLink[next] = counter++;
+                            position[next] = 0;
+                            componentStack[componentTop++] = next;
+                            inComponentStack[next] = true;
+                            callStack[callTop++] = next;
+                        } else if (inComponentStack[next]) {
+                            lowLink[node] = Math.min(lowLink[node], index[next]);
+                        }
+                    } else {
+                        callTop--;
+                        if (lowLink[node] == index[node]) {
+                            int size = 0;
+                            while (componentStack[componentTop - 1 - size] != node) {
+                                size++;
+                            }
+                            size++;
+                            int[] component = new int[size];
+                            for (int j = 0; j < size; j++) {
+                                component[j] = componentStack[--componentTop];
+                                inComponentStack[component[j]] = false;
+                            }
+                            components.add(component);
+                        }
+                        if (callTop > 0) {
+                            int parent = callStack[callTop - 1];
+                            lowLink[parent] = Math.min(lowLink[parent], lowLink[node]);
+                        }
+                    }
+                }
+            }
+            return components;
+        }
+
+        /**
+         * Removes the cheapest node of the cycle closed by every back edge found by a DFS of the given nodes. The nodes
+         * above the victim on the DFS stack are explored again, so the remaining nodes have no back edge, hence no
+         * cycle. The victims are only removed from the graph by the caller, after the traversal.
+         * 
+         * @return the slots of the victims
+         */
+        private LinkedList<Integer> breakCycles(int[] nodes, long[] cost) {
+            LinkedList<Integer> victims = new LinkedList<Integer>();
+            run++;
+            for (int node : nodes) {
+                member[node] = run;
+                // -1: not visited yet, 0: on the DFS stack, 1: done
+                index[node] = -1;
+            }
+            for (int root : nodes) {
+                if (index[root] != -1) {
+                    continue;
+                }
+                int callTop = 0;
+                callStack[callTop++] = root;
+                index[root] = 0;
+                position[root] = 0;
+                while (callTop > 0) {
+                    int node = callStack[callTop - 1];
+                    if (position[node] < outDegree[node]) {
+                        int next = outgoing[node][position[node]++];
+                        if (member[next] != run) {
+                            continue;
+                        }
+                        if (index[next] == -1) {
+                            index[next] = 0;
+                            position[next] = 0;
+                            callStack[callTop++] = next;
+                        } else if (index[next] == 0) {
+                            // Back edge, the cycle is made of the stack from "next" to the current node
+                            int victimPosition = callTop - 1;
+                            for (int i = callTop - 1; callStack[i] != next;) {
+                                i--;
+                                if (isCheaper(callStack[i], callStack[victimPosition], cost)) {
+                                    victimPosition = i;
+                                }
+                            }
+                            int victim = callStack[victimPosition];
+                            victims.add(victim);
+                            member[victim] = 0;
+                            for (int i = victimPosition + 1; i < callTop; i++) {
+                                index[callStack[i]] = -1;
+                            }
+                            callTop = victimPosition;
+                        }
+                    } else {
+                        index[node] = 1;
+                        callTop--;
+                    }
+                }
+            }
+            return victims;
+        }
+    }
+
+    /**
+     * Open addressing map from transaction IDs to slots, without boxing.
+     */
+    private static class IntIntMap implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private int[] keys = new int[2 * INITIAL_CAPACITY];
+        private int[] values = new int[2 * INITIAL_CAPACITY];
+        private boolean[] used = new boolean[2 * INITIAL_CAPACITY];
+        private int size = 0;
+
+        private static int hash(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        private int indexOf(int key) {
+            int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (used[i] && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+
+        // Returns -1 if the key is absent
+        private int get(int key) {
+            int i = indexOf(key);
+            return used[i] ? values[i] : -1;
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private void put(int key, int value) {
+            if (2 * (size + 1) > keys.length) {
+                rehash(2 * keys.length);
+            }
+            int i = indexOf(key);
+            if (!used[i]) {
+                used[i] = true;
+                keys[i] = key;
+                size++;
+            }
+            values[i] = value;
+        }
+
+        private void remove(int key) {
+            int i = indexOf(key);
+            if (!used[i]) {
+                return;
+            }
+            used[i] = false;
+            size--;
+            // Shift back the following entries of the cluster
+            int mask = keys.length - 1;
+            int j = i;
+            while (true) {
+                j = (j + 1) & mask;
+                if (!used[j]) {
+                    return;
+                }
+                int home = hash(keys[j]) & mask;
+                boolean stays = (i <= j) ? (i < home && home <= j) : (i < home || home <= j);
+                if (!stays) {
+                    keys[i] = keys[j];
+                    values[i] = values[j];
+                    used[i] = true;
+                    used[j] = false;
+                    i = j;
+                }
+            }
+        }
+
+        private void rehash(int capacity) {
+            int[] oldKeys = keys;
+            int[] oldValues = values;
+            boolean[] oldUsed = used;
+            keys = new int[capacity];
+            values = new int[capacity];
+            used = new boolean[capacity];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldUsed[i]) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
     }
 }
@@ -0,0 +1,72 @@
+package ch.epfl.tkvs.transactionmanager.lockingunit;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * The changes of the dependencies between the distributed transactions of a transaction manager (TM), sent to the
+ * centralized decider. The decider applies the deltas of every TM in the order given by their sequence numbers to keep
+ * a global graph of the dependencies.
+ */
+public class DeadlockGraphDelta implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private int localHash;
+    private long sequenceNumber;
+    private long[] addedDependencies;
+    private long[] removedDependencies;
+    private HashMap<Integer, TransactionCost> costs;
+
+    /**
+     * @param localHash hash describing the particular TM which sends this delta
+     * @param sequenceNumber position of this delta among the ones sent by the TM, starting at 0
+     * @param addedDependencies the new dependencies, encoded with {@link DeadlockGraph#dependency(int, int)}
+     * @param removedDependencies the dependencies which disappeared, encoded the same way
+     * @param costs the cost hints of the transactions having dependencies on the TM, used to choose the victims of a
+     * deadlock
+     */
+    public DeadlockGraphDelta(int localHash, long sequenceNumber, long[] addedDependencies, long[] removedDependencies, HashMap<Integer, TransactionCost> costs) {
+        this.localHash = localHash;
+        this.sequenceNumber = sequenceNumber;
+        this.addedDependencies = addedDependencies;
+        this.removedDependencies = removedDependencies;
+        this.costs = costs;
+    }
+
+    /**
+     * @return the locality hash which distinguish the TM sending this delta.
+     */
+    public int getLocalHash() {
+        return localHash;
+    }
+
+    /**
+     * @return the position of this delta among the ones sent by the TM
+     */
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    /**
+     * @return the new dependencies, encoded with {@link DeadlockGraph#dependency(int, int)}
+     */
+    public long[] getAddedDependencies() {
+        return addedDependencies;
+    }
+
+    /**
+     * @return the dependencies which disappeared, encoded with {@link DeadlockGraph#dependency(int, int)}
+     */
+    public long[] getRemovedDependencies() {
+        return removedDependencies;
+    }
+
+    /**
+     * @return the cost hints of the transactions having dependencies on the TM, by transaction id
+     */
+    public Map<Integer, TransactionCost> getCosts() {
+        return costs;
+    }
+}
@@ -0,0 +1,42 @@
+package ch.epfl.tkvs.transactionmanager.lockingunit;
+
+/**
+ * The ways the {@link LockingUnit} can handle deadlocks. The transaction ids are issued by the AppMaster in increasing
+ * order, so a smaller id means an older transaction, which has a higher priority.
+ */
+public enum DeadlockPolicy {
+    // Waits are added to the deadlock graph and a request that closes a cycle is aborted
+    DETECTION("detection"),
+    // A transaction may only wait for younger ones, a younger transaction is aborted instead of waiting
+    WAIT_DIE("wait_die"),
+    // A transaction wounds (aborts) the younger ones it would wait for, and waits for the older ones
+    WOUND_WAIT("wound_wait"),
+    // A transaction is aborted if it cannot get its lock within the lock wait timeout
+    TIMEOUT("timeout");
+
+    private final String configName;
+
+    private DeadlockPolicy(String configName) {
+        this.configName = configName;
+    }
+
+    /**
+     * Returns the policy with the given name in ./config/algorithm
+     *
+     * @param configName the name of the policy, e.g. "wait_die"
+     * @return the corresponding policy, or DETECTION if the name is unknown
+     */
+    public static DeadlockPolicy fromConfig(String configName) {
+        for (DeadlockPolicy policy : values()) {
+            if (policy.configName.equals(configName)) {
+                return policy;
+            }
+        }
+        return DETECTION;
+    }
+
+    @Override
+    public String toString() {
+        return configName;
+    }
+}
@@ -0,0 +1,40 @@
+package ch.epfl.tkvs.transactionmanager.lockingunit;
+
+import java.io.Serializable;
+
+
+/**
+ * The gap between a committed key and the previous one, which is locked with the {@link LockType.Gap} locks so that
+ * the scans are phantom-safe. A gap is named after the committed key which ends it, the gap after the last committed
+ * key has no key.
+ */
+public class KeyGap implements Serializable {
+
+    private static final long serialVersionUID = 2751393605460167921L;
+
+    // The committed key which ends the gap, null for the gap after the last one
+    private final String next;
+
+    public KeyGap(String next) {
+        this.next = next;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof KeyGap)) {
+            return false;
+        }
+        String otherNext = ((KeyGap) other).next;
+        return next == null ? otherNext == null : next.equals(otherNext);
+    }
+
+    @Override
+    public int hashCode() {
+        return next == null ? 0 : 31 * next.hashCode() + 1;
+    }
+
+    @Override
+    public String toString() {
+        return "gap before " + next;
+    }
+}
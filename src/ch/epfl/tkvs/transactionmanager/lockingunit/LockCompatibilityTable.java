@@ -45,6 +45,18 @@ public class LockCompatibilityTable {
         return new ArrayList<LockType>(Arrays.asList(lt));
     }
 
+    /**
+     * Adds the locks of the gaps between the keys to a table: the scans of a gap are compatible with each other, and so
+     * are the inserts in it.
+     * 
+     * @param table the lock compatibility table
+     */
+    public static void addGapLocks(Map<LockType, List<LockType>> table) {
+        table.put(LockType.Gap.SCAN, newCompatibilityList(LockType.Gap.SCAN));
+        table.put(LockType.Gap.INSERT, newCompatibilityList(LockType.Gap.INSERT));
+        table.put(LockType.Gap.SCAN_INSERT, newCompatibilityList());
+    }
+
     /**
      * Given a lock type, this method returns the lock types which are incompatible with that lock type according to
      * this LockCompatibilityTable
@@ -9,4 +9,12 @@ public interface LockType {
     public static enum Exclusive implements LockType {
         LOCK
     }
+
+    /**
+     * The locks of the gaps between the keys, which keep a scanned range from getting new keys. A transaction which
+     * both scans a gap and inserts a key in it holds SCAN_INSERT.
+     */
+    public static enum Gap implements LockType {
+        SCAN, INSERT, SCAN_INSERT
+    }
 }
@@ -1,34 +1,111 @@
 package ch.epfl.tkvs.transactionmanager.lockingunit;
 
 import java.io.Serializable;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import ch.epfl.tkvs.exceptions.AbortException;
 import ch.epfl.tkvs.exceptions.DeadlockException;
+import ch.epfl.tkvs.exceptions.LockTimeoutException;
+import ch.epfl.tkvs.transactionmanager.WaitAdmission;
 
 
 /**
  * Locking Unit Singleton Call a function with LockingUnit.instance.fun(args)
+ * 
+ * The lock table is partitioned in stripes: every key is mapped to one stripe according to its hash, and each stripe
+ * has its own internal lock, lock holders and request queues. Requests on keys that belong to different stripes never
+ * contend with each other. The deadlock graph is shared by all the stripes and is guarded by a separate lock which is
+ * always acquired after the lock of a stripe, never before.
+ * 
+ * The pending requests on a key are kept in a FIFO queue, and every waiting transaction has its own wait node. When
+ * locks are released, the requests at the head of the queue are granted as long as they are compatible with the
+ * holders (a batch of readers is granted at once), and only the transactions which got their lock are woken up.
+ * Promotions are queued before the lock requests, since the promoting transaction already holds a lock on the key.
+ * A promotion of locks the transaction does not hold is a plain lock request, and is queued behind them.
+ * 
+ * By default, deadlocks are detected with a DeadlockGraph. The other policies of {@link DeadlockPolicy} use the
+ * transaction ids as priorities (or a lock wait timeout) instead, and do not maintain any graph.
  */
 public enum LockingUnit {
 
     instance;
 
+    // Number of partitions of the lock table
+    private static final int NUMBER_OF_STRIPES = 64;
+    public static final long DEFAULT_LOCK_WAIT_TIMEOUT_MS = 2000;
+
     private LockCompatibilityTable lct;
-    private Map<Serializable, HashMap<LockType, List<Integer>>> locks = new HashMap<>();
-    private Map<Serializable, HashMap<LockType, Condition>> waitingLists = new HashMap<>();
-    private Map<Integer, Condition> waitingTransactions = new HashMap<>();
-    private Set<Integer> transactionsToBeKilled = new HashSet<>();
-    private final Lock internalLock = new ReentrantLock();
+    private Stripe[] stripes = newStripes();
+    // Maps each waiting transaction to the stripe it is waiting on
+    private Map<Integer, Stripe> waitingTransactions = new ConcurrentHashMap<>();
+    private final Lock graphLock = new ReentrantLock();
+    // Signalled whenever the graph changes, under the graph lock
+    private final Condition graphChanged = graphLock.newCondition();
     private DeadlockGraph graph = new DeadlockGraph();
+    // Incremented whenever the graph changes, so that readers can tell if it changed since they last looked at it
+    private volatile long graphVersion = 0;
+    private DeadlockPolicy policy = DeadlockPolicy.DETECTION;
+    private long lockWaitTimeout = DEFAULT_LOCK_WAIT_TIMEOUT_MS;
+    private WoundHandler woundHandler = null;
+    // The transactions wounded by older ones, which abort at their next lock request or while they wait
+    private Set<Integer> woundedTransactions = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+
+    /**
+     * Decides which of the younger transactions an older one waits for under the WOUND_WAIT policy are wounded, with
+     * {@link LockingUnit#wound(int)}. Without a handler, all of them are.
+     */
+    public interface WoundHandler {
+
+        void wound(int transactionID);
+    }
+
+    /**
+     * A partition of the lock table. Holds the locks and the request queues of the keys that are mapped to it.
+     */
+    private static class Stripe {
+
+        private final Lock internalLock = new ReentrantLock();
+        private final Map<Serializable, HashMap<LockType, List<Integer>>> locks = new HashMap<>();
+        private final Map<Serializable, LinkedList<WaitNode>> queues = new HashMap<>();
+        private final Map<Integer, WaitNode> waitingTransactions = new HashMap<>();
+    }
+
+    /**
+     * A pending lock request of a transaction. The fields are guarded by the internal lock of the stripe.
+     */
+    private static class WaitNode {
+
+        private final int transactionID;
+        private final LockType lockType;
+        // Locks given up when the request is granted, null if the request is not a promotion
+        private final List<? extends LockType> oldTypes;
+        private final Condition condition;
+        private boolean granted = false;
+        private boolean killed = false;
+
+        private WaitNode(int transactionID, LockType lockType, List<? extends LockType> oldTypes, Condition condition) {
+            this.transactionID = transactionID;
+            this.lockType = lockType;
+            this.oldTypes = oldTypes;
+            this.condition = condition;
+        }
+
+        private boolean isPromotion() {
+            return oldTypes != null;
+        }
+    }
 
     /**
      * MUST be called before use to specify 2PL lock compatibility table.
@@ -36,11 +113,7 @@ public enum LockingUnit {
      * For simplicity, please call this method before running the threads.
      */
     public void init() {
-        locks = new HashMap<>();
-        waitingLists = new HashMap<>();
-        waitingTransactions = new HashMap<>();
-        transactionsToBeKilled = new HashSet<>();
-        graph = new DeadlockGraph();
+        reset();
         lct = new LockCompatibilityTable(false);
     }
 
@@ -50,11 +123,7 @@ public enum LockingUnit {
      * For simplicity, please call this method before running the threads.
      */
     public void initOnlyExclusiveLock() {
-        locks = new HashMap<>();
-        waitingLists = new HashMap<>();
-        waitingTransactions = new HashMap<>();
-        transactionsToBeKilled = new HashSet<>();
-        graph = new DeadlockGraph();
+        reset();
         lct = new LockCompatibilityTable(true);
     }
 
@@ -68,11 +137,7 @@ public enum LockingUnit {
      * @param table the lock compatibility table - if null, use default parameter
      */
     public void initWithLockCompatibilityTable(Map<LockType, List<LockType>> table) {
-        locks = new HashMap<>();
-        waitingLists = new HashMap<>();
-        waitingTransactions = new HashMap<>();
-        transactionsToBeKilled = new HashSet<>();
-        graph = new DeadlockGraph();
+        reset();
         if (table == null) {
             lct = new LockCompatibilityTable(false);
         } else {
@@ -80,9 +145,55 @@ public enum LockingUnit {
         }
     }
 
+    private void reset() {
+        stripes = newStripes();
+        waitingTransactions = new ConcurrentHashMap<>();
+        graph = new DeadlockGraph();
+        graphVersion++;
+        policy = DeadlockPolicy.DETECTION;
+        lockWaitTimeout = DEFAULT_LOCK_WAIT_TIMEOUT_MS;
+        woundHandler = null;
+        woundedTransactions = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+    }
+
+    /**
+     * Sets how deadlocks are handled. The init methods reset the policy to DETECTION, so this method must be called
+     * after them.
+     * 
+     * @param policy the deadlock policy
+     * @param lockWaitTimeout maximum time in milliseconds a transaction waits for a lock under the TIMEOUT policy
+     * @param woundHandler decides which transactions are wounded under the WOUND_WAIT policy, may be null
+     */
+    public void setDeadlockPolicy(DeadlockPolicy policy, long lockWaitTimeout, WoundHandler woundHandler) {
+        this.policy = policy;
+        this.lockWaitTimeout = lockWaitTimeout;
+        this.woundHandler = woundHandler;
+    }
+
+    public DeadlockPolicy getDeadlockPolicy() {
+        return policy;
+    }
+
+    private static Stripe[] newStripes() {
+        Stripe[] newStripes = new Stripe[NUMBER_OF_STRIPES];
+        for (int i = 0; i < NUMBER_OF_STRIPES; i++) {
+            newStripes[i] = new Stripe();
+        }
+        return newStripes;
+    }
+
+    private Stripe stripeFor(Serializable key) {
+        int hash = key.hashCode();
+        // Spread the higher bits so that keys with similar hashes do not end up in the same stripe
+        hash ^= (hash >>> 16);
+        return stripes[(hash & 0x7fffffff) % stripes.length];
+    }
+
     /**
      * Gets the specified type of lock for the given key. Waits until it gets the lock. Remember to initialize the
-     * module with the right lock compatibility table.
+     * module with the right lock compatibility table. The requests on a key are granted in FIFO order, except for a
+     * transaction which already holds a lock on the key: it gets a compatible lock at once, since it would otherwise
+     * wait behind requests which wait for it.
      * 
      * @param transactionID ID of the transaction that requests the lock
      * @param key the key of the object to be locked
@@ -91,25 +202,31 @@ public enum LockingUnit {
      * lock request causes a deadlock
      */
     public void lock(int transactionID, Serializable key, LockType lockType) throws AbortException {
+        if (woundedTransactions.contains(transactionID)) {
+            throw new DeadlockException();
+        }
+        Stripe stripe = stripeFor(key);
         try {
-            internalLock.lock();
-            while (!canLock(key, lockType)) {
-                if (checkforDeadlock(transactionID, key, lockType)) {
-                    throw new DeadlockException();
-                }
-                waitOn(transactionID, key, lockType);
-                if (transactionsToBeKilled.contains(transactionID)) {
-                    transactionsToBeKilled.remove(transactionID);
-                    throw new DeadlockException();
-                }
+            stripe.internalLock.lock();
+            LinkedList<WaitNode> queue = stripe.queues.get(key);
+            // Nobody is waiting before us, or the transaction already holds the key and the queued requests wait for it
+            if ((queue == null || holdsLock(stripe, transactionID, key)) && canLock(stripe, key, lockType)) {
+                addLock(stripe, transactionID, key, lockType);
+                return;
+            }
+            WaitNode node = new WaitNode(transactionID, lockType, null, stripe.internalLock.newCondition());
+            List<Integer> victims = new LinkedList<>();
+            if (checkforDeadlock(stripe, node, key, queue, victims)) {
+                throw new DeadlockException();
             }
-            addLock(transactionID, key, lockType);
+            enqueue(stripe, key, node);
+            wound(stripe, victims);
+            waitOn(stripe, key, node);
         } catch (InterruptedException e) {
             // TODO: something
 
         } finally {
-            waitingTransactions.remove(transactionID);
-            internalLock.unlock();
+            stripe.internalLock.unlock();
         }
     }
 
@@ -121,44 +238,47 @@ public enum LockingUnit {
      * 
      * @param transactionID ID of the transaction that promotes its lock(s)
      * @param key the key of the object associated with the lock
-     * @param oldTypes the lock types to promote
+     * @param oldTypes the lock types to promote, null if the transaction holds no lock on the key
      * @param newType the new lock type
      * @throws AbortException
      */
     public <T extends LockType> void promote(int transactionID, Serializable key, List<T> oldTypes, LockType newType) throws AbortException {
+        // Without a lock on the key, it waits behind the queued requests like any other one, and not ahead of them
+        if (oldTypes == null) {
+            lock(transactionID, key, newType);
+            return;
+        }
+        if (woundedTransactions.contains(transactionID)) {
+            throw new DeadlockException();
+        }
+        Stripe stripe = stripeFor(key);
         try {
-            internalLock.lock();
-            if (locks.containsKey(key)) {
-                HashMap<LockType, List<Integer>> theLocks = allLocksExcept(transactionID, key, oldTypes);
-
-                if (!theLocks.isEmpty()) {
-                    while (!lct.areCompatible(newType, theLocks.keySet())) {
-                        if (checkforDeadlock(transactionID, key, newType)) {
-                            throw new DeadlockException();
-                        }
-
-                        waitOn(transactionID, key, newType);
-                        if (transactionsToBeKilled.contains(transactionID)) {
-                            transactionsToBeKilled.remove(transactionID);
-                            throw new DeadlockException();
-                        }
-                        // Recompute the copy of the locks to avoid bug
-                        theLocks = allLocksExcept(transactionID, key, oldTypes);
-                    }
-                }
-                if (oldTypes != null)
-                    for (LockType oldType : oldTypes) {
-                        removeLock(transactionID, key, oldType);
-                    }
+            stripe.internalLock.lock();
+            WaitNode node = new WaitNode(transactionID, newType, oldTypes, stripe.internalLock.newCondition());
+            if (canGrant(stripe, key, node)) {
+                grant(stripe, key, node);
+                // The new lock may be weaker than the old ones, and let some waiters in
+                grantWaiters(stripe, key);
+                return;
+            }
+            LinkedList<WaitNode> queue = stripe.queues.get(key);
+            List<Integer> victims = new LinkedList<>();
+            if (checkforDeadlock(stripe, node, key, promotionsIn(queue), victims)) {
+                throw new DeadlockException();
             }
-            waitingTransactions.remove(transactionID);
-            addLock(transactionID, key, newType);
+            enqueue(stripe, key, node);
+            checkforDeadlockBehind(stripe, key, node, victims);
+            // An older transaction waiting behind wounds the promoting one
+            if (victims.remove(Integer.valueOf(transactionID))) {
+                node.killed = true;
+            }
+            wound(stripe, victims);
+            waitOn(stripe, key, node);
         } catch (InterruptedException e) {
             // TODO: something
 
         } finally {
-            waitingTransactions.remove(transactionID);
-            internalLock.unlock();
+            stripe.internalLock.unlock();
         }
     }
 
@@ -171,13 +291,57 @@ public enum LockingUnit {
      * DeadlockGraph. Check that class for more information
      */
     public DeadlockGraph getDeadlockGraph() {
-        internalLock.lock();
+        graphLock.lock();
         try {
             // TODO
             DeadlockGraph graphCopy = graph.copyOutgoingEdges();
             return graphCopy;
         } finally {
-            internalLock.unlock();
+            graphLock.unlock();
+        }
+    }
+
+    /**
+     * @return a number which changes whenever the DeadlockGraph held by this LockingUnit changes
+     */
+    public long getDeadlockGraphVersion() {
+        return graphVersion;
+    }
+
+    /**
+     * Waits until the DeadlockGraph held by this LockingUnit changes, or until the timeout expires.
+     * 
+     * @param version the version of the graph last seen, see {@link #getDeadlockGraphVersion()}
+     * @param timeout maximum time to wait in milliseconds
+     * @return the current version of the graph
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public long awaitDeadlockGraphChange(long version, long timeout) throws InterruptedException {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
+        graphLock.lock();
+        try {
+            while (graphVersion == version && remaining > 0) {
+                remaining = graphChanged.awaitNanos(remaining);
+            }
+            return graphVersion;
+        } finally {
+            graphLock.unlock();
+        }
+    }
+
+    /**
+     * Summarizes the DeadlockGraph held by this LockingUnit for the given transactions, see
+     * {@link DeadlockGraph#getDependenciesBetween(Set)}.
+     * 
+     * @param transactionIDs IDs of the transactions to keep
+     * @return the dependencies between the given transactions, encoded with {@link DeadlockGraph#dependency(int, int)}
+     */
+    public HashSet<Long> getDependenciesBetween(Set<Integer> transactionIDs) {
+        graphLock.lock();
+        try {
+            return graph.getDependenciesBetween(transactionIDs);
+        } finally {
+            graphLock.unlock();
         }
     }
 
@@ -186,6 +350,7 @@ public enum LockingUnit {
      * transaction. Intended to be used in the promote method to compute the locks held on a key except for the given
      * locks.
      * 
+     * @param stripe the stripe the given key belongs to. Its internal lock must be held by the caller.
      * @param transactionID ID of the transaction that the locksToExclude belong to.
      * @param key key of the object that the locksToExclude are held on.
      * @param locksToExclude lock types -that are held on the given key by the given transaction- to be excluded in the
@@ -193,14 +358,14 @@ public enum LockingUnit {
      * @return the lock types held on the given key except for the "locksToExclude" which are held by the given
      * transaction.
      */
-    private <T extends LockType> HashMap<LockType, List<Integer>> allLocksExcept(int transactionID, Serializable key, List<T> locksToExclude) {
+    private HashMap<LockType, List<Integer>> allLocksExcept(Stripe stripe, int transactionID, Serializable key, List<? extends LockType> locksToExclude) {
 
         HashMap<LockType, List<Integer>> theLocks = new HashMap<LockType, List<Integer>>();
-        if (!locks.containsKey(key)) {
+        if (!stripe.locks.containsKey(key)) {
             return theLocks;
         }
         for (LockType lockType : lct.getLockTypes()) {
-            theLocks.put(lockType, new LinkedList<>(locks.get(key).get(lockType)));
+            theLocks.put(lockType, new LinkedList<>(stripe.locks.get(key).get(lockType)));
         }
         if (locksToExclude != null)
             for (LockType lockType : locksToExclude) {
@@ -215,23 +380,37 @@ public enum LockingUnit {
     }
 
     /**
-     * Releases the given locks held by the transaction and removes the transaction from the Deadlock graph.
+     * Releases the given locks held by the transaction and removes the transaction from the Deadlock graph. The stripes
+     * are locked one at a time, so a release never waits for a stripe while holding another one.
      * 
      * @param transactionID ID of the transaction whose locks are to be released
      * @param heldLocks the map of key to list of lock types to be released.
      */
     public void releaseAll(int transactionID, HashMap<Serializable, List<LockType>> heldLocks) {
-        internalLock.lock();
-        try {
-            for (Serializable key : heldLocks.keySet()) {
+        woundedTransactions.remove(transactionID);
+        // The transaction is removed from the graph before the waiters are granted. Edges added towards it in the
+        // meantime are removed along with the waiting transaction.
+        if (policy == DeadlockPolicy.DETECTION) {
+            graphLock.lock();
+            try {
+                graph.removeTransaction(transactionID);
+                graphVersion++;
+                graphChanged.signalAll();
+            } finally {
+                graphLock.unlock();
+            }
+        }
+        for (Serializable key : heldLocks.keySet()) {
+            Stripe stripe = stripeFor(key);
+            stripe.internalLock.lock();
+            try {
                 for (LockType lockType : heldLocks.get(key)) {
-                    removeLock(transactionID, key, lockType);
-                    signalOn(key, lockType);
+                    removeLock(stripe, transactionID, key, lockType);
                 }
+                grantWaiters(stripe, key);
+            } finally {
+                stripe.internalLock.unlock();
             }
-            graph.removeTransaction(transactionID);
-        } finally {
-            internalLock.unlock();
         }
     }
 
@@ -243,22 +422,39 @@ public enum LockingUnit {
      * @return true if there is any thread waiting, false otherwise
      */
     public boolean interruptWaitingLocks(int transactionID) {
-        internalLock.lock();
+        Stripe stripe = waitingTransactions.get(transactionID);
+        if (stripe == null)
+            return false;
+        stripe.internalLock.lock();
         try {
-            if (!waitingTransactions.containsKey(transactionID))
+            WaitNode node = stripe.waitingTransactions.get(transactionID);
+            // The transaction may have been granted its lock in the meantime
+            if (node == null)
                 return false;
-            transactionsToBeKilled.add(transactionID);
-            waitingTransactions.get(transactionID).signalAll();
+            node.killed = true;
+            node.condition.signal();
         } finally {
-            internalLock.unlock();
+            stripe.internalLock.unlock();
         }
         return true;
     }
 
-    private boolean canLock(Serializable key, LockType lockType) {
-        if (locks.containsKey(key)) {
-            for (LockType lt : locks.get(key).keySet()) {
-                if (!locks.get(key).get(lt).isEmpty() && !lct.areCompatible(lockType, lt)) {
+    /**
+     * Wounds a transaction: it aborts while it waits for a lock, or at its next lock request. The transaction is left to
+     * its own thread, which must release its locks once it gets the AbortException.
+     * 
+     * @param transactionID the id of the wounded transaction
+     * @return true if the transaction was waiting for a lock, and so aborts at once
+     */
+    public boolean wound(int transactionID) {
+        woundedTransactions.add(transactionID);
+        return interruptWaitingLocks(transactionID);
+    }
+
+    private boolean canLock(Stripe stripe, Serializable key, LockType lockType) {
+        if (stripe.locks.containsKey(key)) {
+            for (LockType lt : stripe.locks.get(key).keySet()) {
+                if (!stripe.locks.get(key).get(lt).isEmpty() && !lct.areCompatible(lockType, lt)) {
                     return false;
                 }
             }
@@ -266,87 +462,296 @@ public enum LockingUnit {
         return true;
     }
 
-    private void addLock(int transactionID, Serializable key, LockType lockType) {
-        if (locks.containsKey(key)) {
-            locks.get(key).get(lockType).add(transactionID);
+    private boolean holdsLock(Stripe stripe, int transactionID, Serializable key) {
+        if (stripe.locks.containsKey(key)) {
+            for (List<Integer> holders : stripe.locks.get(key).values()) {
+                if (holders.contains(transactionID)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean canGrant(Stripe stripe, Serializable key, WaitNode node) {
+        if (!node.isPromotion()) {
+            return canLock(stripe, key, node.lockType);
+        }
+        HashMap<LockType, List<Integer>> theLocks = allLocksExcept(stripe, node.transactionID, key, node.oldTypes);
+        return theLocks.isEmpty() || lct.areCompatible(node.lockType, theLocks.keySet());
+    }
+
+    // Gives the requested lock to the transaction of the node, releasing the old locks in case of a promotion
+    private void grant(Stripe stripe, Serializable key, WaitNode node) {
+        if (node.isPromotion() && stripe.locks.containsKey(key)) {
+            for (LockType oldType : node.oldTypes) {
+                removeLock(stripe, node.transactionID, key, oldType);
+            }
+        }
+        addLock(stripe, node.transactionID, key, node.lockType);
+        node.granted = true;
+    }
+
+    // Grants the requests at the head of the queue of the key until an incompatible one is found
+    private void grantWaiters(Stripe stripe, Serializable key) {
+        LinkedList<WaitNode> queue = stripe.queues.get(key);
+        if (queue == null) {
+            return;
+        }
+        while (!queue.isEmpty() && canGrant(stripe, key, queue.peek())) {
+            WaitNode node = queue.poll();
+            grant(stripe, key, node);
+            stopWaiting(stripe, node.transactionID);
+            node.condition.signal();
+        }
+        if (queue.isEmpty()) {
+            stripe.queues.remove(key);
+        }
+    }
+
+    // Promotions are queued after the other promotions but before the lock requests
+    private void enqueue(Stripe stripe, Serializable key, WaitNode node) {
+        LinkedList<WaitNode> queue = stripe.queues.get(key);
+        if (queue == null) {
+            queue = new LinkedList<>();
+            stripe.queues.put(key, queue);
+        }
+        stripe.waitingTransactions.put(node.transactionID, node);
+        waitingTransactions.put(node.transactionID, stripe);
+        if (!node.isPromotion()) {
+            queue.addLast(node);
+            return;
+        }
+        ListIterator<WaitNode> it = queue.listIterator();
+        while (it.hasNext()) {
+            if (!it.next().isPromotion()) {
+                it.previous();
+                break;
+            }
+        }
+        it.add(node);
+    }
+
+    private void dequeue(Stripe stripe, Serializable key, WaitNode node) {
+        LinkedList<WaitNode> queue = stripe.queues.get(key);
+        if (queue != null) {
+            queue.remove(node);
+            if (queue.isEmpty()) {
+                stripe.queues.remove(key);
+            }
+        }
+    }
+
+    private List<WaitNode> promotionsIn(LinkedList<WaitNode> queue) {
+        List<WaitNode> promotions = new LinkedList<>();
+        if (queue != null) {
+            for (WaitNode node : queue) {
+                if (!node.isPromotion()) {
+                    break;
+                }
+                promotions.add(node);
+            }
+        }
+        return promotions;
+    }
+
+    private void addLock(Stripe stripe, int transactionID, Serializable key, LockType lockType) {
+        if (stripe.locks.containsKey(key)) {
+            stripe.locks.get(key).get(lockType).add(transactionID);
         } else {
             HashMap<LockType, List<Integer>> hashMap = new HashMap<>();
             for (LockType lt : lct.getLockTypes()) {
                 hashMap.put(lt, new LinkedList<Integer>());
             }
             hashMap.get(lockType).add(transactionID);
-            locks.put(key, hashMap);
+            stripe.locks.put(key, hashMap);
         }
     }
 
-    private void removeLock(int transactionID, Serializable key, LockType lockType) {
-        if (locks.containsKey(key)) {
-            locks.get(key).get(lockType).remove(new Integer(transactionID));
+    private void removeLock(Stripe stripe, int transactionID, Serializable key, LockType lockType) {
+        if (stripe.locks.containsKey(key)) {
+            stripe.locks.get(key).get(lockType).remove(new Integer(transactionID));
         }
         // remove the key from locks if there is not a lock on it.
-        for (LockType lt : locks.get(key).keySet()) {
-            if (!locks.get(key).get(lt).isEmpty()) {
+        for (LockType lt : stripe.locks.get(key).keySet()) {
+            if (!stripe.locks.get(key).get(lt).isEmpty()) {
                 return;
             }
         }
-        locks.remove(key);
+        stripe.locks.remove(key);
     }
 
-    private void waitOn(Integer transactionID, Serializable key, LockType lockType) throws InterruptedException {
-        HashMap<LockType, Condition> em = waitingLists.get(key);
-        if (em == null) {
-            waitingLists.put(key, new HashMap<LockType, Condition>());
-            em = waitingLists.get(key);
-        }
-        if (!em.containsKey(lockType)) {
-            em.put(lockType, internalLock.newCondition());
+    /**
+     * Waits until the request of the node is granted. If the transaction is killed while waiting (or if the lock wait
+     * timeout expires under the TIMEOUT policy), the node is removed from the queue and the requests that were waiting
+     * behind it are granted if possible.
+     * 
+     * @param stripe the stripe the given key belongs to. Its internal lock must be held by the caller.
+     * @param key the key on which the lock is requested
+     * @param node the queued request
+     * @throws AbortException if the transaction is killed or times out while waiting, or if its worker may not wait
+     */
+    private void waitOn(Stripe stripe, Serializable key, WaitNode node) throws AbortException, InterruptedException {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(lockWaitTimeout);
+        boolean admitted = false;
+        try {
+            while (!node.granted) {
+                // A transaction wounded just before it was queued is not interrupted, so it also checks itself
+                if (node.killed || woundedTransactions.contains(node.transactionID)) {
+                    throw new DeadlockException();
+                }
+                if (!admitted) {
+                    WaitAdmission.beginWait();
+                    admitted = true;
+                }
+                if (policy == DeadlockPolicy.TIMEOUT) {
+                    if (remaining <= 0) {
+                        throw new LockTimeoutException();
+                    }
+                    remaining = node.condition.awaitNanos(remaining);
+                } else {
+                    node.condition.await();
+                }
+            }
+        } finally {
+            if (admitted) {
+                WaitAdmission.endWait();
+            }
+            if (!node.granted) {
+                dequeue(stripe, key, node);
+                stopWaiting(stripe, node.transactionID);
+                grantWaiters(stripe, key);
+            }
         }
-        waitingTransactions.put(transactionID, em.get(lockType));
-        em.get(lockType).await();
     }
 
-    private void signalOn(Serializable key, LockType lockType) {
-        HashMap<LockType, Condition> em = waitingLists.get(key);
-        if (em == null) {
+    private void stopWaiting(Stripe stripe, int transactionID) {
+        stripe.waitingTransactions.remove(transactionID);
+        waitingTransactions.remove(transactionID);
+    }
+
+    // Aborts the wounded transactions. The lock of the stripe is released meanwhile, since they may be waiting on others
+    private void wound(Stripe stripe, List<Integer> victims) {
+        if (victims.isEmpty()) {
             return;
         }
-        for (LockType otherLockType : em.keySet()) {
-            if (!lct.areCompatible(lockType, otherLockType)) {
-                em.get(otherLockType).signalAll();
+        stripe.internalLock.unlock();
+        try {
+            for (Integer victim : victims) {
+                if (woundHandler != null) {
+                    woundHandler.wound(victim);
+                } else {
+                    wound(victim);
+                }
             }
+        } finally {
+            stripe.internalLock.lock();
         }
     }
 
     /**
-     * Checks if requesting a new lock causes deadlock
+     * Checks if queuing a new request causes deadlock. The transaction depends on the holders of incompatible locks and
+     * on the incompatible requests queued before it. The dependencies are computed under the lock of the stripe, then
+     * the graph is updated under the graph lock. Since all graph updates are serialized, out of two transactions that
+     * close a cycle through keys of different stripes, the second one to update the graph sees the cycle.
      * 
-     * @param transactionID ID of the transaction requesting new lock
+     * @param stripe the stripe the given key belongs to. Its internal lock must be held by the caller.
+     * @param node the request to be queued
      * @param key key on which the lock is requested
-     * @param lockType the type of the new lock requested
-     * @return
+     * @param ahead the requests that will be granted before the new one
+     * @param victims the list to which the transactions to be wounded are added
+     * @return true if the request causes a deadlock
      */
-    private boolean checkforDeadlock(int transactionID, Serializable key, LockType lockType) {
-        if (locks.containsKey(key)) {
-            HashSet<Integer> incompatibleTransactions = getIncompatibleTransactions(transactionID, key, lockType);
-            return graph.isCyclicAfter(transactionID, incompatibleTransactions);
-        } else { // if no lock is acquired on the key before
+    private boolean checkforDeadlock(Stripe stripe, WaitNode node, Serializable key, List<WaitNode> ahead, List<Integer> victims) {
+        HashSet<Integer> incompatibleTransactions = getIncompatibleTransactions(stripe, node.transactionID, key, node.lockType);
+        if (ahead != null) {
+            for (WaitNode other : ahead) {
+                if (!lct.areCompatible(node.lockType, other.lockType)) {
+                    incompatibleTransactions.add(other.transactionID);
+                }
+            }
+        }
+        incompatibleTransactions.remove(node.transactionID);
+        return checkforDeadlock(node.transactionID, incompatibleTransactions, victims);
+    }
+
+    /**
+     * Applies the deadlock policy to a transaction which is about to wait for the given ones.
+     * 
+     * @param transactionID ID of the waiting transaction
+     * @param incompatibleTransactions the transactions it waits for
+     * @param victims the list to which the transactions to be wounded are added
+     * @return true if the waiting transaction must be aborted
+     */
+    private boolean checkforDeadlock(int transactionID, HashSet<Integer> incompatibleTransactions, List<Integer> victims) {
+        if (incompatibleTransactions.isEmpty()) {
+            return false;
+        }
+        switch (policy) {
+        case WAIT_DIE:
+            // Dies if it would wait for an older transaction
+            for (Integer other : incompatibleTransactions) {
+                if (other < transactionID) {
+                    return true;
+                }
+            }
+            return false;
+        case WOUND_WAIT:
+            for (Integer other : incompatibleTransactions) {
+                if (other > transactionID) {
+                    victims.add(other);
+                }
+            }
+            return false;
+        case TIMEOUT:
             return false;
+        default:
+            graphLock.lock();
+            try {
+                boolean cyclic = graph.isCyclicAfter(transactionID, incompatibleTransactions);
+                if (!cyclic) {
+                    graphVersion++;
+                    graphChanged.signalAll();
+                }
+                return cyclic;
+            } finally {
+                graphLock.unlock();
+            }
+        }
+    }
+
+    // A promotion jumps ahead of the queued lock requests, which now depend on it. Kills those which must be aborted.
+    private void checkforDeadlockBehind(Stripe stripe, Serializable key, WaitNode promotion, List<Integer> victims) {
+        for (WaitNode other : stripe.queues.get(key)) {
+            if (other.isPromotion() || lct.areCompatible(other.lockType, promotion.lockType)) {
+                continue;
+            }
+            HashSet<Integer> dependency = new HashSet<>();
+            dependency.add(promotion.transactionID);
+            if (checkforDeadlock(other.transactionID, dependency, victims)) {
+                other.killed = true;
+                other.condition.signal();
+            }
         }
     }
 
     /**
      * Gets IDs of the transactions holding locks that are incompatible with new lock requested by another transaction
      * 
+     * @param stripe the stripe the given key belongs to. Its internal lock must be held by the caller.
      * @param transactionID the id of the new transaction requesting lock
      * @param key the key on which lock is requested
      * @param lockType the type of the lock which is requested
      * @return
      */
-    private HashSet<Integer> getIncompatibleTransactions(int transactionID, Serializable key, LockType lockType) {
-        Set<LockType> incompatiblelockTypes = lct.getIncompatibleLocks(lockType);
+    private HashSet<Integer> getIncompatibleTransactions(Stripe stripe, int transactionID, Serializable key, LockType lockType) {
         HashSet<Integer> incompatibleTransactions = new HashSet<>();
+        if (!stripe.locks.containsKey(key)) {
+            return incompatibleTransactions;
+        }
+        Set<LockType> incompatiblelockTypes = lct.getIncompatibleLocks(lockType);
         for (LockType incompatibleLockType : incompatiblelockTypes) {
-            incompatibleTransactions.addAll(locks.get(key).get(incompatibleLockType));
+            incompatibleTransactions.addAll(stripe.locks.get(key).get(incompatibleLockType));
         }
         incompatibleTransactions.remove(transactionID);
         return incompatibleTransactions;
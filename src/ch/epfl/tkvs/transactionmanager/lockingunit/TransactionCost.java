@@ -0,0 +1,78 @@
+package ch.epfl.tkvs.transactionmanager.lockingunit;
+
+import java.io.Serializable;
+
+
+/**
+ * Hints sent by a transaction manager (TM) about the work that is lost if a transaction is aborted. The centralized
+ * decider uses them to choose the cheapest victims when it breaks a deadlock.
+ */
+public class TransactionCost implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // Cost of aborting a transaction about which nothing is known
+    public static final long BASE_COST = 1;
+    private static final long LOCK_WEIGHT = 1;
+    private static final long WRITE_WEIGHT = 2;
+    private static final long REMOTE_PARTICIPANT_WEIGHT = 4;
+    // Milliseconds of age worth one unit of cost
+    private static final long AGE_UNIT_MS = 100;
+
+    private int locksHeld;
+    private int writes;
+    private long age;
+    private int remoteParticipants;
+
+    /**
+     * @param locksHeld number of locks held by the transaction on the TM
+     * @param writes number of writes buffered by the transaction on the TM
+     * @param age time in milliseconds since the transaction began on the TM
+     * @param remoteParticipants number of other TMs taking part in the transaction
+     */
+    public TransactionCost(int locksHeld, int writes, long age, int remoteParticipants) {
+        this.locksHeld = locksHeld;
+        this.writes = writes;
+        this.age = age;
+        this.remoteParticipants = remoteParticipants;
+    }
+
+    /**
+     * Combines the hints sent by two TMs for the same transaction. The locks and writes are spread over the TMs, while
+     * the age and the participants are best known by the primary TM.
+     * 
+     * @param other the hints sent by another TM for the same transaction
+     * @return the hints for the whole transaction
+     */
+    public TransactionCost merge(TransactionCost other) {
+        return new TransactionCost(locksHeld + other.locksHeld, writes + other.writes, Math.max(age, other.age), Math.max(remoteParticipants, other.remoteParticipants));
+    }
+
+    /**
+     * @return the estimated cost of aborting the transaction, always at least BASE_COST
+     */
+    public long getCost() {
+        return BASE_COST + LOCK_WEIGHT * locksHeld + WRITE_WEIGHT * writes + age / AGE_UNIT_MS + REMOTE_PARTICIPANT_WEIGHT * remoteParticipants;
+    }
+
+    public int getLocksHeld() {
+        return locksHeld;
+    }
+
+    public int getWrites() {
+        return writes;
+    }
+
+    public long getAge() {
+        return age;
+    }
+
+    public int getRemoteParticipants() {
+        return remoteParticipants;
+    }
+
+    @Override
+    public String toString() {
+        return "[locks=" + locksHeld + ", writes=" + writes + ", age=" + age + ", remote=" + remoteParticipants + "]";
+    }
+}
@@ -1,74 +1,27 @@
 package ch.epfl.tkvs.transactionmanager.versioningunit;
 
 import java.io.Serializable;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Set;
-
-import ch.epfl.tkvs.keyvaluestore.KeyValueStore;
+import java.util.Map;
 
 
 /**
- * A cache is a set of keys written by a particular transaction.
+ * A cache is the set of keys written by a particular transaction, along with their values. It is private to the
+ * transaction until it commits, and is only written to the key-value store once it is committed.
+ * 
+ * The writes are kept in an open-addressing table with linear probing, so buffering a write does not allocate anything
+ * but the table when it grows.
  */
 public class Cache {
 
-    private int xid;
-    private String prefix;
-    private Set<Serializable> writtenKeys;
-
-    /**
-     * Key for the key-value store that is prefixed in order to be unique for a particular transaction and version
-     */
-    class PrefixedKey implements Serializable {
-
-        private static final long serialVersionUID = 7099912040047138926L;
-        private String prefix;
-        private Serializable key;
-
-        public PrefixedKey(String prefix, Serializable key) {
-            this.prefix = prefix;
-            this.key = key;
-        }
-
-        @Override
-        public int hashCode() {
-            final int prime = 31;
-            int result = 1;
-            result = prime * result + getOuterType().hashCode();
-            result = prime * result + ((key == null) ? 0 : key.hashCode());
-            result = prime * result + ((prefix == null) ? 0 : prefix.hashCode());
-            return result;
-        }
+    private static final int INITIAL_CAPACITY = 16;
 
-        @Override
-        public boolean equals(Object obj) {
-            if (this == obj)
-                return true;
-            if (obj == null)
-                return false;
-            if (getClass() != obj.getClass())
-                return false;
-            PrefixedKey other = (PrefixedKey) obj;
-            if (!getOuterType().equals(other.getOuterType()))
-                return false;
-            if (key == null) {
-                if (other.key != null)
-                    return false;
-            } else if (!key.equals(other.key))
-                return false;
-            if (prefix == null) {
-                if (other.prefix != null)
-                    return false;
-            } else if (!prefix.equals(other.prefix))
-                return false;
-            return true;
-        }
-
-        private Cache getOuterType() {
-            return Cache.this;
-        }
-
-    }
+    private int xid;
+    // The table of the keys and of their values, a null key is an empty slot
+    private Serializable[] keys;
+    private Serializable[] values;
+    private int size;
 
     /**
      * Create a cache for the given transaction ID
@@ -77,14 +30,26 @@ public class Cache {
      */
     public Cache(int xid) {
         this.xid = xid;
-        this.prefix = "Cache" + xid + "_";
-        this.writtenKeys = new HashSet<Serializable>();
+        this.keys = new Serializable[INITIAL_CAPACITY];
+        this.values = new Serializable[INITIAL_CAPACITY];
+        this.size = 0;
     }
 
     public int getXid() {
         return xid;
     }
 
+    // Returns the slot of the key, or the empty slot where it would be inserted
+    private static int slot(Serializable[] keys, Serializable key) {
+        int mask = keys.length - 1;
+        int h = key.hashCode();
+        int i = (h ^ (h >>> 16)) & mask;
+        while (keys[i] != null && !keys[i].equals(key)) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
     /**
      * Retrieve the version of the given key in this cache
      * 
@@ -92,7 +57,9 @@ public class Cache {
      * @return the value of the given key in this cache
      */
     public Serializable get(Serializable key) {
-        return KeyValueStore.instance.get(prefixKey(key));
+        Serializable[] keys = this.keys;
+        int i = slot(keys, key);
+        return keys[i] == null ? null : values[i];
     }
 
     /**
@@ -102,24 +69,83 @@ public class Cache {
      * @param value the value to write for the key
      */
     public void put(Serializable key, Serializable value) {
-        KeyValueStore.instance.put(prefixKey(key), value);
-        writtenKeys.add(key);
+        int i = slot(keys, key);
+        if (keys[i] == null) {
+            // Keep the table at most half full so that the probe sequences stay short
+            if (2 * (size + 1) > keys.length) {
+                grow();
+                i = slot(keys, key);
+            }
+            keys[i] = key;
+            size++;
+        }
+        values[i] = value;
     }
 
-    private Serializable prefixKey(Serializable key) {
-        return new PrefixedKey(prefix, key);
+    private void grow() {
+        Serializable[] oldKeys = keys;
+        Serializable[] oldValues = values;
+        keys = new Serializable[2 * oldKeys.length];
+        values = new Serializable[2 * oldKeys.length];
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != null) {
+                int i = slot(keys, oldKeys[j]);
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    // The slots of the table, a null key being an empty slot. The table must not change while it is read this way,
+    // i.e. the cache must be committed.
+    int capacity() {
+        return keys.length;
+    }
+
+    Serializable keyAt(int slot) {
+        return keys[slot];
+    }
+
+    Serializable valueAt(int slot) {
+        return values[slot];
     }
 
     /**
      * @return all keys written in this cache
      */
     public HashSet<Serializable> getWrittenKeys() {
-        return new HashSet<Serializable>(writtenKeys);
+        HashSet<Serializable> writtenKeys = new HashSet<Serializable>();
+        for (Serializable key : keys) {
+            if (key != null) {
+                writtenKeys.add(key);
+            }
+        }
+        return writtenKeys;
+    }
+
+    /**
+     * @return the keys written in this cache with their values
+     */
+    public Map<Serializable, Serializable> getWrites() {
+        Map<Serializable, Serializable> writes = new HashMap<Serializable, Serializable>();
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                writes.put(keys[i], values[i]);
+            }
+        }
+        return writes;
+    }
+
+    /**
+     * @return the number of keys written in this cache
+     */
+    public int getNumberOfWrites() {
+        return size;
     }
 
     @Override
     public String toString() {
-        return prefix + getWrittenKeys();
+        return "Cache" + xid + "_" + getWrittenKeys();
     }
 
-}
\ No newline at end of file
+}
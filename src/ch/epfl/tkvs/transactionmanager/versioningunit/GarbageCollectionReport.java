@@ -0,0 +1,61 @@
+package ch.epfl.tkvs.transactionmanager.versioningunit;
+
+/**
+ * What a pass of the garbage collector of the {@link VersioningUnitMVTO} did. The pass is split in short slices, so the
+ * longest slice is the longest time the collector kept running without giving a chance to other threads.
+ */
+public class GarbageCollectionReport {
+
+    private final int prunedKeys;
+    private final int reclaimedVersions;
+    private final int remainingKeys;
+    private final int slices;
+    private final long totalTimeNs;
+    private final long longestSliceNs;
+
+    /**
+     * @param prunedKeys number of version chains looked at
+     * @param reclaimedVersions number of versions removed
+     * @param remainingKeys number of keys which may still have useless versions, looked at again by the next pass
+     * @param slices number of slices of the pass
+     * @param totalTimeNs duration of the pass in nanoseconds
+     * @param longestSliceNs duration of the longest slice in nanoseconds
+     */
+    public GarbageCollectionReport(int prunedKeys, int reclaimedVersions, int remainingKeys, int slices, long totalTimeNs, long longestSliceNs) {
+        this.prunedKeys = prunedKeys;
+        this.reclaimedVersions = reclaimedVersions;
+        this.remainingKeys = remainingKeys;
+        this.slices = slices;
+        this.totalTimeNs = totalTimeNs;
+        this.longestSliceNs = longestSliceNs;
+    }
+
+    public int getPrunedKeys() {
+        return prunedKeys;
+    }
+
+    public int getReclaimedVersions() {
+        return reclaimedVersions;
+    }
+
+    public int getRemainingKeys() {
+        return remainingKeys;
+    }
+
+    public int getSlices() {
+        return slices;
+    }
+
+    public long getTotalTimeNs() {
+        return totalTimeNs;
+    }
+
+    public long getLongestSliceNs() {
+        return longestSliceNs;
+    }
+
+    @Override
+    public String toString() {
+        return "[pruned keys=" + prunedKeys + ", reclaimed versions=" + reclaimedVersions + ", remaining keys=" + remainingKeys + ", slices=" + slices + ", total=" + totalTimeNs / 1000 + "us, longest slice=" + longestSliceNs / 1000 + "us]";
+    }
+}
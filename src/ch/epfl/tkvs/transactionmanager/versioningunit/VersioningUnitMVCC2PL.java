@@ -1,24 +1,86 @@
 package ch.epfl.tkvs.transactionmanager.versioningunit;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.Serializable;
-import java.util.Deque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedDeque;
-
-
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ch.epfl.tkvs.keyvaluestore.KeyValueStore;
+import ch.epfl.tkvs.keyvaluestore.OrderedKeyIndex;
+import ch.epfl.tkvs.keyvaluestore.Snapshot;
+import ch.epfl.tkvs.keyvaluestore.WriteAheadLog;
+
+
+/**
+ * Buffers the writes of every transaction in its own {@link Cache} until it commits. The committed caches are then
+ * written to the key-value store by background threads, each one in charge of a partition of the keys, so the writes
+ * of a key are applied in the order of the commits. A thread writes the caches waiting in its queue to the store in
+ * one batch. The committed keys are also kept in ascending order, so that the ranges of keys can be scanned.
+ */
 public class VersioningUnitMVCC2PL {
 
     /** Unique instance of the VersioningUnitMVTO class */
     private static VersioningUnitMVCC2PL instance = null;
 
-    private final static int PRIMARY_CACHE = 0;
+    /** Number of background commit threads used by default */
+    public static final int DEFAULT_COMMIT_THREADS = Runtime.getRuntime().availableProcessors();
+    // Maximum number of caches applied by a background commit thread before it frees them
+    private static final int BATCH_SIZE = 64;
 
+    // The committed values which were written by the background commit threads
+    private KeyValueStore store = KeyValueStore.instance;
+    // The writes of the transactions, private to them until they commit
     private Map<Integer, Cache> caches;
-    private Cache primary;
-    private Deque<Cache> tmpPrimary;
-    private BackgroundCommitThread backgroundCommitThread = null;
-    private Object guard = new Object();
+    // For every key written by a committed cache not written to the store yet, the most recent of these caches
+    private ConcurrentHashMap<Serializable, Cache> latestCommitted;
+    // The committed keys in ascending order, a key is added when it is committed
+    private OrderedKeyIndex orderedKeys;
+    // Number of committed caches not written to the store yet
+    private AtomicInteger commitBacklog;
+    private BackgroundCommitThread[] backgroundCommitThreads = null;
+    // The log of the committed writes, if they must survive a restart
+    private volatile WriteAheadLog log = null;
+    // The last image of the committed values, from which the log is replayed
+    private volatile Snapshot snapshot = null;
+
+    /**
+     * A committed cache, with the number of partitions in which it still has keys to write to the store
+     */
+    private static class CommittedCache {
+
+        final Cache cache;
+        final AtomicInteger pendingPartitions;
+
+        CommittedCache(Cache cache, int pendingPartitions) {
+            this.cache = cache;
+            this.pendingPartitions = new AtomicInteger(pendingPartitions);
+        }
+    }
+
+    /**
+     * Queued to every background commit thread, reached once they have all written the caches queued before it
+     */
+    private static class Barrier extends CommittedCache {
+
+        final CountDownLatch reached;
+
+        Barrier(int partitions) {
+            super(null, partitions);
+            reached = new CountDownLatch(partitions);
+        }
+    }
 
     /**
      * Private constructor of the Singleton
@@ -44,17 +106,146 @@ public class VersioningUnitMVCC2PL {
     }
 
     /**
-     * MUST be called before first use. This initializes the module.
+     * MUST be called before first use. This initializes the module with the default number of background commit
+     * threads.
      */
     public void init() {
+        init(DEFAULT_COMMIT_THREADS);
+    }
+
+    /**
+     * MUST be called before first use. This initializes the module. The store is not cleared, since a persistent
+     * engine keeps the committed values across restarts.
+     * 
+     * @param commitThreads number of threads writing the committed values to the key-value store
+     */
+    public void init(int commitThreads) {
         stopBackgroundCommitThreadIfAlive();
 
+        log = null;
+        snapshot = null;
         caches = new ConcurrentHashMap<Integer, Cache>();
-        primary = new Cache(PRIMARY_CACHE);
-        tmpPrimary = new ConcurrentLinkedDeque<Cache>();
+        latestCommitted = new ConcurrentHashMap<Serializable, Cache>();
+        orderedKeys = new OrderedKeyIndex();
+        Iterator<Serializable> keys = store.keys();
+        while (keys.hasNext()) {
+            orderedKeys.add(keys.next());
+        }
+        commitBacklog = new AtomicInteger(0);
 
-        backgroundCommitThread = new BackgroundCommitThread();
-        backgroundCommitThread.start();
+        backgroundCommitThreads = new BackgroundCommitThread[Math.max(1, commitThreads)];
+        for (int i = 0; i < backgroundCommitThreads.length; i++) {
+            backgroundCommitThreads[i] = new BackgroundCommitThread(i);
+            backgroundCommitThreads[i].start();
+        }
+    }
+
+    /**
+     * Loads the snapshot and replays the writes committed after it into the key-value store, then logs the writes of
+     * the next commits. MUST be called after init and before the first transaction begins. A persistent store which is
+     * not empty already holds the values of the snapshot, so only the log is replayed into it.
+     * 
+     * @param snapshot the last snapshot of the committed values
+     * @param log the log of the committed writes
+     * @return the number of committed transactions replayed
+     * @throws IOException if the snapshot or the log cannot be read
+     */
+    public int recover(Snapshot snapshot, WriteAheadLog log) throws IOException {
+        // Forced before each snapshot is written, see snapshot()
+        boolean loaded = store.isPersistent() && store.size() > 0;
+        long position = snapshot.load(loaded ? null : new Snapshot.Loader() {
+
+            @Override
+            public void load(Serializable key, Serializable value, int xid) {
+                store.put(key, value);
+                orderedKeys.add(key);
+            }
+        });
+        // The records are in the order of the commits, so the last write of a key wins even over a newer snapshot
+        int replayed = log.replay(position, new WriteAheadLog.Replayer() {
+
+            @Override
+            public void replay(int xid, Map<Serializable, Serializable> writes) {
+                for (Map.Entry<Serializable, Serializable> write : writes.entrySet()) {
+                    store.put(write.getKey(), write.getValue());
+                    orderedKeys.add(write.getKey());
+                }
+            }
+        });
+        this.log = log;
+        this.snapshot = snapshot;
+        return replayed;
+    }
+
+    /**
+     * Writes the committed values to a new snapshot while the transactions go on, then drops the records of the log it
+     * holds.
+     * 
+     * @return the number of keys in the snapshot, -1 if the commits are not logged
+     * @throws IOException if the snapshot could not be written or the log truncated, the previous snapshot is then
+     *             still valid
+     */
+    public int snapshot() throws IOException {
+        WriteAheadLog log = this.log;
+        Snapshot snapshot = this.snapshot;
+        if (log == null || snapshot == null) {
+            return -1;
+        }
+
+        // A commit is logged after it is indexed, so the values written by the records before this position are seen
+        long position = log.getPosition();
+        if (store.isPersistent()) {
+            // A restart keeps such a store rather than load the snapshot, so it must hold the writes of the records
+            // before the position once the snapshot is written
+            awaitBackgroundCommits();
+            store.force();
+        }
+        Snapshot.Writer writer = snapshot.write(position);
+        try {
+            // A key only leaves the index once its value is in the store, so it is found in one of them
+            Set<Serializable> indexed = new HashSet<Serializable>(latestCommitted.keySet());
+            for (Serializable key : indexed) {
+                writer.add(key, getCommitted(key), 0);
+            }
+            Iterator<Map.Entry<Serializable, Serializable>> entries = store.scan();
+            while (entries.hasNext()) {
+                Map.Entry<Serializable, Serializable> entry = entries.next();
+                if (!indexed.contains(entry.getKey())) {
+                    writer.add(entry.getKey(), entry.getValue(), 0);
+                }
+            }
+            writer.commit();
+        } finally {
+            writer.close();
+        }
+        log.truncate(position);
+        return writer.size();
+    }
+
+    // Waits until the background commit threads have written the caches committed so far to the store
+    private void awaitBackgroundCommits() throws IOException {
+        Barrier barrier = new Barrier(backgroundCommitThreads.length);
+        for (BackgroundCommitThread backgroundCommitThread : backgroundCommitThreads) {
+            backgroundCommitThread.queue.add(barrier);
+        }
+        try {
+            while (!barrier.reached.await(100, TimeUnit.MILLISECONDS)) {
+                for (BackgroundCommitThread backgroundCommitThread : backgroundCommitThreads) {
+                    if (!backgroundCommitThread.isAlive()) {
+                        throw new IOException("The background commit threads are stopped");
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the background commit threads");
+        }
+    }
+
+    // Returns the partition of the key, written by the background commit thread of the same index
+    private int partitionOf(Serializable key) {
+        int h = key.hashCode();
+        return ((h ^ (h >>> 16)) & Integer.MAX_VALUE) % backgroundCommitThreads.length;
     }
 
     /**
@@ -75,14 +266,70 @@ public class VersioningUnitMVCC2PL {
             }
         }
 
-        for (Cache c : tmpPrimary) {
-            Serializable value = c.get(key);
-            if (value != null) {
-                return value;
+        return getCommitted(key);
+    }
+
+    // Returns the latest committed value of a key
+    private Serializable getCommitted(Serializable key) {
+        // A committed cache is written to the store before it is removed from the index, so the value is either found
+        // in the index or already in the store
+        Cache committed = latestCommitted.get(key);
+        if (committed != null) {
+            return committed.get(key);
+        }
+        return store.get(key);
+    }
+
+    /**
+     * Returns the first keys of a range which are either committed or written by the transaction, in ascending order.
+     * 
+     * @param xid the current transaction doing the scan
+     * @param from the first key of the range
+     * @param to the end of the range, which is not part of it, null for a range up to the last key
+     * @param limit the maximum number of keys returned
+     * @return at most limit keys, fewer only if the range has no other key
+     */
+    public List<String> getKeys(int xid, String from, String to, int limit) {
+        List<String> committed = orderedKeys.range(from, to, limit);
+        Cache xactCache = caches.get(xid);
+        if (xactCache == null) {
+            return committed;
+        }
+
+        TreeSet<String> keys = new TreeSet<String>(committed);
+        for (int slot = 0; slot < xactCache.capacity(); slot++) {
+            Serializable key = xactCache.keyAt(slot);
+            if (key instanceof String) {
+                String k = (String) key;
+                if (k.compareTo(from) >= 0 && (to == null || k.compareTo(to) < 0)) {
+                    keys.add(k);
+                }
+            }
+        }
+        List<String> result = new ArrayList<String>(Math.min(limit, keys.size()));
+        for (String key : keys) {
+            if (result.size() == limit) {
+                break;
             }
+            result.add(key);
         }
+        return result;
+    }
 
-        return primary.get(key);
+    /**
+     * @param key a key
+     * @return whether a committed transaction has written the key
+     */
+    public boolean isCommitted(Serializable key) {
+        return orderedKeys.contains(key);
+    }
+
+    /**
+     * @param key a key, which may not be committed
+     * @return the first committed key which is not smaller than the given key, null if there is none
+     */
+    public String getNextCommittedKey(String key) {
+        return orderedKeys.ceiling(key);
     }
 
     /**
@@ -105,6 +352,17 @@ public class VersioningUnitMVCC2PL {
 
     }
 
+    /**
+     * Returns the number of keys written by a transaction which is not committed yet
+     * 
+     * @param xid the transaction
+     * @return the number of keys buffered for the transaction
+     */
+    public int getNumberOfWrites(int xid) {
+        Cache xactCache = caches.get(xid);
+        return xactCache == null ? 0 : xactCache.getNumberOfWrites();
+    }
+
     /**
      * Commit the changes done by a transaction, it cannot fail The transaction SHOULD NOT do any other requests to the
      * VersioningUnit
@@ -112,16 +370,60 @@ public class VersioningUnitMVCC2PL {
      * @param xid the current transaction that wants to commit
      */
     public void commit(final int xid) {
-        if (caches.get(xid) != null) {
-            tmpPrimary.addFirst((caches.get(xid)));
-            synchronized (guard) {
-                guard.notifyAll();
+        Cache xactCache = caches.get(xid);
+        if (xactCache == null) {
+            return;
+        }
+
+        // The writers of a key commit one after the other, so the index always points to the last one
+        boolean[] partitions = new boolean[backgroundCommitThreads.length];
+        int pendingPartitions = 0;
+        for (int slot = 0; slot < xactCache.capacity(); slot++) {
+            Serializable key = xactCache.keyAt(slot);
+            if (key != null) {
+                latestCommitted.put(key, xactCache);
+                // Indexed once its value can be read
+                orderedKeys.add(key);
+                int partition = partitionOf(key);
+                if (!partitions[partition]) {
+                    partitions[partition] = true;
+                    pendingPartitions++;
+                }
+            }
+        }
+
+        commitBacklog.incrementAndGet();
+        CommittedCache committed = new CommittedCache(xactCache, pendingPartitions);
+        for (int partition = 0; partition < partitions.length; partition++) {
+            if (partitions[partition]) {
+                backgroundCommitThreads[partition].queue.add(committed);
+            }
+        }
+
+        // Logged last, so that a snapshot sees the writes of the records before its position
+        WriteAheadLog log = this.log;
+        if (log != null) {
+            try {
+                log.append(xid, xactCache.getWrites());
+            } catch (IOException e) {
+                // The log remembers the failure and reports it when the batch is flushed, so the commit is not
+                // acknowledged to the client
             }
         }
     }
 
     /**
-     * Abort the current transaction The transaction SHOULD NOT do any other requests
+     * Returns the number of committed transactions whose writes are not in the key-value store yet. Their writes are
+     * read from them until the background commit threads catch up.
+     * 
+     * @return the size of the commit backlog
+     */
+    public int getCommitBacklog() {
+        return commitBacklog.get();
+    }
+
+    /**
+     * Abort the current transaction, its writes are simply dropped. The transaction SHOULD NOT do any other requests
      * 
      * @param xid the transaction to be aborted
      */
@@ -137,58 +439,98 @@ public class VersioningUnitMVCC2PL {
         stopBackgroundCommitThreadIfAlive();
     }
 
+    // Writes the keys of its partition of the committed caches to the store, in the order of the commits
     private class BackgroundCommitThread extends Thread {
 
+        private final int partition;
+        private final LinkedBlockingQueue<CommittedCache> queue = new LinkedBlockingQueue<CommittedCache>();
         private volatile boolean shouldRun = true;
 
+        BackgroundCommitThread(int partition) {
+            super("BackgroundCommitThread-" + partition);
+            this.partition = partition;
+            setDaemon(true);
+        }
+
         @Override
         public void run() {
+            List<CommittedCache> batch = new ArrayList<CommittedCache>(BATCH_SIZE);
+            List<CommittedCache> applied = new ArrayList<CommittedCache>(BATCH_SIZE);
+            Map<Serializable, Serializable> writes = new HashMap<Serializable, Serializable>();
             while (shouldRun) {
+                try {
+                    batch.add(queue.take());
+                } catch (InterruptedException e) {
+                    // Stopped
+                    return;
+                }
+                queue.drainTo(batch, BATCH_SIZE - 1);
 
-                while (tmpPrimary.isEmpty()) {
-                    synchronized (guard) {
+                // The caches are in the order of the commits, so the last write of a key in the batch is the one applied
+                for (CommittedCache committed : batch) {
+                    if (committed instanceof Barrier) {
+                        continue;
+                    }
+                    Cache cache = committed.cache;
+                    for (int slot = 0; slot < cache.capacity(); slot++) {
+                        Serializable key = cache.keyAt(slot);
+                        if (key != null && partitionOf(key) == partition) {
+                            writes.put(key, cache.valueAt(slot));
+                        }
+                    }
+                }
+                store.apply(writes);
 
-                        try {
-                            guard.wait();
-                        } catch (InterruptedException e) {
-                            // TODO Take care of the exception
-                            e.printStackTrace();
+                for (CommittedCache committed : batch) {
+                    if (committed instanceof Barrier) {
+                        // The caches queued before it are in the store
+                        ((Barrier) committed).reached.countDown();
+                        continue;
+                    }
+                    Cache cache = committed.cache;
+                    for (int slot = 0; slot < cache.capacity(); slot++) {
+                        Serializable key = cache.keyAt(slot);
+                        if (key != null && partitionOf(key) == partition) {
+                            // Unless a more recent cache wrote the key in the meantime
+                            latestCommitted.remove(key, cache);
                         }
                     }
-                    if (!shouldRun) {
-                        return;
+                    // The last partition to be written frees the cache
+                    if (committed.pendingPartitions.decrementAndGet() == 0) {
+                        applied.add(committed);
                     }
                 }
 
-                Cache cacheToCommit = tmpPrimary.getLast();
-
-                for (Serializable key : cacheToCommit.getWrittenKeys()) {
-                    primary.put(key, cacheToCommit.get(key));
-
+                for (CommittedCache committed : applied) {
+                    caches.remove(committed.cache.getXid());
                 }
-
-                tmpPrimary.removeLast();
-                caches.remove(cacheToCommit.getXid());
+                commitBacklog.addAndGet(-applied.size());
+                writes.clear();
+                batch.clear();
+                applied.clear();
             }
         }
 
         public void stopNow() {
             shouldRun = false;
             // In case the background thread is still waiting
-            synchronized (guard) {
-                guard.notifyAll();
-            }
+            interrupt();
         }
     }
 
     private void stopBackgroundCommitThreadIfAlive() {
-        if (backgroundCommitThread != null && backgroundCommitThread.isAlive()) {
-            backgroundCommitThread.stopNow();
-            try {
-                backgroundCommitThread.join();
-            } catch (InterruptedException e) {
-                // TODO: think about it
-                e.printStackTrace();
+        if (backgroundCommitThreads == null) {
+            return;
+        }
+        for (BackgroundCommitThread backgroundCommitThread : backgroundCommitThreads) {
+            if (backgroundCommitThread.isAlive()) {
+                backgroundCommitThread.stopNow();
+                try {
+                    backgroundCommitThread.join();
+                } catch (InterruptedException e) {
+                    // TODO: think about it
+                    e.printStackTrace();
+                }
             }
         }
     }
@@ -1,53 +1,205 @@
 package ch.epfl.tkvs.transactionmanager.versioningunit;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import ch.epfl.tkvs.exceptions.AbortException;
 import ch.epfl.tkvs.exceptions.TimestampOrderingException;
-import ch.epfl.tkvs.keyvaluestore.KeyValueStore;
-
-
+import ch.epfl.tkvs.keyvaluestore.OrderedKeyIndex;
+import ch.epfl.tkvs.keyvaluestore.Snapshot;
+import ch.epfl.tkvs.keyvaluestore.WriteAheadLog;
+import ch.epfl.tkvs.transactionmanager.WaitAdmission;
+
+
+/**
+ * Multi-version timestamp ordering. Every key has its own version chain: the read timestamp is updated atomically and
+ * the versions are kept in a copy-on-write array, so reads never lock and writes only lock the chain of their key. A
+ * committing transaction waits on its own state for the transactions it read from, which signal it when they resolve.
+ * The values are kept in the versions themselves, so a read is a single lookup of the chain of its key.
+ * 
+ * A scan reads the keys of a range in the ordered index at the timestamp of the transaction. The range keeps its read
+ * timestamp like a key does: an older transaction which writes a key of the range, even a new one, is aborted.
+ */
 public class VersioningUnitMVTO {
 
-    // The key-value storage where versions are stored
-    private KeyValueStore KVS = KeyValueStore.instance;
-
-    // The Timestamp on which a Serializable key was last read
-    private Map<Serializable, Integer> RTS;
-    // The different versions of a given key in descending order of timestamp
-    private Map<Serializable, List<Version>> versions;
-
-    // Contains the transactions from which a given transaction has read
-    private Map<Integer, Set<Integer>> readFromXacts;
+    // Read timestamp of a key that was never read
+    private static final int NEVER_READ = Integer.MIN_VALUE;
+    private static final Version[] NO_VERSIONS = new Version[0];
+    // Maximum number of keys and time of a slice of the garbage collector
+    private static final int SLICE_KEYS = 1024;
+    private static final long SLICE_NS = 1000000;
+
+    // The version chain of every key which was read or written
+    private ConcurrentHashMap<Serializable, VersionChain> chains;
+    // The keys which may have useless versions, the only ones looked at by the garbage collector
+    private ConcurrentLinkedQueue<Serializable> dirtyKeys;
+    // The keys which have a version chain, in ascending order
+    private OrderedKeyIndex orderedKeys;
+    // The ranges scanned by the transactions which may still be older than a writer
+    private ConcurrentLinkedQueue<ScannedRange> scannedRanges;
+
+    // The state of the transactions which are neither committed nor aborted
+    private Map<Integer, TransactionState> transactions;
     // Contains the uncommitted transactions
     private Set<Integer> uncommitted;
     // Contains the aborted transactions
     private Set<Integer> abortedXacts;
+    // The log of the committed writes, if they must survive a restart
+    private volatile WriteAheadLog log = null;
+    // The last image of the committed versions, from which the log is replayed
+    private volatile Snapshot snapshot = null;
 
-    // The objects a given transaction has written
-    private Map<Integer, Set<Serializable>> writtenKeys;
+    /**
+     * The reads, writes and commit dependencies of a transaction. A transaction depends on the uncommitted
+     * transactions it read from: it can only commit once they all committed, and it is aborted as soon as one of them
+     * aborts. Since a transaction only reads from older ones, the dependencies never form a cycle.
+     */
+    private static class TransactionState {
+
+        final int xid;
+        // Contains the transactions from which this transaction has read
+        final Set<Integer> readFrom = newConcurrentSet();
+        // The oldest transaction from which this transaction has read
+        volatile int minReadFrom = Integer.MAX_VALUE;
+        // The objects this transaction has written
+        final Set<Serializable> writtenKeys = newConcurrentSet();
+
+        // The fields below are guarded by the lock of the state, not a monitor as prepareCommit waits on it
+        final ReentrantLock lock = new ReentrantLock();
+        // Signalled when the transaction no longer waits for the transactions it read from
+        final Condition dependenciesDone = lock.newCondition();
+        volatile boolean uncommitted = true;
+        // Number of transactions this one read from which are not committed yet
+        int pendingDependencies = 0;
+        // The uncommitted transactions which read from this one
+        List<TransactionState> dependents = new ArrayList<TransactionState>();
+        // The transaction whose abort caused the abort of this one, if any
+        Integer abortedDependency = null;
+
+        TransactionState(int xid) {
+            this.xid = xid;
+        }
+    }
 
-    private class Version {
+    private static class Version {
 
-        // key to access this version in the KVStore
-        Serializable key;
+        // The value written by this version
+        final Serializable value;
         // Timestamp of this version's write
-        int WTS;
+        final int WTS;
 
-        public Version(Serializable key, int WTS) {
-            this.key = key;
+        public Version(Serializable value, int WTS) {
+            this.value = value;
             this.WTS = WTS;
         }
     }
 
+    /**
+     * The versions of a key. Readers only read "versions", writers replace it while holding the monitor of the chain.
+     */
+    private static class VersionChain {
+
+        // The Timestamp on which the key was last read
+        final AtomicInteger RTS = new AtomicInteger(NEVER_READ);
+        // The different versions of the key in descending order of timestamp
+        volatile Version[] versions = NO_VERSIONS;
+        // Whether the key is in the keys to be looked at by the garbage collector
+        final AtomicBoolean dirty = new AtomicBoolean(false);
+
+        // Raises the read timestamp to xid if it is lower
+        void updateRTS(int xid) {
+            int current = RTS.get();
+            while (xid > current && !RTS.compareAndSet(current, xid)) {
+                current = RTS.get();
+            }
+        }
+
+        // Inserts the version at its place, replacing the version with the same timestamp
+        synchronized void insert(Version version) {
+            Version[] current = versions;
+            int i = 0;
+            while (i < current.length && current[i].WTS > version.WTS) {
+                i++;
+            }
+            Version[] updated;
+            if (i < current.length && current[i].WTS == version.WTS) {
+                updated = current.clone();
+            } else {
+                updated = new Version[current.length + 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i, updated, i + 1, current.length - i);
+            }
+            updated[i] = version;
+            versions = updated;
+        }
+
+        // Removes the version written by xid
+        synchronized void remove(int xid) {
+            Version[] current = versions;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i].WTS == xid) {
+                    Version[] updated = new Version[current.length - 1];
+                    System.arraycopy(current, 0, updated, 0, i);
+                    System.arraycopy(current, i + 1, updated, i, updated.length - i);
+                    versions = updated;
+                    return;
+                }
+            }
+        }
+
+        // Keeps the versions up to the given position, unless they changed in the meantime
+        synchronized boolean truncate(Version[] current, int length) {
+            if (versions != current) {
+                return false;
+            }
+            versions = Arrays.copyOf(current, length);
+            return true;
+        }
+    }
+
+    /**
+     * A range of keys scanned by a transaction, the keys written in it by an older transaction would have been seen
+     */
+    private static class ScannedRange {
+
+        final String from;
+        // The end of the range, which is not part of it, null for a range up to the last key
+        volatile String to;
+        // Timestamp of the transaction which scanned the range
+        final int RTS;
+
+        ScannedRange(String from, String to, int RTS) {
+            this.from = from;
+            this.to = to;
+            this.RTS = RTS;
+        }
+
+        boolean contains(Serializable key) {
+            if (!(key instanceof String)) {
+                return false;
+            }
+            String k = (String) key;
+            String end = to;
+            return k.compareTo(from) >= 0 && (end == null || k.compareTo(end) < 0);
+        }
+    }
+
     /** Unique instance of the VersioningUnitMVTO class */
     private static VersioningUnitMVTO instance = null;
 
@@ -78,17 +230,123 @@ public class VersioningUnitMVTO {
      * You MUST first call this before any other methods
      */
     public synchronized void init() {
-        // TODO Init and Flush KVStore ?
-        KVS.clear();
-
         // Flush data structures
-        RTS = new ConcurrentHashMap<Serializable, Integer>();
-        versions = new ConcurrentHashMap<Serializable, List<Version>>();
-        readFromXacts = new ConcurrentHashMap<Integer, Set<Integer>>();
-        uncommitted = new HashSet<Integer>();
-        abortedXacts = new HashSet<Integer>();
+        chains = new ConcurrentHashMap<Serializable, VersionChain>();
+        dirtyKeys = new ConcurrentLinkedQueue<Serializable>();
+        orderedKeys = new OrderedKeyIndex();
+        scannedRanges = new ConcurrentLinkedQueue<ScannedRange>();
+        transactions = new ConcurrentHashMap<Integer, TransactionState>();
+        uncommitted = newConcurrentSet();
+        abortedXacts = newConcurrentSet();
+        log = null;
+        snapshot = null;
+    }
 
-        writtenKeys = new ConcurrentHashMap<Integer, Set<Serializable>>();
+    /**
+     * Loads the snapshot and replays the writes committed after it, then logs the writes of the next commits. The
+     * timestamps of the transactions start again after a restart, so only the latest version of each key is kept, as
+     * the initial version visible to every transaction. These versions are saved in a new snapshot right away, so that
+     * they are never compared with the timestamps of another run. MUST be called after init and before the first
+     * transaction begins.
+     * 
+     * @param snapshot the last snapshot of the committed values
+     * @param log the log of the committed writes
+     * @return the number of committed transactions replayed
+     * @throws IOException if the snapshot or the log cannot be read, or the new snapshot cannot be written
+     */
+    public int recover(Snapshot snapshot, WriteAheadLog log) throws IOException {
+        final Map<Serializable, Version> latest = new HashMap<Serializable, Version>();
+        long position = snapshot.load(new Snapshot.Loader() {
+
+            @Override
+            public void load(Serializable key, Serializable value, int xid) {
+                latest.put(key, new Version(value, xid));
+            }
+        });
+        // The commits are logged in their commit order, not in their timestamp order, and the snapshot may hold
+        // versions newer than some records which follow its position
+        int replayed = log.replay(position, new WriteAheadLog.Replayer() {
+
+            @Override
+            public void replay(int xid, Map<Serializable, Serializable> writes) {
+                for (Map.Entry<Serializable, Serializable> write : writes.entrySet()) {
+                    Version previous = latest.get(write.getKey());
+                    if (previous == null || previous.WTS < xid) {
+                        latest.put(write.getKey(), new Version(write.getValue(), xid));
+                    }
+                }
+            }
+        });
+
+        long end = log.getPosition();
+        Snapshot.Writer writer = snapshot.write(end);
+        try {
+            for (Map.Entry<Serializable, Version> entry : latest.entrySet()) {
+                Version initial = new Version(entry.getValue().value, 0);
+                chainFor(entry.getKey()).insert(initial);
+                writer.add(entry.getKey(), initial.value, initial.WTS);
+            }
+            writer.commit();
+        } finally {
+            writer.close();
+        }
+        log.truncate(end);
+
+        this.log = log;
+        this.snapshot = snapshot;
+        return replayed;
+    }
+
+    /**
+     * Writes the latest committed version of every key to a new snapshot while the transactions go on, then drops the
+     * records of the log it holds.
+     * 
+     * @return the number of keys in the snapshot, -1 if the commits are not logged
+     * @throws IOException if the snapshot could not be written or the log truncated, the previous snapshot is then
+     *             still valid
+     */
+    public int snapshot() throws IOException {
+        WriteAheadLog log = this.log;
+        Snapshot snapshot = this.snapshot;
+        if (log == null || snapshot == null) {
+            return -1;
+        }
+
+        // A commit is logged once it is visible, so the versions written by the records before this position are seen
+        long position = log.getPosition();
+        Snapshot.Writer writer = snapshot.write(position);
+        try {
+            for (Map.Entry<Serializable, VersionChain> entry : chains.entrySet()) {
+                for (Version version : entry.getValue().versions) {
+                    if (!uncommitted.contains(version.WTS) && !abortedXacts.contains(version.WTS)) {
+                        writer.add(entry.getKey(), version.value, version.WTS);
+                        break;
+                    }
+                }
+            }
+            writer.commit();
+        } finally {
+            writer.close();
+        }
+        log.truncate(position);
+        return writer.size();
+    }
+
+    private static <T> Set<T> newConcurrentSet() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<T, Boolean>());
+    }
+
+    private VersionChain chainFor(Serializable key) {
+        VersionChain chain = chains.get(key);
+        if (chain == null) {
+            VersionChain newChain = new VersionChain();
+            chain = chains.putIfAbsent(key, newChain);
+            if (chain == null) {
+                chain = newChain;
+                orderedKeys.add(key);
+            }
+        }
+        return chain;
     }
 
     /**
@@ -97,11 +355,10 @@ public class VersioningUnitMVTO {
      * 
      * @param xid the ID or timestamp of the transaction
      */
-    public synchronized int beginTransaction(int xid) {
+    public int beginTransaction(int xid) {
         // Initialize data structures for the new transaction
+        transactions.put(xid, new TransactionState(xid));
         uncommitted.add(xid);
-        writtenKeys.put(xid, new HashSet<Serializable>());
-        readFromXacts.put(xid, new HashSet<Integer>());
 
         return xid;
     }
@@ -113,25 +370,19 @@ public class VersioningUnitMVTO {
      * @param key the object-to-retrieve's key
      * @return the value's version corresponding to the transaction ID
      */
-    public synchronized Serializable get(int xid, Serializable key) {
+    public Serializable get(int xid, Serializable key) {
+        VersionChain chain = chainFor(key);
 
-        // Update RTS
-        if (RTS.get(key) == null || xid > RTS.get(key)) {
-            RTS.put(key, xid);
-        }
-
-        // If no version of this key has been written yet
-        if (versions.get(key) == null) {
-            return null;
-        }
+        // Update RTS before looking at the versions: a writer either sees the new RTS or its version is seen here
+        chain.updateRTS(xid);
 
         // Read written version with largest timestamp older than xid
-        for (Version v : versions.get(key)) {
+        for (Version v : chain.versions) {
             if (v.WTS <= xid) {
                 if (v.WTS != xid) {
-                    readFromXacts.get(xid).add(v.WTS);
+                    addDependency(xid, v.WTS);
                 }
-                return KVS.get(v.key);
+                return v.value;
             }
         }
 
@@ -140,6 +391,46 @@ public class VersioningUnitMVTO {
         return null;
     }
 
+    // Records that the transaction read from another one, and depends on it if it is not committed yet
+    private void addDependency(int xid, int readFromXid) {
+        TransactionState reader = transactions.get(xid);
+        if (reader == null || !reader.readFrom.add(readFromXid)) {
+            return;
+        }
+        reader.lock.lock();
+        try {
+            if (readFromXid < reader.minReadFrom) {
+                reader.minReadFrom = readFromXid;
+            }
+        } finally {
+            reader.lock.unlock();
+        }
+        TransactionState writer = transactions.get(readFromXid);
+        boolean readAborted = writer == null && abortedXacts.contains(readFromXid);
+        if (writer != null) {
+            writer.lock.lock();
+            try {
+                if (writer.dependents != null) {
+                    writer.dependents.add(reader);
+                    reader.lock.lock();
+                    try {
+                        reader.pendingDependencies++;
+                    } finally {
+                        reader.lock.unlock();
+                    }
+                } else {
+                    readAborted = abortedXacts.contains(readFromXid);
+                }
+            } finally {
+                writer.lock.unlock();
+            }
+        }
+        if (readAborted) {
+            reader.abortedDependency = readFromXid;
+            abort(reader);
+        }
+    }
+
     /**
      * 
      * @param xid ID/Timestamp of the transaction that wants to write
@@ -147,172 +438,339 @@ public class VersioningUnitMVTO {
      * @param value the value to write for the object
      * @throws AbortException if the write is not possible (MVTO)
      */
-    public synchronized void put(int xid, Serializable key, Serializable value) throws AbortException {
+    public void put(int xid, Serializable key, Serializable value) throws AbortException {
+        VersionChain chain = chainFor(key);
 
         // Is the write possible ?
-        if (RTS.get(key) != null && xid < RTS.get(key)) {
+        if (xid < chain.RTS.get()) {
             abort(xid);
-            throw new TimestampOrderingException("Abort xact " + xid + " as it wanted to write " + key + " with value " + value + " but RTS is " + RTS.get(key));
+            throw new TimestampOrderingException("Abort xact " + xid + " as it wanted to write " + key + " with value " + value + " but RTS is " + chain.RTS.get());
+        }
+
+        TransactionState state = transactions.get(xid);
+        if (state == null) {
+            throw new TimestampOrderingException("Abort xact " + xid + " as it wanted to write " + key + " but it is not alive");
         }
+        state.writtenKeys.add(key);
 
         // The write is possible, create a new version
         // It can overwrite a previous version by the same xid
-        Version newVersion = new Version(new PrefixedKey("Version" + xid, key), xid);
-        //CCAlgorithm.log.info("Adding key to KVS" + newVersion.key, VersioningUnitMVTO.class);
-        KVS.put(newVersion.key, value);
-
-        writtenKeys.get(xid).add(key);
-
-        // Insert it at the correct place in the version's list
-        List<Version> listOfVersions = versions.get(key);
-        if (listOfVersions == null) {
-            versions.put(key, new ArrayList<Version>());
-            versions.get(key).add(newVersion);
-        } else {
-            if (xid < listOfVersions.get(listOfVersions.size() - 1).WTS) {
-                listOfVersions.add(newVersion);
-            } else {
-                for (int i = 0; i < listOfVersions.size(); i++) {
-                    if (xid > listOfVersions.get(i).WTS) {
-                        listOfVersions.add(i, newVersion);
-                        break;
-                    } else if (xid == listOfVersions.get(i).WTS) {
-                        listOfVersions.add(i, newVersion);
-                        listOfVersions.remove(i + 1);
-                        break;
-                    }
-                }
+        chain.insert(new Version(value, xid));
+        if (chain.versions.length > 1 && chain.dirty.compareAndSet(false, true)) {
+            dirtyKeys.add(key);
+        }
+
+        // A reader with a larger timestamp may have missed the version, or the transaction may have been aborted while
+        // writing. The version is removed again in both cases.
+        if (xid < chain.RTS.get()) {
+            abort(xid);
+            throw new TimestampOrderingException("Abort xact " + xid + " as it wanted to write " + key + " with value " + value + " but RTS is " + chain.RTS.get());
+        }
+        if (!state.uncommitted) {
+            rollback(xid, key);
+            throw new TimestampOrderingException("Abort xact " + xid + " as it was aborted while writing " + key);
+        }
+        // The key is in the ordered index since its chain exists, so a scan either sees the version or its range here
+        for (ScannedRange range : scannedRanges) {
+            if (xid < range.RTS && range.contains(key)) {
+                abort(xid);
+                throw new TimestampOrderingException("Abort xact " + xid + " as it wanted to write " + key + " but its range was scanned by " + range.RTS);
             }
         }
     }
 
     /**
-     * You MUST call this before calling commit(xid), can block until some other transactions commit or abort
+     * Reads the keys of a range with the versions visible to the transaction, as get does, in ascending order. The
+     * keys without a visible version are skipped.
      * 
-     * @throws AbortException if the commmit is not possible
+     * @param xid the ID/timestamp of the transaction
+     * @param from the first key of the range
+     * @param to the end of the range, which is not part of it, null for a range up to the last key
+     * @param limit the maximum number of keys returned
+     * @return at most limit keys with their values, fewer only if the range has no other key with a visible version
      */
-    public synchronized void prepareCommit(int xid) throws AbortException {
+    public Map<Serializable, Serializable> scan(int xid, String from, String to, int limit) {
+        // Added before the keys are listed: a writer either sees the range or its key is listed here
+        ScannedRange range = new ScannedRange(from, to, xid);
+        scannedRanges.add(range);
+
+        Map<Serializable, Serializable> entries = new LinkedHashMap<Serializable, Serializable>();
+        String next = from;
+        while (entries.size() < limit) {
+            int wanted = limit - entries.size();
+            List<String> keys = orderedKeys.range(next, to, wanted);
+            for (String key : keys) {
+                Serializable value = get(xid, key);
+                if (value != null) {
+                    entries.put(key, value);
+                }
+            }
+            if (keys.size() < wanted) {
+                return entries;
+            }
+            next = OrderedKeyIndex.successor(keys.get(keys.size() - 1));
+        }
+        // Only the keys up to the last one returned were read
+        range.to = next;
+        return entries;
+    }
 
-        if (abortedXacts.contains(xid)) {
+    /**
+     * You MUST call this before calling commit(xid), can block until the transactions it read from commit or abort.
+     * Only the commit or abort of one of these transactions wakes it up.
+     * 
+     * @throws AbortException if the commmit is not possible, or if the worker of the request may not wait
+     */
+    public void prepareCommit(int xid) throws AbortException {
+        TransactionState state = transactions.get(xid);
+        if (state == null) {
+            if (abortedXacts.contains(xid)) {
+                throw new TimestampOrderingException("Abort xact " + xid + " as it wanted to commit but it was aborted");
+            }
             return;
         }
 
-        // TODO: optimize the notification of the correct waiting transaction
+        state.lock.lock();
         try {
-            while (readFromXacts.get(xid) != null && !Collections.disjoint(uncommitted, readFromXacts.get(xid))) {
-                wait();
+            if (state.uncommitted && state.pendingDependencies > 0) {
+                WaitAdmission.beginWait();
+                try {
+                    while (state.uncommitted && state.pendingDependencies > 0) {
+                        state.dependenciesDone.await();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new TimestampOrderingException("Abort xact " + xid + " as it was interrupted while waiting for the transactions it read from");
+                } finally {
+                    WaitAdmission.endWait();
+                }
             }
-        } catch (InterruptedException e) {
-            // TODO Handle the exception
-            e.printStackTrace();
-        }
 
-        if (readFromXacts.get(xid) != null && !Collections.disjoint(abortedXacts, readFromXacts.get(xid))) {
-            Set<Integer> causes = new HashSet<Integer>(abortedXacts);
-            causes.retainAll(readFromXacts.get(xid));
-            abort(xid);
-            notifyAll();
-            throw new TimestampOrderingException("Abort xact " + xid + " as it wanted to commit but it has read" + " for transactions that have aborted: " + causes);
+            if (state.abortedDependency != null) {
+                throw new TimestampOrderingException("Abort xact " + xid + " as it wanted to commit but it has read" + " for transactions that have aborted: [" + state.abortedDependency + "]");
+            }
+            if (!state.uncommitted) {
+                throw new TimestampOrderingException("Abort xact " + xid + " as it wanted to commit but it was aborted");
+            }
+        } finally {
+            state.lock.unlock();
         }
     }
 
     /**
      * Real commit, you MUST ONLY call this AFTER a successful call to prepareCommit(xid)
      */
-    public synchronized void commit(int xid) {
-
-        if (!uncommitted.contains(xid) || abortedXacts.contains(xid)) {
+    public void commit(int xid) {
+        TransactionState state = transactions.get(xid);
+        if (state == null) {
             return;
         }
 
-        // Commit successful
-        uncommitted.remove(xid);
-        readFromXacts.remove(xid);
-        writtenKeys.remove(xid);
-        notifyAll();
+        List<TransactionState> dependents;
+        state.lock.lock();
+        try {
+            if (!state.uncommitted || state.pendingDependencies > 0) {
+                return;
+            }
+            // Commit successful
+            state.uncommitted = false;
+            uncommitted.remove(xid);
+            transactions.remove(xid);
+            dependents = state.dependents;
+            state.dependents = null;
+        } finally {
+            state.lock.unlock();
+        }
+
+        // Logged once visible, so that a snapshot sees the versions of the records before its position
+        WriteAheadLog log = this.log;
+        if (log != null) {
+            try {
+                log.append(xid, getWrites(xid, state));
+            } catch (IOException e) {
+                // The log remembers the failure and reports it when the batch is flushed, so the commit is not
+                // acknowledged to the client
+            }
+        }
+
+        // Wake up the dependents which do not wait for any other transaction
+        for (TransactionState dependent : dependents) {
+            dependent.lock.lock();
+            try {
+                dependent.pendingDependencies--;
+                if (dependent.pendingDependencies == 0) {
+                    dependent.dependenciesDone.signalAll();
+                }
+            } finally {
+                dependent.lock.unlock();
+            }
+        }
+    }
+
+    // Returns the values of the versions written by the transaction
+    private Map<Serializable, Serializable> getWrites(int xid, TransactionState state) {
+        Map<Serializable, Serializable> writes = new HashMap<Serializable, Serializable>();
+        for (Serializable key : state.writtenKeys) {
+            for (Version version : chainFor(key).versions) {
+                if (version.WTS == xid) {
+                    writes.put(key, version.value);
+                    break;
+                }
+            }
+        }
+        return writes;
     }
 
     /**
-     * Abort a transaction
+     * Abort a transaction, along with the transactions which read from it
      * 
      * @param xid the transation to abort
      */
-    public synchronized void abort(int xid) {
-
-        if (abortedXacts.contains(xid) || !uncommitted.contains(xid)) {
-            return; // already aborted
+    public void abort(int xid) {
+        TransactionState state = transactions.get(xid);
+        if (state != null) {
+            abort(state);
         }
+    }
 
-        abortedXacts.add(xid);
-        uncommitted.remove(xid);
-        readFromXacts.remove(xid);
+    // Aborts the transaction, then eagerly aborts its dependents instead of waiting for them to try to commit
+    private void abort(TransactionState first) {
+        LinkedList<TransactionState> toAbort = new LinkedList<TransactionState>();
+        toAbort.add(first);
+        while (!toAbort.isEmpty()) {
+            TransactionState state = toAbort.poll();
+            List<TransactionState> dependents;
+            state.lock.lock();
+            try {
+                if (!state.uncommitted) {
+                    continue; // already aborted
+                }
 
-        // Rollback everything that the xact read and wrote
-        for (Serializable key : writtenKeys.get(xid)) {
+                // The transaction is marked as aborted before its versions are removed, so that a concurrent put
+                // removes its own version
+                state.uncommitted = false;
+                abortedXacts.add(state.xid);
+                transactions.remove(state.xid);
+                dependents = state.dependents;
+                state.dependents = null;
+                state.dependenciesDone.signalAll();
+            } finally {
+                state.lock.unlock();
+            }
 
-            for (Iterator<Version> iterator = versions.get(key).iterator(); iterator.hasNext();) {
-                Version version = iterator.next();
-                if (version.WTS == xid) {
-                    // TODO: break since we only have one version
-                    KeyValueStore.instance.remove(version.key);
-                    iterator.remove();
+            // Rollback everything that the xact read and wrote
+            for (Serializable key : state.writtenKeys) {
+                rollback(state.xid, key);
+            }
+            // Only now the versions are gone, so that they never look committed to the garbage collector, even if it
+            // forgets the aborted transaction in the meantime
+            uncommitted.remove(state.xid);
+
+            for (TransactionState dependent : dependents) {
+                dependent.lock.lock();
+                try {
+                    if (dependent.abortedDependency == null) {
+                        dependent.abortedDependency = state.xid;
+                    }
+                } finally {
+                    dependent.lock.unlock();
                 }
+                toAbort.add(dependent);
             }
         }
+    }
 
-        writtenKeys.remove(xid);
-        notifyAll();
+    // Removes the version of the key written by the transaction
+    private void rollback(int xid, Serializable key) {
+        chainFor(key).remove(xid);
     }
 
     /**
-     * Perform GC. Called by the checkpoint method of the MVTO concurrency control algorithm.
+     * Perform GC. Called by the checkpoint method of the MVTO concurrency control algorithm. Only the keys which got a
+     * new version since they were last cleaned are looked at. They are cleaned in short slices, one chain at a time,
+     * while the transactions keep reading and writing.
+     * 
+     * @param minAliveXid the oldest transaction which is still alive
+     * @return what was reclaimed and how long it took
      */
-    public synchronized void garbageCollector(int minAliveXid) {
-
-        if (uncommitted.isEmpty()) {
-            abortedXacts.clear();
-            return;
+    public GarbageCollectionReport garbageCollector(int minAliveXid) {
+        long start = System.nanoTime();
+        int prunedKeys = 0;
+        int reclaimedVersions = 0;
+        int slices = 0;
+        long longestSlice = 0;
+        List<Serializable> stillDirty = new ArrayList<Serializable>();
+
+        Serializable key = dirtyKeys.poll();
+        while (key != null) {
+            long sliceStart = System.nanoTime();
+            for (int i = 0; i < SLICE_KEYS && key != null && System.nanoTime() - sliceStart < SLICE_NS; i++, key = dirtyKeys.poll()) {
+                // The key is unmarked before its chain is cleaned, a concurrent write marks it again
+                VersionChain chain = chains.get(key);
+                chain.dirty.set(false);
+                int removed = prune(chain, minAliveXid);
+                if (removed < 0) {
+                    stillDirty.add(key);
+                    continue;
+                }
+                reclaimedVersions += removed;
+                prunedKeys++;
+                if (chain.versions.length > 1) {
+                    // Versions newer than the oldest alive transaction, which may become useless later
+                    stillDirty.add(key);
+                }
+            }
+            longestSlice = Math.max(longestSlice, System.nanoTime() - sliceStart);
+            slices++;
+            Thread.yield();
+        }
+        for (Serializable dirtyKey : stillDirty) {
+            if (chains.get(dirtyKey).dirty.compareAndSet(false, true)) {
+                dirtyKeys.add(dirtyKey);
+            }
         }
 
-        // CCAlgorithm.log.info("Garbage collection :: minAlive  =" +
-        // minAliveXid, VersioningUnitMVTO.class);
-        // Removes useless versions stored in KVStore
-        for (Serializable key : versions.keySet()) {
-            boolean shouldRemoveAllFromNow = false;
-            for (Iterator<Version> iterator = versions.get(key).iterator(); iterator.hasNext();) {
-                Version version = iterator.next();
-                // CCAlgorithm.log.info("Garbage collection :: Iterating version "
-                // + version.WTS,
-                // VersioningUnitMVTO.class);
-                if (shouldRemoveAllFromNow) {
-                    //CCAlgorithm.log.info("Garbage collection:: Removing " + version.WTS, VersioningUnitMVTO.class);
-                    KVS.remove(version.key);
-                    iterator.remove();
-                } else if (version.WTS <= minAliveXid) {
-                    if (!abortedXacts.contains(version.WTS) && !uncommitted.contains(version.WTS)) {
-                        // CCAlgorithm.log.info("Garbage collection :: version triggerred remove"
-                        // + version.WTS,
-                        // VersioningUnitMVTO.class);
-                        shouldRemoveAllFromNow = true;
-                    }
-                }
+        removeUselessAborted();
+        // A range only matters to the writers older than the transaction which scanned it
+        for (Iterator<ScannedRange> iterator = scannedRanges.iterator(); iterator.hasNext();) {
+            if (iterator.next().RTS <= minAliveXid) {
+                iterator.remove();
             }
         }
+        return new GarbageCollectionReport(prunedKeys, reclaimedVersions, stillDirty.size(), slices, System.nanoTime() - start, longestSlice);
+    }
 
-        // Removes useless abortedXacts
-        List<Integer> listMinXactReadFrom = new ArrayList<Integer>();
-        for (Integer xid : uncommitted) {
-            if (!readFromXacts.get(xid).isEmpty()) {
-                listMinXactReadFrom.add(Collections.min(readFromXacts.get(xid)));
+    // Removes the versions older than the first committed version visible to every alive transaction. Returns the
+    // number of versions removed, or -1 if the chain changed in the meantime.
+    private int prune(VersionChain chain, int minAliveXid) {
+        Version[] current = chain.versions;
+        for (int i = 0; i < current.length; i++) {
+            Version version = current[i];
+            if (version.WTS <= minAliveXid && !abortedXacts.contains(version.WTS) && !uncommitted.contains(version.WTS)) {
+                if (i + 1 == current.length) {
+                    return 0;
+                }
+                return chain.truncate(current, i + 1) ? current.length - i - 1 : -1;
             }
         }
+        return 0;
+    }
 
-        if (listMinXactReadFrom.isEmpty()) {
-            abortedXacts.clear();
-            return;
+    // Returns the number of versions of all the keys
+    int getNumberOfVersions() {
+        int count = 0;
+        for (VersionChain chain : chains.values()) {
+            count += chain.versions.length;
         }
+        return count;
+    }
 
-        int minXactReadFrom = Collections.min(listMinXactReadFrom);
+    // Removes the aborted transactions that no uncommitted transaction has read from
+    private synchronized void removeUselessAborted() {
+        int minXactReadFrom = Integer.MAX_VALUE;
+        for (TransactionState state : transactions.values()) {
+            minXactReadFrom = Math.min(minXactReadFrom, state.minReadFrom);
+        }
 
         for (Iterator<Integer> iterator = abortedXacts.iterator(); iterator.hasNext();) {
             Integer xid = iterator.next();
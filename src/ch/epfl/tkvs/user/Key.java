@@ -14,4 +14,14 @@ public abstract class Key implements Serializable {
     abstract public String toString();
 
     public abstract int getLocalityHash();
+
+    /**
+     * The keys are ordered by their sort keys in the scans of a range of keys. Two equal keys MUST have the same sort
+     * key.
+     * 
+     * @return the string by which the key is ordered, its string form by default
+     */
+    public String getSortKey() {
+        return toString();
+    }
 }
\ No newline at end of file
@@ -1,32 +1,33 @@
 package ch.epfl.tkvs.user;
 
-import static ch.epfl.tkvs.transactionmanager.communication.utils.JSON2MessageConverter.parseJSON;
-import static ch.epfl.tkvs.transactionmanager.communication.utils.Message2JSONConverter.toJSON;
-
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.io.Serializable;
 import java.net.InetSocketAddress;
-import java.net.Socket;
-
-import org.codehaus.jettison.json.JSONObject;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import ch.epfl.tkvs.exceptions.AbortException;
 import ch.epfl.tkvs.exceptions.AbortToUserException;
 import ch.epfl.tkvs.exceptions.RemoteTMException;
 import ch.epfl.tkvs.exceptions.TransactionNotLiveException;
+import ch.epfl.tkvs.keyvaluestore.OrderedKeyIndex;
 import ch.epfl.tkvs.transactionmanager.TransactionManager;
+import ch.epfl.tkvs.transactionmanager.communication.ConnectionPool;
 import ch.epfl.tkvs.transactionmanager.communication.Message;
+import ch.epfl.tkvs.transactionmanager.communication.WireProtocol;
 import ch.epfl.tkvs.transactionmanager.communication.requests.AbortRequest;
 import ch.epfl.tkvs.transactionmanager.communication.requests.BeginRequest;
 import ch.epfl.tkvs.transactionmanager.communication.requests.ReadRequest;
+import ch.epfl.tkvs.transactionmanager.communication.requests.ScanRequest;
 import ch.epfl.tkvs.transactionmanager.communication.requests.TransactionManagerRequest;
 import ch.epfl.tkvs.transactionmanager.communication.requests.TryCommitRequest;
 import ch.epfl.tkvs.transactionmanager.communication.requests.WriteRequest;
 import ch.epfl.tkvs.transactionmanager.communication.responses.GenericSuccessResponse;
 import ch.epfl.tkvs.transactionmanager.communication.responses.ReadResponse;
+import ch.epfl.tkvs.transactionmanager.communication.responses.ScanResponse;
 import ch.epfl.tkvs.transactionmanager.communication.responses.TransactionManagerResponse;
+import ch.epfl.tkvs.transactionmanager.communication.utils.Base64Utils;
+import ch.epfl.tkvs.transactionmanager.communication.utils.JSON2MessageConverter.InvalidMessageException;
+import ch.epfl.tkvs.transactionmanager.communication.utils.SortKeyUtils;
 import ch.epfl.tkvs.yarn.HDFSLogger;
 import ch.epfl.tkvs.yarn.Utils;
 import ch.epfl.tkvs.yarn.appmaster.AppMaster;
@@ -38,12 +39,18 @@ public class UserTransaction<K extends Key> {
         uninitialized, live, aborted, commited
     }
 
+    /** Maximum number of keys sent back at once by a scan */
+    public static final int SCAN_CHUNK_SIZE = 100;
+
     private String tmIp; // IP address of primary transaction manager
     private int tmPort; // port number of primary transaction manager
     private int transactionID;
     private TransactionStatus status;
 
     private static InetSocketAddress amAddress = null;
+    // Shared by all the transactions of the client, the AppMaster only reads JSON
+    private static final ConnectionPool tmConnections = new ConnectionPool(WireProtocol.getClientProtocol());
+    private static final ConnectionPool amConnections = new ConnectionPool(WireProtocol.JSON);
     public static HDFSLogger log = new HDFSLogger(UserTransaction.class);
 
     /**
@@ -60,7 +67,7 @@ public class UserTransaction<K extends Key> {
 
             TransactionManagerRequest req = new TransactionManagerRequest(key.getLocalityHash());
 
-            TransactionManagerResponse response = (TransactionManagerResponse) sendRequest(amAddress.getHostName(), amAddress.getPort(), req, TransactionManagerResponse.class);
+            TransactionManagerResponse response = (TransactionManagerResponse) sendRequest(amConnections, amAddress.getHostName(), amAddress.getPort(), req, TransactionManagerResponse.class);
 
             tmIp = response.getIp();
             tmPort = response.getPort();
@@ -82,20 +89,17 @@ public class UserTransaction<K extends Key> {
     }
 
     private Message sendRequest(String ip, int port, Message request, Class<? extends Message> expectedMessageType) throws Exception {
+        return sendRequest(tmConnections, ip, port, request, expectedMessageType);
+    }
 
-        Socket sock = new Socket(ip, port);
+    private Message sendRequest(ConnectionPool connections, String ip, int port, Message request, Class<? extends Message> expectedMessageType) throws Exception {
 
-        PrintWriter out = new PrintWriter(sock.getOutputStream(), true);
-        out.println(toJSON(request).toString());
         log.info("Sending " + request + " to " + ip + ":" + port, UserTransaction.class);
+        Message response = connections.send(ip, port, request, true);
 
-        BufferedReader in = new BufferedReader(new InputStreamReader(sock.getInputStream()));
-        String inputStr = in.readLine();
-
-        in.close();
-        out.close();
-        sock.close();
-        Message response = parseJSON(new JSONObject(inputStr), expectedMessageType);
+        if (!expectedMessageType.isInstance(response)) {
+            throw new InvalidMessageException("Expected a " + expectedMessageType.getSimpleName() + " but got " + response);
+        }
         log.info(response + " <-- " + request, UserTransaction.class);
         return response;
 
@@ -133,6 +137,54 @@ public class UserTransaction<K extends Key> {
 
     }
 
+    /**
+     * Method to read the keys of a range with their values, ordered by their sort keys. Only the keys stored with the
+     * locality hash of the first key are read. The keys are sent back in chunks, and no key is inserted in the range by
+     * another transaction until this one ends.
+     * @param from The first key of the range
+     * @param to The key at which the range ends, which is not part of it, or null to read up to the last key
+     * @return The keys of the range with their values, in ascending order
+     * @throws AbortException if the operation was unsuccessful
+     */
+    @SuppressWarnings("unchecked")
+    public Map<K, Serializable> scan(K from, K to) throws AbortException {
+
+        if (status != TransactionStatus.live) {
+            throw new TransactionNotLiveException();
+        }
+
+        Map<K, Serializable> result = new LinkedHashMap<K, Serializable>();
+        String next = from.getSortKey();
+        String end = to == null ? null : to.getSortKey();
+        while (true) {
+            ScanRequest request = new ScanRequest(transactionID, next, end, from.getLocalityHash(), SCAN_CHUNK_SIZE);
+            ScanResponse response;
+            LinkedHashMap<String, String> chunk;
+            try {
+                response = (ScanResponse) sendRequest(tmIp, tmPort, request, ScanResponse.class);
+                chunk = response.getSuccess() ? response.getEntries() : null;
+                if (chunk != null) {
+                    for (Map.Entry<String, String> entry : chunk.entrySet()) {
+                        result.put((K) SortKeyUtils.decodeKey(entry.getKey()), Base64Utils.convertFromBase64(entry.getValue()));
+                        next = OrderedKeyIndex.successor(entry.getKey());
+                    }
+                }
+            } catch (Exception ex) {
+                log.error("Remote error", ex, UserTransaction.class);
+                throw new RemoteTMException(ex);
+            }
+
+            if (!response.getSuccess()) {
+                status = TransactionStatus.aborted;
+                log.warn(response.getExceptionMessage(), UserTransaction.class);
+                throw new AbortToUserException(response.getExceptionMessage());
+            }
+            if (chunk.size() < SCAN_CHUNK_SIZE) {
+                return result;
+            }
+        }
+    }
+
     /**
      * Method to write value to a key.
      * @param key
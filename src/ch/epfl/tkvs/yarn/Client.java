@@ -59,6 +59,9 @@ public class Client {
 
     private final static Logger log = Logger.getLogger(Client.class.getName());
     private static String algoConfig;
+    private static String walConfig;
+    private static String storageConfig;
+    private static String dataConfig;
     public static void main(String[] args) {
         Utils.initLogLevel();
         try {
@@ -66,6 +69,9 @@ public class Client {
             
             // Read the concurrency control algorithm that one want to use
             algoConfig = Utils.readAlgorithmConfig();
+            walConfig = Utils.readWriteAheadLogConfig();
+            storageConfig = Utils.readStorageConfig();
+            dataConfig = Utils.readDataConfig();
             
             new Client().run();
         } catch (Exception ex) {
@@ -154,9 +160,10 @@ public class Client {
                 System.out.println("Running test client...\n");
                 
                 // Run the appropriate system test given the selected algorithm
-                if (algoConfig.equals("simple_2pl")) {
+                String algorithm = algoConfig.split(":")[0];
+                if (algorithm.equals("simple_2pl")) {
                 	runTestCase(S2PLSystemTest.class);
-                } else if (algoConfig.equals("mvcc2pl")) {
+                } else if (algorithm.equals("mvcc2pl")) {
                 	runTestCase(MV2PLSystemTest.class);
                 } else {
                 	runTestCase(MVTOSystemTest.class);
@@ -285,7 +292,7 @@ public class Client {
         ContainerLaunchContext amCLC = Records.newRecord(ContainerLaunchContext.class);
 
         // TODO: Fix the logging method from ApplicationConstants.LOG_DIR_EXPANSION_VAR.
-        amCLC.setCommands(Collections.singletonList("$HADOOP_HOME/bin/hadoop jar TKVS.jar ch.epfl.tkvs.yarn.appmaster.AppMaster " + algoConfig + " 1>" + ApplicationConstants.LOG_DIR_EXPANSION_VAR + "/stdout" + " 2>" + ApplicationConstants.LOG_DIR_EXPANSION_VAR + "/stderr"));
+        amCLC.setCommands(Collections.singletonList("$HADOOP_HOME/bin/hadoop jar TKVS.jar ch.epfl.tkvs.yarn.appmaster.AppMaster " + algoConfig + " " + walConfig + " " + storageConfig + " " + dataConfig + " 1>" + ApplicationConstants.LOG_DIR_EXPANSION_VAR + "/stdout" + " 2>" + ApplicationConstants.LOG_DIR_EXPANSION_VAR + "/stderr"));
 
         // Set AM jar
         LocalResource jar = Records.newRecord(LocalResource.class);
@@ -1,21 +1,23 @@
 package ch.epfl.tkvs.yarn;
 
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.net.Socket;
 
-import org.codehaus.jettison.json.JSONException;
-import org.codehaus.jettison.json.JSONObject;
-
+import ch.epfl.tkvs.transactionmanager.communication.ConnectionPool;
 import ch.epfl.tkvs.transactionmanager.communication.Message;
-import ch.epfl.tkvs.transactionmanager.communication.utils.Message2JSONConverter;
+import ch.epfl.tkvs.transactionmanager.communication.WireProtocol;
 
 
 /**
  * Represents a transaction manager that is remote compared to the node having this object.
+ * 
+ * The messages to a transaction manager go through a single connection, opened by the first one and kept open for the
+ * next ones. The messages are written in the order they are sent, and each one carries an id which its response echoes,
+ * so the threads of a node do not wait for each other, and a round trip is one write and one read. If the connection
+ * fails, the messages waiting for a response fail, and the next message opens a new connection.
  * @see ch.epfl.tkvs.yarn.appmaster.AppMaster
  * @see ch.epfl.tkvs.transactionmanager.TransactionManager
  */
@@ -23,6 +25,9 @@ public class RemoteTransactionManager implements Serializable {
 
     private static final long serialVersionUID = 5097035266927261298L;
 
+    // The connections of this node to the transaction managers, one for each to keep the messages in order
+    private static final ConnectionPool connections = new ConnectionPool(WireProtocol.getClientProtocol(), 1);
+
     private String ip;
     private int port;
 
@@ -44,39 +49,49 @@ public class RemoteTransactionManager implements Serializable {
     }
 
     /**
-     * Send a message to the represented TM.
+     * Send a message to the represented TM, with the protocol of the clients, on the connection to it.
      * @param message the message to send
      * @param shouldWait whether one should wait for a response
      * @return the response or null if !shouldWait
+     * @throws IOException in case of network failure
+     * @see WireProtocol#getClientProtocol()
+     */
+    public Message sendMessage(Message message, boolean shouldWait) throws IOException {
+        return connections.send(ip, port, message, shouldWait);
+    }
+
+    /**
+     * Send a message to the represented TM on a connection of its own, closed once the message is written. Used for the
+     * {@link ch.epfl.tkvs.transactionmanager.communication.TMInitMessage}, read by the TM before it serves its
+     * connections.
+     * @param message the message to send
      * @throws IOException in case of network failure or bad message format
      */
-    public JSONObject sendMessage(Message message, boolean shouldWait) throws IOException {
+    public void sendMessageOnce(Message message) throws IOException {
+        WireProtocol protocol = WireProtocol.getClientProtocol();
         Socket sock = new Socket(ip, port);
-        PrintWriter out = new PrintWriter(sock.getOutputStream());
+        OutputStream out = new BufferedOutputStream(sock.getOutputStream());
 
         try {
-            out.println(Message2JSONConverter.toJSON(message).toString());
-        } catch (JSONException e) {
+            protocol.start(out);
+            protocol.write(message, out);
+            out.flush();
+        } finally {
             sock.close();
-            throw new IOException(e);
-        }
-
-        out.flush();
-
-        JSONObject response = null;
-        if (shouldWait) {
-            BufferedReader reader = new BufferedReader(new InputStreamReader(sock.getInputStream()));
-            String input = reader.readLine();
-            try {
-                return new JSONObject(input);
-            } catch (JSONException e) {
-                throw new IOException(e);
-            }
         }
+    }
 
-        out.close();
-        sock.close();
+    /**
+     * @return the number of open connections of this node to the transaction managers
+     */
+    public static int getOpenConnections() {
+        return connections.getOpenConnections();
+    }
 
-        return response;
+    /**
+     * Closes the connections of this node to the transaction managers. The next messages open new ones.
+     */
+    public static void closeConnections() {
+        connections.close();
     }
-}
\ No newline at end of file
+}
@@ -141,6 +141,66 @@ public class Utils {
 
     }
 
+    /**
+     * Read the write-ahead log configuration in ./config/wal. Possible config are: none, commit, group or
+     * interval[:<sync interval in ms>].
+     * @return a String holding that config (none in case of failure)
+     */
+    public static String readWriteAheadLogConfig() {
+        try {
+            FileSystem fs = AM_ADDRESS_PATH.getFileSystem(new YarnConfiguration());
+            Path walConfigPath = new Path(Utils.TKVS_CONFIG_PATH, "wal");
+            BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(walConfigPath)));
+            String info = reader.readLine();
+            reader.close();
+
+            return info;
+
+        } catch (Exception e) {
+            return "none"; // default
+        }
+    }
+
+    /**
+     * Read the storage engine configuration in ./config/storage. Possible config are: heap or offheap[:<capacity in
+     * MB>].
+     * @return a String holding that config (heap in case of failure)
+     */
+    public static String readStorageConfig() {
+        try {
+            FileSystem fs = AM_ADDRESS_PATH.getFileSystem(new YarnConfiguration());
+            Path storageConfigPath = new Path(Utils.TKVS_CONFIG_PATH, "storage");
+            BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(storageConfigPath)));
+            String info = reader.readLine();
+            reader.close();
+
+            return info;
+
+        } catch (Exception e) {
+            return "heap"; // default
+        }
+    }
+
+    /**
+     * Read the data directory configuration in ./config/data: the directory on the local disk of each
+     * TransactionManager which keeps its write-ahead log, its snapshots and its log storage engine, or tmp.
+     * @return a String holding that config (tmp in case of failure)
+     */
+    public static String readDataConfig() {
+        try {
+            FileSystem fs = AM_ADDRESS_PATH.getFileSystem(new YarnConfiguration());
+            Path dataConfigPath = new Path(Utils.TKVS_CONFIG_PATH, "data");
+            BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(dataConfigPath)));
+            String info = reader.readLine();
+            reader.close();
+
+            return info;
+
+        } catch (Exception e) {
+            return "tmp"; // default
+        }
+    }
+
     /**
      * Used by the AppMaster to write its address on HDFS.
      * @param address - the address of the AppMaster
@@ -1,12 +1,14 @@
 package ch.epfl.tkvs.yarn.appmaster;
 
 import static ch.epfl.tkvs.transactionmanager.communication.JSONCommunication.KEY_FOR_MESSAGE_TYPE;
+import static ch.epfl.tkvs.transactionmanager.communication.JSONCommunication.KEY_FOR_REQUEST_ID;
 import static ch.epfl.tkvs.transactionmanager.communication.requests.TransactionManagerRequest.MESSAGE_TYPE;
 import static ch.epfl.tkvs.transactionmanager.communication.utils.JSON2MessageConverter.parseJSON;
 import static ch.epfl.tkvs.transactionmanager.communication.utils.Message2JSONConverter.toJSON;
 import static ch.epfl.tkvs.yarn.appmaster.AppMaster.nextTransactionId;
 import static java.util.Arrays.asList;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.net.Socket;
@@ -27,7 +29,9 @@ import ch.epfl.tkvs.yarn.appmaster.centralized_decision.MinAliveTransactionDecid
 
 
 /**
- * The AM's processing thread, launched for processing received JSON messages.
+ * The AM's processing thread, launched for processing received JSON messages. The clients keep their connection open
+ * and send all their {@link TransactionManagerRequest}s on it, which are answered in order, each response carrying the
+ * request id of its request.
  * @see ch.epfl.tkvs.yarn.appmaster.AppMaster
  * @see ch.epfl.tkvs.yarn.RoutingTable
  */
@@ -39,46 +43,63 @@ public class AMWorker extends Thread {
     private RoutingTable routing;
     private JSONObject jsonRequest;
     private Socket sock;
+    // The rest of the connection, after the first request
+    private BufferedReader in;
 
-    public AMWorker(RoutingTable routing, JSONObject input, Socket sock) {
+    public AMWorker(RoutingTable routing, JSONObject input, Socket sock, BufferedReader in) {
         this.routing = routing;
         this.jsonRequest = input;
         this.sock = sock;
+        this.in = in;
     }
 
     public void run() {
         try {
-            // Create the response
-            JSONObject response = null;
             String messageType = jsonRequest.getString(KEY_FOR_MESSAGE_TYPE);
 
             switch (messageType) {
             case MESSAGE_TYPE:
-                TransactionManagerRequest request = (TransactionManagerRequest) parseJSON(jsonRequest, TransactionManagerRequest.class);
-                response = getResponseForRequest(request);
+                // Answer the requests of the connection until the client closes it
+                PrintWriter out = new PrintWriter(sock.getOutputStream(), true);
+                while (jsonRequest != null) {
+                    TransactionManagerRequest request = (TransactionManagerRequest) parseJSON(jsonRequest, TransactionManagerRequest.class);
+                    JSONObject response = getResponseForRequest(request);
+                    response.put(KEY_FOR_REQUEST_ID, jsonRequest.optInt(KEY_FOR_REQUEST_ID, 0));
+                    log.info("Response" + response.toString());
+                    out.println(response.toString());
+
+                    String input = in.readLine();
+                    jsonRequest = input == null ? null : new JSONObject(input);
+                }
                 break;
             default:
-                for (ICentralizedDecider centralizedDecider : centralizedDeciders) {
-                    if (centralizedDecider != null && centralizedDecider.shouldHandleMessageType(messageType)) {
-                        centralizedDecider.handleMessage(jsonRequest, sock);
-                        if (centralizedDecider.readyToDecide()) {
-                            centralizedDecider.performDecision();
+                // The messages streamed to a decider are read from the connection until the sender closes it
+                while (jsonRequest != null) {
+                    ICentralizedDecider decider = null;
+                    for (ICentralizedDecider centralizedDecider : centralizedDeciders) {
+                        if (centralizedDecider != null && centralizedDecider.shouldHandleMessageType(messageType)) {
+                            decider = centralizedDecider;
+                            // once a decider handled a request, we are done
+                            break;
                         }
-
-                        // once a decider handled a request, we are done
+                    }
+                    if (decider == null) {
                         break;
                     }
+                    decider.handleMessage(jsonRequest, sock);
+                    if (decider.readyToDecide()) {
+                        decider.performDecision();
+                    }
+                    if (!decider.isStreamed()) {
+                        break;
+                    }
+
+                    String input = in.readLine();
+                    jsonRequest = input == null ? null : new JSONObject(input);
+                    messageType = jsonRequest == null ? null : jsonRequest.getString(KEY_FOR_MESSAGE_TYPE);
                 }
             }
 
-            // Send the response if it exists
-            if (response != null) {
-                log.info("Response" + response.toString());
-                PrintWriter out = new PrintWriter(sock.getOutputStream(), true);
-                out.println(response.toString());
-                out.close();
-                log.info("Finish sending response " + response.toString());
-            }
             sock.close(); // Closing this socket will also close the socket's InputStream and OutputStream.
         } catch (IOException | JSONException | InvalidMessageException e) {
             log.error(e);
@@ -14,7 +14,6 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
@@ -33,6 +32,7 @@ import org.apache.log4j.Logger;
 import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
 
+import ch.epfl.tkvs.transactionmanager.WorkerThreads;
 import ch.epfl.tkvs.transactionmanager.communication.ExitMessage;
 import ch.epfl.tkvs.transactionmanager.communication.Message;
 import ch.epfl.tkvs.transactionmanager.communication.TMInitMessage;
@@ -57,6 +57,9 @@ public class AppMaster {
     public static HDFSLogger log2 = new HDFSLogger(AppMaster.class);
 
     private final String ALGO_CONFIG;
+    private final String WAL_CONFIG;
+    private final String STORAGE_CONFIG;
+    private final String DATA_CONFIG;
 
     private static RMCallbackHandler rmHandler;
     private static AMRMClientAsync<ContainerRequest> rmClient;
@@ -74,10 +77,22 @@ public class AppMaster {
             if (args.length > 0) {
                 algoConfig = args[0];
             }
+            String walConfig = "none";
+            if (args.length > 1) {
+                walConfig = args[1];
+            }
+            String storageConfig = "heap";
+            if (args.length > 2) {
+                storageConfig = args[2];
+            }
+            String dataConfig = "tmp";
+            if (args.length > 3) {
+                dataConfig = args[3];
+            }
 
-            log2.info(algoConfig, AppMaster.class);
+            log2.info(algoConfig + " " + walConfig + " " + storageConfig + " " + dataConfig, AppMaster.class);
 
-            new AppMaster(algoConfig).run();
+            new AppMaster(algoConfig, walConfig, storageConfig, dataConfig).run();
         } catch (Exception ex) {
             log.fatal("Failed", ex);
         }
@@ -86,8 +101,11 @@ public class AppMaster {
         System.exit(0);
     }
 
-    public AppMaster(String algoConfig) {
+    public AppMaster(String algoConfig, String walConfig, String storageConfig, String dataConfig) {
         ALGO_CONFIG = algoConfig;
+        WAL_CONFIG = walConfig;
+        STORAGE_CONFIG = storageConfig;
+        DATA_CONFIG = dataConfig;
     }
 
     public void run() throws Exception {
@@ -179,13 +197,13 @@ public class AppMaster {
 
         // Send the routing information to all TMs.
         log.info("Sending routing information to TMs");
-        TMInitMessage initMessage = new TMInitMessage(rmHandler.getRoutingTable(), ALGO_CONFIG);
+        TMInitMessage initMessage = new TMInitMessage(rmHandler.getRoutingTable(), ALGO_CONFIG, WAL_CONFIG, STORAGE_CONFIG, DATA_CONFIG);
         for (RemoteTransactionManager tm : rmHandler.getRoutingTable().getTMs()) {
-            tm.sendMessage(initMessage, false);
+            tm.sendMessageOnce(initMessage);
         }
 
         // Start listening to messages.
-        ExecutorService threadPool = Executors.newCachedThreadPool();
+        ExecutorService threadPool = WorkerThreads.newCachedWorkerExecutor();
         while (!server.isClosed() && rmHandler.getContainerCount() > 0) {
             try {
                 log.info("Waiting for message...");
@@ -215,11 +233,12 @@ public class AppMaster {
                     for (RemoteTransactionManager tm : rmHandler.getRoutingTable().getTMs()) {
                         tm.sendMessage(exitMessage, false);
                     }
+                    RemoteTransactionManager.closeConnections();
                     break;
                 default:
                     try {
                         JSONObject jsonRequest = new JSONObject(input);
-                        threadPool.execute(new AMWorker(rmHandler.getRoutingTable(), jsonRequest, sock));
+                        threadPool.execute(new AMWorker(rmHandler.getRoutingTable(), jsonRequest, sock, in));
                     } catch (JSONException e) {
                         log.warn("Non JSON message will not be parsed: " + input);
                     }
@@ -270,7 +289,7 @@ public class AppMaster {
      * @return the response or null if !shouldWait
      * @throws IOException in case of network failure or bad message format
      */
-    public static JSONObject sendMessageToTM(int localityHash, Message message, boolean shouldWait) throws IOException {
+    public static Message sendMessageToTM(int localityHash, Message message, boolean shouldWait) throws IOException {
         return rmHandler.getRoutingTable().findTM(localityHash).sendMessage(message, shouldWait);
     }
 
@@ -5,84 +5,226 @@ import static ch.epfl.tkvs.yarn.appmaster.AppMaster.log2;
 import java.io.IOException;
 import java.net.Socket;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 import org.codehaus.jettison.json.JSONObject;
 
-import ch.epfl.tkvs.transactionmanager.communication.DeadlockInfoMessage;
+import ch.epfl.tkvs.transactionmanager.communication.DeadlockDeltaMessage;
 import ch.epfl.tkvs.transactionmanager.communication.requests.AbortRequest;
 import ch.epfl.tkvs.transactionmanager.communication.utils.JSON2MessageConverter;
 import ch.epfl.tkvs.transactionmanager.communication.utils.JSON2MessageConverter.InvalidMessageException;
 import ch.epfl.tkvs.transactionmanager.lockingunit.DeadlockGraph;
-import ch.epfl.tkvs.transactionmanager.lockingunit.DeadlockInfo;
+import ch.epfl.tkvs.transactionmanager.lockingunit.DeadlockGraphDelta;
+import ch.epfl.tkvs.transactionmanager.lockingunit.TransactionCost;
 import ch.epfl.tkvs.yarn.appmaster.AppMaster;
 
 
+/**
+ * Keeps a global graph of the dependencies between distributed transactions, updated with the deltas streamed by the
+ * transaction managers (TM). Every new dependency is checked incrementally, and the deadlocks spanning several TMs are
+ * broken as soon as the delta closing them is received.
+ */
 public class DeadlockCentralizedDecider implements ICentralizedDecider {
 
-    private static HashMap<Integer, DeadlockGraph> graphs = new HashMap<Integer, DeadlockGraph>();
-    private static HashMap<Integer, Set<Integer>> activeTransactions = new HashMap<Integer, Set<Integer>>();
+    private static DeadlockGraph graph = new DeadlockGraph();
+    // Number of TMs reporting each dependency, a dependency is in the graph while at least one TM reports it
+    private static HashMap<Long, Integer> reportCounts = new HashMap<Long, Integer>();
+    // Per TM: the dependencies it reports, the sequence number of the next delta to apply, the deltas received ahead
+    // of it and the latest cost hints
+    private static HashMap<Integer, HashSet<Long>> dependencies = new HashMap<Integer, HashSet<Long>>();
+    private static HashMap<Integer, Long> nextSequenceNumbers = new HashMap<Integer, Long>();
+    private static HashMap<Integer, TreeMap<Long, DeadlockGraphDelta>> pendingDeltas = new HashMap<Integer, TreeMap<Long, DeadlockGraphDelta>>();
+    private static HashMap<Integer, Map<Integer, TransactionCost>> costs = new HashMap<Integer, Map<Integer, TransactionCost>>();
+    private static boolean cycleDetected = false;
+
+    @Override
+    public boolean isStreamed() {
+        return true;
+    }
 
     @Override
     public synchronized void handleMessage(JSONObject message, Socket sock) {
-        DeadlockInfoMessage dm = null;
+        DeadlockDeltaMessage dm = null;
         try {
-            dm = (DeadlockInfoMessage) JSON2MessageConverter.parseJSON(message, DeadlockInfoMessage.class);
+            dm = (DeadlockDeltaMessage) JSON2MessageConverter.parseJSON(message, DeadlockDeltaMessage.class);
         } catch (InvalidMessageException e) {
             // TODO Handle the error
             log2.error(e, DeadlockCentralizedDecider.class);
             return;
         }
 
-        // log.info(dm);
-        DeadlockInfo info = null;
+        DeadlockGraphDelta delta = null;
         try {
-            info = dm.getGraph();
-            // log.info(info);
+            delta = dm.getDelta();
         } catch (Exception e) {
             // TODO Handle the error
-            log2.error("Cannot get deadlock info", e, DeadlockCentralizedDecider.class);
+            log2.error("Cannot get deadlock graph delta", e, DeadlockCentralizedDecider.class);
             return;
+        }
 
+        // The messages of a TM arrive in order on its connection, but they may come from a new one after a failure
+        int tm = delta.getLocalHash();
+        if (!pendingDeltas.containsKey(tm) || delta.getSequenceNumber() == 0) {
+            // A new stream, from a TM which starts or restarts: its first delta holds all its dependencies
+            forgetStream(tm);
+            pendingDeltas.put(tm, new TreeMap<Long, DeadlockGraphDelta>());
+            nextSequenceNumbers.put(tm, 0L);
+            dependencies.put(tm, new HashSet<Long>());
+        }
+        long next = nextSequenceNumbers.get(tm);
+        if (delta.getSequenceNumber() < next) {
+            // Delivered again, it is already applied
+            return;
+        }
+        TreeMap<Long, DeadlockGraphDelta> pending = pendingDeltas.get(tm);
+        pending.put(delta.getSequenceNumber(), delta);
+        while ((delta = pending.remove(next)) != null) {
+            apply(tm, delta);
+            next++;
+        }
+        nextSequenceNumbers.put(tm, next);
+    }
+
+    // Drops the dependencies reported by the previous stream of a TM, which may come from a process that is gone
+    private void forgetStream(int tm) {
+        HashSet<Long> reported = dependencies.get(tm);
+        if (reported != null) {
+            for (long dependency : reported) {
+                unreport(dependency);
+            }
+        }
+        costs.remove(tm);
+    }
+
+    private void apply(int tm, DeadlockGraphDelta delta) {
+        HashSet<Long> reported = dependencies.get(tm);
+        for (long dependency : delta.getRemovedDependencies()) {
+            if (reported.remove(dependency)) {
+                unreport(dependency);
+            }
+        }
+
+        HashSet<Integer> waitedFor = new HashSet<Integer>();
+        for (long dependency : delta.getAddedDependencies()) {
+            if (!reported.add(dependency)) {
+                continue;
+            }
+            Integer count = reportCounts.get(dependency);
+            reportCounts.put(dependency, count == null ? 1 : count + 1);
+            if (count != null) {
+                continue;
+            }
+            int waiting = DeadlockGraph.waitingTransaction(dependency);
+            waitedFor.clear();
+            waitedFor.add(DeadlockGraph.waitedForTransaction(dependency));
+            if (graph.isCyclicAfter(waiting, waitedFor)) {
+                graph.addDependencies(waiting, waitedFor);
+                cycleDetected = true;
+            }
+        }
+        costs.put(tm, delta.getCosts());
+    }
+
+    // A TM stops reporting the dependency, which leaves the graph once no TM reports it
+    private void unreport(long dependency) {
+        Integer count = reportCounts.remove(dependency);
+        if (count == null) {
+            // Forgotten with a victim
+            return;
+        }
+        if (count > 1) {
+            reportCounts.put(dependency, count - 1);
+        } else {
+            graph.removeDependency(DeadlockGraph.waitingTransaction(dependency), DeadlockGraph.waitedForTransaction(dependency));
         }
-        log2.info("Received messsage from " + info.getLocalHash(), DeadlockCentralizedDecider.class);
-        graphs.put(info.getLocalHash(), info.getGraph());
-        activeTransactions.put(info.getLocalHash(), info.getActiveTransactions());
     }
 
     @Override
     public synchronized boolean readyToDecide() {
-        int totalTMCount = AppMaster.numberOfRegisteredTMs();
-        log2.info("graph_size = " + graphs.size() + " - total_expected=" + totalTMCount, DeadlockCentralizedDecider.class);
-        if (graphs.size() == totalTMCount)
-            return true;
-        return false;
+        return cycleDetected;
     }
 
     @Override
-    public synchronized void performDecision() {
-        DeadlockGraph mergedGraph = new DeadlockGraph(graphs.values());
+    public void performDecision() {
+        // The aborts are sent without holding the monitor, so that the deltas are still handled meanwhile
+        HashMap<Integer, HashSet<Integer>> kills;
+        synchronized (this) {
+            Set<Integer> transactionsToBeKilled = graph.checkForCycles(mergeCosts());
+            cycleDetected = false;
+            log2.info("perform decision", DeadlockCentralizedDecider.class);
+
+            for (Integer tid : transactionsToBeKilled)
+                log2.info("Killing transaction" + tid, DeadlockCentralizedDecider.class);
+            kills = killsPerTM(transactionsToBeKilled);
+            forgetDependencies(transactionsToBeKilled);
+        }
+        sendKillMessages(kills);
+    }
+
+    // Forgets the reported dependencies of the victims, which are no longer in the graph. So a dependency reported
+    // again, if an abort is lost, is added to the graph again and closes the cycle again.
+    private void forgetDependencies(Set<Integer> victims) {
+        removeDependencies(reportCounts.keySet(), victims);
+        for (HashSet<Long> reported : dependencies.values()) {
+            removeDependencies(reported, victims);
+        }
+    }
+
+    private static void removeDependencies(Set<Long> dependencies, Set<Integer> transactions) {
+        Iterator<Long> iterator = dependencies.iterator();
+        while (iterator.hasNext()) {
+            long dependency = iterator.next();
+            if (transactions.contains(DeadlockGraph.waitingTransaction(dependency)) || transactions.contains(DeadlockGraph.waitedForTransaction(dependency))) {
+                iterator.remove();
+            }
+        }
+    }
 
-        Set<Integer> transactionsToBeKilled = mergedGraph.checkForCycles();
-        log2.info("perform decision", DeadlockCentralizedDecider.class);
+    // Combines the cost hints sent by all the TMs for each transaction
+    private HashMap<Integer, TransactionCost> mergeCosts() {
+        HashMap<Integer, TransactionCost> mergedCosts = new HashMap<Integer, TransactionCost>();
+        for (Map<Integer, TransactionCost> tmCosts : costs.values()) {
+            if (tmCosts == null) {
+                continue;
+            }
+            for (Map.Entry<Integer, TransactionCost> entry : tmCosts.entrySet()) {
+                TransactionCost cost = mergedCosts.get(entry.getKey());
+                mergedCosts.put(entry.getKey(), cost == null ? entry.getValue() : cost.merge(entry.getValue()));
+            }
+        }
+        return mergedCosts;
+    }
 
-        for (Integer tid : transactionsToBeKilled)
-            log2.info("Killing transaction" + tid, DeadlockCentralizedDecider.class);
-        sendKillMessages(transactionsToBeKilled);
-        graphs.clear();
+    // Finds the TMs reporting dependencies of the transactions, and the transactions each one must abort
+    private HashMap<Integer, HashSet<Integer>> killsPerTM(Set<Integer> transactionsToBeKilled) {
+        HashMap<Integer, HashSet<Integer>> kills = new HashMap<Integer, HashSet<Integer>>();
+        for (Integer tm : dependencies.keySet()) {
+            HashSet<Integer> involved = new HashSet<Integer>();
+            for (long dependency : dependencies.get(tm)) {
+                involved.add(DeadlockGraph.waitingTransaction(dependency));
+                involved.add(DeadlockGraph.waitedForTransaction(dependency));
+            }
+            involved.retainAll(transactionsToBeKilled);
+            if (!involved.isEmpty()) {
+                kills.put(tm, involved);
+            }
+        }
+        return kills;
     }
 
-    private void sendKillMessages(Set<Integer> transactionsToBeKilled) {
-        for (Integer transaction : transactionsToBeKilled) {
-            AbortRequest abortRequest = new AbortRequest(transaction);
-            for (Integer tm : activeTransactions.keySet()) {
-                if (activeTransactions.get(tm).contains(transaction)) {
-                    try {
-                        AppMaster.sendMessageToTM(tm, abortRequest, true);
-                    } catch (IOException e) {
-                        // TODO Auto-generated catch block
-                        log2.error("Cant send Abort ", e, DeadlockCentralizedDecider.class);
-                    }
+    // Sends the abort requests to the TMs
+    private void sendKillMessages(HashMap<Integer, HashSet<Integer>> kills) {
+        for (Map.Entry<Integer, HashSet<Integer>> tmKills : kills.entrySet()) {
+            for (Integer transaction : tmKills.getValue()) {
+                try {
+                    AppMaster.sendMessageToTM(tmKills.getKey(), new AbortRequest(transaction), true);
+                } catch (IOException e) {
+                    // TODO Auto-generated catch block
+                    log2.error("Cant send Abort ", e, DeadlockCentralizedDecider.class);
                 }
             }
         }
@@ -90,7 +232,7 @@ public class DeadlockCentralizedDecider implements ICentralizedDecider {
 
     @Override
     public boolean shouldHandleMessageType(String messageType) {
-        return messageType.equals(DeadlockInfoMessage.MESSAGE_TYPE);
+        return messageType.equals(DeadlockDeltaMessage.MESSAGE_TYPE);
     }
 
 }
@@ -17,6 +17,13 @@ public interface ICentralizedDecider {
      */
     boolean shouldHandleMessageType(String messageType);
 
+    /**
+     * Tells whether the senders of its messages keep their connection open and stream the messages on it, without
+     * waiting for an answer.
+     * @return true if the connection must be read for the next messages once a message is handled
+     */
+    boolean isStreamed();
+
     /**
      * Handle an incoming message.
      * @param message a message to be handled
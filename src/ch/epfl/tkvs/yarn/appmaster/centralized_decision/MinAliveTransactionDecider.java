@@ -33,6 +33,11 @@ public class MinAliveTransactionDecider implements ICentralizedDecider {
         return TransactionTerminateMessage.MESSAGE_TYPE.equals(messageType);
     }
 
+    @Override
+    public boolean isStreamed() {
+        return false;
+    }
+
     @Override
     public void handleMessage(JSONObject message, Socket sock) {
         // log.info("handle " + message.toString() + " from " + sock.getInetAddress());
@@ -0,0 +1,9 @@
+package ch.epfl.tkvs.keyvaluestore;
+
+public class HeapStorageEngineTest extends StorageEngineTestCase<HeapStorageEngine> {
+
+    @Override
+    protected HeapStorageEngine createEngine() {
+        return new HeapStorageEngine();
+    }
+}
@@ -0,0 +1,71 @@
+package ch.epfl.tkvs.keyvaluestore;
+
+import java.io.File;
+import java.util.Random;
+
+
+/**
+ * Measures the costs of the log structure of {@link MappedLogStorageEngine}: loads the keys, then overwrites and reads
+ * random keys while the segments are merged in the background, and merges what is left at the end. It reports the
+ * write amplification (bytes appended to the log, merges included, per byte of key and value written), the read
+ * amplification (bytes of records read per byte of value returned), the space amplification (bytes on disk per byte
+ * of live records), and the throughput of the merges.
+ * 
+ * Usage: MappedLogStorageEngineBenchmark [numberOfKeys] [valueSize] [operations] [segmentSizeMB] [mergeThreshold]
+ */
+public class MappedLogStorageEngineBenchmark {
+
+    private static String value(int seed, int valueSize) {
+        StringBuilder value = new StringBuilder(valueSize);
+        value.append(seed);
+        while (value.length() < valueSize) {
+            value.append('x');
+        }
+        return value.toString();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numberOfKeys = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int valueSize = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int operations = args.length > 2 ? Integer.parseInt(args[2]) : 4000000;
+        int segmentSizeMB = args.length > 3 ? Integer.parseInt(args[3]) : MappedLogStorageEngine.DEFAULT_SEGMENT_SIZE_MB;
+        double mergeThreshold = args.length > 4 ? Double.parseDouble(args[4]) : MappedLogStorageEngine.DEFAULT_MERGE_THRESHOLD;
+
+        File directory = File.createTempFile("tkvs", ".store");
+        directory.delete();
+        MappedLogStorageEngine engine = new MappedLogStorageEngine(directory, segmentSizeMB * 1024 * 1024, mergeThreshold);
+
+        long start = System.nanoTime();
+        for (int key = 0; key < numberOfKeys; key++) {
+            engine.put("Key" + key, value(key, valueSize));
+        }
+        long loadNs = System.nanoTime() - start;
+        // The values all have the same size, so the live records keep the size they have once loaded
+        long liveBytes = engine.getBytesWritten();
+
+        // 1 overwrite for 1 read
+        Random random = new Random(0);
+        start = System.nanoTime();
+        for (int i = 0; i < operations; i++) {
+            int key = random.nextInt(numberOfKeys);
+            if (i % 2 == 0) {
+                engine.put("Key" + key, value(i, valueSize));
+            } else {
+                engine.get("Key" + key);
+            }
+        }
+        long mixedNs = System.nanoTime() - start;
+        long diskBeforeMerge = engine.getDiskSize();
+        engine.merge();
+
+        System.out.println("load ops/s\tmixed ops/s\twrite amp\tread amp\tspace amp\tspace amp merged\tmerged MB\treclaimed MB\tmerge MB/s");
+        System.out.format("%.0f\t%.0f\t%.2f\t%.2f\t%.2f\t%.2f\t%d\t%d\t%.0f\n", numberOfKeys / (loadNs / 1e9), operations / (mixedNs / 1e9), (double) engine.getBytesWritten() / engine.getUserBytesWritten(), (double) engine.getBytesRead() / engine.getUserBytesRead(), (double) diskBeforeMerge / liveBytes, (double) engine.getDiskSize() / liveBytes, engine.getMergedBytes() >> 20, engine.getReclaimedBytes() >> 20, (engine.getMergedBytes() / 1e6) / (engine.getMergeNanos() / 1e9));
+
+        engine.clear();
+        engine.close();
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+}
@@ -0,0 +1,156 @@
+package ch.epfl.tkvs.keyvaluestore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+
+public class MappedLogStorageEngineTest extends StorageEngineTestCase<MappedLogStorageEngine> {
+
+    private static final int SEGMENT_SIZE = 64 * 1024;
+
+    private File directory;
+
+    @Override
+    protected MappedLogStorageEngine createEngine() throws IOException {
+        directory = File.createTempFile("tkvs", ".store");
+        directory.delete();
+        return new MappedLogStorageEngine(directory, SEGMENT_SIZE, 0.5);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    private MappedLogStorageEngine reopen() throws IOException {
+        engine.close();
+        engine = new MappedLogStorageEngine(directory, SEGMENT_SIZE, 0.5);
+        return engine;
+    }
+
+    private File[] segmentFiles() {
+        File[] files = directory.listFiles();
+        Arrays.sort(files);
+        return files;
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        for (int i = 0; i < 10000; i++) {
+            engine.put(i, "value" + i);
+        }
+        for (int i = 0; i < 10000; i += 3) {
+            engine.remove(i);
+        }
+        engine.put(1, "new value");
+        // The records span several segments
+        assertTrue(segmentFiles().length > 1);
+
+        reopen();
+        assertEquals(6666, engine.size());
+        assertEquals("new value", engine.get(1));
+        for (int i = 2; i < 10000; i++) {
+            assertEquals(i % 3 == 0 ? null : "value" + i, engine.get(i));
+        }
+        engine.put("after", "reopen");
+        assertEquals("reopen", reopen().get("after"));
+    }
+
+    @Test
+    public void testTornSegment() throws IOException {
+        engine.put("first", "value");
+        engine.put("second", "value");
+        engine.close();
+
+        // Damage the last byte of the second record, as if the engine crashed while writing it
+        File segment = segmentFiles()[0];
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        int end = 2 * 12 + 2 * Codec.encode("value").length + Codec.encode("first").length + Codec.encode("second").length;
+        raf.seek(end - 1);
+        int last = raf.read();
+        raf.seek(end - 1);
+        raf.write(last ^ 1);
+        raf.close();
+
+        engine = new MappedLogStorageEngine(directory, SEGMENT_SIZE, 0.5);
+        assertEquals("value", engine.get("first"));
+        assertEquals(null, engine.get("second"));
+        assertEquals(1, engine.size());
+        // The torn record is overwritten by the next one
+        engine.put("third", "value");
+        assertEquals("value", reopen().get("third"));
+        assertEquals(2, engine.size());
+    }
+
+    @Test
+    public void testMerge() throws IOException {
+        engine.put("kept", "value");
+        engine.put("removed", "value");
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 1000; i++) {
+                engine.put(i, "value" + round + ":" + i);
+            }
+            if (round == 0) {
+                engine.remove("removed");
+            }
+        }
+        long written = engine.getBytesWritten();
+        engine.merge();
+
+        // Only about one version of each key is left, the merges having copied the live records of the first segment
+        assertTrue(engine.getDiskSize() < written / 4);
+        assertTrue(engine.getBytesWritten() > written);
+        assertTrue(engine.getReclaimedBytes() > 0);
+        assertTrue(segmentFiles().length < 3);
+        assertEquals("value", engine.get("kept"));
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("value19:" + i, engine.get(i));
+        }
+
+        // The removed key does not come back from the merged segments
+        reopen();
+        assertEquals(1001, engine.size());
+        assertEquals(null, engine.get("removed"));
+        assertEquals("value", engine.get("kept"));
+        assertEquals("value19:999", engine.get(999));
+    }
+
+    @Test
+    public void testClear() throws IOException {
+        for (int i = 0; i < 10000; i++) {
+            engine.put(i, "value" + i);
+        }
+        engine.clear();
+        assertEquals(1, segmentFiles().length);
+        assertEquals(0, reopen().size());
+    }
+
+    @Test
+    public void testApplyReopen() throws IOException {
+        for (int i = 0; i < 100; i++) {
+            engine.put(i, "value" + i);
+        }
+        Map<Serializable, Serializable> writes = new HashMap<Serializable, Serializable>();
+        for (int i = 0; i < 100; i++) {
+            writes.put(i, i % 2 == 0 ? null : "new value" + i);
+        }
+        engine.apply(writes);
+
+        reopen();
+        assertEquals(50, engine.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i % 2 == 0 ? null : "new value" + i, engine.get(i));
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package ch.epfl.tkvs.keyvaluestore;
+
+import org.junit.Test;
+
+
+public class OffHeapStorageEngineTest extends StorageEngineTestCase<OffHeapStorageEngine> {
+
+    @Override
+    protected OffHeapStorageEngine createEngine() {
+        return new OffHeapStorageEngine();
+    }
+
+    @Test
+    public void testOverwrite() {
+        engine.put("key", "v");
+        engine.put("key", "a longer value which needs a larger chunk");
+        assertEquals("a longer value which needs a larger chunk", engine.get("key"));
+        engine.put("key", "w");
+        assertEquals("w", engine.get("key"));
+        assertEquals(1, engine.size());
+
+        // The freed chunks are reused
+        long allocated = engine.getAllocatedBytes();
+        for (int i = 0; i < 100000; i++) {
+            engine.put("key", "value" + (i % 1000));
+        }
+        assertEquals(allocated, engine.getAllocatedBytes());
+    }
+
+    @Test
+    public void testLargeValue() {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 300000; i++) {
+            value.append("abcd");
+        }
+        engine.put("large", value.toString());
+        assertEquals(value.toString(), engine.get("large"));
+
+        long allocated = engine.getAllocatedBytes();
+        engine.put("large", "small");
+        assertEquals("small", engine.get("large"));
+        assertTrue(engine.getAllocatedBytes() < allocated);
+    }
+
+    @Test
+    public void testFull() {
+        OffHeapStorageEngine small = new OffHeapStorageEngine(2 * 1024 * 1024);
+        try {
+            for (int i = 0;; i++) {
+                small.put(i, "some value for the key " + i);
+            }
+        } catch (IllegalStateException e) {
+            // Expected once two slabs are taken
+        }
+        assertTrue(small.size() > 0);
+        assertEquals("some value for the key 0", small.get(0));
+        small.close();
+        assertEquals(0, small.getAllocatedBytes());
+    }
+}
@@ -0,0 +1,48 @@
+package ch.epfl.tkvs.keyvaluestore;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+
+public class OrderedKeyIndexTest extends TestCase {
+
+    private OrderedKeyIndex index = new OrderedKeyIndex();
+
+    @Test
+    public void testRange() {
+        for (String key : new String[] { "d", "b", "a", "c", "ab", "e" }) {
+            index.add(key);
+        }
+        // Only the string keys are indexed
+        index.add(1);
+        assertEquals(6, index.size());
+        assertFalse(index.contains(1));
+
+        assertEquals(Arrays.asList("a", "ab", "b", "c"), index.range("a", "d", 10));
+        assertEquals(Arrays.asList("ab", "b"), index.range("aa", null, 2));
+        assertEquals(Arrays.asList("c", "d", "e"), index.range("c", null, 10));
+        assertEquals(0, index.range("d", "c", 10).size());
+        assertEquals(0, index.range("f", null, 10).size());
+
+        assertEquals("b", index.ceiling("b"));
+        assertEquals("c", index.ceiling("bc"));
+        assertEquals(null, index.ceiling("f"));
+    }
+
+    @Test
+    public void testSuccessor() {
+        for (String key : new String[] { "a", "a\u0000b", "ab", "b" }) {
+            index.add(key);
+        }
+        // The next chunk starts right after the last key of the previous one
+        List<String> chunk = index.range("a", null, 2);
+        assertEquals(Arrays.asList("a", "a\u0000b"), chunk);
+        assertEquals(Arrays.asList("ab", "b"), index.range(OrderedKeyIndex.successor(chunk.get(1)), null, 2));
+        assertTrue(OrderedKeyIndex.successor("a").compareTo("a") > 0);
+        assertTrue(OrderedKeyIndex.successor("a").compareTo("a\u0000b") < 0);
+    }
+}
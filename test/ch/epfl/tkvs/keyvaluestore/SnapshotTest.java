@@ -0,0 +1,111 @@
+package ch.epfl.tkvs.keyvaluestore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+
+public class SnapshotTest extends TestCase {
+
+    private File file;
+    private Snapshot snapshot;
+
+    // Remembers the loaded values with their writers
+    private static class Values implements Snapshot.Loader {
+
+        final Map<Serializable, Serializable> values = new HashMap<Serializable, Serializable>();
+        final Map<Serializable, Integer> xids = new HashMap<Serializable, Integer>();
+
+        @Override
+        public void load(Serializable key, Serializable value, int xid) {
+            values.put(key, value);
+            xids.put(key, xid);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        file = File.createTempFile("tkvs", ".snapshot");
+        file.delete();
+        snapshot = new Snapshot(file);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+    @Test
+    public void testNoSnapshot() throws IOException {
+        Values values = new Values();
+        assertEquals(0, snapshot.load(values));
+        assertTrue(values.values.isEmpty());
+    }
+
+    @Test
+    public void testLoad() throws IOException {
+        Snapshot.Writer writer = snapshot.write(42);
+        try {
+            // Enough keys for the stream to be reset
+            for (int key = 0; key < 3000; key++) {
+                writer.add(key, "value" + key, key + 1);
+            }
+            writer.commit();
+        } finally {
+            writer.close();
+        }
+        assertEquals(3000, writer.size());
+
+        Values values = new Values();
+        assertEquals(42, snapshot.load(values));
+        assertEquals(3000, values.values.size());
+        assertEquals("value2999", values.values.get(2999));
+        assertEquals(3000, (int) values.xids.get(2999));
+    }
+
+    @Test
+    public void testUncommittedWriter() throws IOException {
+        Snapshot.Writer writer = snapshot.write(1);
+        writer.add("key", "value1", 1);
+        writer.commit();
+        writer.close();
+
+        // A snapshot which was not committed does not replace the previous one
+        writer = snapshot.write(2);
+        writer.add("key", "value2", 2);
+        writer.close();
+
+        Values values = new Values();
+        assertEquals(1, snapshot.load(values));
+        assertEquals("value1", values.values.get("key"));
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void testDamagedSnapshot() throws IOException {
+        Snapshot.Writer writer = snapshot.write(1);
+        writer.add("key", "value", 1);
+        writer.commit();
+        writer.close();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(raf.length() / 2);
+        int b = raf.read();
+        raf.seek(raf.length() / 2);
+        raf.write(b ^ 0xff);
+        raf.close();
+
+        try {
+            snapshot.load(new Values());
+            fail("Loaded a damaged snapshot");
+        } catch (IOException e) {
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package ch.epfl.tkvs.keyvaluestore;
+
+import java.io.File;
+import java.io.Serializable;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+
+/**
+ * Compares the storage engines on a large store: the heap it takes once loaded, the garbage collections during the
+ * loading and during random overwrites and reads, and the throughput of these operations, of batches of writes and of
+ * full scans. Run it in one JVM per engine for the heap figures not to mix, with a heap large enough for the heap
+ * engine.
+ * 
+ * Usage: StorageEngineBenchmark [engine config] [numberOfKeys] [valueSize] [operations]
+ */
+public class StorageEngineBenchmark {
+
+    private static final int BATCH_SIZE = 64;
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    }
+
+    private static long[] gcCountAndTime() {
+        long count = 0, time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += gc.getCollectionCount();
+            time += gc.getCollectionTime();
+        }
+        return new long[] { count, time };
+    }
+
+    private static String value(int seed, int valueSize) {
+        StringBuilder value = new StringBuilder(valueSize);
+        value.append(seed);
+        while (value.length() < valueSize) {
+            value.append('x');
+        }
+        return value.toString();
+    }
+
+    public static void main(String[] args) throws Exception {
+        String config = args.length > 0 ? args[0] : "heap";
+        int numberOfKeys = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        int valueSize = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        int operations = args.length > 3 ? Integer.parseInt(args[3]) : 2000000;
+
+        File directory = File.createTempFile("tkvs", ".store");
+        directory.delete();
+        StorageEngine engine = KeyValueStore.createEngine(config, directory);
+        long heapBefore = usedHeap();
+
+        long[] gcBefore = gcCountAndTime();
+        long start = System.nanoTime();
+        for (int key = 0; key < numberOfKeys; key++) {
+            engine.put("Key" + key, value(key, valueSize));
+        }
+        long loadNs = System.nanoTime() - start;
+        long[] gcLoad = gcCountAndTime();
+        long heapLoaded = usedHeap() - heapBefore;
+
+        // 1 overwrite for 4 reads
+        Random random = new Random(0);
+        long[] gcMixedBefore = gcCountAndTime();
+        start = System.nanoTime();
+        for (int i = 0; i < operations; i++) {
+            int key = random.nextInt(numberOfKeys);
+            if (i % 5 == 0) {
+                engine.put("Key" + key, value(i, valueSize));
+            } else {
+                engine.get("Key" + key);
+            }
+        }
+        long mixedNs = System.nanoTime() - start;
+        long[] gcMixed = gcCountAndTime();
+
+        // Batches of the size applied by a background commit thread of MVCC2PL
+        Map<Serializable, Serializable> writes = new HashMap<Serializable, Serializable>();
+        start = System.nanoTime();
+        for (int i = 0; i < operations; i++) {
+            writes.put("Key" + random.nextInt(numberOfKeys), value(i, valueSize));
+            if (writes.size() == BATCH_SIZE) {
+                engine.apply(writes);
+                writes.clear();
+            }
+        }
+        long batchNs = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        Iterator<Map.Entry<Serializable, Serializable>> entries = engine.scan();
+        int scanned = 0;
+        while (entries.hasNext()) {
+            entries.next();
+            scanned++;
+        }
+        long scanNs = System.nanoTime() - start;
+
+        System.out.println("engine\theap MB\toff-heap MB\tload ops/s\tload GCs\tload GC ms\tmixed ops/s\tmixed GCs\tmixed GC ms\tbatched writes/s\tscanned keys/s");
+        long offHeap = engine instanceof OffHeapStorageEngine ? ((OffHeapStorageEngine) engine).getAllocatedBytes() : 0;
+        System.out.format("%s\t%d\t%d\t%.0f\t%d\t%d\t%.0f\t%d\t%d\t%.0f\t%.0f\n", config, heapLoaded >> 20, offHeap >> 20, numberOfKeys / (loadNs / 1e9), gcLoad[0] - gcBefore[0], gcLoad[1] - gcBefore[1], operations / (mixedNs / 1e9), gcMixed[0] - gcMixedBefore[0], gcMixed[1] - gcMixedBefore[1], operations / (batchNs / 1e9), scanned / (scanNs / 1e9));
+        engine.clear();
+        engine.close();
+        directory.delete();
+    }
+}
@@ -0,0 +1,217 @@
+package ch.epfl.tkvs.keyvaluestore;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+
+/**
+ * The behaviour every {@link StorageEngine} must have. Each engine is checked by a subclass, which can add the tests
+ * of its own features.
+ */
+public abstract class StorageEngineTestCase<E extends StorageEngine> extends TestCase {
+
+    protected E engine;
+
+    /**
+     * @return a new empty engine
+     */
+    protected abstract E createEngine() throws Exception;
+
+    @Override
+    protected void setUp() throws Exception {
+        engine = createEngine();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        engine.close();
+    }
+
+    @Test
+    public void testPutGet() {
+        engine.put("key", "value");
+        engine.put(1, 2L);
+        engine.put(new HashSet<Integer>(), "set");
+        assertEquals("value", engine.get("key"));
+        assertEquals(2L, engine.get(1));
+        assertEquals("set", engine.get(new HashSet<Integer>()));
+        assertEquals(null, engine.get("other"));
+        // Equal objects of different types are different keys
+        assertEquals(null, engine.get(1L));
+        engine.put("key", "other value");
+        assertEquals("other value", engine.get("key"));
+        assertEquals(3, engine.size());
+    }
+
+    @Test
+    public void testRemove() {
+        for (int i = 0; i < 10000; i++) {
+            engine.put(i, "value" + i);
+        }
+        for (int i = 0; i < 10000; i += 2) {
+            engine.remove(i);
+        }
+        engine.remove("absent");
+        assertEquals(5000, engine.size());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i % 2 == 0 ? null : "value" + i, engine.get(i));
+        }
+    }
+
+    @Test
+    public void testApply() {
+        for (int i = 0; i < 100; i++) {
+            engine.put(i, "value" + i);
+        }
+        Map<Serializable, Serializable> writes = new HashMap<Serializable, Serializable>();
+        for (int i = 0; i < 200; i += 2) {
+            writes.put(i, "new value" + i);
+        }
+        for (int i = 1; i < 100; i += 4) {
+            writes.put(i, null);
+        }
+        // Removing an absent key does nothing
+        writes.put("absent", null);
+        engine.apply(writes);
+
+        assertEquals(125, engine.size());
+        for (int i = 0; i < 200; i++) {
+            Serializable expected = i % 2 == 0 ? "new value" + i : i % 4 == 1 || i >= 100 ? null : "value" + i;
+            assertEquals(expected, engine.get(i));
+        }
+        engine.apply(new HashMap<Serializable, Serializable>());
+        assertEquals(125, engine.size());
+    }
+
+    @Test
+    public void testKeys() {
+        for (int i = 0; i < 1000; i++) {
+            engine.put("key" + i, i);
+        }
+        Set<Serializable> keys = new HashSet<Serializable>();
+        Iterator<Serializable> iterator = engine.keys();
+        while (iterator.hasNext()) {
+            assertTrue(keys.add(iterator.next()));
+        }
+        assertEquals(1000, keys.size());
+        assertTrue(keys.contains("key999"));
+
+        engine.clear();
+        assertEquals(0, engine.size());
+        assertFalse(engine.keys().hasNext());
+        assertEquals(null, engine.get("key1"));
+    }
+
+    @Test
+    public void testScan() {
+        Map<Serializable, Serializable> expected = new HashMap<Serializable, Serializable>();
+        for (int i = 0; i < 1000; i++) {
+            engine.put("key" + i, i);
+            expected.put("key" + i, i);
+        }
+        engine.remove("key0");
+        expected.remove("key0");
+
+        Map<Serializable, Serializable> scanned = new HashMap<Serializable, Serializable>();
+        Iterator<Map.Entry<Serializable, Serializable>> entries = engine.scan();
+        while (entries.hasNext()) {
+            Map.Entry<Serializable, Serializable> entry = entries.next();
+            assertNull(scanned.put(entry.getKey(), entry.getValue()));
+            try {
+                entry.setValue(0);
+                fail();
+            } catch (UnsupportedOperationException e) {
+                // Expected
+            }
+        }
+        assertEquals(expected, scanned);
+    }
+
+    @Test
+    public void testIterationWhileWriting() throws InterruptedException {
+        for (int i = 0; i < 1000; i++) {
+            engine.put(i, "value" + i);
+        }
+        final AtomicBoolean done = new AtomicBoolean(false);
+        Thread writer = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                for (int i = 0; !done.get(); i++) {
+                    engine.put(1000 + i % 1000, "value" + i);
+                    engine.remove(1000 + (i + 500) % 1000);
+                }
+            }
+        });
+        writer.start();
+
+        // The keys which are there during the whole iteration are returned once
+        try {
+            for (int round = 0; round < 20; round++) {
+                Set<Serializable> keys = new HashSet<Serializable>();
+                Iterator<Serializable> iterator = engine.keys();
+                while (iterator.hasNext()) {
+                    assertTrue(keys.add(iterator.next()));
+                }
+                Iterator<Map.Entry<Serializable, Serializable>> entries = engine.scan();
+                int scanned = 0;
+                while (entries.hasNext()) {
+                    Map.Entry<Serializable, Serializable> entry = entries.next();
+                    if ((Integer) entry.getKey() < 1000) {
+                        assertEquals("value" + entry.getKey(), entry.getValue());
+                        scanned++;
+                    }
+                }
+                for (int i = 0; i < 1000; i++) {
+                    assertTrue(keys.contains(i));
+                }
+                assertEquals(1000, scanned);
+            }
+        } finally {
+            done.set(true);
+            writer.join();
+        }
+    }
+
+    @Test
+    public void testConcurrentAccess() throws InterruptedException {
+        final AtomicInteger errors = new AtomicInteger(0);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int thread = t;
+            threads[t] = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    for (int i = 0; i < 20000; i++) {
+                        // Each thread writes its own keys and reads the ones of the others
+                        engine.put(thread + ":" + (i % 500), "value" + i);
+                        Serializable read = engine.get(((thread + 1) % 4) + ":" + (i % 500));
+                        if (read != null && !((String) read).startsWith("value")) {
+                            errors.incrementAndGet();
+                        }
+                        if (!engine.get(thread + ":" + (i % 500)).equals("value" + i)) {
+                            errors.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, errors.get());
+        assertEquals(2000, engine.size());
+    }
+}
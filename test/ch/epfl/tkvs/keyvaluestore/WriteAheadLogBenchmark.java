@@ -0,0 +1,111 @@
+package ch.epfl.tkvs.keyvaluestore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import ch.epfl.tkvs.keyvaluestore.WriteAheadLog.SyncPolicy;
+import ch.epfl.tkvs.transactionmanager.GroupCommit;
+
+
+/**
+ * Measures the commit throughput of the {@link WriteAheadLog} under each fsync policy. Several threads commit
+ * transactions through a {@link GroupCommit}, as the concurrency algorithms do, each commit appending its write set to
+ * the log.
+ * 
+ * Usage: WriteAheadLogBenchmark [threads] [commitsPerThread] [writesPerTransaction]
+ */
+public class WriteAheadLogBenchmark {
+
+    private final int nbThreads;
+    private final int commitsPerThread;
+    private final int writesPerTransaction;
+
+    public WriteAheadLogBenchmark(int nbThreads, int commitsPerThread, int writesPerTransaction) {
+        this.nbThreads = nbThreads;
+        this.commitsPerThread = commitsPerThread;
+        this.writesPerTransaction = writesPerTransaction;
+    }
+
+    /**
+     * Runs the benchmark with the given policy
+     * 
+     * @param policy the fsync policy of the log
+     * @return the throughput in commits per second
+     */
+    public double run(SyncPolicy policy) throws Exception {
+        File file = File.createTempFile("tkvs", ".wal");
+        final WriteAheadLog log = new WriteAheadLog(file, policy, WriteAheadLog.DEFAULT_SYNC_INTERVAL_MS);
+        log.replay(0, new WriteAheadLog.Replayer() {
+
+            @Override
+            public void replay(int xid, Map<Serializable, Serializable> writes) {
+            }
+        });
+        final GroupCommit groupCommit = new GroupCommit();
+        groupCommit.setLog(log);
+
+        Thread[] threads = new Thread[nbThreads];
+        for (int t = 0; t < nbThreads; t++) {
+            final int thread = t;
+            threads[t] = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    for (int i = 0; i < commitsPerThread; i++) {
+                        final int xid = i * nbThreads + thread;
+                        final Map<Serializable, Serializable> writes = new HashMap<Serializable, Serializable>();
+                        for (int key = 0; key < writesPerTransaction; key++) {
+                            writes.put("Key" + (xid + key), "Value" + xid);
+                        }
+                        try {
+                            groupCommit.commit(new Runnable() {
+
+                                @Override
+                                public void run() {
+                                    try {
+                                        log.append(xid, writes);
+                                    } catch (IOException e) {
+                                        // Reported by the flush
+                                    }
+                                }
+                            });
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }
+            });
+        }
+
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        log.close();
+        file.delete();
+        return (double) nbThreads * commitsPerThread / elapsed * 1e9;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int nbThreads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int commitsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        int writesPerTransaction = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        WriteAheadLogBenchmark benchmark = new WriteAheadLogBenchmark(nbThreads, commitsPerThread, writesPerTransaction);
+        // Warm up
+        benchmark.run(SyncPolicy.INTERVAL);
+
+        System.out.println("policy\tcommits/s");
+        for (SyncPolicy policy : SyncPolicy.values()) {
+            System.out.format("%s\t%.0f\n", policy, benchmark.run(policy));
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package ch.epfl.tkvs.keyvaluestore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import ch.epfl.tkvs.keyvaluestore.WriteAheadLog.SyncPolicy;
+
+
+public class WriteAheadLogTest extends TestCase {
+
+    private File file;
+
+    // Remembers the replayed records
+    private static class Records implements WriteAheadLog.Replayer {
+
+        final List<Integer> xids = new ArrayList<Integer>();
+        final List<Map<Serializable, Serializable>> writes = new ArrayList<Map<Serializable, Serializable>>();
+
+        @Override
+        public void replay(int xid, Map<Serializable, Serializable> writes) {
+            this.xids.add(xid);
+            this.writes.add(writes);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        file = File.createTempFile("tkvs", ".wal");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+    private static Map<Serializable, Serializable> writes(Serializable... keysAndValues) {
+        Map<Serializable, Serializable> writes = new HashMap<Serializable, Serializable>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            writes.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return writes;
+    }
+
+    private Records reopen(SyncPolicy policy) throws IOException {
+        WriteAheadLog log = new WriteAheadLog(file, policy, WriteAheadLog.DEFAULT_SYNC_INTERVAL_MS);
+        Records records = new Records();
+        log.replay(0, records);
+        log.close();
+        return records;
+    }
+
+    @Test
+    public void testReplay() throws IOException {
+        for (SyncPolicy policy : SyncPolicy.values()) {
+            file.delete();
+            WriteAheadLog log = new WriteAheadLog(file, policy, WriteAheadLog.DEFAULT_SYNC_INTERVAL_MS);
+            assertEquals(0, log.replay(0, new Records()));
+            log.append(1, writes("key1", "value1", "key2", 2));
+            log.append(3, writes("key1", "value3"));
+            log.flush();
+            log.close();
+
+            Records records = reopen(policy);
+            assertEquals(2, records.xids.size());
+            assertEquals(1, (int) records.xids.get(0));
+            assertEquals(writes("key1", "value1", "key2", 2), records.writes.get(0));
+            assertEquals(3, (int) records.xids.get(1));
+            assertEquals(writes("key1", "value3"), records.writes.get(1));
+        }
+    }
+
+    @Test
+    public void testTornRecord() throws IOException {
+        WriteAheadLog log = new WriteAheadLog(file, SyncPolicy.COMMIT, WriteAheadLog.DEFAULT_SYNC_INTERVAL_MS);
+        log.replay(0, new Records());
+        log.append(1, writes("key1", "value1"));
+        log.append(2, writes("key2", "value2"));
+        log.close();
+
+        // A crash in the middle of the second record
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 3);
+        raf.close();
+
+        log = new WriteAheadLog(file, SyncPolicy.COMMIT, WriteAheadLog.DEFAULT_SYNC_INTERVAL_MS);
+        assertEquals(1, log.replay(0, new Records()));
+        // The next records follow the last valid one
+        log.append(3, writes("key3", "value3"));
+        log.close();
+
+        Records records = reopen(SyncPolicy.COMMIT);
+        assertEquals(2, records.xids.size());
+        assertEquals(1, (int) records.xids.get(0));
+        assertEquals(3, (int) records.xids.get(1));
+    }
+
+    @Test
+    public void testCorruptedRecord() throws IOException {
+        WriteAheadLog log = new WriteAheadLog(file, SyncPolicy.GROUP, WriteAheadLog.DEFAULT_SYNC_INTERVAL_MS);
+        log.replay(0, new Records());
+        log.append(1, writes("key1", "value1"));
+        log.flush();
+        long firstRecordEnd = file.length();
+        log.append(2, writes("key2", "value2"));
+        log.append(3, writes("key3", "value3"));
+        log.close();
+
+        // Flip a byte in the payload of the second record
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(firstRecordEnd + 12);
+        int b = raf.read();
+        raf.seek(firstRecordEnd + 12);
+        raf.write(b ^ 0xff);
+        raf.close();
+
+        // Nothing after a damaged record can be trusted
+        Records records = reopen(SyncPolicy.GROUP);
+        assertEquals(1, records.xids.size());
+        assertEquals(1, (int) records.xids.get(0));
+        assertEquals(firstRecordEnd, file.length());
+    }
+
+    @Test
+    public void testTruncate() throws IOException {
+        WriteAheadLog log = new WriteAheadLog(file, SyncPolicy.COMMIT, WriteAheadLog.DEFAULT_SYNC_INTERVAL_MS);
+        log.replay(0, new Records());
+        log.append(1, writes("key1", "value1"));
+        long second = log.getPosition();
+        log.append(2, writes("key2", "value2"));
+        long sizeBefore = log.getSize();
+
+        log.truncate(second);
+        assertEquals(second, log.getPosition() - log.getSize());
+        assertTrue(log.getSize() < sizeBefore);
+        log.append(3, writes("key3", "value3"));
+        long end = log.getPosition();
+        log.close();
+
+        // The positions do not change with the truncation
+        log = new WriteAheadLog(file, SyncPolicy.COMMIT, WriteAheadLog.DEFAULT_SYNC_INTERVAL_MS);
+        Records records = new Records();
+        assertEquals(2, log.replay(second, records));
+        assertEquals(2, (int) records.xids.get(0));
+        assertEquals(3, (int) records.xids.get(1));
+        assertEquals(end, log.getPosition());
+
+        // The records before the truncation are gone
+        try {
+            log.replay(0, new Records());
+            fail("Replayed dropped records");
+        } catch (IOException e) {
+        }
+        log.close();
+    }
+}
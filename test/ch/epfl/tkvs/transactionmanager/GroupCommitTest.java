@@ -0,0 +1,258 @@
+package ch.epfl.tkvs.transactionmanager;
+
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+import static junit.framework.TestCase.fail;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+
+public class GroupCommitTest {
+
+    // Counts the flushes, each one taking some time like a disk sync
+    private static class SlowLog implements Flushable {
+
+        final AtomicInteger flushes = new AtomicInteger(0);
+        volatile boolean fail = false;
+
+        @Override
+        public void flush() throws IOException {
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+            }
+            flushes.incrementAndGet();
+            if (fail) {
+                throw new IOException("Disk full");
+            }
+        }
+    }
+
+    private static Runnable count(final AtomicInteger applied) {
+        return new Runnable() {
+
+            @Override
+            public void run() {
+                applied.incrementAndGet();
+            }
+        };
+    }
+
+    @Test
+    public void testSingleCommit() throws IOException {
+        GroupCommit groupCommit = new GroupCommit();
+        SlowLog log = new SlowLog();
+        groupCommit.setLog(log);
+        AtomicInteger applied = new AtomicInteger(0);
+
+        // Alone, a commit does not wait for others
+        for (int i = 0; i < 3; i++) {
+            groupCommit.commit(count(applied));
+        }
+        assertEquals(3, applied.get());
+        assertEquals(3, log.flushes.get());
+        assertEquals(0, groupCommit.getWindowNs());
+    }
+
+    @Test
+    public void testConcurrentCommits() throws InterruptedException {
+        final GroupCommit groupCommit = new GroupCommit();
+        final SlowLog log = new SlowLog();
+        groupCommit.setLog(log);
+        final AtomicInteger applied = new AtomicInteger(0);
+        final AtomicInteger acknowledged = new AtomicInteger(0);
+
+        Thread[] threads = new Thread[20];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10; j++) {
+                        final AtomicInteger flushesBefore = new AtomicInteger();
+                        try {
+                            groupCommit.commit(new Runnable() {
+
+                                @Override
+                                public void run() {
+                                    flushesBefore.set(log.flushes.get());
+                                    applied.incrementAndGet();
+                                }
+                            });
+                        } catch (IOException e) {
+                            fail(e.getMessage());
+                        }
+                        // The commit is only acknowledged once the log was flushed after it
+                        if (log.flushes.get() > flushesBefore.get()) {
+                            acknowledged.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(200, applied.get());
+        assertEquals(200, acknowledged.get());
+        assertTrue("Expected batches, got " + log.flushes.get() + " flushes", log.flushes.get() < 200);
+    }
+
+    @Test
+    public void testFlushFailure() throws InterruptedException {
+        final GroupCommit groupCommit = new GroupCommit();
+        SlowLog log = new SlowLog();
+        log.fail = true;
+        groupCommit.setLog(log);
+        final AtomicInteger failures = new AtomicInteger(0);
+        final AtomicInteger applied = new AtomicInteger(0);
+
+        Thread[] threads = new Thread[5];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        groupCommit.commit(count(applied));
+                    } catch (IOException e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // Every committer learns that its commit may not be persisted, and only the first batch is applied
+        assertEquals(5, failures.get());
+        assertEquals(1, log.flushes.get());
+        assertTrue(applied.get() >= 1);
+    }
+
+    @Test
+    public void testRefusedAfterFailure() {
+        GroupCommit groupCommit = new GroupCommit();
+        SlowLog log = new SlowLog();
+        log.fail = true;
+        groupCommit.setLog(log);
+        final AtomicInteger handled = new AtomicInteger(0);
+        groupCommit.setFailureHandler(new GroupCommit.FailureHandler() {
+
+            @Override
+            public void logFailed(IOException failure) {
+                handled.incrementAndGet();
+            }
+        });
+        AtomicInteger applied = new AtomicInteger(0);
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                groupCommit.commit(count(applied));
+                fail("The log failed");
+            } catch (IOException e) {
+            }
+        }
+        // The commits after the failure are not applied, even once the log works again
+        log.fail = false;
+        try {
+            groupCommit.commit(count(applied));
+            fail("The log failed");
+        } catch (IOException e) {
+        }
+        assertTrue(groupCommit.hasFailed());
+        assertEquals(1, applied.get());
+        assertEquals(1, log.flushes.get());
+        assertEquals(1, handled.get());
+    }
+
+    // Blocks the flushes until released, and records whether a thread flushed the log while interrupted
+    private static class BlockingLog implements Flushable {
+
+        final CountDownLatch flushing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean flushedInterrupted = new AtomicBoolean(false);
+
+        @Override
+        public void flush() throws IOException {
+            if (Thread.currentThread().isInterrupted()) {
+                flushedInterrupted.set(true);
+            }
+            flushing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                flushedInterrupted.set(true);
+            }
+        }
+    }
+
+    private static Thread startCommit(final GroupCommit groupCommit, final AtomicInteger applied, final AtomicBoolean interrupted) {
+        Thread thread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    groupCommit.commit(count(applied));
+                } catch (IOException e) {
+                    fail(e.getMessage());
+                }
+                interrupted.set(Thread.currentThread().isInterrupted());
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static void awaitWaiting(Thread thread) throws InterruptedException {
+        while (thread.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void testInterruptedCommitters() throws InterruptedException {
+        GroupCommit groupCommit = new GroupCommit(GroupCommit.DEFAULT_MAX_BATCH_SIZE, 0);
+        BlockingLog log = new BlockingLog();
+        groupCommit.setLog(log);
+        AtomicInteger applied = new AtomicInteger(0);
+        AtomicBoolean[] interrupted = { new AtomicBoolean(), new AtomicBoolean(), new AtomicBoolean() };
+
+        // The first batch is flushed, the second one is led by the next commit and followed by the last one
+        Thread first = startCommit(groupCommit, applied, interrupted[0]);
+        log.flushing.await();
+        Thread leader = startCommit(groupCommit, applied, interrupted[1]);
+        awaitWaiting(leader);
+        Thread follower = startCommit(groupCommit, applied, interrupted[2]);
+        awaitWaiting(follower);
+
+        // The interrupted committers keep waiting for their batch
+        leader.interrupt();
+        follower.interrupt();
+        Thread.sleep(50);
+        assertTrue(leader.isAlive());
+        assertTrue(follower.isAlive());
+        assertEquals(1, applied.get());
+
+        log.release.countDown();
+        first.join();
+        leader.join();
+        follower.join();
+
+        assertEquals(3, applied.get());
+        assertTrue(!log.flushedInterrupted.get());
+        assertTrue(!interrupted[0].get());
+        assertTrue(interrupted[1].get());
+        assertTrue(interrupted[2].get());
+    }
+}
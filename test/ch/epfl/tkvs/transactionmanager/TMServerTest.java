@@ -0,0 +1,210 @@
+package ch.epfl.tkvs.transactionmanager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import ch.epfl.tkvs.transactionmanager.algorithms.Simple2PL;
+import ch.epfl.tkvs.transactionmanager.communication.ConnectionPool;
+import ch.epfl.tkvs.transactionmanager.communication.ExitMessage;
+import ch.epfl.tkvs.transactionmanager.communication.MessageFrame;
+import ch.epfl.tkvs.transactionmanager.communication.WireProtocol;
+import ch.epfl.tkvs.transactionmanager.communication.requests.BeginRequest;
+import ch.epfl.tkvs.transactionmanager.communication.requests.ReadRequest;
+import ch.epfl.tkvs.transactionmanager.communication.requests.TryCommitRequest;
+import ch.epfl.tkvs.transactionmanager.communication.requests.WriteRequest;
+import ch.epfl.tkvs.transactionmanager.communication.responses.GenericSuccessResponse;
+import ch.epfl.tkvs.transactionmanager.communication.responses.ReadResponse;
+import ch.epfl.tkvs.yarn.HDFSLogger;
+
+
+public class TMServerTest extends TestCase {
+
+    private static final int IO_THREADS = 2;
+    private static final int WORKER_THREADS = 8;
+
+    private TMServer server;
+    private int port;
+    private Thread serverThread;
+
+    @Override
+    protected void setUp() throws Exception {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().bind(new InetSocketAddress(0));
+        port = serverChannel.socket().getLocalPort();
+        server = new TMServer(serverChannel, IO_THREADS, WORKER_THREADS, false, new Simple2PL(null, null), new HDFSLogger(TMServerTest.class));
+        serverThread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                server.run();
+            }
+        });
+        serverThread.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.stop();
+        serverThread.join();
+    }
+
+    @Test
+    public void testTransactions() throws Exception {
+        final StringBuilder value = new StringBuilder();
+        // Larger than the read buffer of a connection
+        for (int i = 0; i < 20000; i++) {
+            value.append((char) ('a' + i % 26));
+        }
+
+        for (WireProtocol protocol : WireProtocol.values()) {
+            final ConnectionPool pool = new ConnectionPool(protocol);
+            final int firstId = protocol.ordinal() * 1000;
+            ExecutorService clients = Executors.newFixedThreadPool(16);
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 100; i++) {
+                final int transactionId = firstId + i;
+                results.add(clients.submit(new Callable<Boolean>() {
+
+                    @Override
+                    public Boolean call() throws Exception {
+                        String key = "tmserver" + transactionId;
+                        String written = transactionId % 10 == 0 ? value.toString() : key;
+                        boolean success = ((GenericSuccessResponse) pool.send("localhost", port, new BeginRequest(transactionId), true)).getSuccess();
+                        success &= ((GenericSuccessResponse) pool.send("localhost", port, new WriteRequest(transactionId, key, written, 0), true)).getSuccess();
+                        ReadResponse read = (ReadResponse) pool.send("localhost", port, new ReadRequest(transactionId, key, 0), true);
+                        success &= read.getSuccess() && written.equals(read.getValue());
+                        success &= ((GenericSuccessResponse) pool.send("localhost", port, new TryCommitRequest(transactionId), true)).getSuccess();
+                        return success;
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+            clients.shutdown();
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testThreadsDoNotGrowWithConnections() throws Exception {
+        List<Socket> clients = new ArrayList<Socket>();
+        for (int i = 0; i < 500; i++) {
+            Socket sock = new Socket("localhost", port);
+            OutputStream out = new BufferedOutputStream(sock.getOutputStream());
+            WireProtocol.BINARY.start(out);
+            WireProtocol.BINARY.write(i, new BeginRequest(5000 + i), out);
+            out.flush();
+            clients.add(sock);
+        }
+
+        for (int i = 0; i < clients.size(); i++) {
+            MessageFrame response = WireProtocol.BINARY.readFrame(new BufferedInputStream(clients.get(i).getInputStream()));
+            assertEquals(i, response.getRequestId());
+            assertTrue(((GenericSuccessResponse) response.getMessage()).getSuccess());
+        }
+
+        int ioThreads = 0;
+        int workers = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("TM I/O")) {
+                ioThreads++;
+            } else if (thread.getName().startsWith("TM worker")) {
+                workers++;
+            }
+        }
+        assertEquals(IO_THREADS, ioThreads);
+        assertTrue(workers <= WORKER_THREADS);
+
+        for (Socket sock : clients) {
+            sock.close();
+        }
+    }
+
+    @Test
+    public void testLockWaitsDoNotStarveWorkers() throws Exception {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().bind(new InetSocketAddress(0));
+        final int port = serverChannel.socket().getLocalPort();
+        final TMServer server = new TMServer(serverChannel, IO_THREADS, 2, 1, false, new Simple2PL(null, null), new HDFSLogger(TMServerTest.class));
+        Thread serverThread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                server.run();
+            }
+        });
+        serverThread.start();
+
+        final ConnectionPool pool = new ConnectionPool(WireProtocol.BINARY);
+        assertTrue(((GenericSuccessResponse) pool.send("localhost", port, new BeginRequest(7000), true)).getSuccess());
+        assertTrue(((GenericSuccessResponse) pool.send("localhost", port, new WriteRequest(7000, "starved", 7000, 0), true)).getSuccess());
+
+        // More writers than workers wait for the lock: one of the two workers may wait and the others abort, so the
+        // commit of the holder still gets a worker
+        ExecutorService clients = Executors.newFixedThreadPool(10);
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        for (int i = 1; i <= 10; i++) {
+            final int transactionId = 7000 + i;
+            results.add(clients.submit(new Callable<Boolean>() {
+
+                @Override
+                public Boolean call() throws Exception {
+                    boolean success = ((GenericSuccessResponse) pool.send("localhost", port, new BeginRequest(transactionId), true)).getSuccess();
+                    success = success && ((GenericSuccessResponse) pool.send("localhost", port, new WriteRequest(transactionId, "starved", transactionId, 0), true)).getSuccess();
+                    success = success && ((GenericSuccessResponse) pool.send("localhost", port, new TryCommitRequest(transactionId), true)).getSuccess();
+                    return success;
+                }
+            }));
+        }
+        Thread.sleep(500);
+        assertTrue(((GenericSuccessResponse) pool.send("localhost", port, new TryCommitRequest(7000), true)).getSuccess());
+        int commits = 0;
+        for (Future<Boolean> result : results) {
+            if (result.get(30, TimeUnit.SECONDS)) {
+                commits++;
+            }
+        }
+        // The writer which waited commits once the lock is released
+        assertTrue(commits >= 1);
+
+        clients.shutdown();
+        pool.close();
+        server.stop();
+        serverThread.join();
+    }
+
+    @Test
+    public void testWaitPermits() {
+        assertEquals(1, TMServer.waitPermits(1, 1));
+        assertEquals(1, TMServer.waitPermits(3, 2));
+        assertEquals(192, TMServer.waitPermits(192, 256));
+        assertEquals(255, TMServer.waitPermits(1000, 256));
+    }
+
+    @Test
+    public void testExit() throws Exception {
+        Socket sock = new Socket("localhost", port);
+        OutputStream out = sock.getOutputStream();
+        WireProtocol.JSON.write(new ExitMessage(), out);
+        out.flush();
+        serverThread.join(5000);
+        assertFalse(serverThread.isAlive());
+        sock.close();
+    }
+}
@@ -0,0 +1,165 @@
+package ch.epfl.tkvs.transactionmanager;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ch.epfl.tkvs.transactionmanager.algorithms.Simple2PL;
+import ch.epfl.tkvs.transactionmanager.communication.ConnectionPool;
+import ch.epfl.tkvs.transactionmanager.communication.WireProtocol;
+import ch.epfl.tkvs.transactionmanager.communication.requests.BeginRequest;
+import ch.epfl.tkvs.transactionmanager.communication.requests.TryCommitRequest;
+import ch.epfl.tkvs.transactionmanager.communication.requests.WriteRequest;
+import ch.epfl.tkvs.transactionmanager.communication.responses.GenericSuccessResponse;
+import ch.epfl.tkvs.yarn.HDFSLogger;
+
+
+/**
+ * Measures the throughput of a {@link TMServer} running Simple2PL, and the number of threads it needs, with its workers
+ * on platform threads and on virtual threads when the JVM has them.
+ * Every client runs transactions which write a key taken from a few hot ones, so most of the requests wait for a lock.
+ * 
+ * The platform workers bound their waits, by default to three quarters of them, since the default deadlock detection
+ * would never end the waits of a pool full of waiting requests.
+ * 
+ * Usage: WorkerThreadsBenchmark [clients] [transactionsPerClient] [hotKeys] [workerThreads] [maxWaitingWorkers]
+ */
+public class WorkerThreadsBenchmark {
+
+    private final int clients;
+    private final int transactionsPerClient;
+    private final int hotKeys;
+    private final AtomicInteger nextTransactionId = new AtomicInteger(0);
+
+    public WorkerThreadsBenchmark(int clients, int transactionsPerClient, int hotKeys) {
+        this.clients = clients;
+        this.transactionsPerClient = transactionsPerClient;
+        this.hotKeys = hotKeys;
+    }
+
+    /**
+     * @param workerThreads the number of workers of the server on platform threads
+     * @param maxWaitingWorkers the number of platform workers which may wait at the same time
+     * @param virtualThreads whether the workers run on virtual threads instead
+     * @return the committed transactions per second, the ratio of aborted transactions, and the peak number of platform
+     * threads of the workers
+     */
+    public double[] run(int workerThreads, int maxWaitingWorkers, boolean virtualThreads) throws Exception {
+        awaitWorkersStopped();
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        int before = threadBean.getThreadCount();
+        threadBean.resetPeakThreadCount();
+
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().bind(new InetSocketAddress(0));
+        final int port = serverChannel.socket().getLocalPort();
+        final TMServer server = new TMServer(serverChannel, 2, workerThreads, maxWaitingWorkers, virtualThreads, new Simple2PL(null, null), new HDFSLogger(WorkerThreadsBenchmark.class));
+        Thread serverThread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                server.run();
+            }
+        });
+        serverThread.start();
+
+        final ConnectionPool pool = new ConnectionPool(WireProtocol.BINARY);
+        // The hot keys exist, so that the writes do not lock the gaps of an insert
+        for (int k = 0; k < hotKeys; k++) {
+            int xid = nextTransactionId.getAndIncrement();
+            pool.send("localhost", port, new BeginRequest(xid), true);
+            pool.send("localhost", port, new WriteRequest(xid, "Hot" + k, xid, 0), true);
+            pool.send("localhost", port, new TryCommitRequest(xid), true);
+        }
+        final AtomicInteger commits = new AtomicInteger(0);
+        final AtomicInteger aborts = new AtomicInteger(0);
+        final CyclicBarrier barrier = new CyclicBarrier(clients + 1);
+        Thread[] threads = new Thread[clients];
+        for (int i = 0; i < clients; i++) {
+            final int clientId = i;
+            threads[i] = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    Random random = new Random(clientId);
+                    try {
+                        barrier.await();
+                        for (int t = 0; t < transactionsPerClient; t++) {
+                            int xid = nextTransactionId.getAndIncrement();
+                            String key = "Hot" + random.nextInt(hotKeys);
+                            pool.send("localhost", port, new BeginRequest(xid), true);
+                            GenericSuccessResponse write = (GenericSuccessResponse) pool.send("localhost", port, new WriteRequest(xid, key, xid, 0), true);
+                            if (write.getSuccess() && ((GenericSuccessResponse) pool.send("localhost", port, new TryCommitRequest(xid), true)).getSuccess()) {
+                                commits.incrementAndGet();
+                            } else {
+                                aborts.incrementAndGet();
+                            }
+                        }
+                        barrier.await();
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+
+        barrier.await();
+        long start = System.nanoTime();
+        barrier.await();
+        long elapsed = System.nanoTime() - start;
+        int peak = threadBean.getPeakThreadCount();
+        // The threads of the benchmark: the clients, the server, its I/O threads and the readers of the connections
+        int benchmarkThreads = clients + 1 + 2 + pool.getOpenConnections();
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        pool.close();
+        server.stop();
+        serverThread.join();
+
+        // The platform threads started by the workers, a virtual thread is not counted
+        return new double[] { commits.get() / (elapsed / 1e9), (double) aborts.get() / (commits.get() + aborts.get()), peak - before - benchmarkThreads };
+    }
+
+    // The workers of the previous run must not be counted, they stop once their pool is shut down and its queue empty
+    private static void awaitWorkersStopped() throws InterruptedException {
+        boolean running = true;
+        while (running) {
+            running = false;
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                running |= thread.getName().startsWith("TM worker");
+            }
+            if (running) {
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int transactionsPerClient = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int hotKeys = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        int workerThreads = args.length > 3 ? Integer.parseInt(args[3]) : TMServer.DEFAULT_WORKER_THREADS;
+        int maxWaitingWorkers = args.length > 4 ? Integer.parseInt(args[4]) : workerThreads * 3 / 4;
+
+        WorkerThreadsBenchmark benchmark = new WorkerThreadsBenchmark(clients, transactionsPerClient, hotKeys);
+        // Warm up
+        benchmark.run(workerThreads, maxWaitingWorkers, false);
+
+        System.out.println("workers\ttx/s\taborts\tworker threads");
+        double[] result = benchmark.run(workerThreads, maxWaitingWorkers, false);
+        System.out.format("platform\t%.0f\t%.3f\t%.0f\n", result[0], result[1], result[2]);
+        if (WorkerThreads.isVirtualThreadsSupported()) {
+            result = benchmark.run(workerThreads, maxWaitingWorkers, true);
+            System.out.format("virtual\t%.0f\t%.3f\t%.0f\n", result[0], result[1], result[2]);
+        } else {
+            System.out.println("virtual\tneeds Java 21");
+        }
+    }
+}
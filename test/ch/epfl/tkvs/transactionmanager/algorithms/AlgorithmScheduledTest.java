@@ -1,16 +1,25 @@
 package ch.epfl.tkvs.transactionmanager.algorithms;
 
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import org.junit.Before;
 import org.junit.Test;
 
 import ch.epfl.tkvs.ScheduledTestCase;
+import ch.epfl.tkvs.keyvaluestore.KeyValueStore;
 import ch.epfl.tkvs.transactionmanager.communication.requests.BeginRequest;
 import ch.epfl.tkvs.transactionmanager.communication.requests.CommitRequest;
 import ch.epfl.tkvs.transactionmanager.communication.requests.PrepareRequest;
 import ch.epfl.tkvs.transactionmanager.communication.requests.ReadRequest;
+import ch.epfl.tkvs.transactionmanager.communication.requests.ScanRequest;
 import ch.epfl.tkvs.transactionmanager.communication.requests.WriteRequest;
 import ch.epfl.tkvs.transactionmanager.communication.responses.GenericSuccessResponse;
 import ch.epfl.tkvs.transactionmanager.communication.responses.ReadResponse;
+import ch.epfl.tkvs.transactionmanager.communication.responses.ScanResponse;
+import ch.epfl.tkvs.transactionmanager.communication.utils.Base64Utils;
 
 
 public class AlgorithmScheduledTest extends ScheduledTestCase {
@@ -22,6 +31,7 @@ public class AlgorithmScheduledTest extends ScheduledTestCase {
 
     @Before
     public void setUp() {
+        KeyValueStore.instance.clear();
         instance = new MVCC2PL(null, null);
         System.out.println("\nNew Test");
     }
@@ -72,6 +82,30 @@ public class AlgorithmScheduledTest extends ScheduledTestCase {
         };
     }
 
+    public ScheduledCommand SCAN(final String from, final String to, final boolean shouldSucceed, final String... expected) {
+        return new ScheduledBlockingCommand() {
+
+            @Override
+            public void perform(int tid, int step) {
+
+                System.out.println("Scan " + tid + " [" + from + ", " + to + ")");
+                ScanResponse sr = instance.scan(new ScanRequest(tid, from, to, 0, 10));
+                assertEquals(shouldSucceed, sr.getSuccess());
+                if (shouldSucceed) {
+                    try {
+                        List<Serializable> values = new ArrayList<>();
+                        for (String encodedValue : sr.getEntries().values()) {
+                            values.add(Base64Utils.convertFromBase64(encodedValue));
+                        }
+                        assertEquals(Arrays.asList(expected), values);
+                    } catch (Exception e) {
+                        fail(e.getMessage());
+                    }
+                }
+            }
+        };
+    }
+
     public ScheduledCommand COMM(final boolean shouldSucceed) {
         return new ScheduledBlockingCommand() {
 
@@ -1,13 +1,37 @@
 package ch.epfl.tkvs.transactionmanager.algorithms;
 
+import static junit.framework.TestCase.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.Before;
 import org.junit.Test;
 
+import ch.epfl.tkvs.exceptions.CommitNotPersistedException;
+import ch.epfl.tkvs.keyvaluestore.HeapStorageEngine;
+import ch.epfl.tkvs.keyvaluestore.KeyValueStore;
+import ch.epfl.tkvs.keyvaluestore.MappedLogStorageEngine;
+import ch.epfl.tkvs.keyvaluestore.Snapshot;
+import ch.epfl.tkvs.keyvaluestore.WriteAheadLog;
+import ch.epfl.tkvs.keyvaluestore.WriteAheadLog.SyncPolicy;
+import ch.epfl.tkvs.transactionmanager.GroupCommit;
+import ch.epfl.tkvs.transactionmanager.versioningunit.VersioningUnitMVCC2PL;
+import ch.epfl.tkvs.transactionmanager.communication.requests.BeginRequest;
+import ch.epfl.tkvs.transactionmanager.communication.requests.CommitRequest;
+import ch.epfl.tkvs.transactionmanager.communication.requests.PrepareRequest;
+import ch.epfl.tkvs.transactionmanager.communication.requests.ReadRequest;
+import ch.epfl.tkvs.transactionmanager.communication.requests.WriteRequest;
+import ch.epfl.tkvs.transactionmanager.communication.responses.GenericSuccessResponse;
+import ch.epfl.tkvs.yarn.HDFSLogger;
+
 
 public class MVCC2PLTest extends AlgorithmScheduledTest {
 
     @Before
     public void setUp() {
+        KeyValueStore.instance.clear();
         instance = new MVCC2PL(null, null);
         System.out.println("\nNew Test");
     }
@@ -32,4 +56,125 @@ public class MVCC2PLTest extends AlgorithmScheduledTest {
         new ScheduleExecutor(schedule).execute();
     }
 
+    @Test
+    public void testPhantom() {
+        // The key inserted in the scanned range is only committed once the scan is over
+        ScheduledCommand[][] schedule = {
+        /* T1 */{ BEGIN(), SCAN("a", "c", t, "a0", "b0"), _______________, _______, SCAN("a", "c", t, "a0", "b0"), COMM(t), _______ },
+        /* T2 */{ BEGIN(), _______________, W("ab", "ab1", t), COMM(t), Wait(3), _______, _______ } };
+        initializeKeys("a", "b", "d");
+        new ScheduleExecutor(schedule).execute();
+
+        ScheduledCommand[][] after = { { BEGIN(), SCAN("a", "c", t, "a0", "ab1", "b0"), SCAN("b", null, t, "b0", "d0"), COMM(t) } };
+        new ScheduleExecutor(after).execute();
+    }
+
+    @Test
+    public void testUnpersistedCommit() throws IOException {
+        File file = File.createTempFile("tkvs", ".wal");
+        Snapshot snapshot = new Snapshot(new File(file.getPath() + ".snapshot"));
+        try {
+            WriteAheadLog log = new WriteAheadLog(file, SyncPolicy.GROUP, WriteAheadLog.DEFAULT_SYNC_INTERVAL_MS);
+            instance = new MVCC2PL(null, new HDFSLogger(MVCC2PLTest.class));
+            instance.recover(snapshot, log);
+            final AtomicInteger failures = new AtomicInteger(0);
+            instance.getGroupCommit().setFailureHandler(new GroupCommit.FailureHandler() {
+
+                @Override
+                public void logFailed(IOException failure) {
+                    failures.incrementAndGet();
+                }
+            });
+            // The log fails from now on
+            log.close();
+
+            for (int xid = 0; xid < 2; xid++) {
+                assertEquals(true, instance.begin(new BeginRequest(xid)).getSuccess());
+                assertEquals(true, instance.write(new WriteRequest(xid, "x" + xid, "v", 0)).getSuccess());
+                assertEquals(true, instance.prepare(new PrepareRequest(xid)).getSuccess());
+            }
+            // The first commit is applied before the log fails, so its outcome is unknown rather than an abort
+            GenericSuccessResponse response = instance.commit(new CommitRequest(0));
+            assertEquals(false, response.getSuccess());
+            assertEquals(CCAlgorithm.COMMIT_IN_DOUBT, response.getExceptionMessage());
+            assertEquals(1, failures.get());
+
+            // The next one is refused before its writes become visible
+            response = instance.commit(new CommitRequest(1));
+            assertEquals(false, response.getSuccess());
+            assertEquals(new CommitNotPersistedException().getMessage(), response.getExceptionMessage());
+            assertEquals(1, failures.get());
+
+            assertEquals(true, instance.begin(new BeginRequest(2)).getSuccess());
+            assertEquals("v", instance.read(new ReadRequest(2, "x0", 0)).getValue());
+            assertEquals(false, instance.read(new ReadRequest(2, "x1", 0)).getSuccess());
+        } finally {
+            file.delete();
+            snapshot.getFile().delete();
+        }
+    }
+
+    // Starts the algorithm the way a transaction manager does, on the segments left in the directory
+    private MappedLogStorageEngine restart(File directory, Snapshot snapshot, WriteAheadLog log) throws IOException {
+        VersioningUnitMVCC2PL.getInstance().stopNow();
+        MappedLogStorageEngine engine = new MappedLogStorageEngine(directory);
+        KeyValueStore.instance.setEngine(engine);
+        instance = new MVCC2PL(null, new HDFSLogger(MVCC2PLTest.class));
+        instance.recover(snapshot, log);
+        return engine;
+    }
+
+    private void commit(int xid, String key, String value) {
+        assertEquals(true, instance.begin(new BeginRequest(xid)).getSuccess());
+        assertEquals(true, instance.write(new WriteRequest(xid, key, value, 0)).getSuccess());
+        assertEquals(true, instance.prepare(new PrepareRequest(xid)).getSuccess());
+        assertEquals(true, instance.commit(new CommitRequest(xid)).getSuccess());
+    }
+
+    // Scans the committed values, which also checks the index of the keys
+    private void assertCommitted(String... values) {
+        ScheduledCommand[][] scan = { { BEGIN(), SCAN("a", null, t, values), COMM(t) } };
+        new ScheduleExecutor(scan).execute();
+    }
+
+    @Test
+    public void testRestartOnLogEngine() throws IOException {
+        File file = File.createTempFile("tkvs", ".wal");
+        Snapshot snapshot = new Snapshot(new File(file.getPath() + ".snapshot"));
+        File directory = new File(file.getPath() + ".store");
+        try {
+            WriteAheadLog log = new WriteAheadLog(file, SyncPolicy.GROUP, WriteAheadLog.DEFAULT_SYNC_INTERVAL_MS);
+            restart(directory, snapshot, log);
+            commit(0, "a", "a0");
+            commit(1, "b", "b1");
+            assertEquals(2, instance.snapshot());
+
+            // The store already holds the snapshot, so nothing is written back to it
+            log.close();
+            log = new WriteAheadLog(file, SyncPolicy.GROUP, WriteAheadLog.DEFAULT_SYNC_INTERVAL_MS);
+            MappedLogStorageEngine engine = restart(directory, snapshot, log);
+            assertEquals(0, engine.getUserBytesWritten());
+            assertEquals(2, KeyValueStore.instance.size());
+            assertCommitted("a0", "b1");
+
+            // The commits after the snapshot are replayed over the store
+            commit(2, "b", "b2");
+            commit(3, "c", "c3");
+            log.close();
+            log = new WriteAheadLog(file, SyncPolicy.GROUP, WriteAheadLog.DEFAULT_SYNC_INTERVAL_MS);
+            restart(directory, snapshot, log);
+            assertCommitted("a0", "b2", "c3");
+            log.close();
+        } finally {
+            VersioningUnitMVCC2PL.getInstance().stopNow();
+            KeyValueStore.instance.setEngine(new HeapStorageEngine());
+            file.delete();
+            snapshot.getFile().delete();
+            for (File segment : directory.listFiles()) {
+                segment.delete();
+            }
+            directory.delete();
+        }
+    }
+
 }
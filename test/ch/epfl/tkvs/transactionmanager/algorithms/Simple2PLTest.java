@@ -1,13 +1,31 @@
 package ch.epfl.tkvs.transactionmanager.algorithms;
 
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.junit.Before;
 import org.junit.Test;
 
+import ch.epfl.tkvs.keyvaluestore.KeyValueStore;
+import ch.epfl.tkvs.transactionmanager.communication.Message;
+import ch.epfl.tkvs.transactionmanager.communication.requests.AbortRequest;
+import ch.epfl.tkvs.transactionmanager.communication.requests.BeginRequest;
+import ch.epfl.tkvs.transactionmanager.communication.requests.CommitRequest;
+import ch.epfl.tkvs.transactionmanager.communication.requests.PrepareRequest;
+import ch.epfl.tkvs.transactionmanager.communication.requests.WriteRequest;
+import ch.epfl.tkvs.transactionmanager.communication.responses.GenericSuccessResponse;
+import ch.epfl.tkvs.transactionmanager.lockingunit.DeadlockPolicy;
+import ch.epfl.tkvs.transactionmanager.lockingunit.LockingUnit;
+
 
 public class Simple2PLTest extends AlgorithmScheduledTest {
 
     @Before
     public void setUp() {
+        KeyValueStore.instance.clear();
         instance = new Simple2PL(null, null);
         System.out.println("\nNew Test");
     }
@@ -20,4 +38,102 @@ public class Simple2PLTest extends AlgorithmScheduledTest {
         initializeKeys("x", "y");
         new ScheduleExecutor(schedule).execute();
     }
+
+    @Test
+    public void testPhantom() {
+        // The insert of a key in the scanned range waits for the end of the scan
+        ScheduledCommand[][] schedule = {
+        /* T1 */{ BEGIN(), SCAN("a", "c", t, "a0", "b0"), _______________, _______, SCAN("a", "c", t, "a0", "b0"), COMM(t), _______ },
+        /* T2 */{ BEGIN(), _______________, W("ab", "ab1", t), Wait(2), _______________, _______, COMM(t) } };
+        initializeKeys("a", "b", "d");
+        new ScheduleExecutor(schedule).execute();
+
+        ScheduledCommand[][] after = { { BEGIN(), SCAN("a", "c", t, "a0", "ab1", "b0"), SCAN("b", null, t, "b0", "d0"), COMM(t) } };
+        new ScheduleExecutor(after).execute();
+    }
+
+    @Test
+    public void testWoundWait() throws Exception {
+        initializeKeys("x", "y");
+        ((Algo2PL) instance).setDeadlockPolicy(DeadlockPolicy.WOUND_WAIT, LockingUnit.DEFAULT_LOCK_WAIT_TIMEOUT_MS);
+        assertTrue(instance.begin(new BeginRequest(1)).getSuccess());
+        assertTrue(instance.begin(new BeginRequest(2)).getSuccess());
+        assertTrue(instance.write(new WriteRequest(2, "x", "x2", 0)).getSuccess());
+
+        // The older transaction 1 wounds transaction 2, which keeps its lock until it aborts in its own thread
+        final AtomicReference<GenericSuccessResponse> t1Write = new AtomicReference<>();
+        Thread thread1 = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                t1Write.set(instance.write(new WriteRequest(1, "x", "x1", 0)));
+            }
+        });
+        thread1.start();
+        thread1.join(500);
+        assertTrue(thread1.isAlive());
+
+        // Transaction 2 aborts at its next lock request
+        assertFalse(instance.write(new WriteRequest(2, "y", "y2", 0)).getSuccess());
+        thread1.join(1000);
+        assertFalse(thread1.isAlive());
+        assertTrue(t1Write.get().getSuccess());
+        assertTrue(instance.prepare(new PrepareRequest(1)).getSuccess());
+        assertTrue(instance.commit(new CommitRequest(1)).getSuccess());
+    }
+
+    @Test
+    public void testWoundWaitDistributed() throws Exception {
+        // This transaction manager has locality hash 0, the other one, hash 1, is played by the remote handler: it
+        // aborts the transactions for which it gets an abort message everywhere, as their primary transaction manager
+        final List<Integer> abortedOnPrimary = Collections.synchronizedList(new LinkedList<Integer>());
+        RemoteHandler remote = new RemoteHandler() {
+
+            @Override
+            protected void sendToRemoteTM(final Message request, int localityHash) throws IOException {
+                if (localityHash == 1 && request instanceof AbortRequest) {
+                    abortedOnPrimary.add(((AbortRequest) request).getTransactionId());
+                    new Thread(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            instance.abort((AbortRequest) request);
+                        }
+                    }).start();
+                }
+            }
+        };
+        instance = new Simple2PL(remote, null) {
+
+            @Override
+            protected boolean isLocalKey(int localityHash) {
+                return true;
+            }
+        };
+        remote.setAlgo(instance, null);
+        initializeKeys("x");
+        ((Algo2PL) instance).setDeadlockPolicy(DeadlockPolicy.WOUND_WAIT, LockingUnit.DEFAULT_LOCK_WAIT_TIMEOUT_MS);
+
+        // Transaction 2 is a secondary one whose thread waits on its primary transaction manager, never coming back here
+        assertTrue(instance.begin(new BeginRequest(1)).getSuccess());
+        assertTrue(instance.begin(new BeginRequest(2, false, 1)).getSuccess());
+        assertTrue(instance.write(new WriteRequest(2, "x", "x2", 0)).getSuccess());
+
+        // The older transaction 1 wounds it, which is forwarded to its primary transaction manager
+        final AtomicReference<GenericSuccessResponse> t1Write = new AtomicReference<>();
+        Thread thread1 = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                t1Write.set(instance.write(new WriteRequest(1, "x", "x1", 0)));
+            }
+        });
+        thread1.start();
+        thread1.join(5000);
+        assertFalse(thread1.isAlive());
+        assertTrue(t1Write.get().getSuccess());
+        assertEquals(Collections.singletonList(2), abortedOnPrimary);
+        assertTrue(instance.prepare(new PrepareRequest(1)).getSuccess());
+        assertTrue(instance.commit(new CommitRequest(1)).getSuccess());
+    }
 }
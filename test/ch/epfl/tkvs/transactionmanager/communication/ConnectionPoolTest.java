@@ -0,0 +1,135 @@
+package ch.epfl.tkvs.transactionmanager.communication;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import ch.epfl.tkvs.transactionmanager.communication.requests.ReadRequest;
+import ch.epfl.tkvs.transactionmanager.communication.responses.ReadResponse;
+import ch.epfl.tkvs.transactionmanager.communication.utils.Base64Utils;
+
+
+public class ConnectionPoolTest extends TestCase {
+
+    private ServerSocket server;
+    private AtomicInteger connections;
+
+    // Answers each ReadRequest with the transaction id as value. The requests are answered two at a time in reverse
+    // order, and a request of transaction -1 closes the connection.
+    private void startServer() throws IOException {
+        server = new ServerSocket(0);
+        connections = new AtomicInteger(0);
+        new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        final Socket sock = server.accept();
+                        connections.incrementAndGet();
+                        new Thread(new Runnable() {
+
+                            @Override
+                            public void run() {
+                                serve(sock);
+                            }
+                        }).start();
+                    }
+                } catch (IOException e) {
+                    // Server closed
+                }
+            }
+        }).start();
+    }
+
+    private static void serve(Socket sock) {
+        try {
+            BufferedInputStream in = new BufferedInputStream(sock.getInputStream());
+            OutputStream out = new BufferedOutputStream(sock.getOutputStream());
+            WireProtocol protocol = WireProtocol.accept(in);
+            MessageFrame first;
+            while ((first = protocol.readFrame(in)) != null) {
+                if (((ReadRequest) first.getMessage()).getTransactionId() == -1) {
+                    break;
+                }
+                MessageFrame second = protocol.readFrame(in);
+                answer(protocol, second, out);
+                answer(protocol, first, out);
+                out.flush();
+            }
+            sock.close();
+        } catch (Exception e) {
+            // Connection closed
+        }
+    }
+
+    private static void answer(WireProtocol protocol, MessageFrame request, OutputStream out) throws Exception {
+        ReadRequest read = (ReadRequest) request.getMessage();
+        protocol.write(request.getRequestId(), new ReadResponse(Base64Utils.convertToBase64(read.getTransactionId())), out);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void testMultiplexing() throws Exception {
+        startServer();
+        for (WireProtocol protocol : WireProtocol.values()) {
+            final ConnectionPool pool = new ConnectionPool(protocol, 1);
+            ExecutorService threads = Executors.newFixedThreadPool(8);
+            Future<?>[] responses = new Future<?>[64];
+            for (int i = 0; i < responses.length; i++) {
+                final int transactionId = i;
+                responses[i] = threads.submit(new Callable<Message>() {
+
+                    @Override
+                    public Message call() throws Exception {
+                        return pool.send("localhost", server.getLocalPort(), new ReadRequest(transactionId, "key", 0), true);
+                    }
+                });
+            }
+            for (int i = 0; i < responses.length; i++) {
+                assertEquals(i, ((ReadResponse) responses[i].get()).getValue());
+            }
+            threads.shutdown();
+            assertEquals(1, pool.getOpenConnections());
+            pool.close();
+            assertEquals(0, pool.getOpenConnections());
+        }
+        // One connection for each protocol
+        assertEquals(2, connections.get());
+    }
+
+    @Test
+    public void testReconnect() throws Exception {
+        startServer();
+        ConnectionPool pool = new ConnectionPool(WireProtocol.BINARY, 1);
+        try {
+            pool.send("localhost", server.getLocalPort(), new ReadRequest(-1, "key", 0), true);
+            fail();
+        } catch (IOException e) {
+            // The server closed the connection before answering
+        }
+        assertEquals(0, pool.getOpenConnections());
+
+        // The next requests are sent on a new connection
+        pool.send("localhost", server.getLocalPort(), new ReadRequest(1, "key", 0), false);
+        assertEquals(2, ((ReadResponse) pool.send("localhost", server.getLocalPort(), new ReadRequest(2, "key", 0), true)).getValue());
+        assertEquals(2, connections.get());
+        pool.close();
+    }
+}
@@ -0,0 +1,81 @@
+package ch.epfl.tkvs.transactionmanager.communication;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import ch.epfl.tkvs.transactionmanager.communication.requests.ReadRequest;
+import ch.epfl.tkvs.transactionmanager.communication.requests.WriteRequest;
+import ch.epfl.tkvs.transactionmanager.communication.responses.GenericSuccessResponse;
+import ch.epfl.tkvs.transactionmanager.communication.responses.ReadResponse;
+import ch.epfl.tkvs.transactionmanager.communication.utils.Base64Utils;
+
+
+/**
+ * Measures the size of the messages of a read and a write in each {@link WireProtocol}, and the time it takes to encode
+ * and decode them. Each operation is the request and its response.
+ * 
+ * Usage: WireProtocolBenchmark [operations] [valueLength]
+ */
+public class WireProtocolBenchmark {
+
+    private final Message[] messages;
+    private final int operations;
+
+    public WireProtocolBenchmark(int operations, int valueLength) throws Exception {
+        this.operations = operations;
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < valueLength; i++) {
+            value.append((char) ('a' + i % 26));
+        }
+        messages = new Message[] { new ReadRequest(1234, "Key1234", 1), new ReadResponse(Base64Utils.convertToBase64(value.toString())), new WriteRequest(1234, "Key1234", value.toString(), 1), new GenericSuccessResponse() };
+    }
+
+    /**
+     * @return the number of bytes of an operation, its encoding time and its decoding time in ns
+     */
+    public double[] run(WireProtocol protocol) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Message message : messages) {
+            protocol.write(message, out);
+        }
+        int bytes = out.size();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < operations; i++) {
+            out.reset();
+            for (Message message : messages) {
+                protocol.write(message, out);
+            }
+        }
+        long encoding = System.nanoTime() - start;
+
+        byte[] encoded = out.toByteArray();
+        start = System.nanoTime();
+        for (int i = 0; i < operations; i++) {
+            ByteArrayInputStream in = new ByteArrayInputStream(encoded);
+            for (int m = 0; m < messages.length; m++) {
+                protocol.read(in);
+            }
+        }
+        long decoding = System.nanoTime() - start;
+
+        return new double[] { bytes / 2.0, (double) encoding / operations / 2, (double) decoding / operations / 2 };
+    }
+
+    public static void main(String[] args) throws Exception {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int valueLength = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+
+        WireProtocolBenchmark benchmark = new WireProtocolBenchmark(operations, valueLength);
+        // Warm up
+        for (WireProtocol protocol : WireProtocol.values()) {
+            benchmark.run(protocol);
+        }
+
+        System.out.println("protocol\tbytes/op\tencode ns/op\tdecode ns/op");
+        for (WireProtocol protocol : WireProtocol.values()) {
+            double[] result = benchmark.run(protocol);
+            System.out.format("%s\t%.0f\t%.0f\t%.0f\n", protocol, result[0], result[1], result[2]);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package ch.epfl.tkvs.transactionmanager.communication.utils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Test;
+
+import ch.epfl.tkvs.exceptions.ValueDoesNotExistException;
+import ch.epfl.tkvs.transactionmanager.communication.ExitMessage;
+import ch.epfl.tkvs.transactionmanager.communication.Message;
+import ch.epfl.tkvs.transactionmanager.communication.MessageFrame;
+import ch.epfl.tkvs.transactionmanager.communication.WireProtocol;
+import ch.epfl.tkvs.transactionmanager.communication.requests.BeginRequest;
+import ch.epfl.tkvs.transactionmanager.communication.requests.ReadRequest;
+import ch.epfl.tkvs.transactionmanager.communication.requests.WriteRequest;
+import ch.epfl.tkvs.transactionmanager.communication.responses.GenericSuccessResponse;
+import ch.epfl.tkvs.transactionmanager.communication.responses.ReadResponse;
+import ch.epfl.tkvs.transactionmanager.communication.responses.ScanResponse;
+import ch.epfl.tkvs.transactionmanager.communication.responses.TransactionManagerResponse;
+import ch.epfl.tkvs.transactionmanager.communication.utils.JSON2MessageConverter.InvalidMessageException;
+
+
+public class BinaryMessageConverterTest extends TestCase {
+
+    private static Message roundTrip(Message message) throws Exception {
+        return BinaryMessageConverter.fromBytes(BinaryMessageConverter.toBytes(message));
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        WriteRequest write = (WriteRequest) roundTrip(new WriteRequest(-3, "key", 42L, 1 << 30));
+        assertEquals(-3, write.getTransactionId());
+        assertEquals(1 << 30, write.getLocalityHash());
+        assertEquals("key", SortKeyUtils.decodeKey(write.getEncodedKey()));
+        assertEquals(42L, Base64Utils.convertFromBase64(write.getEncodedValue()));
+
+        ReadRequest read = (ReadRequest) roundTrip(new ReadRequest(7, "\u00e9t\u00e9", 0));
+        assertEquals(7, read.getTransactionId());
+        assertEquals("\u00e9t\u00e9", SortKeyUtils.decodeKey(read.getEncodedKey()));
+
+        assertFalse(((BeginRequest) roundTrip(new BeginRequest(1, false))).isPrimary());
+        assertTrue(((BeginRequest) roundTrip(new BeginRequest(1))).isPrimary());
+        assertEquals(3, ((BeginRequest) roundTrip(new BeginRequest(1, false, 3))).getPrimaryHash());
+
+        GenericSuccessResponse failure = (GenericSuccessResponse) roundTrip(new GenericSuccessResponse(new ValueDoesNotExistException()));
+        assertFalse(failure.getSuccess());
+        assertEquals(new ValueDoesNotExistException().getMessage(), failure.getExceptionMessage());
+
+        TransactionManagerResponse tm = (TransactionManagerResponse) roundTrip(new TransactionManagerResponse(true, 12, "10.0.0.1", 4242));
+        assertEquals(12, tm.getTransactionId());
+        assertEquals("10.0.0.1", tm.getIp());
+        assertEquals(4242, tm.getPort());
+
+        LinkedHashMap<String, String> entries = new LinkedHashMap<String, String>();
+        entries.put("a", "1");
+        entries.put("b", "2");
+        assertEquals(entries, ((ScanResponse) roundTrip(new ScanResponse(entries))).getEntries());
+
+        assertTrue(roundTrip(new ExitMessage()) instanceof ExitMessage);
+    }
+
+    @Test
+    public void testSmallerThanJSON() throws Exception {
+        WriteRequest write = new WriteRequest(1234, "key1234", "value1234", 5);
+        int json = Message2JSONConverter.toJSON(write).toString().length() + 1;
+        assertTrue(BinaryMessageConverter.toBytes(write).length < json / 2);
+    }
+
+    @Test
+    public void testUnknownFields() throws Exception {
+        // A read response with an unknown string field and an unknown integer field before its known fields
+        byte[] value = Base64Utils.convertToBase64("value").getBytes("UTF-8");
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        // Request 300
+        payload.write(0xAC);
+        payload.write(0x02);
+        payload.write(MessageTypes.getTag(ReadResponse.class));
+        payload.write(9 << 3 | BinaryMessageConverter.BYTES);
+        payload.write(3);
+        payload.write(new byte[] { 'a', 'b', 'c' });
+        payload.write(10 << 3 | BinaryMessageConverter.VARINT);
+        payload.write(0x80);
+        payload.write(0x01);
+        // success is field 2 and value field 3, after exception
+        payload.write(2 << 3 | BinaryMessageConverter.VARINT);
+        payload.write(1);
+        payload.write(3 << 3 | BinaryMessageConverter.BYTES);
+        payload.write(value.length);
+        payload.write(value);
+
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        frame.write(new byte[] { 0, 0, 0, (byte) payload.size() });
+        payload.writeTo(frame);
+
+        ReadResponse response = (ReadResponse) BinaryMessageConverter.fromBytes(frame.toByteArray());
+        assertTrue(response.getSuccess());
+        assertEquals("value", response.getValue());
+    }
+
+    @Test
+    public void testInvalidFrames() throws Exception {
+        byte[] frame = BinaryMessageConverter.toBytes(new ReadRequest(1, "key", 0));
+        try {
+            BinaryMessageConverter.fromBytes(Arrays.copyOf(frame, frame.length - 1));
+            fail();
+        } catch (InvalidMessageException e) {
+            // Expected
+        }
+        try {
+            BinaryMessageConverter.readFrame(new DataInputStream(new ByteArrayInputStream(new byte[] { 0, 0, 0, 2, 0, 120 })));
+            fail();
+        } catch (InvalidMessageException e) {
+            // Expected
+        }
+        try {
+            BinaryMessageConverter.readFrame(new DataInputStream(new ByteArrayInputStream(Arrays.copyOf(frame, 6))));
+            fail();
+        } catch (IOException e) {
+            // Expected
+        }
+        assertNull(BinaryMessageConverter.readFrame(new DataInputStream(new ByteArrayInputStream(new byte[0]))));
+    }
+
+    @Test
+    public void testProtocols() throws Exception {
+        for (WireProtocol protocol : WireProtocol.values()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            protocol.start(out);
+            protocol.write(new BeginRequest(1, false), out);
+            protocol.write(new ReadRequest(2, "key", 0), out);
+            protocol.write(Integer.MAX_VALUE, new ReadRequest(3, "key", 0), out);
+
+            BufferedInputStream in = new BufferedInputStream(new ByteArrayInputStream(out.toByteArray()));
+            assertEquals(protocol, WireProtocol.accept(in));
+            assertEquals(1, ((BeginRequest) protocol.read(in)).getTransactionId());
+            assertEquals(2, ((ReadRequest) protocol.read(in)).getTransactionId());
+            MessageFrame frame = protocol.readFrame(in);
+            assertEquals(Integer.MAX_VALUE, frame.getRequestId());
+            assertEquals(3, ((ReadRequest) frame.getMessage()).getTransactionId());
+            assertNull(protocol.read(in));
+        }
+    }
+
+    @Test
+    public void testBase64Compatibility() throws Exception {
+        // The values written before the Codec was used are still read
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(123);
+        out.close();
+        assertEquals(123, Base64Utils.convertFromBase64(Base64.encodeBase64String(bytes.toByteArray())));
+
+        for (Serializable value : new Serializable[] { "string", 123, 123L, new LinkedHashMap<String, String>(), null }) {
+            assertEquals(value, Base64Utils.convertFromBase64(Base64Utils.convertToBase64(value)));
+        }
+        assertTrue(Base64Utils.convertToBase64(123).length() < 10);
+    }
+}
@@ -0,0 +1,243 @@
+package ch.epfl.tkvs.transactionmanager.lockingunit;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+
+/**
+ * Compares the {@link DeadlockGraph} to its previous implementation (HashMap adjacency and recursive DFS from scratch
+ * for every wait) on random wait-for graphs similar to the ones of DeadlockGraphTest.
+ * 
+ * Usage: DeadlockGraphBenchmark [operations] [maxTransactions]
+ */
+public class DeadlockGraphBenchmark {
+
+    /**
+     * Previous implementation of the DeadlockGraph, kept for comparison
+     */
+    private static class LegacyDeadlockGraph {
+
+        HashMap<Integer, HashSet<Integer>> outgoingEdges = new HashMap<Integer, HashSet<Integer>>();
+        HashMap<Integer, HashSet<Integer>> incomingEdges = new HashMap<Integer, HashSet<Integer>>();
+
+        public boolean isCyclicAfter(int transactionID, HashSet<Integer> incompatibleTransactions) {
+            boolean cyclic;
+            if (!outgoingEdges.containsKey(transactionID)) {
+                outgoingEdges.put(transactionID, new HashSet<Integer>());
+            }
+            HashSet<Integer> newDependencies = new HashSet<Integer>();
+            for (Integer incompatible : incompatibleTransactions) {
+                if (!outgoingEdges.get(transactionID).contains(incompatible)) {
+                    outgoingEdges.get(transactionID).add(incompatible);
+                    newDependencies.add(incompatible);
+                }
+            }
+
+            if (newDependencies.isEmpty())
+                cyclic = false;
+            else {
+                HashSet<Integer> visited = new HashSet<Integer>();
+                HashSet<Integer> onStack = new HashSet<Integer>();
+                cyclic = checkForCycle(transactionID, visited, onStack) == null ? false : true;
+            }
+
+            if (cyclic) {
+                outgoingEdges.get(transactionID).removeAll(newDependencies);
+                return true;
+            } else {
+                for (Integer incompatible : incompatibleTransactions) {
+                    if (!incomingEdges.containsKey(incompatible)) {
+                        incomingEdges.put(incompatible, new HashSet<Integer>());
+                    }
+                    if (!incomingEdges.get(incompatible).contains(transactionID)) {
+                        incomingEdges.get(incompatible).add(transactionID);
+                    }
+                }
+                return false;
+            }
+        }
+
+        private Integer checkForCycle(Integer node, HashSet<Integer> visited, HashSet<Integer> onStack) {
+            Integer branchResult;
+            visited.add(node);
+            if (outgoingEdges.get(node) != null) {
+                onStack.add(node);
+                for (Integer neighbor : outgoingEdges.get(node)) {
+                    if (!visited.contains(neighbor)) {
+                        branchResult = checkForCycle(neighbor, visited, onStack);
+                        if (branchResult != null)
+                            return branchResult;
+                    } else if (onStack.contains(neighbor)) {
+                        return neighbor;
+                    }
+                }
+                onStack.remove(node);
+            }
+            return null;
+        }
+
+        public void addDependencies(int transactionID, HashSet<Integer> incompatibleTransactions) {
+            if (!outgoingEdges.containsKey(transactionID)) {
+                outgoingEdges.put(transactionID, new HashSet<Integer>());
+            }
+            for (Integer incompatible : incompatibleTransactions) {
+                if (!outgoingEdges.get(transactionID).contains(incompatible)) {
+                    outgoingEdges.get(transactionID).add(incompatible);
+                }
+            }
+            for (Integer incompatible : incompatibleTransactions) {
+                if (!incomingEdges.containsKey(incompatible)) {
+                    incomingEdges.put(incompatible, new HashSet<Integer>());
+                }
+                if (!incomingEdges.get(incompatible).contains(transactionID)) {
+                    incomingEdges.get(incompatible).add(transactionID);
+                }
+            }
+        }
+
+        public void removeTransaction(int transactionID) {
+            if (outgoingEdges.get(transactionID) != null) {
+                for (Integer next : outgoingEdges.get(transactionID)) {
+                    if (incomingEdges.containsKey(next))
+                        incomingEdges.get(next).remove(transactionID);
+                }
+                outgoingEdges.remove(transactionID);
+            }
+            if (incomingEdges.get(transactionID) != null) {
+                for (Integer previous : incomingEdges.get(transactionID)) {
+                    if (outgoingEdges.containsKey(previous))
+                        outgoingEdges.get(previous).remove(transactionID);
+                }
+                incomingEdges.remove(transactionID);
+            }
+        }
+
+        public Set<Integer> checkForCycles() {
+            HashSet<Integer> transactionsToBeKilled = new HashSet<Integer>();
+            HashSet<Integer> visited = new HashSet<Integer>();
+            HashSet<Integer> previouslyVisited = new HashSet<Integer>();
+            HashSet<Integer> onStack;
+
+            Integer transactionInCycle;
+            HashSet<Integer> originalKeySet = new HashSet<Integer>(outgoingEdges.keySet());
+            for (Integer node : originalKeySet) {
+                if (visited.contains(node))
+                    continue;
+                while (true) {
+                    onStack = new HashSet<Integer>();
+                    transactionInCycle = checkForCycle(node, visited, onStack);
+                    if (transactionInCycle == null) { // if not cyclic
+                        previouslyVisited = new HashSet<Integer>(visited);
+                        break;
+                    } else { // if cyclic
+                        transactionsToBeKilled.add(transactionInCycle);
+                        previouslyVisited.add(transactionInCycle);
+                        visited = new HashSet<Integer>(previouslyVisited);
+                        removeTransaction(transactionInCycle);
+                    }
+                }
+            }
+            return transactionsToBeKilled;
+        }
+    }
+
+    /**
+     * Runs isCyclicAfter for random waits among the given number of live transactions. Every transaction waits for 1
+     * to 3 others, and a random transaction terminates every 4 waits.
+     * 
+     * @return the number of waits per second for both implementations
+     */
+    private static double[] benchmarkIsCyclicAfter(int liveTransactions, int operations) {
+        double[] result = new double[2];
+        for (int implementation = 0; implementation < 2; implementation++) {
+            DeadlockGraph graph = new DeadlockGraph();
+            LegacyDeadlockGraph legacy = new LegacyDeadlockGraph();
+            Random random = new Random(0);
+            HashSet<Integer> incompatibleTransactions = new HashSet<Integer>();
+
+            long start = System.nanoTime();
+            for (int op = 0; op < operations; op++) {
+                int transactionID = random.nextInt(liveTransactions);
+                incompatibleTransactions.clear();
+                for (int j = random.nextInt(3); j >= 0; j--) {
+                    incompatibleTransactions.add(random.nextInt(liveTransactions));
+                }
+                incompatibleTransactions.remove(transactionID);
+                int terminated = random.nextInt(liveTransactions);
+                if (implementation == 0) {
+                    graph.isCyclicAfter(transactionID, incompatibleTransactions);
+                    if (op % 4 == 0)
+                        graph.removeTransaction(terminated);
+                } else {
+                    legacy.isCyclicAfter(transactionID, incompatibleTransactions);
+                    if (op % 4 == 0)
+                        legacy.removeTransaction(terminated);
+                }
+            }
+            result[implementation] = operations / ((System.nanoTime() - start) / 1e9);
+        }
+        return result;
+    }
+
+    /**
+     * Runs checkForCycles on a random graph where every transaction waits for 3 others.
+     * 
+     * @return the time in milliseconds for both implementations
+     */
+    private static double[] benchmarkCheckForCycles(int transactions) {
+        double[] result = new double[2];
+        for (int implementation = 0; implementation < 2; implementation++) {
+            DeadlockGraph graph = new DeadlockGraph();
+            LegacyDeadlockGraph legacy = new LegacyDeadlockGraph();
+            Random random = new Random(0);
+            HashSet<Integer> incompatibleTransactions = new HashSet<Integer>();
+            for (int transactionID = 0; transactionID < transactions; transactionID++) {
+                incompatibleTransactions.clear();
+                for (int j = 0; j < 3; j++) {
+                    incompatibleTransactions.add(random.nextInt(transactions));
+                }
+                graph.addDependencies(transactionID, incompatibleTransactions);
+                legacy.addDependencies(transactionID, incompatibleTransactions);
+            }
+
+            long start = System.nanoTime();
+            try {
+                if (implementation == 0) {
+                    graph.checkForCycles();
+                } else {
+                    legacy.checkForCycles();
+                }
+                result[implementation] = (System.nanoTime() - start) / 1e6;
+            } catch (StackOverflowError e) {
+                result[implementation] = Double.NaN;
+            }
+        }
+        return result;
+    }
+
+    public static void main(String[] args) {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int maxTransactions = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+
+        // Warm up
+        benchmarkIsCyclicAfter(100, operations);
+        benchmarkCheckForCycles(1000);
+
+        System.out.println("isCyclicAfter (waits/s)");
+        System.out.println("#transactions\tnew\tlegacy");
+        for (int liveTransactions = 100; liveTransactions <= maxTransactions; liveTransactions *= 10) {
+            double[] result = benchmarkIsCyclicAfter(liveTransactions, operations);
+            System.out.format("%d\t%.0f\t%.0f\n", liveTransactions, result[0], result[1]);
+        }
+
+        // NaN means that the recursive DFS overflowed the stack
+        System.out.println("checkForCycles (ms)");
+        System.out.println("#transactions\tnew\tlegacy");
+        for (int transactions = 100; transactions <= maxTransactions; transactions *= 10) {
+            double[] result = benchmarkCheckForCycles(transactions);
+            System.out.format("%d\t%.1f\t%.1f\n", transactions, result[0], result[1]);
+        }
+    }
+}
@@ -2,6 +2,8 @@ package ch.epfl.tkvs.transactionmanager.lockingunit;
 
 import static junit.framework.TestCase.assertEquals;
 
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.Random;
@@ -321,4 +323,180 @@ public class DeadlockGraphTest {
         assertEquals(true, transactionsKilled.contains(10));
         assertEquals(true, graph.checkForCycles().size() == 0);
     }
+
+    // Compares isCyclicAfter to a reachability search on a plain adjacency map
+    @Test
+    public void testIsCyclicAfterRandom() {
+        DeadlockGraph graph = new DeadlockGraph();
+        HashMap<Integer, HashSet<Integer>> edges = new HashMap<Integer, HashSet<Integer>>();
+        Random randomGenerator = new Random(42);
+
+        for (int step = 0; step < 20000; step++) {
+            int transactionID = randomGenerator.nextInt(200);
+            if (randomGenerator.nextInt(10) == 0) {
+                graph.removeTransaction(transactionID);
+                edges.remove(transactionID);
+                for (HashSet<Integer> next : edges.values()) {
+                    next.remove(transactionID);
+                }
+                continue;
+            }
+            HashSet<Integer> incompatibleTransactions = new HashSet<Integer>();
+            for (int j = randomGenerator.nextInt(3); j >= 0; j--) {
+                incompatibleTransactions.add(randomGenerator.nextInt(200));
+            }
+            boolean expected = false;
+            for (Integer incompatible : incompatibleTransactions) {
+                expected |= reaches(edges, incompatible, transactionID);
+            }
+            assertEquals(expected, graph.isCyclicAfter(transactionID, incompatibleTransactions));
+            if (!expected) {
+                if (!edges.containsKey(transactionID)) {
+                    edges.put(transactionID, new HashSet<Integer>());
+                }
+                edges.get(transactionID).addAll(incompatibleTransactions);
+            }
+        }
+    }
+
+    private boolean reaches(HashMap<Integer, HashSet<Integer>> edges, int from, int to) {
+        HashSet<Integer> visited = new HashSet<Integer>();
+        LinkedList<Integer> toVisit = new LinkedList<Integer>();
+        toVisit.add(from);
+        while (!toVisit.isEmpty()) {
+            int node = toVisit.poll();
+            if (node == to) {
+                return true;
+            }
+            if (visited.add(node) && edges.containsKey(node)) {
+                toVisit.addAll(edges.get(node));
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testCheckForCyclesLargeComponent() {
+        DeadlockGraph graph = new DeadlockGraph();
+        HashSet<Integer> incompatibleTransactions = new HashSet<Integer>();
+        Random randomGenerator = new Random(42);
+        for (int transactionID = 0; transactionID < 500; transactionID++) {
+            incompatibleTransactions.clear();
+            for (int j = 0; j < 3; j++) {
+                incompatibleTransactions.add(randomGenerator.nextInt(500));
+            }
+            graph.addDependencies(transactionID, incompatibleTransactions);
+        }
+        Set<Integer> transactionsKilled = graph.checkForCycles();
+        assertEquals(true, transactionsKilled.size() > 0);
+        assertEquals(true, graph.checkForCycles().isEmpty());
+
+        // The graph is acyclic again, so the new edges are checked incrementally
+        incompatibleTransactions.clear();
+        incompatibleTransactions.add(1000);
+        assertEquals(false, graph.isCyclicAfter(1001, incompatibleTransactions));
+        incompatibleTransactions.clear();
+        incompatibleTransactions.add(1001);
+        assertEquals(true, graph.isCyclicAfter(1000, incompatibleTransactions));
+    }
+
+    @Test
+    public void testCheckForCyclesCost() {
+        // 1 waits for 2 and 3, which both wait for 1
+        DeadlockGraph graph = new DeadlockGraph();
+        HashSet<Integer> incompatibleTransactions = new HashSet<Integer>();
+        incompatibleTransactions.add(2);
+        incompatibleTransactions.add(3);
+        graph.addDependencies(1, incompatibleTransactions);
+        incompatibleTransactions.clear();
+        incompatibleTransactions.add(1);
+        graph.addDependencies(2, incompatibleTransactions);
+        graph.addDependencies(3, incompatibleTransactions);
+        DeadlockGraph copy = new DeadlockGraph(Arrays.asList(graph));
+
+        // Aborting 2 and 3 is cheaper than aborting 1
+        HashMap<Integer, TransactionCost> costs = new HashMap<Integer, TransactionCost>();
+        costs.put(1, new TransactionCost(10, 10, 0, 0));
+        costs.put(2, new TransactionCost(2, 0, 0, 0));
+        costs.put(3, new TransactionCost(1, 1, 0, 0));
+        Set<Integer> transactionsKilled = graph.checkForCycles(costs);
+        assertEquals(2, transactionsKilled.size());
+        assertEquals(true, transactionsKilled.contains(2) && transactionsKilled.contains(3));
+
+        // Aborting 1 is cheaper than aborting 2 and 3
+        costs.put(2, new TransactionCost(40, 0, 0, 0));
+        transactionsKilled = copy.checkForCycles(costs);
+        assertEquals(1, transactionsKilled.size());
+        assertEquals(true, transactionsKilled.contains(1));
+    }
+
+    @Test
+    public void testCheckForCyclesCostLargeComponent() {
+        // A ring of 100 transactions, the cheapest one is aborted
+        DeadlockGraph graph = new DeadlockGraph();
+        HashSet<Integer> incompatibleTransactions = new HashSet<Integer>();
+        HashMap<Integer, TransactionCost> costs = new HashMap<Integer, TransactionCost>();
+        for (int transactionID = 0; transactionID < 100; transactionID++) {
+            incompatibleTransactions.clear();
+            incompatibleTransactions.add((transactionID + 1) % 100);
+            graph.addDependencies(transactionID, incompatibleTransactions);
+            costs.put(transactionID, new TransactionCost(transactionID == 42 ? 0 : 5, 0, 0, 0));
+        }
+        Set<Integer> transactionsKilled = graph.checkForCycles(costs);
+        assertEquals(1, transactionsKilled.size());
+        assertEquals(true, transactionsKilled.contains(42));
+        assertEquals(true, graph.checkForCycles().isEmpty());
+    }
+
+    @Test
+    public void testGetDependenciesBetween() {
+        // 1 -> 10 -> 11 -> 2 -> 12 -> 3, 10 -> 3 and 4 -> 5, where 1, 2 and 3 are distributed
+        DeadlockGraph graph = new DeadlockGraph();
+        int[][] edges = { { 1, 10 }, { 10, 11 }, { 11, 2 }, { 2, 12 }, { 12, 3 }, { 10, 3 }, { 4, 5 } };
+        HashSet<Integer> incompatibleTransactions = new HashSet<Integer>();
+        for (int[] edge : edges) {
+            incompatibleTransactions.clear();
+            incompatibleTransactions.add(edge[1]);
+            graph.addDependencies(edge[0], incompatibleTransactions);
+        }
+        HashSet<Integer> distributed = new HashSet<Integer>(Arrays.asList(1, 2, 3));
+
+        Set<Long> dependencies = graph.getDependenciesBetween(distributed);
+        assertEquals(3, dependencies.size());
+        assertEquals(true, dependencies.contains(DeadlockGraph.dependency(1, 2)));
+        assertEquals(true, dependencies.contains(DeadlockGraph.dependency(1, 3)));
+        assertEquals(true, dependencies.contains(DeadlockGraph.dependency(2, 3)));
+        assertEquals(1, DeadlockGraph.waitingTransaction(DeadlockGraph.dependency(1, -3)));
+        assertEquals(-3, DeadlockGraph.waitedForTransaction(DeadlockGraph.dependency(1, -3)));
+
+        graph.removeTransaction(12);
+        dependencies = graph.getDependenciesBetween(distributed);
+        assertEquals(2, dependencies.size());
+        assertEquals(false, dependencies.contains(DeadlockGraph.dependency(2, 3)));
+    }
+
+    @Test
+    public void testRemoveDependency() {
+        DeadlockGraph graph = new DeadlockGraph();
+        HashSet<Integer> incompatibleTransactions = new HashSet<Integer>();
+        incompatibleTransactions.add(2);
+        graph.addDependencies(1, incompatibleTransactions);
+        incompatibleTransactions.clear();
+        incompatibleTransactions.add(3);
+        graph.addDependencies(2, incompatibleTransactions);
+
+        graph.removeDependency(1, 2);
+        graph.removeDependency(1, 3);
+        DeadlockGraph expected = new DeadlockGraph();
+        expected.addDependencies(2, incompatibleTransactions);
+        assertEquals(expected, graph);
+
+        // Without the edge from 1 to 2, the edge from 3 to 1 does not close a cycle
+        incompatibleTransactions.clear();
+        incompatibleTransactions.add(1);
+        assertEquals(false, graph.isCyclicAfter(3, incompatibleTransactions));
+        incompatibleTransactions.clear();
+        incompatibleTransactions.add(2);
+        assertEquals(true, graph.isCyclicAfter(3, incompatibleTransactions));
+    }
 }
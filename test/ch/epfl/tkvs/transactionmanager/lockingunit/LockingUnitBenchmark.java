@@ -0,0 +1,97 @@
+package ch.epfl.tkvs.transactionmanager.lockingunit;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+
+import ch.epfl.tkvs.exceptions.AbortException;
+
+
+/**
+ * Measures the throughput of the {@link LockingUnit} (lock + release per second) for an increasing number of threads.
+ * Every thread repeatedly locks and releases random keys taken from a large key space, so the requests mostly target
+ * unrelated keys and the throughput should grow with the number of threads.
+ * 
+ * Usage: LockingUnitBenchmark [maxThreads] [operationsPerThread] [numberOfKeys]
+ */
+public class LockingUnitBenchmark {
+
+    private final int operationsPerThread;
+    private final int numberOfKeys;
+
+    public LockingUnitBenchmark(int operationsPerThread, int numberOfKeys) {
+        this.operationsPerThread = operationsPerThread;
+        this.numberOfKeys = numberOfKeys;
+    }
+
+    /**
+     * Runs the benchmark with the given number of threads
+     * 
+     * @param nbThreads number of threads locking concurrently
+     * @return the throughput in lock requests per second
+     */
+    public double run(int nbThreads) throws Exception {
+        LockingUnit.instance.init();
+        final CyclicBarrier barrier = new CyclicBarrier(nbThreads + 1);
+        Thread[] threads = new Thread[nbThreads];
+
+        for (int i = 0; i < nbThreads; i++) {
+            final int threadId = i;
+            threads[i] = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    Random random = new Random(threadId);
+                    try {
+                        barrier.await();
+                        for (int op = 0; op < operationsPerThread; op++) {
+                            // Unique transaction id per operation
+                            int xid = threadId * operationsPerThread + op;
+                            String key = "Key" + random.nextInt(numberOfKeys);
+                            LockType lockType = random.nextInt(4) == 0 ? LockType.Default.WRITE_LOCK : LockType.Default.READ_LOCK;
+                            LockingUnit.instance.lock(xid, key, lockType);
+                            HashMap<Serializable, List<LockType>> held = new HashMap<>();
+                            held.put(key, Arrays.asList(lockType));
+                            LockingUnit.instance.releaseAll(xid, held);
+                        }
+                        barrier.await();
+                    } catch (AbortException e) {
+                        // A single lock per transaction cannot deadlock
+                        e.printStackTrace();
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+
+        barrier.await();
+        long start = System.nanoTime();
+        barrier.await();
+        long elapsed = System.nanoTime() - start;
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return (double) nbThreads * operationsPerThread / elapsed * 1e9;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int operationsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        int numberOfKeys = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+
+        LockingUnitBenchmark benchmark = new LockingUnitBenchmark(operationsPerThread, numberOfKeys);
+        // Warm up
+        benchmark.run(1);
+
+        System.out.println("#threads\tlocks/s");
+        for (int nbThreads = 1; nbThreads <= maxThreads; nbThreads *= 2) {
+            System.out.format("%d\t%.0f\n", nbThreads, benchmark.run(nbThreads));
+        }
+    }
+}
@@ -4,16 +4,25 @@ import static java.util.Arrays.asList;
 
 import java.io.Serializable;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import junit.framework.TestCase;
 
 import org.junit.Test;
 
 import ch.epfl.tkvs.exceptions.AbortException;
+import ch.epfl.tkvs.exceptions.DeadlockException;
+import ch.epfl.tkvs.exceptions.LockTimeoutException;
+import ch.epfl.tkvs.exceptions.WorkersBusyException;
+import ch.epfl.tkvs.transactionmanager.WaitAdmission;
 
 
 public class LockingUnitTest extends TestCase {
@@ -225,10 +234,11 @@ public class LockingUnitTest extends TestCase {
     }
 
     @Test
-    public void testDefaultLockPromote2() throws Exception {
+    public void testDefaultLockPromote2() throws Throwable {
         LockingUnit.instance.init();
-        final Semaphore t2AcquiredTheLockSem = new Semaphore(0);
-        final Semaphore t2ReleasedTheLockSem = new Semaphore(0);
+        final CountDownLatch t2Locked = new CountDownLatch(1);
+        final CountDownLatch t2Releasing = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
 
         Thread thread1 = new Thread(new Runnable() {
 
@@ -237,16 +247,14 @@ public class LockingUnitTest extends TestCase {
                 try {
                     LockingUnit.instance.lock(1, "test", LockType.Default.READ_LOCK);
 
-                    t2AcquiredTheLockSem.acquire();
+                    t2Locked.await();
                     LockingUnit.instance.promote(1, "test", asList(LockType.Default.READ_LOCK), LockType.Default.WRITE_LOCK);
 
-                    if (!t2ReleasedTheLockSem.tryAcquire()) {
-                        fail("Thread1 could promote while t2 had the lock.");
-                    }
-                } catch (InterruptedException | AbortException e1) {
-                    fail();
+                    assertEquals("Thread1 could promote while t2 had the lock.", 0, t2Releasing.getCount());
+                    LockingUnit.instance.releaseAll(1, hashMapify("test", LockType.Default.WRITE_LOCK));
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
                 }
-                LockingUnit.instance.releaseAll(1, hashMapify("test", LockType.Default.WRITE_LOCK));
             }
         });
 
@@ -256,13 +264,120 @@ public class LockingUnitTest extends TestCase {
             public void run() {
                 try {
                     LockingUnit.instance.lock(2, "test", LockType.Default.READ_LOCK);
-                    t2AcquiredTheLockSem.release();
+                    t2Locked.countDown();
 
-                    Thread.sleep(1500);
+                    Thread.sleep(500);
 
+                    t2Releasing.countDown();
                     LockingUnit.instance.releaseAll(2, hashMapify("test", LockType.Default.READ_LOCK));
-                    t2ReleasedTheLockSem.release();
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        });
+
+        thread1.start();
+        thread2.start();
+
+        thread1.join();
+        thread2.join();
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    @Test
+    public void testLockKeyAlreadyHeld() throws Exception {
+        // The table of MVCC2PL, where a transaction which wrote a key then reads it
+        Map<LockType, List<LockType>> table = new HashMap<>();
+        table.put(LockType.Default.READ_LOCK, LockCompatibilityTable.newCompatibilityList(LockType.Default.READ_LOCK, LockType.Default.WRITE_LOCK));
+        table.put(LockType.Default.WRITE_LOCK, LockCompatibilityTable.newCompatibilityList(LockType.Default.READ_LOCK));
+        LockingUnit.instance.initWithLockCompatibilityTable(table);
+
+        LockingUnit.instance.lock(1, "test", LockType.Default.WRITE_LOCK);
+        final Semaphore t3LockedSem = new Semaphore(0);
+        Thread thread3 = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    LockingUnit.instance.lock(3, "test", LockType.Default.WRITE_LOCK);
+                    t3LockedSem.release();
+                    LockingUnit.instance.releaseAll(3, hashMapify("test", LockType.Default.WRITE_LOCK));
+                } catch (AbortException e) {
+                    fail("Abort");
+                }
+            }
+        });
+        thread3.start();
+        Thread.sleep(200);
+
+        // Transaction 3 waits for transaction 1, which must not wait behind it
+        Thread thread1 = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    LockingUnit.instance.lock(1, "test", LockType.Default.READ_LOCK);
+                } catch (AbortException e) {
+                    fail("Abort");
+                }
+            }
+        });
+        thread1.start();
+        thread1.join(1000);
+        assertFalse("Transaction 1 waits behind a transaction waiting for it", thread1.isAlive());
+        assertFalse(t3LockedSem.tryAcquire());
+
+        HashMap<Serializable, List<LockType>> locks = new HashMap<>();
+        locks.put("test", asList((LockType) LockType.Default.WRITE_LOCK, LockType.Default.READ_LOCK));
+        LockingUnit.instance.releaseAll(1, locks);
+        assertTrue(t3LockedSem.tryAcquire(1000, TimeUnit.MILLISECONDS));
+        thread3.join();
+    }
+
+    @Test
+    public void testDeadlockOnDifferentKeys() throws Exception {
+        LockingUnit.instance.init();
+        final Semaphore t1LockedSem = new Semaphore(0);
+        final Semaphore t2LockedSem = new Semaphore(0);
+        check = false;
+
+        // Keys are hashed to different stripes of the lock table
+        Thread thread1 = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    LockingUnit.instance.lock(1, "key1", LockType.Default.WRITE_LOCK);
+                    t1LockedSem.release();
+                    t2LockedSem.acquire();
+                    LockingUnit.instance.lock(1, "key2", LockType.Default.WRITE_LOCK);
+
+                    HashMap<Serializable, List<LockType>> locks = hashMapify("key1", LockType.Default.WRITE_LOCK);
+                    locks.put("key2", asList((LockType) LockType.Default.WRITE_LOCK));
+                    LockingUnit.instance.releaseAll(1, locks);
                 } catch (InterruptedException | AbortException e) {
+                    fail("Thread1 should not be aborted");
+                }
+            }
+        });
+
+        Thread thread2 = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    LockingUnit.instance.lock(2, "key2", LockType.Default.WRITE_LOCK);
+                    t2LockedSem.release();
+                    t1LockedSem.acquire();
+                    Thread.sleep(500);
+                    LockingUnit.instance.lock(2, "key1", LockType.Default.WRITE_LOCK);
+                    fail("Thread2 should have been aborted");
+                } catch (AbortException e) {
+                    check = true;
+                    LockingUnit.instance.releaseAll(2, hashMapify("key2", LockType.Default.WRITE_LOCK));
+                } catch (InterruptedException e) {
                     fail();
                 }
             }
@@ -271,8 +386,324 @@ public class LockingUnitTest extends TestCase {
         thread1.start();
         thread2.start();
 
+        thread1.join(5000);
+        thread2.join(5000);
+        assertTrue("Deadlock was not detected", check);
+        assertFalse(thread1.isAlive());
+    }
+
+    @Test
+    public void testFifoGrantOrder() throws Exception {
+        LockingUnit.instance.init();
+        final List<Integer> grantOrder = Collections.synchronizedList(new LinkedList<Integer>());
+        final Semaphore readersSem = new Semaphore(0);
+
+        LockingUnit.instance.lock(1, "test", LockType.Default.WRITE_LOCK);
+
+        // Transaction 2 asks for a write lock before transactions 3 and 4 ask for a read lock
+        Thread writer = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    LockingUnit.instance.lock(2, "test", LockType.Default.WRITE_LOCK);
+                    grantOrder.add(2);
+                    // Both readers must still be waiting
+                    assertFalse("Readers were granted before the writer released", readersSem.tryAcquire(500, TimeUnit.MILLISECONDS));
+                    LockingUnit.instance.releaseAll(2, hashMapify("test", LockType.Default.WRITE_LOCK));
+                } catch (InterruptedException | AbortException e) {
+                    fail();
+                }
+            }
+        });
+        Thread[] readers = new Thread[2];
+        for (int i = 0; i < readers.length; i++) {
+            final int xid = 3 + i;
+            readers[i] = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        LockingUnit.instance.lock(xid, "test", LockType.Default.READ_LOCK);
+                        grantOrder.add(xid);
+                        readersSem.release();
+                        // Both readers are granted together
+                        if (!readersSem.tryAcquire(2, 2000, TimeUnit.MILLISECONDS)) {
+                            fail("Readers were not granted together");
+                        }
+                        readersSem.release(2);
+                        LockingUnit.instance.releaseAll(xid, hashMapify("test", LockType.Default.READ_LOCK));
+                    } catch (InterruptedException | AbortException e) {
+                        fail();
+                    }
+                }
+            });
+        }
+
+        writer.start();
+        Thread.sleep(200);
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        Thread.sleep(200);
+        assertTrue(grantOrder.isEmpty());
+        LockingUnit.instance.releaseAll(1, hashMapify("test", LockType.Default.WRITE_LOCK));
+
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertEquals(3, grantOrder.size());
+        assertEquals(Integer.valueOf(2), grantOrder.get(0));
+    }
+
+    @Test
+    public void testWaitDie() throws Exception {
+        LockingUnit.instance.init();
+        LockingUnit.instance.setDeadlockPolicy(DeadlockPolicy.WAIT_DIE, LockingUnit.DEFAULT_LOCK_WAIT_TIMEOUT_MS, null);
+        final Semaphore t1LockedSem = new Semaphore(0);
+
+        LockingUnit.instance.lock(2, "test", LockType.Default.WRITE_LOCK);
+        // A younger transaction dies instead of waiting
+        try {
+            LockingUnit.instance.lock(3, "test", LockType.Default.READ_LOCK);
+            fail("Transaction 3 should have been aborted");
+        } catch (DeadlockException e) {
+        }
+
+        // An older transaction waits
+        Thread thread1 = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    LockingUnit.instance.lock(1, "test", LockType.Default.READ_LOCK);
+                    t1LockedSem.release();
+                    LockingUnit.instance.releaseAll(1, hashMapify("test", LockType.Default.READ_LOCK));
+                } catch (AbortException e) {
+                    fail("Transaction 1 should not be aborted");
+                }
+            }
+        });
+        thread1.start();
+        assertFalse(t1LockedSem.tryAcquire(500, TimeUnit.MILLISECONDS));
+        LockingUnit.instance.releaseAll(2, hashMapify("test", LockType.Default.WRITE_LOCK));
+        assertTrue(t1LockedSem.tryAcquire(2000, TimeUnit.MILLISECONDS));
+        thread1.join();
+    }
+
+    @Test
+    public void testWoundWait() throws Exception {
+        LockingUnit.instance.init();
+        final List<Integer> wounded = Collections.synchronizedList(new LinkedList<Integer>());
+        LockingUnit.instance.setDeadlockPolicy(DeadlockPolicy.WOUND_WAIT, LockingUnit.DEFAULT_LOCK_WAIT_TIMEOUT_MS, new LockingUnit.WoundHandler() {
+
+            @Override
+            public void wound(int transactionID) {
+                wounded.add(transactionID);
+                LockingUnit.instance.wound(transactionID);
+            }
+        });
+        final Semaphore t3AbortedSem = new Semaphore(0);
+
+        LockingUnit.instance.lock(1, "key2", LockType.Default.WRITE_LOCK);
+        LockingUnit.instance.lock(3, "key1", LockType.Default.WRITE_LOCK);
+
+        // The younger transaction 3 waits for transaction 1
+        Thread thread3 = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    LockingUnit.instance.lock(3, "key2", LockType.Default.WRITE_LOCK);
+                    fail("Transaction 3 should have been wounded");
+                } catch (AbortException e) {
+                    LockingUnit.instance.releaseAll(3, hashMapify("key1", LockType.Default.WRITE_LOCK));
+                    t3AbortedSem.release();
+                }
+            }
+        });
+        thread3.start();
+        Thread.sleep(200);
+        assertTrue(wounded.isEmpty());
+
+        // The older transaction 2 wounds transaction 3 and gets its lock once it is aborted
+        LockingUnit.instance.lock(2, "key1", LockType.Default.WRITE_LOCK);
+        assertTrue(t3AbortedSem.tryAcquire(1000, TimeUnit.MILLISECONDS));
+        assertEquals(asList(3), wounded);
+        thread3.join();
+    }
+
+    @Test
+    public void testWoundWaitNotWaiting() throws Exception {
+        LockingUnit.instance.init();
+        LockingUnit.instance.setDeadlockPolicy(DeadlockPolicy.WOUND_WAIT, LockingUnit.DEFAULT_LOCK_WAIT_TIMEOUT_MS, null);
+        final Semaphore t1LockedSem = new Semaphore(0);
+
+        LockingUnit.instance.lock(3, "key1", LockType.Default.WRITE_LOCK);
+
+        // The older transaction 1 wounds transaction 3, which does not wait for a lock
+        Thread thread1 = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    LockingUnit.instance.lock(1, "key1", LockType.Default.WRITE_LOCK);
+                    t1LockedSem.release();
+                } catch (AbortException e) {
+                    fail("Transaction 1 should not abort");
+                }
+            }
+        });
+        thread1.start();
+        assertFalse(t1LockedSem.tryAcquire(200, TimeUnit.MILLISECONDS));
+
+        // Transaction 3 keeps its lock until it aborts at its next lock request
+        try {
+            LockingUnit.instance.lock(3, "key2", LockType.Default.WRITE_LOCK);
+            fail("Transaction 3 should have been wounded");
+        } catch (AbortException e) {
+            LockingUnit.instance.releaseAll(3, hashMapify("key1", LockType.Default.WRITE_LOCK));
+        }
+        assertTrue(t1LockedSem.tryAcquire(1000, TimeUnit.MILLISECONDS));
         thread1.join();
+    }
+
+    @Test
+    public void testAwaitDeadlockGraphChange() throws Exception {
+        LockingUnit.instance.init();
+        LockingUnit.instance.lock(1, "key1", LockType.Default.WRITE_LOCK);
+        long version = LockingUnit.instance.getDeadlockGraphVersion();
+        assertEquals(version, LockingUnit.instance.awaitDeadlockGraphChange(version, 100));
+
+        // Transaction 2 waits for transaction 1, which adds a dependency to the graph
+        Thread thread2 = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    LockingUnit.instance.lock(2, "key1", LockType.Default.WRITE_LOCK);
+                } catch (AbortException e) {
+                    fail("Transaction 2 should not abort");
+                }
+            }
+        });
+        thread2.start();
+        assertTrue(LockingUnit.instance.awaitDeadlockGraphChange(version, 5000) != version);
+
+        LockingUnit.instance.releaseAll(1, hashMapify("key1", LockType.Default.WRITE_LOCK));
         thread2.join();
     }
 
+    @Test
+    public void testLockWaitTimeout() throws Exception {
+        LockingUnit.instance.init();
+        LockingUnit.instance.setDeadlockPolicy(DeadlockPolicy.TIMEOUT, 300, null);
+
+        LockingUnit.instance.lock(1, "test", LockType.Default.WRITE_LOCK);
+        long start = System.currentTimeMillis();
+        try {
+            LockingUnit.instance.lock(2, "test", LockType.Default.WRITE_LOCK);
+            fail("Transaction 2 should have timed out");
+        } catch (LockTimeoutException e) {
+            assertTrue(System.currentTimeMillis() - start >= 300);
+        }
+        LockingUnit.instance.releaseAll(1, hashMapify("test", LockType.Default.WRITE_LOCK));
+
+        // The request which timed out does not hold the lock
+        LockingUnit.instance.lock(3, "test", LockType.Default.WRITE_LOCK);
+    }
+
+    @Test
+    public void testPromoteWithoutLock() throws Exception {
+        LockingUnit.instance.init();
+        LockingUnit.instance.lock(1, "test", LockType.Default.WRITE_LOCK);
+
+        // Transactions without a lock on the key queue behind each other, and do not see a deadlock
+        final Semaphore grantedSem = new Semaphore(0);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final int transactionID = i + 2;
+            threads[i] = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        LockingUnit.instance.promote(transactionID, "test", null, LockType.Default.WRITE_LOCK);
+                        grantedSem.release();
+                        LockingUnit.instance.releaseAll(transactionID, hashMapify("test", LockType.Default.WRITE_LOCK));
+                    } catch (AbortException e) {
+                        fail("Abort");
+                    }
+                }
+            });
+            threads[i].start();
+            Thread.sleep(50);
+        }
+        assertFalse(grantedSem.tryAcquire(200, TimeUnit.MILLISECONDS));
+
+        LockingUnit.instance.releaseAll(1, hashMapify("test", LockType.Default.WRITE_LOCK));
+        assertTrue(grantedSem.tryAcquire(threads.length, 1000, TimeUnit.MILLISECONDS));
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    @Test
+    public void testPromoteToWeakerLock() throws Exception {
+        LockingUnit.instance.init();
+        LockingUnit.instance.lock(1, "test", LockType.Default.WRITE_LOCK);
+
+        final CountDownLatch granted = new CountDownLatch(1);
+        Thread reader = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    LockingUnit.instance.lock(2, "test", LockType.Default.READ_LOCK);
+                    granted.countDown();
+                } catch (AbortException e) {
+                    fail("Abort");
+                }
+            }
+        });
+        reader.start();
+        assertFalse(granted.await(200, TimeUnit.MILLISECONDS));
+
+        // Giving up the write lock for a read lock lets the waiting reader in
+        LockingUnit.instance.promote(1, "test", asList(LockType.Default.WRITE_LOCK), LockType.Default.READ_LOCK);
+        assertTrue(granted.await(1000, TimeUnit.MILLISECONDS));
+        reader.join();
+
+        LockingUnit.instance.releaseAll(1, hashMapify("test", LockType.Default.READ_LOCK));
+        LockingUnit.instance.releaseAll(2, hashMapify("test", LockType.Default.READ_LOCK));
+    }
+
+    @Test
+    public void testWaitNotAdmitted() throws Exception {
+        LockingUnit.instance.init();
+        LockingUnit.instance.lock(1, "test", LockType.Default.WRITE_LOCK);
+
+        // A worker which may not wait aborts at once, and its request is not left in the queue
+        final AtomicReference<AbortException> abort = new AtomicReference<>();
+        Thread worker = new Thread(new WaitAdmission(0).bound(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    LockingUnit.instance.lock(2, "test", LockType.Default.WRITE_LOCK);
+                } catch (AbortException e) {
+                    abort.set(e);
+                }
+            }
+        }));
+        worker.start();
+        worker.join(5000);
+        assertFalse(worker.isAlive());
+        assertTrue(abort.get() instanceof WorkersBusyException);
+
+        LockingUnit.instance.releaseAll(1, hashMapify("test", LockType.Default.WRITE_LOCK));
+        LockingUnit.instance.lock(3, "test", LockType.Default.WRITE_LOCK);
+        LockingUnit.instance.releaseAll(3, hashMapify("test", LockType.Default.WRITE_LOCK));
+    }
 }
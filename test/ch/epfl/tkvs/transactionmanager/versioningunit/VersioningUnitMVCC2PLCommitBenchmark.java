@@ -0,0 +1,74 @@
+package ch.epfl.tkvs.transactionmanager.versioningunit;
+
+import ch.epfl.tkvs.keyvaluestore.KeyValueStore;
+
+
+/**
+ * Measures how fast the committed writes of the {@link VersioningUnitMVCC2PL} reach the key-value store for an
+ * increasing number of background commit threads. The transactions are committed as fast as possible, and the time is
+ * taken until the last of their writes is in the store.
+ * 
+ * Usage: VersioningUnitMVCC2PLCommitBenchmark [maxThreads] [transactions] [writesPerTransaction] [numberOfKeys]
+ */
+public class VersioningUnitMVCC2PLCommitBenchmark {
+
+    private final int transactions;
+    private final int writesPerTransaction;
+    private final int numberOfKeys;
+
+    public VersioningUnitMVCC2PLCommitBenchmark(int transactions, int writesPerTransaction, int numberOfKeys) {
+        this.transactions = transactions;
+        this.writesPerTransaction = writesPerTransaction;
+        this.numberOfKeys = numberOfKeys;
+    }
+
+    /**
+     * Runs the benchmark with the given number of background commit threads
+     * 
+     * @param commitThreads number of threads writing the committed values to the store
+     * @return the throughput in writes applied to the store per second
+     */
+    public double run(int commitThreads) throws Exception {
+        VersioningUnitMVCC2PL versioningUnit = VersioningUnitMVCC2PL.getInstance();
+        KeyValueStore.instance.clear();
+        versioningUnit.init(commitThreads);
+
+        String[] keys = new String[numberOfKeys];
+        for (int key = 0; key < numberOfKeys; key++) {
+            keys[key] = "Key" + key;
+        }
+
+        long start = System.nanoTime();
+        int key = 0;
+        for (int xid = 1; xid <= transactions; xid++) {
+            for (int write = 0; write < writesPerTransaction; write++) {
+                versioningUnit.put(xid, keys[key], "Value" + xid);
+                key = (key + 1) % numberOfKeys;
+            }
+            versioningUnit.commit(xid);
+        }
+        while (versioningUnit.getCommitBacklog() > 0) {
+            Thread.yield();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        versioningUnit.stopNow();
+        return (double) transactions * writesPerTransaction / elapsed * 1e9;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int transactions = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        int writesPerTransaction = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int numberOfKeys = args.length > 3 ? Integer.parseInt(args[3]) : 100000;
+
+        VersioningUnitMVCC2PLCommitBenchmark benchmark = new VersioningUnitMVCC2PLCommitBenchmark(transactions, writesPerTransaction, numberOfKeys);
+        // Warm up
+        benchmark.run(1);
+
+        System.out.println("#commit threads\twrites/s");
+        for (int nbThreads = 1; nbThreads <= maxThreads; nbThreads *= 2) {
+            System.out.format("%d\t%.0f\n", nbThreads, benchmark.run(nbThreads));
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package ch.epfl.tkvs.transactionmanager.versioningunit;
+
+import java.io.File;
+
+import ch.epfl.tkvs.keyvaluestore.KeyValueStore;
+import ch.epfl.tkvs.keyvaluestore.Snapshot;
+import ch.epfl.tkvs.keyvaluestore.WriteAheadLog;
+import ch.epfl.tkvs.keyvaluestore.WriteAheadLog.SyncPolicy;
+
+
+/**
+ * Measures the restart time of the {@link VersioningUnitMVCC2PL} as the history grows, when the whole log is replayed
+ * and when a snapshot is taken after each round of transactions. The transactions keep overwriting the same keys, so
+ * the snapshot keeps the same size while the history grows.
+ * 
+ * Usage: VersioningUnitMVCC2PLRecoveryBenchmark [numberOfKeys] [transactionsPerRound] [rounds]
+ */
+public class VersioningUnitMVCC2PLRecoveryBenchmark {
+
+    private final int numberOfKeys;
+    private final int transactionsPerRound;
+    private final VersioningUnitMVCC2PL versioningUnit = VersioningUnitMVCC2PL.getInstance();
+    private WriteAheadLog log;
+    private int xid = 0;
+
+    public VersioningUnitMVCC2PLRecoveryBenchmark(int numberOfKeys, int transactionsPerRound) {
+        this.numberOfKeys = numberOfKeys;
+        this.transactionsPerRound = transactionsPerRound;
+    }
+
+    // Commits transactions of 10 writes each
+    private void commit(int transactions) {
+        for (int i = 0; i < transactions; i++) {
+            xid++;
+            for (int write = 0; write < 10; write++) {
+                versioningUnit.put(xid, "Key" + ((xid * 10 + write) % numberOfKeys), "Value" + xid);
+            }
+            versioningUnit.commit(xid);
+        }
+    }
+
+    // Restarts the versioning unit, and returns the time taken to recover in ms
+    private double restart(File walFile, Snapshot snapshot) throws Exception {
+        if (log != null) {
+            log.close();
+        }
+        versioningUnit.stopNow();
+        // The heap store is lost on a restart
+        KeyValueStore.instance.clear();
+        versioningUnit.init(1);
+        long start = System.nanoTime();
+        log = new WriteAheadLog(walFile, SyncPolicy.INTERVAL, WriteAheadLog.DEFAULT_SYNC_INTERVAL_MS);
+        versioningUnit.recover(snapshot, log);
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    /**
+     * @param rounds number of rounds of transactions
+     * @param takeSnapshots whether a snapshot is taken after each round
+     */
+    public void run(int rounds, boolean takeSnapshots) throws Exception {
+        File walFile = File.createTempFile("tkvs", ".wal");
+        Snapshot snapshot = new Snapshot(new File(walFile.getPath() + ".snapshot"));
+        restart(walFile, snapshot);
+
+        for (int round = 1; round <= rounds; round++) {
+            commit(transactionsPerRound);
+            if (takeSnapshots) {
+                versioningUnit.snapshot();
+            }
+            // The tail of the log, after the snapshot
+            commit(transactionsPerRound / 10);
+            long logSize = log.getSize();
+
+            double restartMs = restart(walFile, snapshot);
+            System.out.format("%d\t%s\t%d\t%d\t%.1f\n", xid, takeSnapshots, logSize, snapshot.getFile().length(), restartMs);
+        }
+
+        log.close();
+        log = null;
+        versioningUnit.stopNow();
+        walFile.delete();
+        snapshot.getFile().delete();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numberOfKeys = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int transactionsPerRound = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        VersioningUnitMVCC2PLRecoveryBenchmark benchmark = new VersioningUnitMVCC2PLRecoveryBenchmark(numberOfKeys, transactionsPerRound);
+        // Warm up
+        benchmark.run(1, true);
+
+        System.out.println("#transactions\tsnapshots\tlog bytes\tsnapshot bytes\trestart ms");
+        benchmark.run(rounds, false);
+        benchmark.run(rounds, true);
+    }
+}
@@ -1,5 +1,8 @@
 package ch.epfl.tkvs.transactionmanager.versioningunit;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.concurrent.Semaphore;
 
 import junit.framework.TestCase;
@@ -8,6 +11,9 @@ import org.junit.Before;
 import org.junit.Test;
 
 import ch.epfl.tkvs.keyvaluestore.KeyValueStore;
+import ch.epfl.tkvs.keyvaluestore.Snapshot;
+import ch.epfl.tkvs.keyvaluestore.WriteAheadLog;
+import ch.epfl.tkvs.keyvaluestore.WriteAheadLog.SyncPolicy;
 
 
 public class VersioningUnitMVCC2PLTest extends TestCase {
@@ -16,8 +22,8 @@ public class VersioningUnitMVCC2PLTest extends TestCase {
 
     @Before
     public void setUp() throws Exception {
-        V.init();
         KeyValueStore.instance.clear();
+        V.init();
     }
 
     @Override
@@ -345,4 +351,170 @@ public class VersioningUnitMVCC2PLTest extends TestCase {
 
     }
 
+    @Test
+    public void testAbortLeavesNothing() {
+        final int xid = 1;
+        V.put(xid, "key1", "value1");
+        V.put(xid, "key2", "value2");
+        assertEquals(0, KeyValueStore.instance.size());
+        V.abort(xid);
+        assertEquals(0, KeyValueStore.instance.size());
+        assertEquals(0, V.getNumberOfWrites(xid));
+    }
+
+    @Test
+    public void testManyWrites() throws InterruptedException {
+        final int xid1 = 1, xid2 = 2;
+        for (int i = 0; i < 1000; i++) {
+            V.put(xid1, "key" + i, "value" + i);
+        }
+        for (int i = 0; i < 1000; i += 2) {
+            V.put(xid1, "key" + i, "newValue" + i);
+        }
+        assertEquals(1000, V.getNumberOfWrites(xid1));
+        V.commit(xid1);
+
+        // Wait for the background thread to write the committed values to the store
+        for (int wait = 0; wait < 100 && KeyValueStore.instance.size() < 1000; wait++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1000, KeyValueStore.instance.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals((i % 2 == 0 ? "newValue" : "value") + i, V.get(xid2, "key" + i));
+        }
+    }
+
+    @Test
+    public void testCommitBacklog() {
+        // Without the background thread, the committed writes stay in the backlog
+        V.stopNow();
+        for (int xid = 1; xid <= 3; xid++) {
+            V.put(xid, "key", "value" + xid);
+            V.put(xid, "key" + xid, "value" + xid);
+            V.commit(xid);
+        }
+        assertEquals(3, V.getCommitBacklog());
+        assertEquals(0, KeyValueStore.instance.size());
+
+        assertEquals("value3", V.get(4, "key"));
+        assertEquals("value1", V.get(4, "key1"));
+        assertEquals("value2", V.get(4, "key2"));
+        assertEquals("value3", V.get(4, "key3"));
+        assertEquals(null, V.get(4, "key4"));
+    }
+
+    @Test
+    public void testRecover() throws IOException {
+        File file = File.createTempFile("tkvs", ".wal");
+        Snapshot snapshot = new Snapshot(new File(file.getPath() + ".snapshot"));
+        try {
+            WriteAheadLog log = new WriteAheadLog(file, SyncPolicy.GROUP, WriteAheadLog.DEFAULT_SYNC_INTERVAL_MS);
+            assertEquals(0, V.recover(snapshot, log));
+            V.put(1, "key1", "value1");
+            V.put(1, "key2", "value1");
+            V.commit(1);
+            V.put(2, "key2", "value2");
+            V.commit(2);
+            V.put(3, "key3", "value3");
+            V.abort(3);
+            log.close();
+
+            // A restart loses what is in memory
+            V.stopNow();
+            KeyValueStore.instance.clear();
+            V.init();
+            log = new WriteAheadLog(file, SyncPolicy.GROUP, WriteAheadLog.DEFAULT_SYNC_INTERVAL_MS);
+            assertEquals(2, V.recover(snapshot, log));
+            log.close();
+            assertEquals("value1", V.get(4, "key1"));
+            assertEquals("value2", V.get(4, "key2"));
+            assertEquals(null, V.get(4, "key3"));
+        } finally {
+            file.delete();
+            snapshot.getFile().delete();
+        }
+    }
+
+    @Test
+    public void testSnapshot() throws IOException {
+        File file = File.createTempFile("tkvs", ".wal");
+        Snapshot snapshot = new Snapshot(new File(file.getPath() + ".snapshot"));
+        try {
+            WriteAheadLog log = new WriteAheadLog(file, SyncPolicy.GROUP, WriteAheadLog.DEFAULT_SYNC_INTERVAL_MS);
+            assertEquals(-1, V.snapshot());
+            V.recover(snapshot, log);
+            for (int xid = 1; xid <= 100; xid++) {
+                V.put(xid, "key" + xid, "value" + xid);
+                V.put(xid, "key", "value" + xid);
+                V.commit(xid);
+            }
+            long sizeBefore = log.getSize();
+            assertEquals(101, V.snapshot());
+            assertEquals(0, log.getSize());
+
+            // Written after the snapshot, only these are replayed
+            V.put(101, "key", "value101");
+            V.commit(101);
+            assertTrue(log.getSize() < sizeBefore);
+            log.close();
+
+            V.stopNow();
+            KeyValueStore.instance.clear();
+            V.init();
+            log = new WriteAheadLog(file, SyncPolicy.GROUP, WriteAheadLog.DEFAULT_SYNC_INTERVAL_MS);
+            assertEquals(1, V.recover(snapshot, log));
+            log.close();
+            assertEquals("value101", V.get(102, "key"));
+            assertEquals("value1", V.get(102, "key1"));
+            assertEquals("value100", V.get(102, "key100"));
+        } finally {
+            file.delete();
+            snapshot.getFile().delete();
+        }
+    }
+
+    @Test
+    public void testGetKeys() {
+        V.put(1, "a", "a1");
+        V.put(1, "c", "c1");
+        V.put(1, "e", "e1");
+        V.commit(1);
+        V.put(2, "b", "b2");
+        V.put(2, "z", "z2");
+
+        // The committed keys along with the ones written by the transaction itself
+        assertEquals(Arrays.asList("a", "b", "c"), V.getKeys(2, "a", "d", 10));
+        assertEquals(Arrays.asList("a", "c"), V.getKeys(3, "a", "d", 10));
+        assertEquals(Arrays.asList("b", "c"), V.getKeys(2, "b", null, 2));
+        assertEquals(Arrays.asList("e", "z"), V.getKeys(2, "d", null, 10));
+
+        assertTrue(V.isCommitted("c"));
+        assertFalse(V.isCommitted("b"));
+        assertEquals("c", V.getNextCommittedKey("b"));
+        assertEquals("c", V.getNextCommittedKey("c"));
+        assertEquals(null, V.getNextCommittedKey("f"));
+    }
+
+    @Test
+    public void testPartitionedCommit() throws InterruptedException {
+        V.init(4);
+        // Every transaction writes all the keys, the last one must win in every partition
+        for (int xid = 1; xid <= 200; xid++) {
+            for (int key = 0; key < 50; key++) {
+                V.put(xid, "key" + key, "value" + xid);
+            }
+            V.commit(xid);
+        }
+
+        for (int wait = 0; wait < 100 && V.getCommitBacklog() > 0; wait++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, V.getCommitBacklog());
+        assertEquals(50, KeyValueStore.instance.size());
+        for (int key = 0; key < 50; key++) {
+            assertEquals("value200", KeyValueStore.instance.get("key" + key));
+            assertEquals("value200", V.get(201, "key" + key));
+        }
+    }
+
 }
@@ -0,0 +1,105 @@
+package ch.epfl.tkvs.transactionmanager.versioningunit;
+
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ch.epfl.tkvs.exceptions.AbortException;
+
+
+/**
+ * Measures the read throughput of the {@link VersioningUnitMVTO} for an increasing number of threads. The keys are
+ * written once, then every thread runs read-only transactions reading random keys, so the reads should not contend and
+ * the throughput should grow with the number of threads.
+ *
+ * Usage: VersioningUnitMVTOBenchmark [maxThreads] [readsPerThread] [numberOfKeys]
+ */
+public class VersioningUnitMVTOBenchmark {
+
+    // Number of reads done by each transaction
+    private static final int READS_PER_TRANSACTION = 10;
+
+    private final int readsPerThread;
+    private final int numberOfKeys;
+
+    public VersioningUnitMVTOBenchmark(int readsPerThread, int numberOfKeys) {
+        this.readsPerThread = readsPerThread;
+        this.numberOfKeys = numberOfKeys;
+    }
+
+    /**
+     * Runs the benchmark with the given number of threads
+     *
+     * @param nbThreads number of threads reading concurrently
+     * @return the throughput in reads per second
+     */
+    public double run(int nbThreads) throws Exception {
+        final VersioningUnitMVTO versioningUnit = VersioningUnitMVTO.getInstance();
+        versioningUnit.init();
+        for (int key = 0; key < numberOfKeys; key++) {
+            versioningUnit.beginTransaction(key);
+            versioningUnit.put(key, "Key" + key, "Value" + key);
+            versioningUnit.prepareCommit(key);
+            versioningUnit.commit(key);
+        }
+
+        final AtomicInteger nextXid = new AtomicInteger(numberOfKeys);
+        final CyclicBarrier barrier = new CyclicBarrier(nbThreads + 1);
+        Thread[] threads = new Thread[nbThreads];
+
+        for (int i = 0; i < nbThreads; i++) {
+            final int threadId = i;
+            threads[i] = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    Random random = new Random(threadId);
+                    try {
+                        barrier.await();
+                        for (int op = 0; op < readsPerThread; op += READS_PER_TRANSACTION) {
+                            int xid = nextXid.getAndIncrement();
+                            versioningUnit.beginTransaction(xid);
+                            for (int read = 0; read < READS_PER_TRANSACTION; read++) {
+                                versioningUnit.get(xid, "Key" + random.nextInt(numberOfKeys));
+                            }
+                            versioningUnit.prepareCommit(xid);
+                            versioningUnit.commit(xid);
+                        }
+                        barrier.await();
+                    } catch (AbortException e) {
+                        // Read-only transactions reading committed versions cannot abort
+                        e.printStackTrace();
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+
+        barrier.await();
+        long start = System.nanoTime();
+        barrier.await();
+        long elapsed = System.nanoTime() - start;
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return (double) nbThreads * readsPerThread / elapsed * 1e9;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int readsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 500000;
+        int numberOfKeys = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+
+        VersioningUnitMVTOBenchmark benchmark = new VersioningUnitMVTOBenchmark(readsPerThread, numberOfKeys);
+        // Warm up
+        benchmark.run(1);
+
+        System.out.println("#threads\treads/s");
+        for (int nbThreads = 1; nbThreads <= maxThreads; nbThreads *= 2) {
+            System.out.format("%d\t%.0f\n", nbThreads, benchmark.run(nbThreads));
+        }
+    }
+}
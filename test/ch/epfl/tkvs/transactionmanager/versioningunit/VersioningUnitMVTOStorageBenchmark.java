@@ -0,0 +1,95 @@
+package ch.epfl.tkvs.transactionmanager.versioningunit;
+
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * Measures the cost of storing the versions of the {@link VersioningUnitMVTO}: the heap used by every version and the
+ * latency of a read. Every key is written by several transactions and no garbage collection is done, so the reads have
+ * to skip the newer versions of the chain.
+ * 
+ * Usage: VersioningUnitMVTOStorageBenchmark [numberOfKeys] [versionsPerKey] [reads]
+ */
+public class VersioningUnitMVTOStorageBenchmark {
+
+    private final int numberOfKeys;
+    private final int versionsPerKey;
+    private final int reads;
+
+    public VersioningUnitMVTOStorageBenchmark(int numberOfKeys, int versionsPerKey, int reads) {
+        this.numberOfKeys = numberOfKeys;
+        this.versionsPerKey = versionsPerKey;
+        this.reads = reads;
+    }
+
+    private static long usedMemory() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Writes the versions, then reads them from a transaction in the middle of the versions of every key
+     */
+    public void run() throws Exception {
+        VersioningUnitMVTO versioningUnit = VersioningUnitMVTO.getInstance();
+        versioningUnit.init();
+        long before = usedMemory();
+
+        // The keys are built before they are written, they are shared by the versions and not part of their cost
+        String[] keys = new String[numberOfKeys];
+        for (int key = 0; key < numberOfKeys; key++) {
+            keys[key] = "Key" + key;
+        }
+        long keysMemory = usedMemory() - before;
+
+        int xid = 0;
+        for (int version = 0; version < versionsPerKey; version++) {
+            for (int key = 0; key < numberOfKeys; key++) {
+                versioningUnit.beginTransaction(xid);
+                versioningUnit.put(xid, keys[key], xid);
+                versioningUnit.prepareCommit(xid);
+                versioningUnit.commit(xid);
+                xid++;
+            }
+        }
+        long versionsMemory = usedMemory() - before - keysMemory;
+
+        // Read from the middle of the chains, half of the versions are newer than the reader
+        int reader = xid / 2;
+        versioningUnit.beginTransaction(reader);
+        Random random = new Random(0);
+        long[] latencies = new long[reads];
+        for (int i = 0; i < reads; i++) {
+            String key = keys[random.nextInt(numberOfKeys)];
+            long start = System.nanoTime();
+            versioningUnit.get(reader, key);
+            latencies[i] = System.nanoTime() - start;
+        }
+        versioningUnit.prepareCommit(reader);
+        versioningUnit.commit(reader);
+
+        long total = 0;
+        for (long latency : latencies) {
+            total += latency;
+        }
+        Arrays.sort(latencies);
+        System.out.format("%d\t%d\t%.1f\t%.1f\t%d\t%d\n", numberOfKeys, versionsPerKey, (double) versionsMemory / xid, (double) total / reads, latencies[reads / 2], latencies[reads * 99 / 100]);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numberOfKeys = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int versionsPerKey = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int reads = args.length > 2 ? Integer.parseInt(args[2]) : 1000000;
+
+        VersioningUnitMVTOStorageBenchmark benchmark = new VersioningUnitMVTOStorageBenchmark(numberOfKeys, versionsPerKey, reads);
+        System.out.println("#keys\tversions/key\tbytes/version\tmean read ns\tp50 read ns\tp99 read ns");
+        // Warm up
+        benchmark.run();
+        benchmark.run();
+    }
+}
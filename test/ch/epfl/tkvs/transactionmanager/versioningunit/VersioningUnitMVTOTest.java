@@ -1,11 +1,24 @@
 package ch.epfl.tkvs.transactionmanager.versioningunit;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import ch.epfl.tkvs.ScheduledTestCase;
 import ch.epfl.tkvs.exceptions.AbortException;
+import ch.epfl.tkvs.keyvaluestore.Snapshot;
+import ch.epfl.tkvs.keyvaluestore.WriteAheadLog;
+import ch.epfl.tkvs.keyvaluestore.WriteAheadLog.SyncPolicy;
 
 
 public class VersioningUnitMVTOTest extends ScheduledTestCase {
@@ -121,4 +134,278 @@ public class VersioningUnitMVTOTest extends ScheduledTestCase {
         ScheduleExecutor executor = new ScheduleExecutor(schedule);
         executor.execute();
     }
+
+    @Test
+    public void testGarbageCollector() throws AbortException {
+        V.beginTransaction(1);
+        V.put(1, 1, 1);
+        V.prepareCommit(1);
+        V.commit(1);
+        V.beginTransaction(2);
+        V.put(2, 1, 2);
+        V.prepareCommit(2);
+        V.commit(2);
+        V.beginTransaction(3);
+        assertEquals(2, V.getNumberOfVersions());
+
+        // The version of 1 is hidden by the one of 2 for every alive transaction
+        V.garbageCollector(3);
+        assertEquals(1, V.getNumberOfVersions());
+        assertEquals(2, V.get(3, 1));
+    }
+
+    @Test
+    public void testScan() throws AbortException {
+        V.beginTransaction(1);
+        for (String key : new String[] { "a", "b", "c", "d" }) {
+            V.put(1, key, key + 1);
+        }
+        V.prepareCommit(1);
+        V.commit(1);
+        V.beginTransaction(2);
+        V.beginTransaction(3);
+        V.beginTransaction(4);
+        V.put(4, "bb", "bb4");
+
+        // The range is read at the timestamp of the transaction
+        Map<Serializable, Serializable> entries = V.scan(3, "b", "d", 10);
+        assertEquals(Arrays.asList("b", "c"), new ArrayList<Serializable>(entries.keySet()));
+        assertEquals("c1", entries.get("c"));
+        assertEquals(Arrays.asList("a", "b"), new ArrayList<Serializable>(V.scan(3, "a", null, 2).keySet()));
+
+        // An older transaction cannot insert a key in a scanned range anymore, but it can after the last key returned
+        V.put(2, "e", "e2");
+        try {
+            V.put(2, "ca", "ca2");
+            fail();
+        } catch (AbortException e) {
+            // Expected
+        }
+        assertEquals(null, V.get(3, "e"));
+        V.put(4, "ca", "ca4");
+        assertEquals(Arrays.asList("b", "bb", "c", "ca"), new ArrayList<Serializable>(V.scan(4, "b", "d", 10).keySet()));
+    }
+
+    @Test
+    public void testRecover() throws AbortException, IOException {
+        File file = File.createTempFile("tkvs", ".wal");
+        Snapshot snapshot = new Snapshot(new File(file.getPath() + ".snapshot"));
+        try {
+            WriteAheadLog log = new WriteAheadLog(file, SyncPolicy.COMMIT, WriteAheadLog.DEFAULT_SYNC_INTERVAL_MS);
+            assertEquals(0, V.recover(snapshot, log));
+            // Committed out of their timestamp order
+            V.beginTransaction(1);
+            V.beginTransaction(2);
+            V.put(2, 1, 2);
+            V.put(1, 2, 1);
+            V.prepareCommit(2);
+            V.commit(2);
+            V.put(1, 1, 1);
+            V.beginTransaction(3);
+            V.put(3, 3, 3);
+            V.abort(3);
+            V.prepareCommit(1);
+            V.commit(1);
+            log.close();
+
+            // After a restart, the timestamps start again but the committed values are visible
+            V.init();
+            log = new WriteAheadLog(file, SyncPolicy.COMMIT, WriteAheadLog.DEFAULT_SYNC_INTERVAL_MS);
+            assertEquals(2, V.recover(snapshot, log));
+            V.beginTransaction(1);
+            assertEquals(2, V.get(1, 1));
+            assertEquals(1, V.get(1, 2));
+            assertEquals(null, V.get(1, 3));
+            V.put(1, 2, 10);
+            V.prepareCommit(1);
+            V.commit(1);
+            log.close();
+
+            // The versions of the previous run were saved, the ones of this run win over them
+            V.init();
+            log = new WriteAheadLog(file, SyncPolicy.COMMIT, WriteAheadLog.DEFAULT_SYNC_INTERVAL_MS);
+            assertEquals(1, V.recover(snapshot, log));
+            log.close();
+            V.beginTransaction(1);
+            assertEquals(2, V.get(1, 1));
+            assertEquals(10, V.get(1, 2));
+        } finally {
+            file.delete();
+            snapshot.getFile().delete();
+        }
+    }
+
+    @Test
+    public void testSnapshot() throws AbortException, IOException {
+        File file = File.createTempFile("tkvs", ".wal");
+        Snapshot snapshot = new Snapshot(new File(file.getPath() + ".snapshot"));
+        try {
+            WriteAheadLog log = new WriteAheadLog(file, SyncPolicy.GROUP, WriteAheadLog.DEFAULT_SYNC_INTERVAL_MS);
+            assertEquals(-1, V.snapshot());
+            V.recover(snapshot, log);
+            V.beginTransaction(1);
+            V.beginTransaction(2);
+            V.put(2, 1, 2);
+            V.prepareCommit(2);
+            V.commit(2);
+            V.beginTransaction(3);
+            V.put(3, 3, 3);
+
+            // Only the committed versions are in the snapshot
+            assertEquals(1, V.snapshot());
+            assertEquals(0, log.getSize());
+
+            // Logged after the snapshot but older than its version
+            V.put(1, 1, 1);
+            V.prepareCommit(1);
+            V.commit(1);
+            V.abort(3);
+            log.close();
+
+            V.init();
+            log = new WriteAheadLog(file, SyncPolicy.GROUP, WriteAheadLog.DEFAULT_SYNC_INTERVAL_MS);
+            assertEquals(1, V.recover(snapshot, log));
+            log.close();
+            V.beginTransaction(1);
+            assertEquals(2, V.get(1, 1));
+            assertEquals(null, V.get(1, 3));
+        } finally {
+            file.delete();
+            snapshot.getFile().delete();
+        }
+    }
+
+    @Test
+    public void testConcurrentReadsAndWrites() throws InterruptedException {
+        final int nbThreads = 4;
+        final int nbKeys = 100;
+        final AtomicInteger errors = new AtomicInteger();
+        Thread[] threads = new Thread[nbThreads];
+        for (int t = 0; t < nbThreads; t++) {
+            final int thread = t;
+            threads[t] = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    // Every thread writes and reads its own keys with its own transactions
+                    for (int i = 0; i < nbKeys; i++) {
+                        int xid = thread * nbKeys + i;
+                        int key = thread * nbKeys + i;
+                        try {
+                            V.beginTransaction(xid);
+                            V.put(xid, key, xid);
+                            V.prepareCommit(xid);
+                            V.commit(xid);
+                        } catch (AbortException e) {
+                            errors.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, errors.get());
+
+        int reader = nbThreads * nbKeys;
+        V.beginTransaction(reader);
+        for (int key = 0; key < nbThreads * nbKeys; key++) {
+            assertEquals(key, V.get(reader, key));
+        }
+    }
+
+    @Test
+    public void testEagerCascadingAbort() throws AbortException {
+        // 2 reads from 1, 3 reads from 2
+        V.beginTransaction(1);
+        V.put(1, 1, 1);
+        V.beginTransaction(2);
+        assertEquals(1, V.get(2, 1));
+        V.put(2, 2, 2);
+        V.beginTransaction(3);
+        assertEquals(2, V.get(3, 2));
+
+        // Aborting 1 aborts 2 and 3 at once, their versions are gone
+        V.abort(1);
+        V.beginTransaction(4);
+        assertEquals(null, V.get(4, 2));
+        try {
+            V.prepareCommit(3);
+            fail("3 read from an aborted transaction");
+        } catch (AbortException e) {
+        }
+    }
+
+    @Test
+    public void testCommitDependencies() throws Exception {
+        // 3 reads from 1 and 2, which are not committed
+        V.beginTransaction(1);
+        V.put(1, 1, 1);
+        V.beginTransaction(2);
+        V.put(2, 2, 2);
+        V.beginTransaction(3);
+        assertEquals(1, V.get(3, 1));
+        assertEquals(2, V.get(3, 2));
+
+        final Semaphore prepared = new Semaphore(0);
+        Thread committer = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    V.prepareCommit(3);
+                    prepared.release();
+                } catch (AbortException e) {
+                }
+            }
+        });
+        committer.start();
+
+        V.prepareCommit(1);
+        V.commit(1);
+        assertEquals(false, prepared.tryAcquire(200, TimeUnit.MILLISECONDS));
+        V.prepareCommit(2);
+        V.commit(2);
+        assertEquals(true, prepared.tryAcquire(1000, TimeUnit.MILLISECONDS));
+        committer.join();
+    }
+
+    @Test
+    public void testIncrementalGarbageCollector() throws AbortException {
+        // Key 1 has two versions, key 2 only one
+        V.beginTransaction(1);
+        V.put(1, 1, 1);
+        V.put(1, 2, 1);
+        V.prepareCommit(1);
+        V.commit(1);
+        V.beginTransaction(2);
+        V.put(2, 1, 2);
+        V.prepareCommit(2);
+        V.commit(2);
+
+        // 3 is not committed, its version of key 1 is kept and looked at again by the next pass
+        V.beginTransaction(3);
+        V.put(3, 1, 3);
+        GarbageCollectionReport report = V.garbageCollector(3);
+        assertEquals(1, report.getPrunedKeys());
+        assertEquals(1, report.getReclaimedVersions());
+        assertEquals(1, report.getRemainingKeys());
+        assertEquals(3, V.getNumberOfVersions());
+
+        V.prepareCommit(3);
+        V.commit(3);
+        V.beginTransaction(4);
+        report = V.garbageCollector(4);
+        assertEquals(1, report.getPrunedKeys());
+        assertEquals(1, report.getReclaimedVersions());
+        assertEquals(0, report.getRemainingKeys());
+        assertEquals(3, V.get(4, 1));
+
+        // Nothing was written since the last pass
+        report = V.garbageCollector(4);
+        assertEquals(0, report.getPrunedKeys());
+        assertEquals(0, report.getSlices());
+    }
 }
@@ -0,0 +1,114 @@
+package ch.epfl.tkvs.yarn;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import ch.epfl.tkvs.transactionmanager.TMServer;
+import ch.epfl.tkvs.transactionmanager.algorithms.Simple2PL;
+import ch.epfl.tkvs.transactionmanager.communication.requests.BeginRequest;
+import ch.epfl.tkvs.transactionmanager.communication.requests.ReadRequest;
+import ch.epfl.tkvs.transactionmanager.communication.requests.TryCommitRequest;
+import ch.epfl.tkvs.transactionmanager.communication.requests.WriteRequest;
+import ch.epfl.tkvs.transactionmanager.communication.responses.GenericSuccessResponse;
+import ch.epfl.tkvs.transactionmanager.communication.responses.ReadResponse;
+
+
+public class RemoteTransactionManagerTest extends TestCase {
+
+    private int port;
+    private TMServer server;
+    private Thread serverThread;
+
+    @Override
+    protected void setUp() throws Exception {
+        RemoteTransactionManager.closeConnections();
+        startServer(0);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        RemoteTransactionManager.closeConnections();
+        stopServer();
+    }
+
+    private void startServer(int port) throws IOException {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.socket().bind(new InetSocketAddress(port));
+        this.port = serverChannel.socket().getLocalPort();
+        server = new TMServer(serverChannel, 1, 4, false, new Simple2PL(null, null), new HDFSLogger(RemoteTransactionManagerTest.class));
+        serverThread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                server.run();
+            }
+        });
+        serverThread.start();
+    }
+
+    private void stopServer() throws InterruptedException {
+        server.stop();
+        serverThread.join();
+    }
+
+    @Test
+    public void testOneConnectionPerTransactionManager() throws Exception {
+        final RemoteTransactionManager tm = new RemoteTransactionManager("localhost", port);
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        for (int i = 0; i < 50; i++) {
+            final int transactionId = 8000 + i;
+            results.add(threads.submit(new Callable<Boolean>() {
+
+                @Override
+                public Boolean call() throws Exception {
+                    String key = "remote" + transactionId;
+                    boolean success = ((GenericSuccessResponse) tm.sendMessage(new BeginRequest(transactionId), true)).getSuccess();
+                    success &= ((GenericSuccessResponse) tm.sendMessage(new WriteRequest(transactionId, key, key, 0), true)).getSuccess();
+                    ReadResponse read = (ReadResponse) tm.sendMessage(new ReadRequest(transactionId, key, 0), true);
+                    success &= read.getSuccess() && key.equals(read.getValue());
+                    success &= ((GenericSuccessResponse) tm.sendMessage(new TryCommitRequest(transactionId), true)).getSuccess();
+                    return success;
+                }
+            }));
+        }
+        for (Future<Boolean> result : results) {
+            assertTrue(result.get());
+        }
+        threads.shutdown();
+
+        // The requests of all the threads went through the same connection
+        assertEquals(1, RemoteTransactionManager.getOpenConnections());
+    }
+
+    @Test
+    public void testReconnect() throws Exception {
+        RemoteTransactionManager tm = new RemoteTransactionManager("localhost", port);
+        assertTrue(((GenericSuccessResponse) tm.sendMessage(new BeginRequest(8100), true)).getSuccess());
+
+        // The transaction manager restarts, the connection to it fails
+        stopServer();
+        try {
+            tm.sendMessage(new BeginRequest(8101), true);
+            fail("The connection should have failed");
+        } catch (IOException e) {
+            // Expected
+        }
+        startServer(port);
+
+        assertTrue(((GenericSuccessResponse) tm.sendMessage(new BeginRequest(8102), true)).getSuccess());
+        assertEquals(1, RemoteTransactionManager.getOpenConnections());
+    }
+}
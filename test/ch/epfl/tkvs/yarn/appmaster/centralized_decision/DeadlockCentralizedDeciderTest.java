@@ -0,0 +1,43 @@
+package ch.epfl.tkvs.yarn.appmaster.centralized_decision;
+
+import static ch.epfl.tkvs.transactionmanager.lockingunit.DeadlockGraph.dependency;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import ch.epfl.tkvs.transactionmanager.communication.DeadlockDeltaMessage;
+import ch.epfl.tkvs.transactionmanager.communication.utils.Message2JSONConverter;
+import ch.epfl.tkvs.transactionmanager.lockingunit.DeadlockGraphDelta;
+import ch.epfl.tkvs.transactionmanager.lockingunit.TransactionCost;
+
+
+public class DeadlockCentralizedDeciderTest {
+
+    private final DeadlockCentralizedDecider decider = new DeadlockCentralizedDecider();
+
+    private void send(int tm, long sequenceNumber, long[] added, long[] removed) throws Exception {
+        DeadlockGraphDelta delta = new DeadlockGraphDelta(tm, sequenceNumber, added, removed, new HashMap<Integer, TransactionCost>());
+        decider.handleMessage(Message2JSONConverter.toJSON(new DeadlockDeltaMessage(delta)), null);
+    }
+
+    @Test
+    public void testRestartedTM() throws Exception {
+        // The TM 40 reports that 4001 waits for 4002, then restarts and reports nothing
+        send(40, 0, new long[] { dependency(4001, 4002) }, new long[0]);
+        send(40, 1, new long[0], new long[0]);
+        send(40, 0, new long[0], new long[0]);
+        send(40, 1, new long[0], new long[0]);
+        // Delivered again, it is not applied twice
+        send(40, 1, new long[] { dependency(4001, 4002) }, new long[0]);
+
+        // The dependency of the previous process does not close a cycle
+        send(41, 0, new long[] { dependency(4002, 4001) }, new long[0]);
+        assertFalse(decider.readyToDecide());
+
+        send(40, 2, new long[] { dependency(4001, 4002) }, new long[0]);
+        assertTrue(decider.readyToDecide());
+    }
+}